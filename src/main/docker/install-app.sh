@@ -27,6 +27,9 @@ echo "pulling the docker image (anonymous pull from public GHCR)"
 # image ref like: ghcr.io/galvinc537/mailmerge:<sha>
 docker pull "${CI_REGISTRY_IMAGE}:${CI_COMMIT_TAG}"
 
+echo "preparing the blob store volumes (the app container runs as uid 1000)"
+mkdir -p ~/dev/volumes/mailmerge/blobs ~/prd/volumes/mailmerge/blobs
+
 echo "configuring the development docker compose script"
 # expects line 4 to contain 'image: "teamproject:latest"' (JHipster template)
 sed -i "4s|teamproject|${CI_REGISTRY_IMAGE}|" ~/team-project/dev.yml
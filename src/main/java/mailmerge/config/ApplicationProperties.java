@@ -1,5 +1,6 @@
 package mailmerge.config;
 
+import java.time.Duration;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 /**
@@ -13,12 +14,30 @@ public class ApplicationProperties {
 
     private final Liquibase liquibase = new Liquibase();
 
+    private final MailMerge mailMerge = new MailMerge();
+
+    private final BlobStore blobStore = new BlobStore();
+
+    private final TokenEncryption tokenEncryption = new TokenEncryption();
+
     // jhipster-needle-application-properties-property
 
     public Liquibase getLiquibase() {
         return liquibase;
     }
 
+    public MailMerge getMailMerge() {
+        return mailMerge;
+    }
+
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    public TokenEncryption getTokenEncryption() {
+        return tokenEncryption;
+    }
+
     // jhipster-needle-application-properties-property-getter
 
     public static class Liquibase {
@@ -33,5 +52,500 @@ public class ApplicationProperties {
             this.asyncStart = asyncStart;
         }
     }
+
+    public static class MailMerge {
+
+        /** Merge jobs that can run at the same time. */
+        private int jobThreads = 4;
+
+        /** Jobs waiting for a free thread before submissions are rejected with 503. */
+        private int jobQueueCapacity = 100;
+
+        /** How long finished jobs stay queryable under /api/mail-merge/jobs/{id}. */
+        private Duration jobRetention = Duration.ofHours(24);
+
+        /** Graph sendMail calls in flight per job, unless the request asks for another value. */
+        private int sendConcurrency = 4;
+
+        /** Threads shared by all jobs for sending; also the cap on any one job's concurrency. */
+        private int sendThreads = 16;
+
+        /**
+         * Messages per Graph JSON $batch request (max 20). 1 sends each message with its own
+         * /me/sendMail call.
+         */
+        private int batchSize = 1;
+
+        /** Per-mailbox Graph send rate limiting. */
+        private final RateLimit rateLimit = new RateLimit();
+
+        /** Retries of transient send failures. */
+        private final Retry retry = new Retry();
+
+        /** Durable outbox (email table) the send worker drains. */
+        private final Outbox outbox = new Outbox();
+
+        /** Coalesced SSE progress snapshots. */
+        private final Progress progress = new Progress();
+
+        public int getJobThreads() {
+            return jobThreads;
+        }
+
+        public void setJobThreads(int jobThreads) {
+            this.jobThreads = jobThreads;
+        }
+
+        public int getJobQueueCapacity() {
+            return jobQueueCapacity;
+        }
+
+        public void setJobQueueCapacity(int jobQueueCapacity) {
+            this.jobQueueCapacity = jobQueueCapacity;
+        }
+
+        public Duration getJobRetention() {
+            return jobRetention;
+        }
+
+        public void setJobRetention(Duration jobRetention) {
+            this.jobRetention = jobRetention;
+        }
+
+        public int getSendConcurrency() {
+            return sendConcurrency;
+        }
+
+        public void setSendConcurrency(int sendConcurrency) {
+            this.sendConcurrency = sendConcurrency;
+        }
+
+        public int getSendThreads() {
+            return sendThreads;
+        }
+
+        public void setSendThreads(int sendThreads) {
+            this.sendThreads = sendThreads;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public RateLimit getRateLimit() {
+            return rateLimit;
+        }
+
+        public Retry getRetry() {
+            return retry;
+        }
+
+        public Outbox getOutbox() {
+            return outbox;
+        }
+
+        public Progress getProgress() {
+            return progress;
+        }
+
+        /**
+         * Merge jobs write their rendered rows to the email table; a scheduled worker claims
+         * due rows and sends them. A claimed row is leased for {@code lease}; if the instance
+         * dies before writing the result, the row is sent again once the lease runs out.
+         */
+        public static class Outbox {
+
+            /** Pause between drains when the outbox has nothing due. */
+            private Duration pollInterval = Duration.ofSeconds(1);
+
+            /** Most rows a job claims per round (fewer while its mailbox is rate-limited). */
+            private int claimSize = 50;
+
+            /** Renewed while claimed rows wait to be sent; only runs out if the claiming instance stops. */
+            private Duration lease = Duration.ofMinutes(10);
+
+            /** Rendered rows written per JDBC batch insert. */
+            private int insertBatchSize = 500;
+
+            /** Jobs drained at the same time (each round on its own drain thread). */
+            private int drainThreads = 4;
+
+            public Duration getPollInterval() {
+                return pollInterval;
+            }
+
+            public void setPollInterval(Duration pollInterval) {
+                this.pollInterval = pollInterval;
+            }
+
+            public int getClaimSize() {
+                return claimSize;
+            }
+
+            public void setClaimSize(int claimSize) {
+                this.claimSize = claimSize;
+            }
+
+            public Duration getLease() {
+                return lease;
+            }
+
+            public void setLease(Duration lease) {
+                this.lease = lease;
+            }
+
+            public int getInsertBatchSize() {
+                return insertBatchSize;
+            }
+
+            public void setInsertBatchSize(int insertBatchSize) {
+                this.insertBatchSize = insertBatchSize;
+            }
+
+            public int getDrainThreads() {
+                return drainThreads;
+            }
+
+            public void setDrainThreads(int drainThreads) {
+                this.drainThreads = drainThreads;
+            }
+        }
+
+        /**
+         * Rows only update a job's counters; a scheduled flush sends each changed job one
+         * snapshot per {@code interval}, and a final one once the job has finished.
+         */
+        public static class Progress {
+
+            /** Time between snapshots of a running job. */
+            private Duration interval = Duration.ofMillis(250);
+
+            /** Latest failed rows included in each snapshot. */
+            private int recentFailures = 10;
+
+            /** Events kept per job for replay to reconnecting clients (Last-Event-ID). */
+            private int replaySize = 100;
+
+            /** How long a job's replay buffer is kept after its last event. */
+            private Duration replayRetention = Duration.ofMinutes(10);
+
+            /**
+             * How events reach the instance holding a browser's stream: {@code memory} (one
+             * instance) or {@code postgres} (LISTEN/NOTIFY, for several instances).
+             */
+            private String bus = "memory";
+
+            /** Threads writing SSE events to browsers (never the threads doing the sends). */
+            private int dispatchThreads = 2;
+
+            /**
+             * Most dispatch threads at once. A write to a dead connection holds its thread
+             * until the server's socket write timeout fails it; the pool grows meanwhile.
+             */
+            private int maxDispatchThreads = 64;
+
+            /** Events queued per browser; when full, the oldest is dropped. */
+            private int clientQueueSize = 64;
+
+            /**
+             * Time between heartbeat pings; a browser whose write has not returned within
+             * one interval is dropped.
+             */
+            private Duration heartbeatInterval = Duration.ofSeconds(15);
+
+            public Duration getInterval() {
+                return interval;
+            }
+
+            public void setInterval(Duration interval) {
+                this.interval = interval;
+            }
+
+            public int getRecentFailures() {
+                return recentFailures;
+            }
+
+            public void setRecentFailures(int recentFailures) {
+                this.recentFailures = recentFailures;
+            }
+
+            public int getReplaySize() {
+                return replaySize;
+            }
+
+            public void setReplaySize(int replaySize) {
+                this.replaySize = replaySize;
+            }
+
+            public Duration getReplayRetention() {
+                return replayRetention;
+            }
+
+            public void setReplayRetention(Duration replayRetention) {
+                this.replayRetention = replayRetention;
+            }
+
+            public String getBus() {
+                return bus;
+            }
+
+            public void setBus(String bus) {
+                this.bus = bus;
+            }
+
+            public int getDispatchThreads() {
+                return dispatchThreads;
+            }
+
+            public void setDispatchThreads(int dispatchThreads) {
+                this.dispatchThreads = dispatchThreads;
+            }
+
+            public int getMaxDispatchThreads() {
+                return maxDispatchThreads;
+            }
+
+            public void setMaxDispatchThreads(int maxDispatchThreads) {
+                this.maxDispatchThreads = maxDispatchThreads;
+            }
+
+            public int getClientQueueSize() {
+                return clientQueueSize;
+            }
+
+            public void setClientQueueSize(int clientQueueSize) {
+                this.clientQueueSize = clientQueueSize;
+            }
+
+            public Duration getHeartbeatInterval() {
+                return heartbeatInterval;
+            }
+
+            public void setHeartbeatInterval(Duration heartbeatInterval) {
+                this.heartbeatInterval = heartbeatInterval;
+            }
+        }
+
+        /**
+         * Retry policy for transient send failures (network errors, 5xx, exhausted throttling).
+         * Backoff doubles from initial-backoff up to max-backoff, with full jitter.
+         */
+        public static class Retry {
+
+            /** Attempts per row, including the first send. */
+            private int maxAttempts = 4;
+
+            private Duration initialBackoff = Duration.ofSeconds(2);
+
+            private Duration maxBackoff = Duration.ofSeconds(60);
+
+            /** Retries one job may spend in total, so a Graph outage cannot stall a large job for hours. */
+            private int jobBudget = 200;
+
+            public int getMaxAttempts() {
+                return maxAttempts;
+            }
+
+            public void setMaxAttempts(int maxAttempts) {
+                this.maxAttempts = maxAttempts;
+            }
+
+            public Duration getInitialBackoff() {
+                return initialBackoff;
+            }
+
+            public void setInitialBackoff(Duration initialBackoff) {
+                this.initialBackoff = initialBackoff;
+            }
+
+            public Duration getMaxBackoff() {
+                return maxBackoff;
+            }
+
+            public void setMaxBackoff(Duration maxBackoff) {
+                this.maxBackoff = maxBackoff;
+            }
+
+            public int getJobBudget() {
+                return jobBudget;
+            }
+
+            public void setJobBudget(int jobBudget) {
+                this.jobBudget = jobBudget;
+            }
+        }
+
+        /**
+         * Adaptive token bucket per sending mailbox. Exchange Online allows 30 messages per
+         * minute per mailbox by default; the rate moves between min and max depending on
+         * whether Graph accepts or throttles (429/503) the sends.
+         */
+        public static class RateLimit {
+
+            private double initialPerMinute = 30;
+
+            private double minPerMinute = 2;
+
+            private double maxPerMinute = 60;
+
+            /** Added to the rate after every accepted send. */
+            private double increasePerMinute = 0.5;
+
+            /** Rate multiplier after a throttling response. */
+            private double decreaseFactor = 0.5;
+
+            /** Permits that can be used back to back after an idle period. */
+            private int burst = 5;
+
+            /** Pause used when a throttling response has no Retry-After header. */
+            private Duration defaultRetryAfter = Duration.ofSeconds(10);
+
+            /** Times one message is re-sent after being throttled before it counts as failed. */
+            private int maxThrottleRetries = 3;
+
+            public double getInitialPerMinute() {
+                return initialPerMinute;
+            }
+
+            public void setInitialPerMinute(double initialPerMinute) {
+                this.initialPerMinute = initialPerMinute;
+            }
+
+            public double getMinPerMinute() {
+                return minPerMinute;
+            }
+
+            public void setMinPerMinute(double minPerMinute) {
+                this.minPerMinute = minPerMinute;
+            }
+
+            public double getMaxPerMinute() {
+                return maxPerMinute;
+            }
+
+            public void setMaxPerMinute(double maxPerMinute) {
+                this.maxPerMinute = maxPerMinute;
+            }
+
+            public double getIncreasePerMinute() {
+                return increasePerMinute;
+            }
+
+            public void setIncreasePerMinute(double increasePerMinute) {
+                this.increasePerMinute = increasePerMinute;
+            }
+
+            public double getDecreaseFactor() {
+                return decreaseFactor;
+            }
+
+            public void setDecreaseFactor(double decreaseFactor) {
+                this.decreaseFactor = decreaseFactor;
+            }
+
+            public int getBurst() {
+                return burst;
+            }
+
+            public void setBurst(int burst) {
+                this.burst = burst;
+            }
+
+            public Duration getDefaultRetryAfter() {
+                return defaultRetryAfter;
+            }
+
+            public void setDefaultRetryAfter(Duration defaultRetryAfter) {
+                this.defaultRetryAfter = defaultRetryAfter;
+            }
+
+            public int getMaxThrottleRetries() {
+                return maxThrottleRetries;
+            }
+
+            public void setMaxThrottleRetries(int maxThrottleRetries) {
+                this.maxThrottleRetries = maxThrottleRetries;
+            }
+        }
+    }
+
+    /**
+     * Content-addressed store for the bytes of project spreadsheets and attachments; their
+     * rows only keep the blob's key, size and hash.
+     */
+    public static class BlobStore {
+
+        /**
+         * Directory of the local store. Instances that share a database must share this
+         * directory too (e.g. a mounted volume).
+         */
+        private String root = "data/blobs";
+
+        /**
+         * Create the root if it does not exist. Off in prod, where a missing root means the
+         * volume is not mounted and blobs would be lost with the container.
+         */
+        private boolean createRoot = true;
+
+        /** Unreferenced blobs younger than this are kept (they may belong to a save in flight). */
+        private Duration orphanGracePeriod = Duration.ofHours(24);
+
+        public String getRoot() {
+            return root;
+        }
+
+        public void setRoot(String root) {
+            this.root = root;
+        }
+
+        public boolean isCreateRoot() {
+            return createRoot;
+        }
+
+        public void setCreateRoot(boolean createRoot) {
+            this.createRoot = createRoot;
+        }
+
+        public Duration getOrphanGracePeriod() {
+            return orphanGracePeriod;
+        }
+
+        public void setOrphanGracePeriod(Duration orphanGracePeriod) {
+            this.orphanGracePeriod = orphanGracePeriod;
+        }
+    }
+
+    /**
+     * Key for the users' Graph access and refresh tokens kept in {@code oauth2_authorized_client}
+     * (AES-256-GCM, key derived from the password and salt). Changing it signs every user
+     * out of background sends until they log in again.
+     */
+    public static class TokenEncryption {
+
+        private String password;
+
+        /** Hex-encoded, at least 8 bytes. */
+        private String salt;
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        public String getSalt() {
+            return salt;
+        }
+
+        public void setSalt(String salt) {
+            this.salt = salt;
+        }
+    }
     // jhipster-needle-application-properties-property-class
 }
@@ -4,13 +4,18 @@
 
 package mailmerge.config;
 
+import mailmerge.security.oauth2.EncryptingOAuth2AuthorizedClientService;
+import mailmerge.service.graph.GraphAuthorizedClients;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.security.oauth2.client.*;
 import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
 import org.springframework.security.oauth2.client.web.AuthenticatedPrincipalOAuth2AuthorizedClientRepository;
 import org.springframework.security.oauth2.client.web.DefaultOAuth2AuthorizedClientManager;
 import org.springframework.security.oauth2.client.web.reactive.function.client.ServletOAuth2AuthorizedClientExchangeFilterFunction;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.client.WebClient;
 
 @Configuration
@@ -39,9 +44,52 @@ public class GraphClientConfig {
         return authorizedClientManager;
     }
 
+    /**
+     * Users' Graph tokens (access + refresh) in the oauth2_authorized_client table instead of
+     * memory, so the mail merge outbox worker can still send for a user after a restart.
+     *
+     * The token values are encrypted with application.token-encryption (see
+     * EncryptingOAuth2AuthorizedClientService); the rest of the row is plain. The table still
+     * tells who has signed in and when their tokens expire, so only the application's
+     * database login should be able to read it.
+     */
     @Bean
-    public WebClient graphWebClient(OAuth2AuthorizedClientManager authorizedClientManager) {
-        var oauth2 = new ServletOAuth2AuthorizedClientExchangeFilterFunction(authorizedClientManager);
+    public OAuth2AuthorizedClientService authorizedClientService(
+        JdbcOperations jdbcOperations,
+        ClientRegistrationRepository clientRegistrationRepository,
+        ApplicationProperties applicationProperties
+    ) {
+        ApplicationProperties.TokenEncryption key = applicationProperties.getTokenEncryption();
+        if (!StringUtils.hasText(key.getPassword()) || !StringUtils.hasText(key.getSalt())) {
+            throw new IllegalStateException(
+                "application.token-encryption.password and .salt must be set to store OAuth2 tokens (GRAPH_TOKEN_ENCRYPTION_PASSWORD / _SALT)"
+            );
+        }
+
+        return new EncryptingOAuth2AuthorizedClientService(
+            new JdbcOAuth2AuthorizedClientService(jdbcOperations, clientRegistrationRepository),
+            Encryptors.delux(key.getPassword(), key.getSalt())
+        );
+    }
+
+    /**
+     * Merge jobs call Graph from background threads (no HttpServletRequest, no user in the
+     * SecurityContext), so the outbox worker resolves the owner's token here, by the principal
+     * name stored with the job, and hands it to each Graph request.
+     */
+    @Bean
+    public GraphAuthorizedClients graphAuthorizedClients(
+        ClientRegistrationRepository clientRegistrationRepository,
+        OAuth2AuthorizedClientService authorizedClientService
+    ) {
+        return new GraphAuthorizedClients(clientRegistrationRepository, authorizedClientService);
+    }
+
+    @Bean
+    public WebClient graphWebClient(GraphAuthorizedClients graphAuthorizedClients) {
+        // A request with an oauth2AuthorizedClient attribute (GraphSender) uses that client;
+        // otherwise the token of the user signed in to the current request
+        var oauth2 = new ServletOAuth2AuthorizedClientExchangeFilterFunction(graphAuthorizedClients.getManager());
         oauth2.setDefaultOAuth2AuthorizedClient(true);
 
         return WebClient.builder()
@@ -50,5 +98,3 @@ public class GraphClientConfig {
             .build();
     }
 }
-
-
@@ -0,0 +1,103 @@
+package mailmerge.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Infrastructure for background mail merge jobs.
+ */
+@Configuration
+public class MailMergeConfiguration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MailMergeConfiguration.class);
+
+    /**
+     * Dedicated pool for merge jobs, so long-running sends never occupy servlet threads or
+     * the shared @Async executor. Fixed size: jobs are few and long-lived.
+     */
+    @Bean(name = "mailMergeExecutor")
+    public ThreadPoolTaskExecutor mailMergeExecutor(ApplicationProperties applicationProperties) {
+        ApplicationProperties.MailMerge mailMerge = applicationProperties.getMailMerge();
+        LOG.debug("Creating mail merge executor with {} threads", mailMerge.getJobThreads());
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(mailMerge.getJobThreads());
+        executor.setMaxPoolSize(mailMerge.getJobThreads());
+        executor.setQueueCapacity(mailMerge.getJobQueueCapacity());
+        executor.setThreadNamePrefix("mail-merge-");
+        return executor;
+    }
+
+    /**
+     * Pool the jobs hand their individual Graph sends to. Its size is the global cap on
+     * concurrent sends; each job limits its own share with a BoundedExecutor.
+     */
+    @Bean(name = "mailMergeSendExecutor")
+    public ThreadPoolTaskExecutor mailMergeSendExecutor(ApplicationProperties applicationProperties) {
+        int threads = applicationProperties.getMailMerge().getSendThreads();
+        LOG.debug("Creating mail merge send executor with {} threads", threads);
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("mail-merge-send-");
+        return executor;
+    }
+
+    /**
+     * Scheduler for the outbox drain alone, which renews the leases of rows waiting to be
+     * sent: on the shared scheduling pool, busy progress snapshots, SSE heartbeats or blob
+     * maintenance could hold a renewal up until the lease ran out.
+     */
+    @Bean(name = "mailOutboxScheduler")
+    public ThreadPoolTaskScheduler mailOutboxScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("mail-outbox-");
+        return scheduler;
+    }
+
+    /**
+     * Pool the outbox drain runs each job's rounds on, so jobs are sent side by side and
+     * one throttled mailbox never holds up the others.
+     */
+    @Bean(name = "mailOutboxExecutor")
+    public ThreadPoolTaskExecutor mailOutboxExecutor(ApplicationProperties applicationProperties) {
+        int threads = applicationProperties.getMailMerge().getOutbox().getDrainThreads();
+        LOG.debug("Creating mail outbox executor with {} threads", threads);
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("mail-outbox-job-");
+        return executor;
+    }
+
+    /**
+     * Pool writing progress events to browsers, so a slow client never blocks the thread
+     * that produced the event. Each client is written by at most one thread at a time.
+     *
+     * Elastic: a write to a dead connection blocks its thread until the socket write timeout
+     * (server.undertow.options.socket.WRITE_TIMEOUT) fails it, so rather than queue the other
+     * clients behind it, the pool starts another thread, up to max-dispatch-threads. Extra
+     * threads go away once idle.
+     */
+    @Bean(name = "mailProgressExecutor")
+    public ThreadPoolTaskExecutor mailProgressExecutor(ApplicationProperties applicationProperties) {
+        ApplicationProperties.MailMerge.Progress progress = applicationProperties.getMailMerge().getProgress();
+        int threads = Math.max(1, progress.getDispatchThreads());
+        int maxThreads = Math.max(threads, progress.getMaxDispatchThreads());
+        LOG.debug("Creating mail progress executor with {} to {} threads", threads, maxThreads);
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(maxThreads);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("mail-progress-");
+        return executor;
+    }
+}
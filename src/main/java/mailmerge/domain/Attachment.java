@@ -20,14 +20,17 @@ public class Attachment implements Serializable {
 
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sequenceGenerator")
-    @SequenceGenerator(name = "sequenceGenerator")
+    @SequenceGenerator(name = "sequenceGenerator", sequenceName = "sequence_generator", allocationSize = 50)
     @Column(name = "id")
     private Long id;
 
-    // File content (binary)
-    @Lob
-    @Column(name = "file", nullable = false)
-    private byte[] file;
+    // File content: its key in the blob store (the bytes are not in this row)
+    @Column(name = "file_blob_key", length = 64)
+    private String fileBlobKey;
+
+    // SHA-256 of the file content (hex)
+    @Column(name = "file_sha256", length = 64)
+    private String fileSha256;
 
     // MIME type for file (e.g. 'application/pdf', 'image/png')
     @NotNull
@@ -39,7 +42,7 @@ public class Attachment implements Serializable {
     @Column(name = "name", nullable = false)
     private String name;
 
-    // File size in bytes
+    // File size in bytes (of the stored blob)
     @Column(name = "size")
     private Long size;
 
@@ -68,17 +71,30 @@ public class Attachment implements Serializable {
         this.id = id;
     }
 
-    public byte[] getFile() {
-        return this.file;
+    public String getFileBlobKey() {
+        return this.fileBlobKey;
+    }
+
+    public Attachment fileBlobKey(String fileBlobKey) {
+        this.setFileBlobKey(fileBlobKey);
+        return this;
+    }
+
+    public void setFileBlobKey(String fileBlobKey) {
+        this.fileBlobKey = fileBlobKey;
+    }
+
+    public String getFileSha256() {
+        return this.fileSha256;
     }
 
-    public Attachment file(byte[] file) {
-        this.setFile(file);
+    public Attachment fileSha256(String fileSha256) {
+        this.setFileSha256(fileSha256);
         return this;
     }
 
-    public void setFile(byte[] file) {
-        this.file = file;
+    public void setFileSha256(String fileSha256) {
+        this.fileSha256 = fileSha256;
     }
 
     public String getFileContentType() {
@@ -170,7 +186,7 @@ public class Attachment implements Serializable {
     public String toString() {
         return "Attachment{" +
             "id=" + getId() +
-            ", file='" + getFile() + "'" +
+            ", fileBlobKey='" + getFileBlobKey() + "'" +
             ", fileContentType='" + getFileContentType() + "'" +
             ", name='" + getName() + "'" +
             ", size=" + getSize() +
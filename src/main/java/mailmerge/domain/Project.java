@@ -24,7 +24,7 @@ public class Project implements Serializable {
 
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sequenceGenerator")
-    @SequenceGenerator(name = "sequenceGenerator")
+    @SequenceGenerator(name = "sequenceGenerator", sequenceName = "sequence_generator", allocationSize = 50)
     @Column(name = "id")
     private Long id;
 
@@ -37,9 +37,15 @@ public class Project implements Serializable {
     @Column(name = "spreadsheet_name")
     private String spreadsheetName;
 
-    @Lob
-    @Column(name = "spreadsheet_link")
-    private byte[] spreadsheetLink;
+    // The spreadsheet's bytes are in the blob store (not in this row, nor the entity cache)
+    @Column(name = "spreadsheet_blob_key", length = 64)
+    private String spreadsheetBlobKey;
+
+    @Column(name = "spreadsheet_size")
+    private Long spreadsheetSize;
+
+    @Column(name = "spreadsheet_sha256", length = 64)
+    private String spreadsheetSha256;
 
     @Column(name = "spreadsheet_link_content_type")
     private String spreadsheetLinkContentType;
@@ -133,17 +139,43 @@ public class Project implements Serializable {
         this.spreadsheetName = spreadsheetName;
     }
 
-    public byte[] getSpreadsheetLink() {
-        return this.spreadsheetLink;
+    public String getSpreadsheetBlobKey() {
+        return this.spreadsheetBlobKey;
+    }
+
+    public Project spreadsheetBlobKey(String spreadsheetBlobKey) {
+        this.setSpreadsheetBlobKey(spreadsheetBlobKey);
+        return this;
+    }
+
+    public void setSpreadsheetBlobKey(String spreadsheetBlobKey) {
+        this.spreadsheetBlobKey = spreadsheetBlobKey;
+    }
+
+    public Long getSpreadsheetSize() {
+        return this.spreadsheetSize;
+    }
+
+    public Project spreadsheetSize(Long spreadsheetSize) {
+        this.setSpreadsheetSize(spreadsheetSize);
+        return this;
+    }
+
+    public void setSpreadsheetSize(Long spreadsheetSize) {
+        this.spreadsheetSize = spreadsheetSize;
+    }
+
+    public String getSpreadsheetSha256() {
+        return this.spreadsheetSha256;
     }
 
-    public Project spreadsheetLink(byte[] spreadsheetLink) {
-        this.setSpreadsheetLink(spreadsheetLink);
+    public Project spreadsheetSha256(String spreadsheetSha256) {
+        this.setSpreadsheetSha256(spreadsheetSha256);
         return this;
     }
 
-    public void setSpreadsheetLink(byte[] spreadsheetLink) {
-        this.spreadsheetLink = spreadsheetLink;
+    public void setSpreadsheetSha256(String spreadsheetSha256) {
+        this.spreadsheetSha256 = spreadsheetSha256;
     }
 
     public String getSpreadsheetLinkContentType() {
@@ -395,7 +427,8 @@ public class Project implements Serializable {
             "id=" + getId() +
             ", name='" + getName() + "'" +
             ", spreadsheetName='" + getSpreadsheetName() + "'" +
-            ", spreadsheetLink='" + getSpreadsheetLink() + "'" +
+            ", spreadsheetBlobKey='" + getSpreadsheetBlobKey() + "'" +
+            ", spreadsheetSize=" + getSpreadsheetSize() +
             ", spreadsheetLinkContentType='" + getSpreadsheetLinkContentType() + "'" +
             ", spreadsheetFileContentType='" + getSpreadsheetFileContentType() + "'" +
             ", toField='" + getToField() + "'" +
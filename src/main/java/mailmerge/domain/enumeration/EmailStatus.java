@@ -5,6 +5,7 @@ package mailmerge.domain.enumeration;
  */
 public enum EmailStatus {
     PENDING,
+    SENDING,
     SENT,
     FAILED,
 }
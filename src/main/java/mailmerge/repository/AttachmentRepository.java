@@ -5,15 +5,22 @@ import org.springframework.data.jpa.repository.*;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Spring Data JPA repository for the Attachment entity.
  */
 @SuppressWarnings("unused")
 @Repository
-public interface AttachmentRepository extends JpaRepository<Attachment, Long>, JpaSpecificationExecutor<Attachment> {
+public interface AttachmentRepository
+    extends JpaRepository<Attachment, Long>, JpaSpecificationExecutor<Attachment>, BulkInsertRepository<Attachment> {
 
     // Corrected to use the relationship name
     List<Attachment> findByProject_Id(Long projectId);
 
+    // Already uploaded content: attachments of a user's projects with this SHA-256 (indexed)
+    boolean existsByFileSha256AndProject_User_Login(String fileSha256, String login);
+
+    Optional<Attachment> findFirstByFileSha256AndProject_User_Login(String fileSha256, String login);
+
 }
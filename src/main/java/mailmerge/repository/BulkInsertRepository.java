@@ -0,0 +1,21 @@
+package mailmerge.repository;
+
+import java.util.List;
+
+/**
+ * Bulk insert of new entities, mixed into entity repositories as a Spring Data fragment
+ * (see {@link BulkInsertRepositoryImpl}).
+ *
+ * Unlike {@code saveAll}, which persists and keeps every entity managed until the end of the
+ * transaction, entities are flushed in groups of {@code hibernate.jdbc.batch_size} (one JDBC
+ * batch each, ids drawn from the pooled sequence) and detached once written, so inserting
+ * thousands of rows keeps the persistence context small.
+ */
+public interface BulkInsertRepository<T> {
+    /**
+     * Insert new (id-less) entities. Must run inside a transaction.
+     *
+     * @return the same entities, with their ids, detached.
+     */
+    <S extends T> List<S> persistAll(Iterable<S> entities);
+}
@@ -0,0 +1,55 @@
+package mailmerge.repository;
+
+import jakarta.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import org.hibernate.cfg.AvailableSettings;
+
+/**
+ * {@link BulkInsertRepository} on the JPA EntityManager.
+ */
+public class BulkInsertRepositoryImpl<T> implements BulkInsertRepository<T> {
+
+    // Used when hibernate.jdbc.batch_size is not set (the sequence's allocation size)
+    private static final int DEFAULT_BATCH_SIZE = 50;
+
+    private final EntityManager entityManager;
+
+    private final int batchSize;
+
+    public BulkInsertRepositoryImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+
+        Object configured = entityManager.getEntityManagerFactory().getProperties().get(AvailableSettings.STATEMENT_BATCH_SIZE);
+        int size = configured != null ? Integer.parseInt(configured.toString().trim()) : DEFAULT_BATCH_SIZE;
+        this.batchSize = size > 0 ? size : DEFAULT_BATCH_SIZE;
+    }
+
+    @Override
+    public <S extends T> List<S> persistAll(Iterable<S> entities) {
+        List<S> persisted = new ArrayList<>();
+        List<S> batch = new ArrayList<>(batchSize);
+
+        for (S entity : entities) {
+            entityManager.persist(entity);
+            persisted.add(entity);
+            batch.add(entity);
+
+            if (batch.size() == batchSize) {
+                flushAndDetach(batch);
+            }
+        }
+        flushAndDetach(batch);
+
+        return persisted;
+    }
+
+    /** Write one JDBC batch and stop tracking its entities (other managed entities stay). */
+    private void flushAndDetach(List<?> batch) {
+        if (batch.isEmpty()) return;
+
+        entityManager.flush();
+        batch.forEach(entityManager::detach);
+        batch.clear();
+    }
+}
@@ -9,4 +9,4 @@ import org.springframework.stereotype.Repository;
  */
 @SuppressWarnings("unused")
 @Repository
-public interface EmailRepository extends JpaRepository<Email, Long>, JpaSpecificationExecutor<Email> {}
+public interface EmailRepository extends JpaRepository<Email, Long>, JpaSpecificationExecutor<Email>, BulkInsertRepository<Email> {}
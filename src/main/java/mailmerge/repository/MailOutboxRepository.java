@@ -0,0 +1,586 @@
+package mailmerge.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+import javax.sql.DataSource;
+import mailmerge.domain.enumeration.EmailStatus;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.incrementer.DataFieldMaxValueIncrementer;
+import org.springframework.jdbc.support.incrementer.H2SequenceMaxValueIncrementer;
+import org.springframework.jdbc.support.incrementer.PostgresSequenceMaxValueIncrementer;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Plain JDBC access to the mail merge outbox: the {@code mail_merge_job} table and the
+ * merge columns of {@code email}.
+ *
+ * A merge renders thousands of rows in a few seconds, so inserts go out as JDBC batches with
+ * ids taken from {@code sequence_generator} in blocks, like Hibernate's pooled optimizer
+ * does (one sequence call per {@link #ID_BLOCK} rows), instead of one JPA persist per row.
+ *
+ * A claimed row is SENDING with {@code next_attempt_at} in the future: the worker that
+ * claimed it holds a lease until then. If that worker dies, the lease runs out and another
+ * drain picks the row up again, flagged {@link OutboxEmail#inDoubt()} because the first send
+ * may or may not have reached Graph. Each claim stamps its rows with its own
+ * {@code claim_token}, and only that claim can write their results.
+ *
+ * Until all of a job's rows are queued, {@code mail_merge_job.checkpoint_row} is the last
+ * spreadsheet row handled and {@code mail_merge_job_source} keeps the templates and
+ * spreadsheet, so an interrupted job can be resumed from the next row.
+ *
+ * Each method is its own transaction (the pool does not auto-commit), so claimed leases and
+ * send results are durable as soon as the call returns.
+ */
+@Repository
+@Transactional
+public class MailOutboxRepository {
+
+    /** Ids covered by one sequence value (the sequence's increment, see the initial schema). */
+    public static final int ID_BLOCK = 50;
+
+    private static final String EMAIL_COLUMNS =
+        "id, job_id, row_no, email_address, cc_address, bcc_address, header, content, status, attempts, last_error";
+
+    private static final RowMapper<OutboxEmail> EMAIL_MAPPER = (rs, i) ->
+        new OutboxEmail(
+            rs.getLong("id"),
+            rs.getString("job_id"),
+            rs.getInt("row_no"),
+            rs.getString("email_address"),
+            rs.getString("cc_address"),
+            rs.getString("bcc_address"),
+            rs.getString("header"),
+            rs.getString("content"),
+            rs.getInt("attempts"),
+            rs.getString("last_error"),
+            EmailStatus.SENDING.name().equals(rs.getString("status")),
+            null
+        );
+
+    private static final RowMapper<OutboxJob> JOB_MAPPER = (rs, i) ->
+        new OutboxJob(
+            rs.getString("id"),
+            rs.getString("owner_login"),
+            rs.getString("principal_name"),
+            rs.getString("client_registration_id"),
+            rs.getObject("project_id", Long.class),
+            rs.getInt("concurrency"),
+            rs.getInt("total_count"),
+            rs.getBoolean("enqueued"),
+            rs.getInt("checkpoint_row"),
+            rs.getBytes("attachments"),
+            instant(rs.getTimestamp("created_at", utc()))
+        );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final DataFieldMaxValueIncrementer sequence;
+
+    // Next free id of the current block, and the last id of that block
+    private long nextId;
+    private long blockEnd = -1;
+
+    public MailOutboxRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.sequence = sequenceFor(dataSource);
+    }
+
+    // =========================================================================
+    // Jobs
+    // =========================================================================
+
+    public void insertJob(OutboxJob job) {
+        jdbcTemplate.update(
+            "insert into mail_merge_job (id, owner_login, principal_name, client_registration_id, project_id, concurrency, total_count, enqueued, checkpoint_row, attachments, created_at)" +
+            " values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+            ps -> {
+                ps.setString(1, job.id());
+                ps.setString(2, job.ownerLogin());
+                ps.setString(3, job.principalName());
+                ps.setString(4, job.clientRegistrationId());
+                ps.setObject(5, job.projectId(), Types.BIGINT);
+                ps.setInt(6, job.concurrency());
+                ps.setInt(7, job.totalCount());
+                ps.setBoolean(8, job.enqueued());
+                ps.setInt(9, job.checkpointRow());
+                ps.setBytes(10, job.attachments());
+                setInstant(ps, 11, job.createdAt());
+            }
+        );
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<OutboxJob> findJob(String id) {
+        return jdbcTemplate.query("select * from mail_merge_job where id = ?", JOB_MAPPER, id).stream().findFirst();
+    }
+
+    /**
+     * All rows of the job are in the outbox: {@code totalCount} is their number and
+     * {@code lastRow} the last spreadsheet row. The stored source is no longer needed.
+     */
+    public void markEnqueued(String jobId, int totalCount, int lastRow) {
+        jdbcTemplate.update(
+            "update mail_merge_job set enqueued = ?, total_count = ?, checkpoint_row = ? where id = ?",
+            true,
+            totalCount,
+            lastRow,
+            jobId
+        );
+        jdbcTemplate.update("delete from mail_merge_job_source where job_id = ?", jobId);
+    }
+
+    /** Keep what a resume needs to render the job's remaining rows (streamed, not buffered). */
+    public void insertSource(String jobId, JobSource source, InputStream spreadsheet, long length) {
+        jdbcTemplate.update(
+            "insert into mail_merge_job_source (job_id, subject_template, body_template, to_template, cc_template, bcc_template, spreadsheet, spreadsheet_content_type)" +
+            " values (?, ?, ?, ?, ?, ?, ?, ?)",
+            ps -> {
+                ps.setString(1, jobId);
+                ps.setString(2, source.subjectTemplate());
+                ps.setString(3, source.bodyTemplate());
+                ps.setString(4, source.toTemplate());
+                ps.setString(5, source.ccTemplate());
+                ps.setString(6, source.bccTemplate());
+                ps.setBinaryStream(7, spreadsheet, length);
+                ps.setString(8, source.spreadsheetContentType());
+            }
+        );
+    }
+
+    /** Templates of a job that is not fully queued yet (empty once it is). */
+    @Transactional(readOnly = true)
+    public Optional<JobSource> findSource(String jobId) {
+        return jdbcTemplate
+            .query(
+                "select subject_template, body_template, to_template, cc_template, bcc_template, spreadsheet_content_type" +
+                " from mail_merge_job_source where job_id = ?",
+                (rs, i) ->
+                    new JobSource(
+                        rs.getString("subject_template"),
+                        rs.getString("body_template"),
+                        rs.getString("to_template"),
+                        rs.getString("cc_template"),
+                        rs.getString("bcc_template"),
+                        rs.getString("spreadsheet_content_type")
+                    ),
+                jobId
+            )
+            .stream()
+            .findFirst();
+    }
+
+    /** Stream a job's stored spreadsheet to {@code target}; false if there is none. */
+    @Transactional(readOnly = true)
+    public boolean copySpreadsheet(String jobId, Path target) {
+        Boolean copied = jdbcTemplate.query(
+            "select spreadsheet from mail_merge_job_source where job_id = ?",
+            rs -> {
+                if (!rs.next()) return false;
+                try (InputStream in = rs.getBinaryStream(1)) {
+                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            },
+            jobId
+        );
+        return Boolean.TRUE.equals(copied);
+    }
+
+    // =========================================================================
+    // Emails
+    // =========================================================================
+
+    /**
+     * Insert a chunk of rendered rows and move the job's checkpoint to {@code checkpointRow}
+     * in one transaction, so the checkpoint never gets ahead of (or behind) the rows.
+     */
+    public long[] enqueue(String jobId, Long projectId, List<OutboxEmail> emails, int checkpointRow) {
+        long[] ids = emails.isEmpty() ? new long[0] : insertEmails(jobId, projectId, emails);
+        jdbcTemplate.update("update mail_merge_job set checkpoint_row = ? where id = ?", checkpointRow, jobId);
+        return ids;
+    }
+
+    /** Insert PENDING rows for a job in one JDBC batch; returns the ids in input order. */
+    public long[] insertEmails(String jobId, Long projectId, List<OutboxEmail> emails) {
+        long[] ids = nextIds(emails.size());
+
+        jdbcTemplate.batchUpdate(
+            "insert into email (id, job_id, row_no, email_address, cc_address, bcc_address, header, content, status, attempts, project_id)" +
+            " values (?, ?, ?, ?, ?, ?, ?, ?, ?, 0, ?)",
+            new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    OutboxEmail email = emails.get(i);
+                    ps.setLong(1, ids[i]);
+                    ps.setString(2, jobId);
+                    ps.setInt(3, email.row());
+                    ps.setString(4, email.to());
+                    ps.setString(5, email.cc());
+                    ps.setString(6, email.bcc());
+                    ps.setString(7, email.subject());
+                    ps.setString(8, email.body());
+                    ps.setString(9, EmailStatus.PENDING.name());
+                    ps.setObject(10, projectId, Types.BIGINT);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return emails.size();
+                }
+            }
+        );
+        return ids;
+    }
+
+    /** Jobs that have rows due (see {@link #claim}), those with the oldest rows first. */
+    @Transactional(readOnly = true)
+    public List<String> findJobsWithDueRows(Instant now, int limit) {
+        return jdbcTemplate.query(
+            "select job_id from email" +
+            " where job_id is not null" +
+            " and ((status = ? and (next_attempt_at is null or next_attempt_at <= ?)) or (status = ? and next_attempt_at <= ?))" +
+            " group by job_id order by min(id) fetch first " + limit + " rows only",
+            ps -> {
+                ps.setString(1, EmailStatus.PENDING.name());
+                setInstant(ps, 2, now);
+                ps.setString(3, EmailStatus.SENDING.name());
+                setInstant(ps, 4, now);
+            },
+            (rs, i) -> rs.getString(1)
+        );
+    }
+
+    /**
+     * Lease up to {@code limit} of job {@code jobId}'s due rows until {@code leaseUntil} as
+     * SENDING, counting the attempt. Due rows are PENDING ones past their backoff, and SENDING
+     * ones whose lease ran out (those come back {@link OutboxEmail#inDoubt() in doubt}).
+     *
+     * Rows are selected first and then leased one by one with a conditional update, so two
+     * workers racing for the same row cannot both get it; only the rows whose update took
+     * effect are returned (with their new attempt number and this claim's token). If the
+     * driver does not report update counts, the rows that carry the token are read back.
+     */
+    public List<OutboxEmail> claim(String jobId, int limit, Instant now, Instant leaseUntil) {
+        List<OutboxEmail> due = jdbcTemplate.query(
+            "select " + EMAIL_COLUMNS + " from email" +
+            " where job_id = ?" +
+            " and ((status = ? and (next_attempt_at is null or next_attempt_at <= ?)) or (status = ? and next_attempt_at <= ?))" +
+            " order by id fetch first " + limit + " rows only",
+            ps -> {
+                ps.setString(1, jobId);
+                ps.setString(2, EmailStatus.PENDING.name());
+                setInstant(ps, 3, now);
+                ps.setString(4, EmailStatus.SENDING.name());
+                setInstant(ps, 5, now);
+            },
+            EMAIL_MAPPER
+        );
+        if (due.isEmpty()) return due;
+
+        String token = UUID.randomUUID().toString();
+        int[][] counts = jdbcTemplate.batchUpdate(
+            "update email set status = ?, next_attempt_at = ?, attempts = attempts + 1, claim_token = ?" +
+            " where id = ? and status = ? and (next_attempt_at is null or next_attempt_at <= ?)",
+            due,
+            due.size(),
+            (ps, email) -> {
+                ps.setString(1, EmailStatus.SENDING.name());
+                setInstant(ps, 2, leaseUntil);
+                ps.setString(3, token);
+                ps.setLong(4, email.id());
+                ps.setString(5, email.inDoubt() ? EmailStatus.SENDING.name() : EmailStatus.PENDING.name());
+                setInstant(ps, 6, now);
+            }
+        );
+
+        // SUCCESS_NO_INFO (-2): the driver did not say whether the update took effect
+        Set<Long> won = new HashSet<>();
+        boolean unknown = false;
+        for (int i = 0; i < due.size(); i++) {
+            int count = counts[0][i];
+            if (count == 1) {
+                won.add(due.get(i).id());
+            } else if (count == Statement.SUCCESS_NO_INFO) {
+                unknown = true;
+            }
+        }
+        if (unknown) {
+            won.addAll(jdbcTemplate.queryForList("select id from email where claim_token = ?", Long.class, token));
+        }
+
+        List<OutboxEmail> claimed = new ArrayList<>(won.size());
+        for (OutboxEmail email : due) {
+            if (won.contains(email.id())) {
+                claimed.add(email.claimed(token));
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Extend the lease of the rows claim {@code claimToken} still holds to {@code leaseUntil},
+     * while they wait to be sent. Returns how many rows it still holds.
+     */
+    public int renewLease(String claimToken, Instant leaseUntil) {
+        return jdbcTemplate.update(
+            "update email set next_attempt_at = ? where claim_token = ? and status = ?",
+            ps -> {
+                setInstant(ps, 1, leaseUntil);
+                ps.setString(2, claimToken);
+                ps.setString(3, EmailStatus.SENDING.name());
+            }
+        );
+    }
+
+    /**
+     * Write send results (sent, failed, or back to PENDING for a later retry) in one batch.
+     *
+     * A result is only written while its claim still holds the row (SENDING with the claim's
+     * token): one that comes in after the lease ran out and another claim took the row over is
+     * dropped, whatever that claim wrote or is still sending. Returns how many were written.
+     */
+    public int complete(List<SendResult> results) {
+        if (results.isEmpty()) return 0;
+
+        int[][] counts = jdbcTemplate.batchUpdate(
+            "update email set status = ?, sent_at = ?, last_error = ?, next_attempt_at = ?, claim_token = null" +
+            " where id = ? and status = ? and claim_token = ?",
+            results,
+            results.size(),
+            (ps, r) -> {
+                ps.setString(1, r.status().name());
+                setInstant(ps, 2, r.sentAt());
+                ps.setString(3, truncate(r.error(), 1000));
+                setInstant(ps, 4, r.nextAttemptAt());
+                ps.setLong(5, r.id());
+                ps.setString(6, EmailStatus.SENDING.name());
+                ps.setString(7, r.claimToken());
+            }
+        );
+
+        int written = 0;
+        for (int count : counts[0]) {
+            // Without a count, assume the result was written
+            if (count == 1 || count == Statement.SUCCESS_NO_INFO) written++;
+        }
+        return written;
+    }
+
+    @Transactional(readOnly = true)
+    public Map<EmailStatus, Integer> countByStatus(String jobId) {
+        Map<EmailStatus, Integer> counts = new EnumMap<>(EmailStatus.class);
+        for (EmailStatus status : EmailStatus.values()) {
+            counts.put(status, 0);
+        }
+        jdbcTemplate.query(
+            "select status, count(*) from email where job_id = ? group by status",
+            rs -> {
+                counts.put(EmailStatus.valueOf(rs.getString(1)), rs.getInt(2));
+            },
+            jobId
+        );
+        return counts;
+    }
+
+    /** Rows the job gave up on, in row order. */
+    @Transactional(readOnly = true)
+    public List<OutboxEmail> findFailed(String jobId) {
+        return jdbcTemplate.query(
+            "select " + EMAIL_COLUMNS + " from email where job_id = ? and status = ? order by row_no",
+            EMAIL_MAPPER,
+            jobId,
+            EmailStatus.FAILED.name()
+        );
+    }
+
+    /** Up to {@code limit} of the job's failed rows, the furthest into the spreadsheet first. */
+    @Transactional(readOnly = true)
+    public List<OutboxEmail> findLastFailed(String jobId, int limit) {
+        return jdbcTemplate.query(
+            "select " + EMAIL_COLUMNS + " from email where job_id = ? and status = ? order by row_no desc fetch first " + limit + " rows only",
+            EMAIL_MAPPER,
+            jobId,
+            EmailStatus.FAILED.name()
+        );
+    }
+
+    /**
+     * Move the FAILED rows of one job to another as fresh PENDING rows. A single update, so
+     * two retries of the same job can never both take a row.
+     */
+    public int requeueFailed(String fromJobId, String toJobId) {
+        return jdbcTemplate.update(
+            "update email set job_id = ?, status = ?, attempts = 0, last_error = null, next_attempt_at = null" +
+            " where job_id = ? and status = ?",
+            toJobId,
+            EmailStatus.PENDING.name(),
+            fromJobId,
+            EmailStatus.FAILED.name()
+        );
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    /** {@code count} fresh ids, drawn from the sequence one block at a time. */
+    private synchronized long[] nextIds(int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            if (nextId > blockEnd) {
+                // Same convention as Hibernate's pooled optimizer: value v reserves (v - 49) .. v
+                blockEnd = sequence.nextLongValue();
+                nextId = blockEnd - ID_BLOCK + 1;
+            }
+            ids[i] = nextId++;
+        }
+        return ids;
+    }
+
+    private static DataFieldMaxValueIncrementer sequenceFor(DataSource dataSource) {
+        String product;
+        try {
+            product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not detect the database for the mail merge outbox", e);
+        }
+        return product != null && product.toLowerCase().contains("h2")
+            ? new H2SequenceMaxValueIncrementer(dataSource, "sequence_generator")
+            : new PostgresSequenceMaxValueIncrementer(dataSource, "sequence_generator");
+    }
+
+    /** Timestamps are stored in UTC, as Hibernate does here (hibernate.jdbc.time_zone). */
+    private static void setInstant(PreparedStatement ps, int index, Instant value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.TIMESTAMP);
+        } else {
+            ps.setTimestamp(index, Timestamp.from(value), utc());
+        }
+    }
+
+    private static Calendar utc() {
+        return Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    }
+
+    private static Instant instant(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toInstant() : null;
+    }
+
+    private static String truncate(String value, int max) {
+        return value != null && value.length() > max ? value.substring(0, max) : value;
+    }
+
+    // =========================================================================
+    // Types
+    // =========================================================================
+
+    /** A {@code mail_merge_job} row: who the job sends as, and what every email of it carries. */
+    public record OutboxJob(
+        String id,
+        String ownerLogin,
+        String principalName,
+        String clientRegistrationId,
+        Long projectId,
+        int concurrency,
+        int totalCount,
+        boolean enqueued,
+        int checkpointRow,
+        byte[] attachments,
+        Instant createdAt
+    ) {}
+
+    /**
+     * An outbox email. {@code id} is null until inserted; {@code attempts} counts claims.
+     * {@code inDoubt} is set on a row claimed again after its earlier claim's lease ran out
+     * without a result, i.e. it may already have been sent. {@code claimToken} is set on
+     * claimed rows and identifies the claim (see {@link #complete}).
+     */
+    public record OutboxEmail(
+        Long id,
+        String jobId,
+        int row,
+        String to,
+        String cc,
+        String bcc,
+        String subject,
+        String body,
+        int attempts,
+        String lastError,
+        boolean inDoubt,
+        String claimToken
+    ) {
+        public static OutboxEmail pending(int row, String to, String cc, String bcc, String subject, String body) {
+            return new OutboxEmail(null, null, row, to, cc, bcc, subject, body, 0, null, false, null);
+        }
+
+        /** Same for every send of this row (job id + spreadsheet row), so Graph can tell a re-send. */
+        public String idempotencyKey() {
+            return jobId + ":" + row;
+        }
+
+        /** This row as leased by the claim {@code token}, with the claim counted as an attempt. */
+        OutboxEmail claimed(String token) {
+            return new OutboxEmail(id, jobId, row, to, cc, bcc, subject, body, attempts + 1, lastError, inDoubt, token);
+        }
+    }
+
+    /** The templates a job was submitted with, plus its spreadsheet's content type. */
+    public record JobSource(
+        String subjectTemplate,
+        String bodyTemplate,
+        String toTemplate,
+        String ccTemplate,
+        String bccTemplate,
+        String spreadsheetContentType
+    ) {}
+
+    /**
+     * New state of a claimed row, written under the claim's token; {@code nextAttemptAt} is
+     * only set when it is to be claimed again.
+     */
+    public record SendResult(long id, String claimToken, EmailStatus status, Instant sentAt, String error, Instant nextAttemptAt) {
+        public static SendResult sent(OutboxEmail email, Instant at) {
+            return new SendResult(email.id(), email.claimToken(), EmailStatus.SENT, at, null, null);
+        }
+
+        public static SendResult failed(OutboxEmail email, String error) {
+            return new SendResult(email.id(), email.claimToken(), EmailStatus.FAILED, null, error, null);
+        }
+
+        public static SendResult retryAt(OutboxEmail email, String error, Instant at) {
+            return new SendResult(email.id(), email.claimToken(), EmailStatus.PENDING, null, error, at);
+        }
+
+        /** Still in doubt (whether an earlier send went out is unknown): claim it again at {@code at}. */
+        public static SendResult recheckAt(OutboxEmail email, String error, Instant at) {
+            return new SendResult(email.id(), email.claimToken(), EmailStatus.SENDING, null, error, at);
+        }
+    }
+}
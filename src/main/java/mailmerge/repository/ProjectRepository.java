@@ -2,9 +2,11 @@
 
 package mailmerge.repository;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 import mailmerge.domain.Project;
+import mailmerge.domain.enumeration.EmailStatus;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.*;
@@ -20,9 +22,31 @@ public interface ProjectRepository extends JpaRepository<Project, Long>, JpaSpec
     @Query("select project from Project project where project.user.login = ?#{authentication.name}")
     List<Project> findByUserIsCurrentUser();
 
-    // Custom query: find projects by a specific user's login
-    @Query("select project from Project project where project.user.login = :login")
-    List<Project> findByUser_Login(@Param("login") String login);
+    /**
+     * A project as listed in the sidebar: none of its LOBs (template, recipients) nor its
+     * spreadsheet, only their sizes.
+     */
+    record ProjectSummary(
+        Long id,
+        String name,
+        EmailStatus status,
+        Instant sentAt,
+        String spreadsheetName,
+        Long spreadsheetSize,
+        Long attachmentsSize
+    ) {}
+
+    // Custom query: summaries of a specific user's projects (one query, no entities loaded)
+    @Query(
+        "select new mailmerge.repository.ProjectRepository$ProjectSummary(project.id, project.name, project.status, project.sentAt," +
+        " project.spreadsheetName, project.spreadsheetSize," +
+        " (select coalesce(sum(attachment.size), 0L) from Attachment attachment where attachment.project = project))" +
+        " from Project project where project.user.login = :login"
+    )
+    List<ProjectSummary> findSummariesByUser_Login(@Param("login") String login);
+
+    // Ownership check for mail merge jobs that are linked to a project
+    boolean existsByIdAndUser_Login(Long id, String login);
 
     default Optional<Project> findOneWithEagerRelationships(Long id) {
         return this.findOneWithToOneRelationships(id);
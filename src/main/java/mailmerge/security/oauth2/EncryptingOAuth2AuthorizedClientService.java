@@ -0,0 +1,78 @@
+package mailmerge.security.oauth2;
+
+import java.util.function.UnaryOperator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+
+/**
+ * Keeps users' access and refresh tokens encrypted in the underlying authorized client
+ * service (the {@code oauth2_authorized_client} table), so a database dump or a read-only
+ * database login does not hand out working Graph tokens. Everything else about the client
+ * (registration, principal, expiry, scopes) is stored as is.
+ *
+ * A stored client that cannot be decrypted (written before encryption, or with another key)
+ * reads as absent: the user has to sign in again.
+ */
+public class EncryptingOAuth2AuthorizedClientService implements OAuth2AuthorizedClientService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EncryptingOAuth2AuthorizedClientService.class);
+
+    private final OAuth2AuthorizedClientService delegate;
+
+    private final TextEncryptor encryptor;
+
+    public EncryptingOAuth2AuthorizedClientService(OAuth2AuthorizedClientService delegate, TextEncryptor encryptor) {
+        this.delegate = delegate;
+        this.encryptor = encryptor;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends OAuth2AuthorizedClient> T loadAuthorizedClient(String clientRegistrationId, String principalName) {
+        OAuth2AuthorizedClient stored = delegate.loadAuthorizedClient(clientRegistrationId, principalName);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            return (T) withTokens(stored, encryptor::decrypt);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            LOG.warn("Stored OAuth2 tokens of {} ({}) cannot be decrypted, ignoring them", principalName, clientRegistrationId);
+            return null;
+        }
+    }
+
+    @Override
+    public void saveAuthorizedClient(OAuth2AuthorizedClient authorizedClient, Authentication principal) {
+        delegate.saveAuthorizedClient(withTokens(authorizedClient, encryptor::encrypt), principal);
+    }
+
+    @Override
+    public void removeAuthorizedClient(String clientRegistrationId, String principalName) {
+        delegate.removeAuthorizedClient(clientRegistrationId, principalName);
+    }
+
+    private static OAuth2AuthorizedClient withTokens(OAuth2AuthorizedClient client, UnaryOperator<String> transform) {
+        OAuth2AccessToken accessToken = client.getAccessToken();
+        OAuth2RefreshToken refreshToken = client.getRefreshToken();
+        return new OAuth2AuthorizedClient(
+            client.getClientRegistration(),
+            client.getPrincipalName(),
+            new OAuth2AccessToken(
+                accessToken.getTokenType(),
+                transform.apply(accessToken.getTokenValue()),
+                accessToken.getIssuedAt(),
+                accessToken.getExpiresAt(),
+                accessToken.getScopes()
+            ),
+            refreshToken != null
+                ? new OAuth2RefreshToken(transform.apply(refreshToken.getTokenValue()), refreshToken.getIssuedAt(), refreshToken.getExpiresAt())
+                : null
+        );
+    }
+}
@@ -10,10 +10,12 @@ import mailmerge.service.dto.AttachmentDTO;
 import mailmerge.service.mapper.AttachmentMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import tech.jhipster.service.QueryService;
+import tech.jhipster.service.filter.LongFilter;
 
 /**
  * Service for executing complex queries for {@link Attachment} entities in the database.
@@ -29,10 +31,19 @@ public class AttachmentQueryService extends QueryService<Attachment> {
 
     private final AttachmentRepository attachmentRepository;
 
+    // Maps the results, files included (they are in the blob store)
+    private final AttachmentService attachmentService;
+
+    // Maps keyset pages, without files
     private final AttachmentMapper attachmentMapper;
 
-    public AttachmentQueryService(AttachmentRepository attachmentRepository, AttachmentMapper attachmentMapper) {
+    public AttachmentQueryService(
+        AttachmentRepository attachmentRepository,
+        AttachmentService attachmentService,
+        AttachmentMapper attachmentMapper
+    ) {
         this.attachmentRepository = attachmentRepository;
+        this.attachmentService = attachmentService;
         this.attachmentMapper = attachmentMapper;
     }
 
@@ -45,7 +56,30 @@ public class AttachmentQueryService extends QueryService<Attachment> {
     public List<AttachmentDTO> findByCriteria(AttachmentCriteria criteria) {
         LOG.debug("find by criteria : {}", criteria);
         final Specification<Attachment> specification = createSpecification(criteria);
-        return attachmentMapper.toDto(attachmentRepository.findAll(specification));
+        return attachmentRepository.findAll(specification).stream().map(attachmentService::convertToDto).toList();
+    }
+
+    /**
+     * Return up to {@code size} {@link AttachmentDTO} which match the criteria and have an id greater
+     * than {@code after}, by id: a keyset page, which seeks on the primary key so a deep page
+     * costs the same as the first one, and counts nothing. The DTOs carry no file (reading every
+     * file of a page would cost more than the query): it is at {@code /api/attachments/{id}/content}.
+     * @param criteria The object which holds all the filters, which the entities should match.
+     * @param after The id of the last entity of the previous page (0 for the first page).
+     * @param size The maximum number of entities to return.
+     * @return the matching entities.
+     */
+    @Transactional(readOnly = true)
+    public List<AttachmentDTO> findByCriteriaAfter(AttachmentCriteria criteria, long after, int size) {
+        LOG.debug("find by criteria : {}, after: {}, size: {}", criteria, after, size);
+        LongFilter idAfter = new LongFilter();
+        idAfter.setGreaterThan(after);
+        final Specification<Attachment> specification = createSpecification(criteria).and(buildRangeSpecification(idAfter, Attachment_.id));
+        return attachmentRepository
+            .findBy(specification, query -> query.sortBy(Sort.by(Attachment_.ID)).limit(size).all())
+            .stream()
+            .map(attachmentMapper::toDto)
+            .toList();
     }
 
     /**
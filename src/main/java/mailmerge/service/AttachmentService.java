@@ -1,17 +1,41 @@
 package mailmerge.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import mailmerge.domain.Attachment;
+import mailmerge.domain.Project;
 import mailmerge.repository.AttachmentRepository;
+import mailmerge.security.SecurityUtils;
+import mailmerge.service.blob.BlobRef;
+import mailmerge.service.blob.BlobStore;
+import mailmerge.service.blob.LegacyLobColumns;
 import mailmerge.service.dto.AttachmentDTO;
 import mailmerge.service.mapper.AttachmentMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Service Implementation for managing {@link mailmerge.domain.Attachment}.
+ *
+ * An attachment's file is kept in the {@link BlobStore}: saving stores the DTO's bytes there
+ * (and takes the size from them); reading an attachment streams them back into its DTO.
+ *
+ * The store keeps identical bytes once (blobs are keyed by their SHA-256), so the same
+ * brochure attached to many projects is stored once. A DTO without bytes but with the
+ * {@code fileSha256} of a file the current user has already uploaded is pointed at that file
+ * instead, so clients can skip uploading it again (see {@link #isUploaded}).
+ *
+ * Attachments saved before the blob store are read from their old column until it is moved
+ * (see {@link LegacyLobColumns}).
  */
 @Service
 @Transactional
@@ -23,9 +47,26 @@ public class AttachmentService {
 
     private final AttachmentMapper attachmentMapper;
 
-    public AttachmentService(AttachmentRepository attachmentRepository, AttachmentMapper attachmentMapper) {
+    private final BlobStore blobStore;
+
+    /** A file uploaded as is (multipart), streamed into the blob store and hashed on the way. */
+    public record Upload(String name, String contentType, InputStreamSource content) {}
+
+    /** An attachment's file as stored, to be streamed to the client (never read into memory). */
+    public record Content(String name, String contentType, String sha256, Resource resource) {}
+
+    private final LegacyLobColumns legacyLobColumns;
+
+    public AttachmentService(
+        AttachmentRepository attachmentRepository,
+        AttachmentMapper attachmentMapper,
+        BlobStore blobStore,
+        LegacyLobColumns legacyLobColumns
+    ) {
         this.attachmentRepository = attachmentRepository;
         this.attachmentMapper = attachmentMapper;
+        this.blobStore = blobStore;
+        this.legacyLobColumns = legacyLobColumns;
     }
 
     /**
@@ -37,10 +78,79 @@ public class AttachmentService {
     public AttachmentDTO save(AttachmentDTO attachmentDTO) {
         LOG.debug("Request to save Attachment : {}", attachmentDTO);
         Attachment attachment = attachmentMapper.toEntity(attachmentDTO);
+        storeFile(attachment, attachmentDTO);
         attachment = attachmentRepository.save(attachment);
         return attachmentMapper.toDto(attachment);
     }
 
+    /**
+     * Save new attachments in bulk: JDBC batches with pooled ids, instead of one insert (and
+     * transaction) per attachment.
+     *
+     * @param attachmentDTOs the entities to save; none of them may have an id yet.
+     * @return the persisted entities, in the same order.
+     */
+    public List<AttachmentDTO> saveAll(List<AttachmentDTO> attachmentDTOs) {
+        LOG.debug("Request to save {} Attachments", attachmentDTOs.size());
+        if (attachmentDTOs.stream().anyMatch(dto -> dto.getId() != null)) {
+            throw new IllegalArgumentException("A new attachment cannot already have an ID");
+        }
+        List<Attachment> attachments = attachmentMapper.toEntity(attachmentDTOs);
+        for (int i = 0; i < attachments.size(); i++) {
+            storeFile(attachments.get(i), attachmentDTOs.get(i));
+        }
+        attachments = attachmentRepository.persistAll(attachments);
+        return attachmentMapper.toDto(attachments);
+    }
+
+    /**
+     * Save new attachments of a project from uploaded files, whose content is streamed into the
+     * blob store (never held in memory whole), plus attachments given by the SHA-256 of a file
+     * the current user has already uploaded.
+     *
+     * @param projectId the project of the attachments.
+     * @param uploads the uploaded files.
+     * @param byHash attachments without bytes, with their {@code fileSha256}.
+     * @return the persisted entities: the uploads, then the others, in order.
+     */
+    public List<AttachmentDTO> saveUploads(Long projectId, List<Upload> uploads, List<AttachmentDTO> byHash) {
+        LOG.debug("Request to save {} uploaded and {} known Attachments for Project : {}", uploads.size(), byHash.size(), projectId);
+        List<Attachment> attachments = new ArrayList<>();
+        for (Upload upload : uploads) {
+            Attachment attachment = new Attachment()
+                .name(upload.name())
+                .fileContentType(upload.contentType())
+                .project(new Project().id(projectId));
+            try (InputStream in = upload.content().getInputStream()) {
+                point(attachment, blobStore.put(in));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not store the file of attachment " + upload.name(), e);
+            }
+            attachments.add(attachment);
+        }
+        for (AttachmentDTO dto : byHash) {
+            Attachment attachment = attachmentMapper.toEntity(dto).id(null).project(new Project().id(projectId));
+            storeFile(attachment, dto);
+            attachments.add(attachment);
+        }
+        attachments = attachmentRepository.persistAll(attachments);
+        return attachmentMapper.toDto(attachments);
+    }
+
+    /**
+     * Whether the current user already has an attachment with this content, which can then
+     * be attached again by its hash alone.
+     *
+     * @param sha256 the SHA-256 of the content, in hex.
+     * @return true if it is uploaded.
+     */
+    @Transactional(readOnly = true)
+    public boolean isUploaded(String sha256) {
+        return SecurityUtils.getCurrentUserLogin()
+            .map(login -> attachmentRepository.existsByFileSha256AndProject_User_Login(sha256, login))
+            .orElse(false);
+    }
+
     /**
      * Update a attachment.
      *
@@ -50,6 +160,7 @@ public class AttachmentService {
     public AttachmentDTO update(AttachmentDTO attachmentDTO) {
         LOG.debug("Request to update Attachment : {}", attachmentDTO);
         Attachment attachment = attachmentMapper.toEntity(attachmentDTO);
+        storeFile(attachment, attachmentDTO);
         attachment = attachmentRepository.save(attachment);
         return attachmentMapper.toDto(attachment);
     }
@@ -67,6 +178,9 @@ public class AttachmentService {
             .findById(attachmentDTO.getId())
             .map(existingAttachment -> {
                 attachmentMapper.partialUpdate(existingAttachment, attachmentDTO);
+                if (attachmentDTO.getFile() != null || attachmentDTO.getFileSha256() != null) {
+                    storeFile(existingAttachment, attachmentDTO);
+                }
 
                 return existingAttachment;
             })
@@ -83,7 +197,49 @@ public class AttachmentService {
     @Transactional(readOnly = true)
     public Optional<AttachmentDTO> findOne(Long id) {
         LOG.debug("Request to get Attachment : {}", id);
-        return attachmentRepository.findById(id).map(attachmentMapper::toDto);
+        return attachmentRepository.findById(id).map(this::convertToDto);
+    }
+
+    /**
+     * Get the attachments of a project, without their files (see {@link #findContent}).
+     *
+     * @param projectId the id of the project.
+     * @return the list of entities.
+     */
+    @Transactional(readOnly = true)
+    public List<AttachmentDTO> findByProject(Long projectId) {
+        LOG.debug("Request to get Attachments of Project : {}", projectId);
+        return attachmentMapper.toDto(attachmentRepository.findByProject_Id(projectId));
+    }
+
+    /**
+     * Get the file of an attachment, for streaming.
+     *
+     * @param id the id of the entity.
+     * @return the file, empty if the attachment or its file does not exist.
+     */
+    @Transactional(readOnly = true)
+    public Optional<Content> findContent(Long id) {
+        LOG.debug("Request to get the file of Attachment : {}", id);
+        return attachmentRepository
+            .findById(id)
+            .flatMap(attachment -> {
+                if (attachment.getFileBlobKey() == null) {
+                    // Not moved into the blob store yet: small enough to have been a LOB
+                    return Optional.ofNullable(legacyLobColumns.read(LegacyLobColumns.ATTACHMENT_FILE, attachment.getId())).map(file ->
+                        new Content(attachment.getName(), attachment.getFileContentType(), null, new ByteArrayResource(file))
+                    );
+                }
+                try {
+                    Resource resource = blobStore.resource(attachment.getFileBlobKey());
+                    return Optional.of(
+                        new Content(attachment.getName(), attachment.getFileContentType(), attachment.getFileSha256(), resource)
+                    );
+                } catch (IOException e) {
+                    LOG.error("File blob {} of attachment {} is unreadable", attachment.getFileBlobKey(), attachment.getId(), e);
+                    return Optional.empty();
+                }
+            });
     }
 
     /**
@@ -96,8 +252,47 @@ public class AttachmentService {
         attachmentRepository.deleteById(id);
     }
 
+    /** The attachment's DTO, with its file read from the blob store. */
     @Transactional(readOnly = true)
     public AttachmentDTO convertToDto(Attachment attachment) {
-        return attachmentMapper.toDto(attachment);
+        AttachmentDTO dto = attachmentMapper.toDto(attachment);
+        if (attachment.getFileBlobKey() != null) {
+            try {
+                dto.setFile(blobStore.read(attachment.getFileBlobKey()));
+            } catch (IOException e) {
+                LOG.error("File blob {} of attachment {} is unreadable", attachment.getFileBlobKey(), attachment.getId(), e);
+            }
+        } else {
+            dto.setFile(legacyLobColumns.read(LegacyLobColumns.ATTACHMENT_FILE, attachment.getId()));
+        }
+        return dto;
+    }
+
+    /**
+     * Point the attachment at the DTO's file: its bytes, stored; or else the current user's
+     * file with its {@code fileSha256}; or else no file. A file still in the old column is
+     * replaced too, so it is not migrated later.
+     */
+    private void storeFile(Attachment attachment, AttachmentDTO dto) {
+        if (dto.getFile() != null) {
+            try {
+                point(attachment, blobStore.put(dto.getFile()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not store the file of attachment " + attachment.getName(), e);
+            }
+        } else if (dto.getFileSha256() != null) {
+            Attachment same = SecurityUtils.getCurrentUserLogin()
+                .flatMap(login -> attachmentRepository.findFirstByFileSha256AndProject_User_Login(dto.getFileSha256(), login))
+                .orElseThrow(() -> new IllegalArgumentException("No uploaded file with SHA-256 " + dto.getFileSha256()));
+            attachment.fileBlobKey(same.getFileBlobKey()).fileSha256(same.getFileSha256()).size(same.getSize());
+        } else {
+            attachment.fileBlobKey(null).fileSha256(null).size(null);
+        }
+        // Only once the new content is stored
+        legacyLobColumns.clear(LegacyLobColumns.ATTACHMENT_FILE, attachment.getId());
+    }
+
+    private static void point(Attachment attachment, BlobRef blob) {
+        attachment.fileBlobKey(blob.key()).fileSha256(blob.sha256()).size(blob.size());
     }
 }
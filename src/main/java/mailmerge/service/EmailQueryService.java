@@ -1,6 +1,7 @@
 package mailmerge.service;
 
 import jakarta.persistence.criteria.JoinType;
+import java.util.List;
 import mailmerge.domain.*; // for static metamodels
 import mailmerge.domain.Email;
 import mailmerge.repository.EmailRepository;
@@ -11,10 +12,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import tech.jhipster.service.QueryService;
+import tech.jhipster.service.filter.LongFilter;
 
 /**
  * Service for executing complex queries for {@link Email} entities in the database.
@@ -50,6 +53,28 @@ public class EmailQueryService extends QueryService<Email> {
         return emailRepository.findAll(specification, page).map(emailMapper::toDto);
     }
 
+    /**
+     * Return up to {@code size} {@link EmailDTO} which match the criteria and have an id greater
+     * than {@code after}, by id: a keyset page, which seeks on the primary key so a deep page
+     * costs the same as the first one, and counts nothing.
+     * @param criteria The object which holds all the filters, which the entities should match.
+     * @param after The id of the last entity of the previous page (0 for the first page).
+     * @param size The maximum number of entities to return.
+     * @return the matching entities.
+     */
+    @Transactional(readOnly = true)
+    public List<EmailDTO> findByCriteriaAfter(EmailCriteria criteria, long after, int size) {
+        LOG.debug("find by criteria : {}, after: {}, size: {}", criteria, after, size);
+        LongFilter idAfter = new LongFilter();
+        idAfter.setGreaterThan(after);
+        final Specification<Email> specification = createSpecification(criteria).and(buildRangeSpecification(idAfter, Email_.id));
+        return emailRepository
+            .findBy(specification, query -> query.sortBy(Sort.by(Email_.ID)).limit(size).all())
+            .stream()
+            .map(emailMapper::toDto)
+            .toList();
+    }
+
     /**
      * Return the number of matching entities in the database.
      * @param criteria The object which holds all the filters, which the entities should match.
@@ -1,5 +1,6 @@
 package mailmerge.service;
 
+import java.util.List;
 import java.util.Optional;
 import mailmerge.domain.Email;
 import mailmerge.repository.EmailRepository;
@@ -41,6 +42,22 @@ public class EmailService {
         return emailMapper.toDto(email);
     }
 
+    /**
+     * Save new emails in bulk: JDBC batches with pooled ids, instead of one insert (and
+     * transaction) per email.
+     *
+     * @param emailDTOs the entities to save; none of them may have an id yet.
+     * @return the persisted entities, in the same order.
+     */
+    public List<EmailDTO> saveAll(List<EmailDTO> emailDTOs) {
+        LOG.debug("Request to save {} Emails", emailDTOs.size());
+        if (emailDTOs.stream().anyMatch(dto -> dto.getId() != null)) {
+            throw new IllegalArgumentException("A new email cannot already have an ID");
+        }
+        List<Email> emails = emailRepository.persistAll(emailMapper.toEntity(emailDTOs));
+        return emailMapper.toDto(emails);
+    }
+
     /**
      * Update a email.
      *
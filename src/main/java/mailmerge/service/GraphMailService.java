@@ -1,5 +1,6 @@
 package mailmerge.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import mailmerge.service.dto.AttachmentDTO;
 import mailmerge.service.dto.MailProgressEvent;
 import org.slf4j.Logger;
@@ -7,7 +8,26 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import mailmerge.service.dto.InlineImageDTO;
-
+import mailmerge.service.graph.BatchResponse;
+import mailmerge.service.graph.GraphSender;
+import mailmerge.service.graph.PreparedAttachments;
+import mailmerge.service.graph.SendMailPayloadWriter;
+import mailmerge.service.graph.SendOutcome;
+import mailmerge.service.graph.SendRetryPolicy;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import mailmerge.service.merge.MergedMessage;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
 import java.util.*;
 
 @Service
@@ -32,14 +52,19 @@ public class GraphMailService {
     // eslint-disable-next-line @typescript-eslint/member-ordering
     private final MailProgressService progressService;
 
+    // Per-mailbox adaptive send rate (honours 429/503 + Retry-After)
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final GraphRateLimiter rateLimiter;
+
     // =========================================================================
     // Constructor
     // =========================================================================
 
     // eslint-disable-next-line @typescript-eslint/member-ordering
-    public GraphMailService(WebClient graphWebClient, MailProgressService progressService) {
+    public GraphMailService(WebClient graphWebClient, MailProgressService progressService, GraphRateLimiter rateLimiter) {
         this.graphWebClient = graphWebClient;
         this.progressService = progressService;
+        this.rateLimiter = rateLimiter;
     }
 
     // =========================================================================
@@ -54,10 +79,32 @@ public class GraphMailService {
      *  - Normal file attachments
      *  - Inline images (CID) for <img src="cid:..."> (Graph fileAttachment with isInline + contentId)
      *
+     * One-off convenience: encodes the attachments for this message only. Merge jobs
+     * prepare them once with {@link PreparedAttachments#of} and call the overload below.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public boolean sendMail(
+        String to,
+        String cc,
+        String bcc,
+        String subject,
+        String body,
+        List<AttachmentDTO> attachments,
+        List<InlineImageDTO> inlineImages
+    ) {
+        return sendMail(to, cc, bcc, subject, body, PreparedAttachments.of(attachments, inlineImages));
+    }
+
+    /**
+     * Sends a message via Microsoft Graph with attachments that were already encoded for the job.
+     *
      * Notes:
      *  - Uses /me/sendMail
      *  - saveToSentItems = true
      *  - Uses .block() (synchronous) for stability
+     *  - Attachment JSON (incl. base64 content) is copied verbatim, never re-encoded
+     *  - Waits for a permit from the sender's mailbox rate limiter before posting; a 429/503
+     *    slows the mailbox down, waits out Retry-After and re-sends (up to max-throttle-retries)
      */
     // eslint-disable-next-line @typescript-eslint/member-ordering
     public boolean sendMail(
@@ -66,168 +113,283 @@ public class GraphMailService {
         String bcc,
         String subject,
         String body,
-        List<AttachmentDTO> attachments,
-        List<InlineImageDTO> inlineImages
+        PreparedAttachments attachments
     ) {
-        try {
-            // Emit "sending" progress (count = -1 indicates "not tied to row progress" in your UI)
-            progressService.sendProgress(
-                new MailProgressEvent(
-                    to,
-                    false,
-                    -1,
-                    -1,
-                    "Sending..."
-                )
-            );
+        return send(to, cc, bcc, subject, body, attachments).success();
+    }
+
+    /**
+     * Same as {@link #sendMail(String, String, String, String, String, PreparedAttachments)}, but
+     * says why a send failed and whether trying again may help (see {@link SendRetryPolicy}).
+     * Merge jobs use this to retry transient failures.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public SendOutcome send(
+        String to,
+        String cc,
+        String bcc,
+        String subject,
+        String body,
+        PreparedAttachments attachments
+    ) {
+        return send(GraphSender.currentUser(), to, cc, bcc, subject, body, attachments, null);
+    }
 
-            log.info("📧 Sending email to={} cc={} bcc={} subject={} attachments={} inlineImages={}",
+    /**
+     * Same as above, from {@code sender}'s mailbox, tagging the message with
+     * {@code idempotencyKey} (if not null) so that {@link #isInSentItems} can later tell
+     * whether this send went through.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public SendOutcome send(
+        GraphSender sender,
+        String to,
+        String cc,
+        String bcc,
+        String subject,
+        String body,
+        PreparedAttachments attachments,
+        String idempotencyKey
+    ) {
+        try {
+            // Per-recipient outcomes reach the UI through the job's progress snapshots
+            // (MailProgressAggregator), not as events of their own
+            log.debug("📧 Sending email to={} cc={} bcc={} subject={} attachments={} inlineImages={}",
                 to, cc, bcc, subject,
-                attachments != null ? attachments.size() : 0,
-                inlineImages != null ? inlineImages.size() : 0
+                attachments.size() - attachments.inlineCount(),
+                attachments.inlineCount()
             );
 
-            // Build recipient objects expected by Graph
-            List<Map<String, Object>> toRecipients = buildRecipients(to);
-            List<Map<String, Object>> ccRecipients = buildRecipients(cc);
-            List<Map<String, Object>> bccRecipients = buildRecipients(bcc);
-
-            // Graph attachments includes BOTH normal attachments + inline image attachments
-            List<Map<String, Object>> graphAttachments = new ArrayList<>();
-
-            // -----------------------------------------------------------------
-            // 1) Normal attachments
-            // -----------------------------------------------------------------
-            if (attachments != null) {
-                for (AttachmentDTO a : attachments) {
-                    if (a == null || a.getFile() == null) continue;
-
-                    Map<String, Object> attach = new HashMap<>();
-                    attach.put("@odata.type", "#microsoft.graph.fileAttachment");
-                    attach.put("name", a.getName());
-                    attach.put("contentType", a.getFileContentType());
-                    attach.put("contentBytes", Base64.getEncoder().encodeToString(a.getFile()));
-                    attach.put("isInline", false);
-
-                    graphAttachments.add(attach);
+            // Graph /me sends from the sender's mailbox
+            String mailbox = sender.login();
+
+            for (int attempt = 0; ; attempt++) {
+                rateLimiter.acquire(mailbox);
+                try {
+                    // -----------------------------------------------------------------
+                    // POST /me/sendMail (blocking), body streamed straight into the request buffer
+                    // -----------------------------------------------------------------
+                    graphWebClient.post()
+                        .uri("/me/sendMail")
+                        .attributes(sender.attributes())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(jsonBody(
+                            1024L + (body != null ? body.length() : 0) + attachments.encodedLength(),
+                            out -> SendMailPayloadWriter.writeSendMail(out, to, cc, bcc, subject, body, attachments, idempotencyKey)
+                        ))
+                        .retrieve()
+                        .toBodilessEntity()
+                        .block();
+
+                    rateLimiter.onSuccess(mailbox);
+                    break;
+                } catch (WebClientResponseException e) {
+                    if (!GraphRateLimiter.isThrottling(e.getStatusCode())) {
+                        throw e;
+                    }
+
+                    // Throttled: slow the whole mailbox down (the next acquire waits out Retry-After)
+                    Duration retryAfter = rateLimiter.retryAfter(e.getHeaders());
+                    rateLimiter.onThrottled(mailbox, retryAfter);
+                    if (attempt >= rateLimiter.getMaxThrottleRetries()) {
+                        throw e;
+                    }
+
+                    progressService.sendProgress(
+                        mailbox,
+                        new MailProgressEvent(
+                            to,
+                            false,
+                            -1,
+                            -1,
+                            "Throttled by Microsoft Graph, retrying in " + retryAfter.toSeconds() + "s"
+                        )
+                    );
                 }
             }
 
-            // -----------------------------------------------------------------
-            // 2) Inline images (CID)
-            // -----------------------------------------------------------------
-            if (inlineImages != null) {
-                for (InlineImageDTO img : inlineImages) {
-                    if (img == null || img.getFile() == null) continue;
+            log.debug("✅ Email sent successfully to {}", to);
 
-                    String cid = img.getCid();
-                    if (cid == null || cid.isBlank()) continue;
+            return SendOutcome.sent();
 
-                    Map<String, Object> attach = new HashMap<>();
-                    attach.put("@odata.type", "#microsoft.graph.fileAttachment");
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("❌ Failed to send email: {}", e.getMessage(), e);
 
-                    // Attachment name shown in Graph payload (not necessarily visible in email clients)
-                    String name = img.getName();
-                    attach.put("name", (name != null && !name.isBlank()) ? name : (cid + ".png"));
+            return SendOutcome.of(e);
+        }
+    }
 
-                    // Content type fallback
-                    String ct = img.getFileContentType();
-                    attach.put("contentType", (ct != null && !ct.isBlank()) ? ct : "image/png");
+    /**
+     * Sends up to {@link SendMailPayloadWriter#MAX_BATCH_SIZE} merged messages in one JSON
+     * {@code /$batch} round trip instead of one {@code /me/sendMail} call each, from
+     * {@code sender}'s mailbox.
+     *
+     * Returns one outcome per message, in the order given:
+     *  - each message still takes a permit from the mailbox rate limiter
+     *  - sub-responses are matched back to their message by request id
+     *  - throttled sub-requests (429/503) slow the mailbox down and are re-sent together,
+     *    after Retry-After, up to max-throttle-retries times
+     *  - any other non-2xx sub-response fails only its own message (retryable for 5xx/408)
+     *  - a missing sub-response, a 500/502/504 or a whole batch lost after it went out is
+     *    {@link SendOutcome#unconfirmed}: those messages may have been sent
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public List<SendOutcome> sendMailBatch(GraphSender sender, List<MergedMessage> messages, PreparedAttachments attachments) {
+        SendOutcome[] outcomes = new SendOutcome[messages.size()];
 
-                    attach.put("contentBytes", Base64.getEncoder().encodeToString(img.getFile()));
+        // Graph /me sends from the sender's mailbox
+        String mailbox = sender.login();
 
-                    // Key bits for inline images:
-                    attach.put("isInline", true);
-                    attach.put("contentId", cid.trim()); // MUST match <img src="cid:...">
+        // Indices (into messages) still waiting to go out
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) pending.add(i);
 
-                    graphAttachments.add(attach);
+        try {
+            for (int attempt = 0; !pending.isEmpty(); attempt++) {
+                List<MergedMessage> batch = new ArrayList<>(pending.size());
+                long estimate = 1024L;
+                for (int row : pending) {
+                    MergedMessage m = messages.get(row);
+                    batch.add(m);
+                    estimate += 1024L + (m.getBody() != null ? m.getBody().length() : 0) + attachments.encodedLength();
                 }
-            }
 
-            // -----------------------------------------------------------------
-            // Build Graph message payload
-            // -----------------------------------------------------------------
-            Map<String, Object> message = new LinkedHashMap<>();
-            message.put("subject", subject != null ? subject : "(no subject)");
-            message.put("body", Map.of("contentType", "HTML", "content", body != null ? body : ""));
-
-            if (!toRecipients.isEmpty()) message.put("toRecipients", toRecipients);
-            if (!ccRecipients.isEmpty()) message.put("ccRecipients", ccRecipients);
-            if (!bccRecipients.isEmpty()) message.put("bccRecipients", bccRecipients);
-            if (!graphAttachments.isEmpty()) message.put("attachments", graphAttachments);
-
-            Map<String, Object> payload = Map.of(
-                "message", message,
-                "saveToSentItems", true
-            );
+                // The mailbox quota counts messages, not HTTP requests
+                for (int i = 0; i < batch.size(); i++) {
+                    rateLimiter.acquire(mailbox);
+                }
 
-            // -----------------------------------------------------------------
-            // POST /me/sendMail (blocking)
-            // -----------------------------------------------------------------
-            graphWebClient.post()
-                .uri("/me/sendMail")
-                .bodyValue(payload)
-                .retrieve()
-                .toBodilessEntity()
-                .block();
-
-            log.info("✅ Email sent successfully to {}", to);
-
-            // Emit success
-            progressService.sendProgress(
-                new MailProgressEvent(
-                    to,
-                    true,
-                    -1,
-                    -1,
-                    "Sent successfully"
-                )
-            );
+                log.info("📦 Sending batch of {} emails (attempt {}) attachments={}", batch.size(), attempt + 1, attachments.size());
+
+                BatchResponse response;
+                try {
+                    byte[] raw = graphWebClient.post()
+                        .uri("/$batch")
+                        .attributes(sender.attributes())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(jsonBody(estimate, out -> SendMailPayloadWriter.writeBatch(out, batch, attachments)))
+                        .retrieve()
+                        .bodyToMono(byte[].class)
+                        .block();
+                    response = BatchResponse.parse(raw != null ? raw : new byte[] { '{', '}' });
+                } catch (WebClientResponseException e) {
+                    // The batch as a whole was throttled: wait and re-send all of it
+                    if (!GraphRateLimiter.isThrottling(e.getStatusCode()) || attempt >= rateLimiter.getMaxThrottleRetries()) {
+                        throw e;
+                    }
+                    rateLimiter.onThrottled(mailbox, rateLimiter.retryAfter(e.getHeaders()));
+                    continue;
+                }
 
-            return true;
+                List<Integer> throttled = new ArrayList<>();
+                Duration retryAfter = Duration.ZERO;
+
+                for (int i = 0; i < batch.size(); i++) {
+                    int row = pending.get(i);
+                    BatchResponse.Item item = response.get(Integer.toString(i));
+
+                    if (item == null) {
+                        outcomes[row] = SendOutcome.unconfirmed("No response for this message in the batch");
+                    } else if (item.isSuccess()) {
+                        outcomes[row] = SendOutcome.sent();
+                        rateLimiter.onSuccess(mailbox);
+                    } else if (GraphRateLimiter.isThrottling(HttpStatusCode.valueOf(item.status()))) {
+                        throttled.add(row);
+                        outcomes[row] = SendOutcome.failed("Throttled (" + item.status() + ")", true);
+                        Duration wait = rateLimiter.retryAfter(item.header(HttpHeaders.RETRY_AFTER));
+                        if (wait.compareTo(retryAfter) > 0) retryAfter = wait;
+                    } else {
+                        String error = item.status() + (item.error() != null ? " " + item.error() : "");
+                        outcomes[row] = SendRetryPolicy.mayHaveBeenSentStatus(item.status())
+                            ? SendOutcome.unconfirmed(error)
+                            : SendOutcome.failed(error, SendRetryPolicy.isRetryableStatus(item.status()));
+                        log.error("❌ Failed to send email to {}: {}", messages.get(row).getTo(), error);
+                    }
+                }
 
-        } catch (Exception e) {
-            log.error("❌ Failed to send email: {}", e.getMessage(), e);
+                if (!throttled.isEmpty()) {
+                    rateLimiter.onThrottled(mailbox, retryAfter);
+                    if (attempt >= rateLimiter.getMaxThrottleRetries()) {
+                        log.error("❌ Giving up on {} throttled emails after {} attempts", throttled.size(), attempt + 1);
+                        break;
+                    }
+                }
 
-            // Emit failure
-            progressService.sendProgress(
-                new MailProgressEvent(
-                    to,
-                    false,
-                    -1,
-                    -1,
-                    "FAILED: " + e.getMessage()
-                )
-            );
+                pending = throttled;
+            }
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("❌ Failed to send batch: {}", e.getMessage(), e);
 
-            return false;
+            // Rows that had not been confirmed share the batch's error (and, if Graph may
+            // have taken the batch anyway, its doubt)
+            SendOutcome failed = SendOutcome.of(e);
+            for (int row : pending) {
+                outcomes[row] = failed;
+            }
         }
+
+        return Arrays.asList(outcomes);
+    }
+
+    /**
+     * Whether {@code sender}'s Sent Items hold a message tagged with {@code idempotencyKey}
+     * (see SendMailPayloadWriter#IDEMPOTENCY_KEY_PROPERTY), i.e. an earlier send of it went out.
+     *
+     * Throws if Graph cannot be asked, so a caller never takes "unknown" for "not sent".
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public boolean isInSentItems(GraphSender sender, String idempotencyKey) {
+        String filter = "singleValueExtendedProperties/any(ep: ep/id eq '" + SendMailPayloadWriter.IDEMPOTENCY_KEY_PROPERTY +
+            "' and ep/value eq '" + idempotencyKey.replace("'", "''") + "')";
+
+        // GET /me/mailFolders/sentitems/messages?$filter=...&$select=id&$top=1
+        JsonNode found = graphWebClient.get()
+            .uri(uri -> uri
+                .path("/me/mailFolders/sentitems/messages")
+                .queryParam("$filter", "{filter}")
+                .queryParam("$select", "id")
+                .queryParam("$top", "1")
+                .build(filter))
+            .attributes(sender.attributes())
+            .retrieve()
+            .bodyToMono(JsonNode.class)
+            .block();
+
+        return found != null && !found.path("value").isEmpty();
     }
 
     // =========================================================================
     // Helpers
     // =========================================================================
 
-    /** Utility: convert comma-separated addresses into Graph recipient objects. */
+    /** Streams a JSON request body into the request buffer. */
+    @FunctionalInterface
+    private interface JsonBodyWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Request body for /me/sendMail and /$batch: the JSON is written by SendMailPayloadWriter
+     * directly into one DataBuffer from the client's allocator (no Map tree, no intermediate String).
+     */
     // eslint-disable-next-line @typescript-eslint/member-ordering
-    private List<Map<String, Object>> buildRecipients(String addresses) {
-        if (addresses == null || addresses.isBlank()) return List.of();
-
-        // Split on commas, tolerating spaces
-        String[] parts = addresses.split(",\\s*");
-
-        List<Map<String, Object>> recipients = new ArrayList<>();
-        for (String addr : parts) {
-            if (!addr.isBlank()) {
-                recipients.add(
-                    Map.of(
-                        "emailAddress",
-                        Map.of("address", addr.trim())
-                    )
-                );
+    private static BodyInserter<Object, ReactiveHttpOutputMessage> jsonBody(long estimate, JsonBodyWriter writer) {
+        return (outputMessage, context) -> outputMessage.writeWith(Mono.fromCallable(() -> {
+            DataBuffer buffer = outputMessage.bufferFactory().allocateBuffer((int) Math.min(estimate, Integer.MAX_VALUE - 8));
+
+            try (OutputStream out = buffer.asOutputStream()) {
+                writer.write(out);
+                return buffer;
+            } catch (IOException | RuntimeException e) {
+                DataBufferUtils.release(buffer);
+                throw e;
             }
-        }
-
-        return recipients;
+        }));
     }
 }
@@ -0,0 +1,148 @@
+package mailmerge.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.service.graph.AdaptiveTokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Service;
+
+/**
+ * One {@link AdaptiveTokenBucket} per sending mailbox (Graph /me, i.e. the user's login).
+ *
+ * Metrics, tagged with the mailbox:
+ *  - mailmerge.graph.send.rate      current permitted rate (messages per minute)
+ *  - mailmerge.graph.throttled      429/503 responses received
+ *  - mailmerge.graph.send.permits   permits handed out
+ */
+@Service
+public class GraphRateLimiter {
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final Logger log = LoggerFactory.getLogger(GraphRateLimiter.class);
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final ApplicationProperties.MailMerge.RateLimit settings;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final MeterRegistry meterRegistry;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public GraphRateLimiter(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this.settings = applicationProperties.getMailMerge().getRateLimit();
+        this.meterRegistry = meterRegistry;
+    }
+
+    /** Block until {@code mailbox} may send its next message. */
+    public void acquire(String mailbox) throws InterruptedException {
+        Mailbox m = mailbox(mailbox);
+        m.bucket.acquire();
+        m.permits.increment();
+    }
+
+    public void onSuccess(String mailbox) {
+        mailbox(mailbox).bucket.onSuccess();
+    }
+
+    /** Record a throttling response; later permits for the mailbox wait out {@code retryAfter}. */
+    public void onThrottled(String mailbox, Duration retryAfter) {
+        AdaptiveTokenBucket bucket = mailbox(mailbox).bucket;
+        bucket.onThrottled(retryAfter);
+        log.warn("🐢 Graph throttled mailbox {}: retry after {}s, rate now {}/min",
+            mailbox, retryAfter.toSeconds(), String.format("%.1f", bucket.getRatePerMinute()));
+    }
+
+    /** Current rate for a mailbox (the initial rate if it has not sent anything yet). */
+    public double getRatePerMinute(String mailbox) {
+        Mailbox m = mailboxes.get(mailbox);
+        return m != null ? m.bucket.getRatePerMinute() : settings.getInitialPerMinute();
+    }
+
+    public int getMaxThrottleRetries() {
+        return settings.getMaxThrottleRetries();
+    }
+
+    /** 429 Too Many Requests, or 503 which Graph also uses for mailbox throttling. */
+    public static boolean isThrottling(HttpStatusCode status) {
+        return status.value() == HttpStatus.TOO_MANY_REQUESTS.value() || status.value() == HttpStatus.SERVICE_UNAVAILABLE.value();
+    }
+
+    /** Retry-After as delta-seconds or an HTTP date; the configured default when absent or unreadable. */
+    public Duration retryAfter(HttpHeaders headers) {
+        return retryAfter(headers != null ? headers.getFirst(HttpHeaders.RETRY_AFTER) : null);
+    }
+
+    /** Same as {@link #retryAfter(HttpHeaders)} for a raw header value (e.g. from a $batch sub-response). */
+    public Duration retryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return settings.getDefaultRetryAfter();
+        }
+
+        value = value.trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            // not delta-seconds, try HTTP-date below
+        }
+        try {
+            Duration until = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME));
+            return until.isNegative() ? Duration.ZERO : until;
+        } catch (DateTimeParseException e) {
+            return settings.getDefaultRetryAfter();
+        }
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private Mailbox mailbox(String mailbox) {
+        return mailboxes.computeIfAbsent(mailbox, this::register);
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private Mailbox register(String mailbox) {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(
+            settings.getInitialPerMinute(),
+            settings.getMinPerMinute(),
+            settings.getMaxPerMinute(),
+            settings.getIncreasePerMinute(),
+            settings.getDecreaseFactor(),
+            settings.getBurst(),
+            System::nanoTime
+        );
+
+        Gauge.builder("mailmerge.graph.send.rate", bucket, AdaptiveTokenBucket::getRatePerMinute)
+            .description("Permitted Graph send rate per mailbox (messages/minute)")
+            .tag("mailbox", mailbox)
+            .register(meterRegistry);
+        FunctionCounter.builder("mailmerge.graph.throttled", bucket, AdaptiveTokenBucket::getThrottleCount)
+            .description("Graph throttling responses (429/503) per mailbox")
+            .tag("mailbox", mailbox)
+            .register(meterRegistry);
+        Counter permits = Counter.builder("mailmerge.graph.send.permits")
+            .description("Graph send permits handed out per mailbox")
+            .tag("mailbox", mailbox)
+            .register(meterRegistry);
+
+        return new Mailbox(bucket, permits);
+    }
+
+    private record Mailbox(AdaptiveTokenBucket bucket, Counter permits) {}
+}
@@ -0,0 +1,174 @@
+package mailmerge.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.security.AuthoritiesConstants;
+import mailmerge.security.SecurityUtils;
+import mailmerge.service.merge.MailMergeJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs mail merge jobs on the dedicated "mailMergeExecutor" pool and keeps their live status
+ * queryable for a while after they finish. This state is in memory only; the rows themselves
+ * are in the outbox (see MailOutboxService), which does survive a restart.
+ */
+@Service
+public class MailMergeJobService {
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final Logger log = LoggerFactory.getLogger(MailMergeJobService.class);
+
+    /** The body of a job. Progress is reported through the job's counters. */
+    @FunctionalInterface
+    public interface JobWork {
+        void run(MailMergeJob job) throws Exception;
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final TaskExecutor executor;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Duration retention;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Map<String, MailMergeJob> jobs = new ConcurrentHashMap<>();
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public MailMergeJobService(@Qualifier("mailMergeExecutor") TaskExecutor executor, ApplicationProperties applicationProperties) {
+        this.executor = executor;
+        this.retention = applicationProperties.getMailMerge().getJobRetention();
+    }
+
+    /**
+     * Queue a job for the current user.
+     *
+     * The caller's SecurityContext is carried onto the worker thread, so Graph calls still
+     * go out with the user's token and SecurityUtils keeps working inside the job.
+     * {@code resources} (e.g. the opened spreadsheet) are closed when the job ends, or right
+     * away if the queue is full (TaskRejectedException).
+     */
+    public MailMergeJob submit(Closeable resources, JobWork work) {
+        String owner = SecurityUtils.getCurrentUserLogin().orElse(null);
+        MailMergeJob job = new MailMergeJob(owner);
+        jobs.put(job.getId(), job);
+
+        return execute(job, resources, work);
+    }
+
+    /**
+     * Queue a new run of an interrupted job under its old id and owner (replacing a finished
+     * run still kept here). Throws IllegalStateException, after closing {@code resources}, if
+     * a run of that job is still going.
+     */
+    public MailMergeJob resume(String id, String owner, Closeable resources, JobWork work) {
+        MailMergeJob job = new MailMergeJob(id, owner);
+        if (jobs.compute(id, (key, existing) -> existing == null || existing.isFinished() ? job : existing) != job) {
+            closeQuietly(resources);
+            throw new IllegalStateException("Mail merge job " + id + " is still running");
+        }
+
+        return execute(job, resources, work);
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private MailMergeJob execute(MailMergeJob job, Closeable resources, JobWork work) {
+        Runnable task = () -> run(job, resources, work);
+
+        try {
+            executor.execute(new DelegatingSecurityContextRunnable(task, SecurityContextHolder.getContext()));
+        } catch (TaskRejectedException e) {
+            jobs.remove(job.getId());
+            closeQuietly(resources);
+            throw e;
+        }
+
+        log.info("📥 Mail merge job {} queued for {}", job.getId(), job.getOwner());
+        return job;
+    }
+
+    /** A job owned by the current user (admins can see every job). */
+    public Optional<MailMergeJob> findForCurrentUser(String id) {
+        MailMergeJob job = jobs.get(id);
+        if (job == null) return Optional.empty();
+
+        if (SecurityUtils.hasCurrentUserThisAuthority(AuthoritiesConstants.ADMIN)) {
+            return Optional.of(job);
+        }
+
+        return SecurityUtils.getCurrentUserLogin().filter(login -> login.equals(job.getOwner())).map(login -> job);
+    }
+
+    /** Any live job, regardless of owner (for the outbox worker). */
+    public Optional<MailMergeJob> find(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /** Live jobs whose rows are all in the outbox and not yet processed. */
+    public List<MailMergeJob> findEnqueuedUnfinished() {
+        return jobs.values().stream().filter(job -> job.isEnqueued() && !job.isFinished()).toList();
+    }
+
+    /** Complete an enqueued job once all of its rows are processed (see MailMergeJob#completeIfDone). */
+    public void completeIfDone(MailMergeJob job) {
+        if (job.completeIfDone()) {
+            log.info("✅ Mail merge job {} finished: sent={} failed={} skipped={}",
+                job.getId(), job.getSentCount(), job.getFailedCount(), job.getSkippedCount());
+        }
+    }
+
+    /** Drop finished jobs once they are older than the retention period. */
+    @Scheduled(fixedDelayString = "PT10M")
+    public void purgeFinishedJobs() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(cutoff));
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void run(MailMergeJob job, Closeable resources, JobWork work) {
+        job.markRunning();
+        log.info("▶️ Mail merge job {} started", job.getId());
+
+        try (resources) {
+            work.run(job);
+            if (job.isEnqueued()) {
+                // Rows are in the outbox; the worker may already have sent them all
+                completeIfDone(job);
+            } else {
+                job.markCompleted();
+                log.info("✅ Mail merge job {} finished: sent={} failed={} skipped={}",
+                    job.getId(), job.getSentCount(), job.getFailedCount(), job.getSkippedCount());
+            }
+        } catch (Exception e) {
+            log.error("❌ Mail merge job {} failed", job.getId(), e);
+            job.markFailed(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static void closeQuietly(Closeable resources) {
+        try {
+            resources.close();
+        } catch (IOException e) {
+            log.debug("Ignoring error closing rejected job resources", e);
+        }
+    }
+}
@@ -2,20 +2,35 @@ package mailmerge.service;
 
 import mailmerge.service.dto.AttachmentDTO;
 import mailmerge.service.dto.MailProgressEvent;
-import org.apache.poi.ss.usermodel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import mailmerge.config.ApplicationProperties;
 import mailmerge.domain.User;
+import mailmerge.domain.enumeration.EmailStatus;
+import mailmerge.repository.MailOutboxRepository.JobSource;
+import mailmerge.repository.MailOutboxRepository.OutboxEmail;
+import mailmerge.repository.MailOutboxRepository.OutboxJob;
 import mailmerge.repository.UserRepository;
 import mailmerge.security.SecurityUtils;
 import mailmerge.service.dto.InlineImageDTO;
+import mailmerge.service.dto.MailMergeJobDTO;
+import mailmerge.service.dto.MailMergeRequestDTO;
+import mailmerge.service.graph.PreparedAttachments;
+import mailmerge.service.merge.MailMergeJob;
+import mailmerge.service.merge.MergeRowSource;
+import mailmerge.service.merge.MergeRowSources;
+import mailmerge.service.merge.MergeTemplateSet;
+import mailmerge.service.merge.MergedMessage;
 
 @Service
 public class MailMergeService {
@@ -33,19 +48,60 @@ public class MailMergeService {
     // eslint-disable-next-line @typescript-eslint/member-ordering
     private final MailProgressService progressService;
 
+    // Coalesced progress snapshots of running jobs
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final MailProgressAggregator progressAggregator;
+
     // Look up current user's email for test sending
     // eslint-disable-next-line @typescript-eslint/member-ordering
     private final UserRepository userRepository;
 
+    // Background execution + status of merge jobs
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final MailMergeJobService jobService;
+
+    // Durable outbox the rendered rows go to (sent by MailOutboxWorker)
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final MailOutboxService outboxService;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final int defaultConcurrency;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final int maxConcurrency;
+
+    // Rendered rows per JDBC batch insert into the outbox
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final int insertBatchSize;
+
+    // Retries one job may spend across all of its rows
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final int jobRetryBudget;
+
     // =========================================================================
     // Constructor
     // =========================================================================
 
     // eslint-disable-next-line @typescript-eslint/member-ordering
-    public MailMergeService(GraphMailService graphMailService, MailProgressService progressService, UserRepository userRepository) {
+    public MailMergeService(
+        GraphMailService graphMailService,
+        MailProgressService progressService,
+        MailProgressAggregator progressAggregator,
+        UserRepository userRepository,
+        MailMergeJobService jobService,
+        MailOutboxService outboxService,
+        ApplicationProperties applicationProperties
+    ) {
         this.graphMailService = graphMailService;
         this.progressService = progressService;
+        this.progressAggregator = progressAggregator;
         this.userRepository = userRepository;
+        this.jobService = jobService;
+        this.outboxService = outboxService;
+        this.defaultConcurrency = applicationProperties.getMailMerge().getSendConcurrency();
+        this.maxConcurrency = applicationProperties.getMailMerge().getSendThreads();
+        this.insertBatchSize = Math.max(1, applicationProperties.getMailMerge().getOutbox().getInsertBatchSize());
+        this.jobRetryBudget = applicationProperties.getMailMerge().getRetry().getJobBudget();
     }
 
     // =========================================================================
@@ -55,18 +111,11 @@ public class MailMergeService {
     /**
      * MODERN VERSION with full metadata (To, CC, BCC, Attachments, Spreadsheet)
      *
-     * Behaviour:
-     *  - Reads first sheet from base64 spreadsheet
-     *  - Uses row 0 as headers
-     *  - For each subsequent row:
-     *      - Builds a header->cellValue map
-     *      - Replaces {{header}} tokens in templates
-     *      - Sends via GraphMailService
-     *      - Pushes SSE progress events
-     *      - Throttles between rows (safeDelay)
+     * Legacy JSON entry point: spreadsheet, attachments and inline images arrive base64
+     * encoded. Everything is decoded once up front and handed to a background job.
      */
     // eslint-disable-next-line @typescript-eslint/member-ordering
-    public void sendMailMergeAdvanced(
+    public MailMergeJob submitMailMergeAdvanced(
         String subjectTemplate,
         String bodyTemplate,
         String toTemplate,
@@ -75,7 +124,9 @@ public class MailMergeService {
         String spreadsheetBase64,
         String spreadsheetFileContentType,
         List<Map<String, String>> attachments,
-        List<Map<String, String>> inlineImages) throws Exception {
+        List<Map<String, String>> inlineImages,
+        Integer concurrency,
+        Long projectId) throws IOException {
 
         // Guard: spreadsheet is required
         if (spreadsheetBase64 == null || spreadsheetBase64.isEmpty()) {
@@ -85,126 +136,44 @@ public class MailMergeService {
         // Decode spreadsheet bytes
         byte[] data = Base64.getDecoder().decode(spreadsheetBase64);
 
-        // Parse workbook using Apache POI
-        try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(data))) {
-            Sheet sheet = workbook.getSheetAt(0);
-            Iterator<Row> iterator = sheet.iterator();
-
-            // Guard: spreadsheet must have at least a header row
-            if (!iterator.hasNext()) {
-                throw new IllegalArgumentException("Spreadsheet is empty");
-            }
-
-            // Header row -> column names (trimmed)
-            Row headerRow = iterator.next();
-            List<String> headers = new ArrayList<>();
-            for (Cell cell : headerRow) {
-                headers.add(cell.getStringCellValue().trim());
-            }
+        MailMergeRequestDTO request = templates(subjectTemplate, bodyTemplate, toTemplate, ccTemplate, bccTemplate);
+        request.setConcurrency(concurrency);
+        request.setProjectId(projectId);
+
+        return submitRows(
+            request,
+            MergeRowSources.open(data, spreadsheetFileContentType),
+            new ByteArrayResource(data),
+            spreadsheetFileContentType,
+            buildAttachments(attachments),
+            buildInlineImages(inlineImages)
+        );
+    }
 
-            // Total rows excluding header (for progress bar)
-            int totalCount = Math.max(sheet.getPhysicalNumberOfRows() - 1, 0);
-            int sentCount = 0;
-
-            // Inline images are shared across all rows/sends
-            List<InlineImageDTO> inlineList = buildInlineImages(inlineImages);
-
-            // Process each data row
-            while (iterator.hasNext()) {
-                Row row = iterator.next();
-
-                // Build a map of "header -> cellValue" for this row
-                Map<String, String> rowData = new HashMap<>();
-                for (int i = 0; i < headers.size(); i++) {
-                    Cell cell = row.getCell(i);
-                    rowData.put(headers.get(i), cell != null ? cell.toString() : "");
-                }
-
-                // Replace {{placeholders}} for all headers in the given template string
-                java.util.function.Function<String, String> replace = template -> {
-                    if (template == null) return "";
-                    String out = template;
-
-                    for (var e : rowData.entrySet()) {
-                        String key = e.getKey() == null ? "" : e.getKey();
-
-                        // Replace patterns like: {{ key }} with the row value
-                        out = out.replaceAll(
-                            "\\{\\{\\s*" + Pattern.quote(key) + "\\s*\\}\\}",
-                            Matcher.quoteReplacement(e.getValue())
-                        );
-                    }
-
-                    return out;
-                };
-
-                // Apply replacements to each field
-                String to = replace.apply(toTemplate);
-                String cc = replace.apply(ccTemplate);
-                String bcc = replace.apply(bccTemplate);
-                String subject = replace.apply(subjectTemplate);
-                String body = replace.apply(bodyTemplate);
-
-                // If there is no "To" recipient, skip sending but still advance progress
-                if (to == null || to.trim().isEmpty()) {
-                    sentCount++; // ✅ count as processed so progress reaches totalCount
-
-                    log.warn("⚠️ Skipping row — missing 'to' address (sentCount={}/{})", sentCount, totalCount);
-
-                    progressService.sendProgress(
-                        new MailProgressEvent(
-                            "(skipped)",
-                            false,
-                            sentCount,
-                            totalCount,
-                            "Skipped row: missing 'To' after token/conditional replacement"
-                        )
-                    );
-
-                    continue;
-                }
-
-                // Build attachments list for this send
-                List<AttachmentDTO> attachList = new ArrayList<>();
-                if (attachments != null && !attachments.isEmpty()) {
-                    for (Map<String, String> a : attachments) {
-                        if (a == null) continue;
-
-                        String base64 = a.get("file");
-                        if (base64 == null || base64.isEmpty()) continue;
-
-                        AttachmentDTO dto = new AttachmentDTO();
-                        dto.setName(a.get("name"));
-                        dto.setFileContentType(a.get("fileContentType"));
-                        dto.setFile(Base64.getDecoder().decode(base64));
-                        attachList.add(dto);
-                    }
-                }
-
-                log.info("📧 Sending to={} cc={} bcc={} subject={} attachments={}",
-                    to, cc, bcc, subject, attachList.size());
-
-                // Do the actual send
-                boolean success = graphMailService.sendMail(to, cc, bcc, subject, body, attachList, inlineList);
-
-                // Count as processed after attempt
-                sentCount++;
-
-                // Push progress to SSE clients
-                progressService.sendProgress(
-                    new MailProgressEvent(
-                        to,
-                        success,
-                        sentCount,
-                        totalCount,
-                        success ? "Email sent successfully" : "Failed to send"
-                    )
-                );
-
-                // Optional throttle delay (avoid hammering Graph API)
-                safeDelay(1000);
-            }
-        }
+    /**
+     * Multipart entry point: the spreadsheet is streamed from its upload part (spooled to a
+     * temp file, never held as a byte[]), attachments/inline images are already raw bytes.
+     *
+     * The upload is spooled and validated on the caller's thread (the part is gone once the
+     * request ends); the sending itself runs as a background job.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public MailMergeJob submitMailMergeAdvanced(
+        MailMergeRequestDTO request,
+        InputStream spreadsheet,
+        String spreadsheetFileContentType,
+        List<AttachmentDTO> attachments,
+        List<InlineImageDTO> inlineImages) throws IOException {
+
+        Path spooled = MergeRowSources.spool(spreadsheet);
+        return submitRows(
+            request,
+            MergeRowSources.openSpooled(spooled, spreadsheetFileContentType),
+            new FileSystemResource(spooled),
+            spreadsheetFileContentType,
+            attachments,
+            inlineImages
+        );
     }
 
     /**
@@ -233,113 +202,315 @@ public class MailMergeService {
             throw new IllegalArgumentException("Spreadsheet is missing");
         }
 
-        // Resolve current logged-in user's email as the test recipient
-        String testRecipient = resolveCurrentUserEmail();
-
         // Decode spreadsheet bytes
         byte[] data = Base64.getDecoder().decode(spreadsheetBase64);
 
-        try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(data))) {
-            Sheet sheet = workbook.getSheetAt(0);
+        try (MergeRowSource rows = MergeRowSources.open(data, spreadsheetFileContentType)) {
+            sendTestRow(
+                templates(subjectTemplate, bodyTemplate, toTemplate, ccTemplate, bccTemplate),
+                rows,
+                buildAttachments(attachments),
+                buildInlineImages(inlineImages)
+            );
+        }
+    }
+
+    /** Multipart variant of {@link #sendMailMergeAdvancedTest(String, String, String, String, String, String, String, List, List)}. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public void sendMailMergeAdvancedTest(
+        MailMergeRequestDTO request,
+        InputStream spreadsheet,
+        String spreadsheetFileContentType,
+        List<AttachmentDTO> attachments,
+        List<InlineImageDTO> inlineImages) throws Exception {
 
-            // Header row is required
-            Row headerRow = sheet.getRow(0);
-            if (headerRow == null) {
+        try (MergeRowSource rows = MergeRowSources.open(spreadsheet, spreadsheetFileContentType)) {
+            sendTestRow(request, rows, attachments, inlineImages);
+        }
+    }
+
+    // =========================================================================
+    // Merge loops
+    // =========================================================================
+
+    /**
+     * Validate the sheet, compile templates and encode attachments on the caller's thread
+     * (so bad input fails the request), then queue the job that renders the rows into the
+     * outbox. The job owns {@code rows}; {@code spreadsheet} (the same file, readable until
+     * {@code rows} is closed) is stored with the job so it can be resumed.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private MailMergeJob submitRows(
+        MailMergeRequestDTO request,
+        MergeRowSource rows,
+        Resource spreadsheet,
+        String spreadsheetContentType,
+        List<AttachmentDTO> attachList,
+        List<InlineImageDTO> inlineList) throws IOException {
+
+        MergeTemplateSet templates;
+        PreparedAttachments prepared;
+        Long projectId = request.getProjectId();
+        try {
+            List<String> headers = rows.getHeaders();
+
+            // Guard: spreadsheet must have at least a header row
+            if (headers.isEmpty()) {
                 throw new IllegalArgumentException("Spreadsheet is empty");
             }
 
-            // First data row is required for test send
-            Row firstDataRow = sheet.getRow(1);
-            if (firstDataRow == null) {
-                throw new IllegalArgumentException("Spreadsheet has no data rows (needs at least 1 row under headers)");
+            // Emails are recorded against the project, so it has to be the caller's
+            if (projectId != null) {
+                outboxService.checkProjectOwnership(projectId);
             }
 
-            DataFormatter formatter = new DataFormatter();
+            // Parse templates once for the whole job (no per-row regex work)
+            templates = compile(request, headers);
 
-            // Build headers list from header row
-            List<String> headers = new ArrayList<>();
-            for (Cell cell : headerRow) {
-                headers.add(formatter.formatCellValue(cell).trim());
-            }
+            // Base64/JSON-encode attachments + inline images once; every row reuses the fragments
+            prepared = PreparedAttachments.of(attachList, inlineList);
+        } catch (RuntimeException e) {
+            rows.close();
+            throw e;
+        }
 
-            // Map headers -> values for the first data row only
-            Map<String, String> rowData = new HashMap<>();
-            for (int i = 0; i < headers.size(); i++) {
-                String header = headers.get(i);
-                if (header == null || header.trim().isEmpty()) continue;
+        int concurrency = concurrencyFor(request);
 
-                Cell cell = firstDataRow.getCell(i);
-                String value = cell != null ? formatter.formatCellValue(cell) : "";
-                rowData.put(header, value);
-            }
+        return jobService.submit(rows, job -> {
+            progressAggregator.track(job);
+            outboxService.createJob(job, projectId, concurrency, prepared, request, spreadsheet, spreadsheetContentType);
+            enqueueRows(job, rows, templates, projectId, 0, 0);
+        });
+    }
 
-            // Replace {{placeholders}} using first row only
-            java.util.function.Function<String, String> replace = template -> {
-                if (template == null) return "";
-                String out = template;
-
-                for (var e : rowData.entrySet()) {
-                    String key = e.getKey() == null ? "" : e.getKey();
-                    out = out.replaceAll(
-                        "\\{\\{\\s*" + Pattern.quote(key) + "\\s*\\}\\}",
-                        Matcher.quoteReplacement(e.getValue())
-                    );
-                }
-
-                return out;
-            };
-
-            String subject = replace.apply(subjectTemplate);
-            String body = replace.apply(bodyTemplate);
-
-            // Inline images are shared across the send
-            List<InlineImageDTO> inlineList = buildInlineImages(inlineImages);
-
-            // Make it obvious this is not a real send
-            if (subject == null) subject = "";
-            subject = "[TEST] " + subject;
-
-            // Build attachments list
-            List<AttachmentDTO> attachList = new ArrayList<>();
-            if (attachments != null && !attachments.isEmpty()) {
-                for (Map<String, String> a : attachments) {
-                    if (a == null) continue;
-
-                    String base64 = a.get("file");
-                    if (base64 == null || base64.isEmpty()) continue;
-
-                    AttachmentDTO dto = new AttachmentDTO();
-                    dto.setName(a.get("name"));
-                    dto.setFileContentType(a.get("fileContentType"));
-                    dto.setFile(Base64.getDecoder().decode(base64));
-                    attachList.add(dto);
-                }
-            }
+    /**
+     * Live status of a job while it is in memory; otherwise what the outbox still knows
+     * about it (e.g. after a restart). Only the current user's jobs (admins: all jobs).
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public Optional<MailMergeJobDTO> findJob(String id) {
+        Optional<MailMergeJobDTO> live = jobService.findForCurrentUser(id).map(job -> {
+            MailMergeJobDTO dto = MailMergeJobDTO.of(job);
+            dto.setFailures(outboxService.findFailures(id));
+            return dto;
+        });
+        return live.isPresent() ? live : outboxService.findStatusForCurrentUser(id);
+    }
 
-            log.info("🧪 Sending TEST email to={} subject={} attachments={}", testRecipient, subject, attachList.size());
+    /**
+     * Re-send only the rows a finished job gave up on (its failed list), as a new job with
+     * the same attachments. The rows are moved to the new job in the outbox with a single
+     * update, so retrying twice never sends a row twice.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public MailMergeJob retryFailed(MailMergeJobDTO source) {
+        if (source.getStatus() != MailMergeJob.Status.COMPLETED && source.getStatus() != MailMergeJob.Status.FAILED) {
+            throw new IllegalStateException("Mail merge job " + source.getId() + " is still running");
+        }
+        if (source.getFailures().isEmpty()) {
+            throw new IllegalStateException("Mail merge job " + source.getId() + " has no failed rows to retry");
+        }
 
-            // Send only to the current user (cc/bcc blanked)
-            boolean success = graphMailService.sendMail(
-                testRecipient,
-                "",   // cc
-                "",   // bcc
-                subject,
-                body,
-                attachList,
-                inlineList
+        OutboxJob outboxJob = outboxService.findJobForCurrentUser(source.getId())
+            .orElseThrow(() -> new IllegalStateException("Mail merge job " + source.getId() + " is not in the outbox"));
+
+        log.info("🔁 Retrying failed rows of mail merge job {}", source.getId());
+        return jobService.submit(() -> {}, job -> {
+            progressAggregator.track(job);
+            job.setTotalCount(source.getFailures().size());
+            job.setRetryBudget(jobRetryBudget);
+            job.markEnqueued(outboxService.requeueFailed(outboxJob, job));
+        });
+    }
+
+    /**
+     * Continue a job that stopped before all of its rows were queued (e.g. the instance was
+     * restarted mid-sheet), under the same id: its stored spreadsheet is read again and only
+     * the rows after its checkpoint are queued. Rows queued before keep being sent by the
+     * outbox worker; a row whose send was cut off is checked against Sent Items by its
+     * idempotency key first, so nothing goes out twice.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public MailMergeJob resume(String id) throws IOException {
+        OutboxJob outboxJob = outboxService.findJobForCurrentUser(id)
+            .orElseThrow(() -> new IllegalStateException("Mail merge job " + id + " is not in the outbox"));
+        if (outboxJob.enqueued()) {
+            throw new IllegalStateException("Mail merge job " + id + " already queued all of its rows; unsent rows are sent automatically");
+        }
+
+        JobSource source = outboxService.findSource(id)
+            .orElseThrow(() -> new IllegalStateException("Mail merge job " + id + " has no stored spreadsheet to resume from"));
+
+        MergeRowSource rows = outboxService.openSpreadsheet(id, source.spreadsheetContentType());
+        MergeTemplateSet templates;
+        try {
+            templates = compile(
+                templates(source.subjectTemplate(), source.bodyTemplate(), source.toTemplate(), source.ccTemplate(), source.bccTemplate()),
+                rows.getHeaders()
             );
+        } catch (RuntimeException e) {
+            rows.close();
+            throw e;
+        }
+
+        int checkpoint = outboxJob.checkpointRow();
+        log.info("⏯️ Resuming mail merge job {} after row {}", id, checkpoint);
+
+        return jobService.resume(id, outboxJob.ownerLogin(), rows, job -> {
+            progressAggregator.track(job);
+
+            // Rows an earlier run already handled: queued ones are in the outbox, the rest
+            // up to the checkpoint were skipped
+            Map<EmailStatus, Integer> counts = outboxService.countByStatus(id);
+            int queued = counts.values().stream().mapToInt(Integer::intValue).sum();
+            job.restore(counts.get(EmailStatus.SENT), counts.get(EmailStatus.FAILED), Math.max(0, checkpoint - queued));
+
+            enqueueRows(job, rows, templates, outboxJob.projectId(), checkpoint, queued);
+        });
+    }
+
+    /**
+     * Behaviour (runs on the mail merge executor, once the job is recorded in the outbox):
+     *  - Streams the first sheet (or CSV/TSV rows) of the spreadsheet (see MergeRowSources)
+     *  - For each data row after {@code checkpoint} (0 unless the job is resumed):
+     *      - Reads the row's cell values in column order
+     *      - Renders the templates (compiled once per job) for that row
+     *      - Adds the rendered message to the outbox, in JDBC batches of insert-batch-size,
+     *        each moving the job's checkpoint up to its last row in the same transaction
+     *
+     * Sending is up to MailOutboxWorker, which starts on the first batch while later rows
+     * are still being rendered, and completes the job once every row is processed.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void enqueueRows(
+        MailMergeJob job,
+        MergeRowSource rows,
+        MergeTemplateSet templates,
+        Long projectId,
+        int checkpoint,
+        int queuedBefore) throws IOException {
+
+        // Total rows excluding header (for progress bar)
+        int totalCount = rows.getEstimatedRowCount();
+        job.setTotalCount(totalCount);
+        job.setRetryBudget(jobRetryBudget);
+
+        List<OutboxEmail> chunk = new ArrayList<>(insertBatchSize);
+        int rowNumber = 0;
+        int queued = queuedBefore;
+
+        String[] values;
+        while ((values = rows.nextRow()) != null) {
+            // 1-based data row number, reported for rows that end up in the failed list
+            rowNumber++;
+
+            // Queued (or skipped) by an earlier run of this job
+            if (rowNumber <= checkpoint) {
+                continue;
+            }
+
+            // Render all five templates for this row in one pass each
+            MergedMessage merged = templates.render(values);
+
+            // If there is no "To" recipient, skip sending but still advance progress
+            if (merged.hasNoRecipient()) {
+                int processed = job.recordSkipped(); // ✅ count as processed so progress reaches totalCount
 
-            // Push progress as a 1/1 event
-            progressService.sendProgress(
-                new MailProgressEvent(
-                    testRecipient,
-                    success,
-                    1,
-                    1,
-                    success ? "Test email sent successfully" : "Failed to send test email"
+                log.warn("⚠️ Skipping row — missing 'to' address (processed={}/{})", processed, job.getTotalCount());
+                progressAggregator.update(job);
+
+                continue;
+            }
+
+            chunk.add(
+                OutboxEmail.pending(
+                    rowNumber,
+                    merged.getTo().trim(),
+                    merged.getCc(),
+                    merged.getBcc(),
+                    Objects.toString(merged.getSubject(), ""),
+                    Objects.toString(merged.getBody(), "")
                 )
             );
+
+            if (chunk.size() == insertBatchSize) {
+                outboxService.enqueue(job, projectId, chunk, rowNumber);
+                queued += chunk.size();
+                chunk.clear();
+            }
+        }
+
+        outboxService.enqueue(job, projectId, chunk, rowNumber);
+        queued += chunk.size();
+
+        outboxService.markEnqueued(job, queued, rowNumber);
+        job.markEnqueued(rowNumber);
+        log.info("📤 Mail merge job {} queued {} emails ({} rows skipped)", job.getId(), queued, job.getSkippedCount());
+
+        // The row count is an up-front estimate; if the sheet had gaps, the next snapshot
+        // carries the corrected progress bar total so the UI sees the job finish
+        if (rowNumber != totalCount) {
+            progressAggregator.update(job);
+        }
+    }
+
+    /** Render the first data row and send it to the current user only. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void sendTestRow(
+        MailMergeRequestDTO request,
+        MergeRowSource rows,
+        List<AttachmentDTO> attachList,
+        List<InlineImageDTO> inlineList) throws IOException {
+
+        // Resolve current logged-in user's email as the test recipient
+        String testRecipient = resolveCurrentUserEmail();
+
+        List<String> headers = rows.getHeaders();
+
+        // Header row is required
+        if (headers.isEmpty()) {
+            throw new IllegalArgumentException("Spreadsheet is empty");
+        }
+
+        // First data row is required for test send
+        String[] values = rows.nextRow();
+        if (values == null) {
+            throw new IllegalArgumentException("Spreadsheet has no data rows (needs at least 1 row under headers)");
         }
+
+        // Same compiled templates as the real send, rendered for the first row
+        MergedMessage merged = compile(request, headers).render(values);
+
+        String subject = merged.getSubject();
+        String body = merged.getBody();
+
+        // Make it obvious this is not a real send
+        if (subject == null) subject = "";
+        subject = "[TEST] " + subject;
+
+        log.info("🧪 Sending TEST email to={} subject={} attachments={}", testRecipient, subject, attachList.size());
+
+        // Send only to the current user (cc/bcc blanked)
+        boolean success = graphMailService.sendMail(
+            testRecipient,
+            "",   // cc
+            "",   // bcc
+            subject,
+            body,
+            attachList,
+            inlineList
+        );
+
+        // Push progress as a 1/1 event
+        progressService.sendProgress(
+            new MailProgressEvent(
+                testRecipient,
+                success,
+                1,
+                1,
+                success ? "Test email sent successfully" : "Failed to send test email"
+            )
+        );
     }
 
     // =========================================================================
@@ -361,15 +532,60 @@ public class MailMergeService {
             .orElseThrow(() -> new IllegalStateException("Could not resolve current user's email address"));
     }
 
-    /** Utility: short sleep between sends (throttle). */
+    /** Wrap the legacy loose template strings in the multipart request shape. */
     // eslint-disable-next-line @typescript-eslint/member-ordering
-    private void safeDelay(long millis) {
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException ignored) {
-            // preserve interrupt status if you want:
-            // Thread.currentThread().interrupt();
+    private static MailMergeRequestDTO templates(String subject, String body, String to, String cc, String bcc) {
+        MailMergeRequestDTO request = new MailMergeRequestDTO();
+        request.setSubjectTemplate(subject);
+        request.setBodyTemplate(body);
+        request.setToTemplate(to);
+        request.setCcTemplate(cc);
+        request.setBccTemplate(bcc);
+        return request;
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static MergeTemplateSet compile(MailMergeRequestDTO request, List<String> headers) {
+        return MergeTemplateSet.compile(
+            request.getSubjectTemplate(),
+            request.getBodyTemplate(),
+            request.getToTemplate(),
+            request.getCcTemplate(),
+            request.getBccTemplate(),
+            headers
+        );
+    }
+
+    /** Per-job concurrency: the request's value if given, else the default; always within [1, send-threads]. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private int concurrencyFor(MailMergeRequestDTO request) {
+        int requested = request.getConcurrency() != null ? request.getConcurrency() : defaultConcurrency;
+        return Math.max(1, Math.min(requested, maxConcurrency));
+    }
+
+    /**
+     * Convert attachment maps (name, fileContentType, file as base64) into AttachmentDTOs.
+     * Decoded once per job; the same list is reused for every row.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private List<AttachmentDTO> buildAttachments(List<Map<String, String>> attachments) {
+        List<AttachmentDTO> out = new ArrayList<>();
+        if (attachments == null) return out;
+
+        for (Map<String, String> a : attachments) {
+            if (a == null) continue;
+
+            String base64 = a.get("file");
+            if (base64 == null || base64.isEmpty()) continue;
+
+            AttachmentDTO dto = new AttachmentDTO();
+            dto.setName(a.get("name"));
+            dto.setFileContentType(a.get("fileContentType"));
+            dto.setFile(Base64.getDecoder().decode(base64));
+            out.add(dto);
         }
+
+        return out;
     }
 
     /**
@@ -0,0 +1,224 @@
+package mailmerge.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import mailmerge.domain.enumeration.EmailStatus;
+import mailmerge.repository.MailOutboxRepository;
+import mailmerge.repository.MailOutboxRepository.JobSource;
+import mailmerge.repository.MailOutboxRepository.OutboxEmail;
+import mailmerge.repository.MailOutboxRepository.OutboxJob;
+import mailmerge.repository.ProjectRepository;
+import mailmerge.security.AuthoritiesConstants;
+import mailmerge.security.SecurityUtils;
+import mailmerge.service.dto.MailMergeFailureDTO;
+import mailmerge.service.dto.MailMergeJobDTO;
+import mailmerge.service.dto.MailMergeRequestDTO;
+import mailmerge.service.graph.PreparedAttachments;
+import mailmerge.service.merge.MailMergeJob;
+import mailmerge.service.merge.MergeRowSource;
+import mailmerge.service.merge.MergeRowSources;
+import org.springframework.core.io.Resource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * The durable side of a mail merge job: a {@code mail_merge_job} row that records who the
+ * job sends as (OAuth2 principal + client registration, so the worker can find the user's
+ * Graph token after a restart) and one PENDING {@code email} row per rendered message.
+ *
+ * {@link MailOutboxWorker} drains the email rows; this service writes them and answers
+ * status questions for jobs that are no longer in memory.
+ *
+ * Until all rows are queued, the job also keeps its templates and spreadsheet and a
+ * checkpoint (the last row handled), so MailMergeService can resume it after a restart.
+ */
+@Service
+public class MailOutboxService {
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final MailOutboxRepository outboxRepository;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final ProjectRepository projectRepository;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public MailOutboxService(MailOutboxRepository outboxRepository, ProjectRepository projectRepository) {
+        this.outboxRepository = outboxRepository;
+        this.projectRepository = projectRepository;
+    }
+
+    /**
+     * Record a new job for the current user. Must run with the user's OAuth2 login in the
+     * SecurityContext (the request thread, or a job thread that inherited it).
+     */
+    public void createJob(MailMergeJob job, Long projectId, int concurrency, PreparedAttachments attachments) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (!(authentication instanceof OAuth2AuthenticationToken token)) {
+            throw new IllegalStateException("Mail merge jobs need an OAuth2 login to send through Microsoft Graph");
+        }
+
+        outboxRepository.insertJob(
+            new OutboxJob(
+                job.getId(),
+                job.getOwner(),
+                token.getName(),
+                token.getAuthorizedClientRegistrationId(),
+                projectId,
+                concurrency,
+                0,
+                false,
+                0,
+                attachments.isEmpty() ? null : attachments.toJson(),
+                job.getCreatedAt()
+            )
+        );
+    }
+
+    /**
+     * Same, and keep the job's templates and spreadsheet (until every row is queued) so the
+     * job can be resumed. Both rows are written in one transaction.
+     */
+    @Transactional
+    public void createJob(
+        MailMergeJob job,
+        Long projectId,
+        int concurrency,
+        PreparedAttachments attachments,
+        MailMergeRequestDTO templates,
+        Resource spreadsheet,
+        String spreadsheetContentType
+    ) throws IOException {
+        createJob(job, projectId, concurrency, attachments);
+
+        JobSource source = new JobSource(
+            templates.getSubjectTemplate(),
+            templates.getBodyTemplate(),
+            templates.getToTemplate(),
+            templates.getCcTemplate(),
+            templates.getBccTemplate(),
+            spreadsheetContentType
+        );
+        try (InputStream in = spreadsheet.getInputStream()) {
+            outboxRepository.insertSource(job.getId(), source, in, spreadsheet.contentLength());
+        }
+    }
+
+    /**
+     * Write rendered rows (one JDBC batch) and move the job's checkpoint to
+     * {@code checkpointRow}; the worker may start sending them right away.
+     */
+    public void enqueue(MailMergeJob job, Long projectId, List<OutboxEmail> emails, int checkpointRow) {
+        outboxRepository.enqueue(job.getId(), projectId, emails, checkpointRow);
+    }
+
+    /** All {@code emailCount} rows of the job (up to sheet row {@code lastRow}) are in the outbox. */
+    public void markEnqueued(MailMergeJob job, int emailCount, int lastRow) {
+        outboxRepository.markEnqueued(job.getId(), emailCount, lastRow);
+    }
+
+    /** The templates of a job that can still be resumed. */
+    public Optional<JobSource> findSource(String jobId) {
+        return outboxRepository.findSource(jobId);
+    }
+
+    /** Re-open the stored spreadsheet of a job (from a temp file, removed on close). */
+    public MergeRowSource openSpreadsheet(String jobId, String contentType) throws IOException {
+        Path tmp = Files.createTempFile("mailmerge-", ".resume");
+        if (!outboxRepository.copySpreadsheet(jobId, tmp)) {
+            Files.deleteIfExists(tmp);
+            throw new IllegalStateException("Mail merge job " + jobId + " has no stored spreadsheet to resume from");
+        }
+        return MergeRowSources.openSpooled(tmp, contentType);
+    }
+
+    /** Outbox rows of a job per status. */
+    public Map<EmailStatus, Integer> countByStatus(String jobId) {
+        return outboxRepository.countByStatus(jobId);
+    }
+
+    /** Throws if the project does not exist or belongs to someone else. */
+    public void checkProjectOwnership(Long projectId) {
+        String login = SecurityUtils.getCurrentUserLogin().orElse(null);
+        if (login == null || !projectRepository.existsByIdAndUser_Login(projectId, login)) {
+            throw new IllegalArgumentException("Project " + projectId + " not found");
+        }
+    }
+
+    /** The job row, if it belongs to the current user (admins see every job). */
+    public Optional<OutboxJob> findJobForCurrentUser(String id) {
+        return outboxRepository.findJob(id).filter(MailOutboxService::isVisibleToCurrentUser);
+    }
+
+    /**
+     * Status of a job rebuilt from the outbox alone, for jobs that are no longer in memory
+     * (e.g. after a restart). Counts only cover rows written to the outbox (no skipped rows),
+     * and there are no start/finish times.
+     */
+    public Optional<MailMergeJobDTO> findStatusForCurrentUser(String id) {
+        return findJobForCurrentUser(id).map(this::snapshot);
+    }
+
+    /** Rows of a job that failed for good and were not re-sent by a retry yet. */
+    public List<MailMergeFailureDTO> findFailures(String jobId) {
+        return outboxRepository.findFailed(jobId).stream().map(MailMergeFailureDTO::of).toList();
+    }
+
+    /**
+     * Move the failed rows of {@code source} to a new job that sends as the current user,
+     * with the same attachments. Returns the number of rows moved.
+     */
+    public int requeueFailed(OutboxJob source, MailMergeJob target) {
+        createJob(target, source.projectId(), source.concurrency(), PreparedAttachments.fromJson(source.attachments()));
+        int moved = outboxRepository.requeueFailed(source.id(), target.getId());
+        outboxRepository.markEnqueued(target.getId(), moved, 0);
+        return moved;
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private MailMergeJobDTO snapshot(OutboxJob job) {
+        Map<EmailStatus, Integer> counts = outboxRepository.countByStatus(job.id());
+        int pending = counts.get(EmailStatus.PENDING) + counts.get(EmailStatus.SENDING);
+        int sent = counts.get(EmailStatus.SENT);
+        int failed = counts.get(EmailStatus.FAILED);
+
+        MailMergeJobDTO dto = new MailMergeJobDTO();
+        dto.setId(job.id());
+        dto.setCreatedAt(job.createdAt());
+        dto.setTotalCount(job.enqueued() ? job.totalCount() : pending + sent + failed);
+        dto.setProcessedCount(sent + failed);
+        dto.setSentCount(sent);
+        dto.setFailedCount(failed);
+        dto.setFailures(findFailures(job.id()));
+
+        if (pending > 0) {
+            dto.setStatus(MailMergeJob.Status.RUNNING);
+        } else if (job.enqueued()) {
+            dto.setStatus(MailMergeJob.Status.COMPLETED);
+        } else {
+            // The instance stopped while it was still reading the sheet
+            dto.setStatus(MailMergeJob.Status.FAILED);
+            dto.setError("Interrupted after row " + job.checkpointRow() + "; the queued rows were sent, resume the job to queue the rest");
+        }
+        return dto;
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static boolean isVisibleToCurrentUser(OutboxJob job) {
+        if (SecurityUtils.hasCurrentUserThisAuthority(AuthoritiesConstants.ADMIN)) {
+            return true;
+        }
+        return SecurityUtils.getCurrentUserLogin().map(login -> login.equals(job.ownerLogin())).orElse(false);
+    }
+}
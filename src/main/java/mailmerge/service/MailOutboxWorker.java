@@ -0,0 +1,579 @@
+package mailmerge.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.domain.enumeration.EmailStatus;
+import mailmerge.repository.MailOutboxRepository;
+import mailmerge.repository.MailOutboxRepository.OutboxEmail;
+import mailmerge.repository.MailOutboxRepository.OutboxJob;
+import mailmerge.repository.MailOutboxRepository.SendResult;
+import mailmerge.service.dto.MailProgressEvent.RecentFailure;
+import mailmerge.service.graph.GraphAuthorizedClients;
+import mailmerge.service.graph.GraphSender;
+import mailmerge.service.graph.PreparedAttachments;
+import mailmerge.service.graph.SendMailPayloadWriter;
+import mailmerge.service.graph.SendOutcome;
+import mailmerge.service.graph.SendRetryPolicy;
+import mailmerge.service.merge.BoundedExecutor;
+import mailmerge.service.merge.MailMergeJob;
+import mailmerge.service.merge.MergedMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.stereotype.Service;
+
+/**
+ * Sends what merge jobs put in the outbox (the email table).
+ *
+ * Each job with due rows is drained on its own: a round leases a block of the job's due
+ * rows (see MailOutboxRepository#claim) and sends them as the job's owner, with at most the
+ * job's concurrency in flight, then the job goes to the back of the queue for its next
+ * round. A mailbox that Graph throttles only slows its own jobs down, and claims fewer rows
+ * at a time (see {@link #claimSizeFor}). Results are written back per send (SENT + sent_at,
+ * FAILED + last_error, or PENDING again with a later next_attempt_at for a retry), so a
+ * restart only re-sends rows whose send was in flight.
+ *
+ * Leases of rows still waiting to be sent are renewed every poll, so a slow round keeps its
+ * rows; a lease only runs out when its instance stops renewing it.
+ *
+ * The owner's Graph token is looked up (and refreshed) by the job's client registration and
+ * principal name for every send and handed to the Graph calls along with the owner's login;
+ * nothing runs under a SecurityContext. If the owner has no usable token left (never signed
+ * in on this database, or the refresh token was revoked), their rows fail.
+ *
+ * Retries no longer sleep on a send thread: a transiently failed row is simply not due
+ * until its jittered backoff has passed.
+ *
+ * Every message carries its row's idempotency key (job id + row number). A row whose lease
+ * ran out without a result (the instance died mid-send), or whose send failed in a way that
+ * Graph may still have accepted it (timeout, 5xx), comes back in doubt; before sending it
+ * again the worker looks for that key in the owner's Sent Items and, if the earlier send
+ * went through, only records it as SENT.
+ *
+ * Any instance drains any job's rows. The instance running a job counts the rows it sends
+ * itself straight away and picks up the others from the outbox ({@link #syncLiveJobs}).
+ */
+@Service
+public class MailOutboxWorker {
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final Logger log = LoggerFactory.getLogger(MailOutboxWorker.class);
+
+    // Graph's request size limit, applied to a whole $batch body
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final long MAX_BATCH_BYTES = 4L * 1024 * 1024;
+
+    // Jobs with due rows looked at per poll
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final int DUE_JOBS_PER_POLL = 100;
+
+    // Decoded attachments of recently drained jobs (they can be several MB each)
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final int ATTACHMENT_CACHE_SIZE = 8;
+
+    // =========================================================================
+    // Dependencies
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final MailOutboxRepository outboxRepository;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final GraphMailService graphMailService;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final MailProgressAggregator progressAggregator;
+
+    // Job owners' Graph tokens
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final GraphAuthorizedClients authorizedClients;
+
+    // Live (in-memory) jobs, for counters and completion
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final MailMergeJobService jobService;
+
+    // Shared pool for individual sends (its size is the global concurrency cap)
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final TaskExecutor sendExecutor;
+
+    // Pool the jobs' rounds run on, side by side
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final TaskExecutor jobExecutor;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final ApplicationProperties.MailMerge.Outbox settings;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final int maxConcurrency;
+
+    // Messages per Graph $batch request (1 = plain /me/sendMail)
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final int batchSize;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final SendRetryPolicy retryPolicy;
+
+    // Failures listed in a job's snapshots
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final int recentFailureLimit;
+
+    // Current send rate of each mailbox, for sizing claims
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final GraphRateLimiter rateLimiter;
+
+    // Jobs with a round queued or running on this instance
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Set<String> drainingJobs = ConcurrentHashMap.newKeySet();
+
+    // Lease end of each claim whose round is still sending, by claim token
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Map<String, Instant> leases = new ConcurrentHashMap<>();
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Map<String, PreparedAttachments> attachmentCache = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedAttachments> eldest) {
+                return size() > ATTACHMENT_CACHE_SIZE;
+            }
+        }
+    );
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public MailOutboxWorker(
+        MailOutboxRepository outboxRepository,
+        GraphMailService graphMailService,
+        MailProgressAggregator progressAggregator,
+        GraphAuthorizedClients authorizedClients,
+        MailMergeJobService jobService,
+        GraphRateLimiter rateLimiter,
+        @Qualifier("mailMergeSendExecutor") TaskExecutor sendExecutor,
+        @Qualifier("mailOutboxExecutor") TaskExecutor jobExecutor,
+        ApplicationProperties applicationProperties
+    ) {
+        this.outboxRepository = outboxRepository;
+        this.graphMailService = graphMailService;
+        this.progressAggregator = progressAggregator;
+        this.authorizedClients = authorizedClients;
+        this.jobService = jobService;
+        this.rateLimiter = rateLimiter;
+        this.sendExecutor = sendExecutor;
+        this.jobExecutor = jobExecutor;
+        this.settings = applicationProperties.getMailMerge().getOutbox();
+        this.maxConcurrency = applicationProperties.getMailMerge().getSendThreads();
+        this.batchSize = Math.max(1, Math.min(applicationProperties.getMailMerge().getBatchSize(), SendMailPayloadWriter.MAX_BATCH_SIZE));
+
+        ApplicationProperties.MailMerge.Retry retry = applicationProperties.getMailMerge().getRetry();
+        this.retryPolicy = new SendRetryPolicy(retry.getMaxAttempts(), retry.getInitialBackoff(), retry.getMaxBackoff());
+        this.recentFailureLimit = Math.max(0, applicationProperties.getMailMerge().getProgress().getRecentFailures());
+    }
+
+    // =========================================================================
+    // Drain
+    // =========================================================================
+
+    /**
+     * Renew the leases of rows still waiting to be sent, and queue a round for every job
+     * that has rows due and none queued or running here yet. Never waits for a send.
+     *
+     * Runs on its own scheduler ("mailOutboxScheduler"), not the shared scheduling pool, so
+     * leases are renewed on time however busy the pool is; rounds run on "mailOutboxExecutor"
+     * (up to drain-threads at a time).
+     */
+    @Scheduled(fixedDelayString = "${application.mail-merge.outbox.poll-interval:PT1S}", scheduler = "mailOutboxScheduler")
+    public void drain() {
+        renewLeases();
+        for (String jobId : outboxRepository.findJobsWithDueRows(Instant.now(), DUE_JOBS_PER_POLL)) {
+            if (drainingJobs.add(jobId)) {
+                queueRound(jobId);
+            }
+        }
+    }
+
+    /**
+     * Bring this instance's live jobs up to date with their outbox rows.
+     *
+     * Any instance's worker may send a job's rows, but only the instance running the job has
+     * it in memory and counts rows on it as it sends them; the database has all of them. Rows
+     * sent elsewhere show up in the job's snapshots from here, and the job completes once all
+     * of its rows are done, wherever they were sent.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @Scheduled(fixedDelayString = "${application.mail-merge.outbox.poll-interval:PT1S}")
+    public void syncLiveJobs() {
+        for (MailMergeJob live : jobService.findEnqueuedUnfinished()) {
+            try {
+                Map<EmailStatus, Integer> counts = outboxRepository.countByStatus(live.getId());
+                int failedBefore = live.getFailedCount();
+                if (live.syncOutbox(counts.get(EmailStatus.SENT), counts.get(EmailStatus.FAILED))) {
+                    if (live.getFailedCount() > failedBefore) {
+                        List<RecentFailure> failures = new ArrayList<>();
+                        for (OutboxEmail failed : outboxRepository.findLastFailed(live.getId(), recentFailureLimit)) {
+                            failures.add(0, new RecentFailure(failed.row(), failed.to(), failed.lastError()));
+                        }
+                        progressAggregator.failuresFromOutbox(live, failures);
+                    }
+                    progressAggregator.update(live);
+                }
+                completeIfDone(live);
+            } catch (DataAccessException e) {
+                log.warn("❌ Could not read the outbox progress of mail merge job {}: {}", live.getId(), e.getMessage());
+            }
+        }
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void queueRound(String jobId) {
+        try {
+            jobExecutor.execute(() -> round(jobId));
+        } catch (TaskRejectedException e) {
+            drainingJobs.remove(jobId);
+            log.warn("⚠️ Could not queue a drain of mail merge job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    /**
+     * One round of a job: claim a block of its due rows and send them. If there were any,
+     * the job is queued again behind the other jobs waiting for a drain thread, until it has
+     * nothing due.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void round(String jobId) {
+        boolean claimedAny = false;
+        try {
+            Optional<OutboxJob> found = outboxRepository.findJob(jobId);
+            int limit = found.map(job -> claimSizeFor(job.ownerLogin())).orElse(settings.getClaimSize());
+
+            Instant now = Instant.now();
+            Instant leaseUntil = now.plus(settings.getLease());
+            List<OutboxEmail> claimed = outboxRepository.claim(jobId, limit, now, leaseUntil);
+            claimedAny = !claimed.isEmpty();
+            if (claimedAny) {
+                String token = claimed.get(0).claimToken();
+                leases.put(token, leaseUntil);
+                try {
+                    sendJob(jobId, found, claimed);
+                } finally {
+                    leases.remove(token);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Claimed rows that were not written back are picked up again once their lease runs out
+            claimedAny = false;
+            log.error("❌ Outbox drain of mail merge job {} failed", jobId, e);
+        } finally {
+            if (claimedAny && !Thread.currentThread().isInterrupted()) {
+                queueRound(jobId);
+            } else {
+                drainingJobs.remove(jobId);
+            }
+        }
+    }
+
+    /**
+     * Rows a job claims per round: what its owner's mailbox can send in half a lease at the
+     * rate limiter's current rate, up to claim-size. A throttled mailbox claims a few rows at
+     * a time instead of a block that would sit behind the limiter for the whole lease.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    int claimSizeFor(String mailbox) {
+        double perMinute = rateLimiter.getRatePerMinute(mailbox);
+        double inHalfALease = perMinute * settings.getLease().toMillis() / 2 / 60_000d;
+        return (int) Math.max(1, Math.min(settings.getClaimSize(), Math.floor(inHalfALease)));
+    }
+
+    /** Push out the leases of running rounds that are past half their lease. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void renewLeases() {
+        Instant now = Instant.now();
+        Instant halfway = now.plus(settings.getLease().dividedBy(2));
+        leases.forEach((token, until) -> {
+            if (until.isAfter(halfway)) return;
+
+            Instant renewed = now.plus(settings.getLease());
+            try {
+                outboxRepository.renewLease(token, renewed);
+                leases.replace(token, until, renewed);
+            } catch (DataAccessException e) {
+                log.warn("❌ Could not renew an outbox lease (until {}): {}", until, e.getMessage());
+            }
+        });
+    }
+
+    /** Send one job's claimed rows as the job's owner and wait for them to finish. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    void sendJob(String jobId, List<OutboxEmail> emails) {
+        sendJob(jobId, outboxRepository.findJob(jobId), emails);
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void sendJob(String jobId, Optional<OutboxJob> found, List<OutboxEmail> emails) {
+        if (found.isEmpty()) {
+            log.warn("⚠️ Outbox rows for unknown mail merge job {}, marking {} rows failed", jobId, emails.size());
+            write(emails.stream().map(e -> SendResult.failed(e, "Mail merge job not found")).toList());
+            return;
+        }
+
+        OutboxJob job = found.orElseThrow();
+        MailMergeJob live = jobService.find(jobId).orElse(null);
+        PreparedAttachments prepared = attachmentCache.computeIfAbsent(jobId, id -> PreparedAttachments.fromJson(job.attachments()));
+
+        int concurrency = Math.max(1, Math.min(job.concurrency(), maxConcurrency));
+        int rowsPerBatch = batchSizeFor(prepared);
+
+        try (BoundedExecutor sends = new BoundedExecutor(sendExecutor, concurrency)) {
+            if (rowsPerBatch == 1) {
+                for (OutboxEmail email : emails) {
+                    sends.submit(() -> sendOne(job, live, email, prepared));
+                }
+            } else {
+                for (int from = 0; from < emails.size(); from += rowsPerBatch) {
+                    List<OutboxEmail> batch = List.copyOf(emails.subList(from, Math.min(emails.size(), from + rowsPerBatch)));
+                    sends.submit(() -> sendBatch(job, live, batch, prepared));
+                }
+            }
+        } catch (InterruptedException e) {
+            // Unsent rows keep their lease and are picked up again once it runs out
+            Thread.currentThread().interrupt();
+            log.warn("Outbox drain interrupted while sending mail merge job {}", jobId);
+        }
+    }
+
+    // =========================================================================
+    // Sends (run on the send pool)
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void sendOne(OutboxJob job, MailMergeJob live, OutboxEmail email, PreparedAttachments prepared) {
+        GraphSender sender = senderFor(job, live, List.of(email));
+        if (sender == null) return;
+
+        SendResult settled = settleInDoubt(sender, live, email);
+        if (settled != null) {
+            write(List.of(settled));
+            completeIfDone(live);
+            return;
+        }
+
+        log.info("📧 Sending to={} cc={} bcc={} subject={} attachments={} attempt={}",
+            email.to(), email.cc(), email.bcc(), email.subject(), prepared.size(), email.attempts());
+
+        SendOutcome outcome;
+        try {
+            outcome = graphMailService.send(sender, email.to(), email.cc(), email.bcc(), email.subject(), email.body(), prepared, email.idempotencyKey());
+        } catch (RuntimeException e) {
+            log.error("❌ Unexpected error sending to {}", email.to(), e);
+            outcome = SendOutcome.failed(e.getMessage(), false);
+        }
+
+        write(List.of(result(live, email, outcome)));
+        completeIfDone(live);
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void sendBatch(OutboxJob job, MailMergeJob live, List<OutboxEmail> claimed, PreparedAttachments prepared) {
+        GraphSender sender = senderFor(job, live, claimed);
+        if (sender == null) return;
+
+        List<SendResult> results = new ArrayList<>(claimed.size());
+        List<OutboxEmail> batch = new ArrayList<>(claimed.size());
+        for (OutboxEmail email : claimed) {
+            SendResult settled = settleInDoubt(sender, live, email);
+            if (settled != null) {
+                results.add(settled);
+            } else {
+                batch.add(email);
+            }
+        }
+
+        List<SendOutcome> outcomes = List.of();
+        if (!batch.isEmpty()) {
+            try {
+                outcomes = graphMailService.sendMailBatch(sender, batch.stream().map(MailOutboxWorker::message).toList(), prepared);
+            } catch (RuntimeException e) {
+                log.error("❌ Unexpected error sending batch of {}", batch.size(), e);
+                outcomes = Collections.nCopies(batch.size(), SendOutcome.failed(e.getMessage(), false));
+            }
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            results.add(result(live, batch.get(i), outcomes.get(i)));
+        }
+
+        write(results);
+        completeIfDone(live);
+    }
+
+    /**
+     * What to write back for one send, plus the live job's counters (reported to the UI in
+     * the job's next progress snapshot).
+     *
+     * A retryable failure goes back to PENDING until its backoff has passed, as long as the
+     * row has attempts left and the job still has retry budget (jobs that are no longer in
+     * memory are only limited per row). Everything else is final.
+     *
+     * An {@link SendOutcome#unconfirmed unconfirmed} failure (Graph may have taken the
+     * message) is retried in doubt instead, so the next claim looks for the row's
+     * idempotency key in Sent Items before sending it again.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    SendResult result(MailMergeJob live, OutboxEmail email, SendOutcome outcome) {
+        if (outcome.success()) {
+            if (live != null) live.recordSent(true);
+            progressAggregator.update(live);
+            return SendResult.sent(email, Instant.now());
+        }
+
+        boolean retry = outcome.retryable() && email.attempts() < retryPolicy.getMaxAttempts() && (live == null || live.tryConsumeRetry());
+        if (retry) {
+            Duration wait = retryPolicy.backoff(email.attempts());
+            log.warn("🔁 Retrying {} in {} ms (attempt {}/{}{}): {}",
+                email.to(), wait.toMillis(), email.attempts() + 1, retryPolicy.getMaxAttempts(),
+                outcome.unconfirmed() ? ", checking Sent Items first" : "", outcome.error());
+            progressAggregator.update(live);
+            Instant at = Instant.now().plus(wait);
+            return outcome.unconfirmed()
+                ? SendResult.recheckAt(email, outcome.error(), at)
+                : SendResult.retryAt(email, outcome.error(), at);
+        }
+
+        String error = outcome.error() != null ? outcome.error() : "Failed to send";
+        if (live != null) live.recordSent(false);
+        progressAggregator.rowFailed(live, email.row(), email.to(), error);
+        return SendResult.failed(email, error);
+    }
+
+    /**
+     * For a row that was claimed before without a result: find out whether that earlier send
+     * went out. Returns what to write back without sending (SENT if the row's idempotency key
+     * is in Sent Items; still in doubt if Graph could not be asked), or null to send the row.
+     *
+     * A row stays in doubt until the lookup succeeds; once its attempts run out it fails
+     * rather than risk a duplicate.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    SendResult settleInDoubt(GraphSender sender, MailMergeJob live, OutboxEmail email) {
+        if (!email.inDoubt()) return null;
+
+        try {
+            if (!graphMailService.isInSentItems(sender, email.idempotencyKey())) {
+                return null;
+            }
+            log.info("♻️ {} (row {} of job {}) was sent before its lease ran out, not sending it again", email.to(), email.row(), email.jobId());
+            return result(live, email, SendOutcome.sent());
+        } catch (RuntimeException e) {
+            String error = "Could not check Sent Items for an earlier send: " + e.getMessage();
+            if (email.attempts() >= retryPolicy.getMaxAttempts()) {
+                return result(live, email, SendOutcome.failed(error, false));
+            }
+
+            Duration wait = retryPolicy.backoff(email.attempts());
+            log.warn("🔁 {} (row {} of job {}) is in doubt, checking again in {} ms: {}",
+                email.to(), email.row(), email.jobId(), wait.toMillis(), e.getMessage());
+            return SendResult.recheckAt(email, error, Instant.now().plus(wait));
+        }
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    /**
+     * Write results back. Results of rows whose lease ran out before they came in are
+     * dropped by the repository: another claim has the row now.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void write(List<SendResult> results) {
+        int written = outboxRepository.complete(results);
+        if (written < results.size()) {
+            log.warn("⚠️ Dropped {} of {} send results: their lease ran out and the rows were claimed again", results.size() - written, results.size());
+        }
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void completeIfDone(MailMergeJob live) {
+        if (live != null) {
+            jobService.completeIfDone(live);
+        }
+    }
+
+    /**
+     * Rows per $batch for a job. Graph rejects request bodies over 4 MB, so large
+     * attachments (repeated in every message of the batch) shrink the batch, down to 1.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private int batchSizeFor(PreparedAttachments prepared) {
+        if (batchSize == 1) return 1;
+
+        long perMessage = 64 * 1024L + prepared.encodedLength();
+        long fits = MAX_BATCH_BYTES / perMessage;
+        return (int) Math.max(1, Math.min(batchSize, fits));
+    }
+
+    /**
+     * The job owner as a Graph sender: their login and their authorized client, refreshed if
+     * its access token has expired.
+     *
+     * Returns null after writing {@code emails} back if there is no token to send with: failed
+     * if the owner has to sign in again, retried later if the token could not be refreshed
+     * for now (rows in doubt stay in doubt).
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    GraphSender senderFor(OutboxJob job, MailMergeJob live, List<OutboxEmail> emails) {
+        SendOutcome outcome;
+        try {
+            OAuth2AuthorizedClient client = authorizedClients.authorize(job.clientRegistrationId(), job.principalName());
+            if (client != null) {
+                return new GraphSender(job.ownerLogin(), client);
+            }
+            outcome = SendOutcome.failed("No Microsoft sign-in stored for " + job.ownerLogin() + ", they need to sign in again", false);
+        } catch (OAuth2AuthorizationException e) {
+            String error = "Microsoft sign-in of " + job.ownerLogin() + " could not be refreshed: " + e.getMessage();
+            outcome = SendOutcome.failed(error, !needsSignIn(e));
+        } catch (RuntimeException e) {
+            outcome = SendOutcome.failed("Could not load the Microsoft sign-in of " + job.ownerLogin() + ": " + e.getMessage(), true);
+        }
+
+        log.error("❌ Cannot send {} rows of mail merge job {}: {}", emails.size(), job.id(), outcome.error());
+        List<SendResult> results = new ArrayList<>(emails.size());
+        for (OutboxEmail email : emails) {
+            boolean keepDoubt = email.inDoubt() && outcome.retryable();
+            results.add(result(live, email, keepDoubt ? SendOutcome.unconfirmed(outcome.error()) : outcome));
+        }
+        write(results);
+        completeIfDone(live);
+        return null;
+    }
+
+    /** Whether a token refresh failed for good (revoked or expired grant), not just for now. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static boolean needsSignIn(OAuth2AuthorizationException e) {
+        String code = e.getError().getErrorCode();
+        return (
+            OAuth2ErrorCodes.INVALID_GRANT.equals(code) ||
+            OAuth2ErrorCodes.INVALID_CLIENT.equals(code) ||
+            OAuth2ErrorCodes.UNAUTHORIZED_CLIENT.equals(code)
+        );
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static MergedMessage message(OutboxEmail email) {
+        return new MergedMessage(email.to(), email.cc(), email.bcc(), email.subject(), email.body(), email.idempotencyKey());
+    }
+}
@@ -0,0 +1,195 @@
+package mailmerge.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.service.dto.MailProgressEvent;
+import mailmerge.service.dto.MailProgressEvent.RecentFailure;
+import mailmerge.service.merge.MailMergeJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Coalesces a merge job's per-row progress into one SSE snapshot per interval.
+ *
+ * The merge loop and the outbox worker only count rows on the {@link MailMergeJob} (sent,
+ * failed, skipped, retried) and mark the job as changed here; failed rows are also kept
+ * in a short list of recent failures. Only the instance that runs a job has it in memory:
+ * rows another instance's outbox worker sends reach it through the outbox (see
+ * MailOutboxWorker#syncLiveJobs), not through here. {@link #flush()} then sends each changed job a
+ * single snapshot of its counters, however many rows were processed since the last one,
+ * and a final snapshot once the job has completed or failed.
+ */
+@Service
+public class MailProgressAggregator {
+
+    // =========================================================================
+    // Logging
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final Logger log = LoggerFactory.getLogger(MailProgressAggregator.class);
+
+    // =========================================================================
+    // Dependencies + state
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final MailProgressService progressService;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final int recentFailureLimit;
+
+    /** Jobs being reported on, until their final snapshot is sent. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final ConcurrentMap<String, JobProgress> jobs = new ConcurrentHashMap<>();
+
+    public MailProgressAggregator(MailProgressService progressService, ApplicationProperties applicationProperties) {
+        this.progressService = progressService;
+        this.recentFailureLimit = Math.max(0, applicationProperties.getMailMerge().getProgress().getRecentFailures());
+    }
+
+    // =========================================================================
+    // Public API
+    // =========================================================================
+
+    /** Start reporting on a job: it gets snapshots from now on, and a final one when it finishes. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public void track(MailMergeJob job) {
+        update(job);
+    }
+
+    /** The job's counters changed (row sent, skipped or retried, total corrected). */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public void update(MailMergeJob job) {
+        JobProgress progress = progress(job);
+        if (progress != null) {
+            progress.changed.set(true);
+        }
+    }
+
+    /** A row failed for good (already counted on the job); listed in the next snapshots. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public void rowFailed(MailMergeJob job, int row, String email, String error) {
+        JobProgress progress = progress(job);
+        if (progress != null) {
+            progress.addFailure(new RecentFailure(row, email, error), recentFailureLimit);
+            progress.changed.set(true);
+        }
+    }
+
+    /**
+     * Replace a job's recent failures with those read from the outbox (oldest first), which
+     * include rows failed on other instances.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public void failuresFromOutbox(MailMergeJob job, List<RecentFailure> failures) {
+        JobProgress progress = progress(job);
+        if (progress != null) {
+            progress.replaceFailures(failures, recentFailureLimit);
+            progress.changed.set(true);
+        }
+    }
+
+    /**
+     * Send one snapshot per changed job, and the final snapshot of every finished job
+     * (which is then no longer tracked).
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @Scheduled(fixedDelayString = "${application.mail-merge.progress.interval:PT0.25S}")
+    public void flush() {
+        jobs.forEach((id, progress) -> {
+            // Read before the counters: once finished, they no longer change
+            boolean finished = progress.job.isFinished();
+
+            if (progress.changed.getAndSet(false) || finished) {
+                try {
+                    progressService.sendProgress(progress.job.getOwner(), snapshot(progress, finished));
+                } catch (RuntimeException e) {
+                    log.warn("❌ Failed to send progress of mail merge job {}", id, e);
+                }
+            }
+            if (finished) {
+                jobs.remove(id, progress);
+            }
+        });
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private JobProgress progress(MailMergeJob job) {
+        // Jobs not in memory have no counters to report; a finished job already had its
+        // final snapshot (or gets it on the next flush)
+        if (job == null || (job.isFinished() && !jobs.containsKey(job.getId()))) {
+            return null;
+        }
+        return jobs.computeIfAbsent(job.getId(), id -> new JobProgress(job));
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static MailProgressEvent snapshot(JobProgress progress, boolean finished) {
+        MailMergeJob job = progress.job;
+
+        String message;
+        if (job.getStatus() == MailMergeJob.Status.FAILED) {
+            message = "Failed: " + job.getError();
+        } else {
+            message = (finished ? "Finished: " : "") + job.getSentCount() + " sent, " + job.getFailedCount() + " failed, " +
+                job.getSkippedCount() + " skipped of " + job.getTotalCount();
+        }
+
+        MailProgressEvent event = new MailProgressEvent(
+            job.getId(),
+            null,
+            job.getStatus() != MailMergeJob.Status.FAILED,
+            job.getProcessedCount(),
+            job.getTotalCount(),
+            message
+        );
+        event.failedCount = job.getFailedCount();
+        event.skippedCount = job.getSkippedCount();
+        event.retryCount = job.getRetryCount();
+        event.recentFailures = progress.recentFailures();
+        event.status = job.getStatus().name();
+        event.finished = finished;
+        return event;
+    }
+
+    /** One tracked job: whether it changed since its last snapshot, and its latest failures. */
+    private static final class JobProgress {
+
+        private final MailMergeJob job;
+        private final AtomicBoolean changed = new AtomicBoolean(true);
+        private final Deque<RecentFailure> failures = new ArrayDeque<>();
+
+        private JobProgress(MailMergeJob job) {
+            this.job = job;
+        }
+
+        private synchronized void addFailure(RecentFailure failure, int limit) {
+            failures.addLast(failure);
+            while (failures.size() > limit) {
+                failures.removeFirst();
+            }
+        }
+
+        private synchronized void replaceFailures(List<RecentFailure> latest, int limit) {
+            failures.clear();
+            latest.forEach(failure -> addFailure(failure, limit));
+        }
+
+        private synchronized List<RecentFailure> recentFailures() {
+            return new ArrayList<>(failures);
+        }
+    }
+}
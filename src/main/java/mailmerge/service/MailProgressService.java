@@ -1,15 +1,28 @@
 package mailmerge.service;
 
+import mailmerge.config.ApplicationProperties;
+import mailmerge.security.SecurityUtils;
 import mailmerge.service.dto.MailProgressEvent;
+import mailmerge.service.progress.ProgressBus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 @Service
 public class MailProgressService {
@@ -26,71 +39,291 @@ public class MailProgressService {
     // =========================================================================
 
     /**
-     * Thread-safe emitter list.
-     * CopyOnWriteArrayList is safe for:
+     * Who an emitter listens to: one user's events, for one job or (jobId null) all of them.
+     */
+    record Channel(String login, String jobId) {}
+
+    /**
+     * An event as sent, with its SSE id and its place in the order this instance received the
+     * user's events. Ids are unique across all users and jobs but, with several publishers,
+     * need not arrive in increasing order (see ProgressBus), so replay goes by arrival.
+     */
+    record BufferedEvent(long id, long arrival, MailProgressEvent event) {}
+
+    /**
+     * Clients by channel, so an event only visits the subscribers of its own job
+     * (plus its owner's unfiltered streams), never every connected browser.
+     *
+     * Each channel's set is copy-on-write, which is safe for:
      *  - frequent iteration (broadcasts)
      *  - occasional add/remove (client connect/disconnect)
      */
     // eslint-disable-next-line @typescript-eslint/member-ordering
-    private final CopyOnWriteArrayList<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<Channel, Set<SseDispatcher.Client>> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Recent events per user, for replay to reconnecting clients. Each user's entry is also
+     * the lock that orders their sends against (re)connects, so a client registering while
+     * an event is sent gets it exactly once: replayed or live.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final ConcurrentMap<String, UserEvents> users = new ConcurrentHashMap<>();
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final int replaySize;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Duration replayRetention;
+
+    // Writes the events to the browsers, off the caller's thread
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final SseDispatcher dispatcher;
+
+    // Carries events between instances (see ProgressBus); gives them their SSE ids
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final ProgressBus progressBus;
+
+    public MailProgressService(SseDispatcher dispatcher, ProgressBus progressBus, ApplicationProperties applicationProperties) {
+        this.dispatcher = dispatcher;
+        this.progressBus = progressBus;
+        this.replaySize = Math.max(1, applicationProperties.getMailMerge().getProgress().getReplaySize());
+        this.replayRetention = applicationProperties.getMailMerge().getProgress().getReplayRetention();
+
+        // Every instance's clients get every user's events through the bus, this one's included
+        progressBus.subscribe(this::deliver);
+    }
 
     // =========================================================================
     // Public API
     // =========================================================================
 
     /**
-     * Register an SSE client and keep the connection open indefinitely.
-     * The controller should return this emitter directly.
+     * Register an SSE client for {@code login}'s progress events and keep the connection
+     * open indefinitely: only job {@code jobId}'s events, or every event of the user when
+     * {@code jobId} is null. The controller should return this emitter directly.
+     *
+     * Events the client missed are replayed first from the replay buffers: those after
+     * {@code lastEventId} (the browser's Last-Event-ID on reconnect), or, for a new job
+     * stream, all of the job's buffered events so it starts from the current state.
      */
     // eslint-disable-next-line @typescript-eslint/member-ordering
-    public SseEmitter registerClient() {
+    public SseEmitter registerClient(String login, String jobId, Long lastEventId) {
         // 0L = no timeout (caller controls lifecycle; browser disconnect triggers cleanup handlers)
         SseEmitter emitter = new SseEmitter(0L);
+        Channel channel = new Channel(login, jobId);
 
-        // Track this client so we can broadcast events to them
-        emitters.add(emitter);
+        // Cleanup on any termination path (disconnect, failed write, stalled client)
+        SseDispatcher.Client client = dispatcher.open(emitter, c -> unregister(channel, c));
 
-        // Cleanup on any termination path
-        emitter.onCompletion(() -> emitters.remove(emitter));
-        emitter.onTimeout(() -> emitters.remove(emitter));
-        emitter.onError(e -> emitters.remove(emitter));
+        UserEvents user = user(login);
+        synchronized (user) {
+            // Track this client so we can send it its channel's events
+            // (added inside compute so a concurrent unregister cannot drop the set under us)
+            channels.compute(channel, (c, clients) -> {
+                Set<SseDispatcher.Client> set = clients != null ? clients : new CopyOnWriteArraySet<>();
+                set.add(client);
+                return set;
+            });
 
-        log.info("✅ SSE client registered, total clients={}", emitters.size());
+            List<BufferedEvent> missed = user.replay(jobId, lastEventId);
+            missed.forEach(event -> client.offer(toSse(event)));
+            if (!missed.isEmpty()) {
+                log.info("⏪ Replayed {} progress events to user={} job={}", missed.size(), login, jobId != null ? jobId : "(all)");
+            }
+        }
+
+        log.info("✅ SSE client registered for user={} job={}, channels={}", login, jobId != null ? jobId : "(all)", channels.size());
         return emitter;
     }
 
     /**
-     * Broadcast a progress event to all active SSE clients.
-     * Removes dead emitters that throw IOExceptions (client disconnected).
+     * Send a progress event to the current user's subscribers (see
+     * {@link #sendProgress(String, MailProgressEvent)}). Merge jobs and the outbox worker
+     * run as the job's owner, so this is the owner's login there too.
      */
     // eslint-disable-next-line @typescript-eslint/member-ordering
     public void sendProgress(MailProgressEvent event) {
-        if (event == null) return;
-
-        // Useful for debugging: shows what we broadcast and the "row progress" counters
-        log.info("📡 Broadcasting progress: email={} success={} {}/{} msg={}",
-            event.email, event.success, event.sentCount, event.totalCount, event.message);
-
-        // Collect dead emitters separately to avoid modifying the list while iterating
-        List<SseEmitter> deadEmitters = new ArrayList<>();
-
-        emitters.forEach(emitter -> {
-            try {
-                // Send a named SSE event so the frontend can listen to "mail-progress"
-                emitter.send(
-                    SseEmitter.event()
-                        .name("mail-progress")
-                        .data(event)
-                );
-            } catch (IOException e) {
-                // IOException usually means the client disconnected or network broke
-                log.warn("❌ Failed to send SSE to a client, removing emitter", e);
-                emitter.complete(); // close cleanly
-                deadEmitters.add(emitter);
+        sendProgress(SecurityUtils.getCurrentUserLogin().orElse(null), event);
+    }
+
+    /**
+     * Send a progress event to {@code login}'s subscribers, on whichever instance their
+     * streams are: the streams watching the event's job and the user's unfiltered streams
+     * (events without a job only reach the latter). Published on the progress bus, which
+     * calls {@link #deliver} on every instance.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public void sendProgress(String login, MailProgressEvent event) {
+        if (event == null || login == null) return;
+
+        // Useful for debugging: shows what we send and the "row progress" counters
+        log.debug("📡 Progress for user={} job={}: email={} success={} {}/{} msg={}",
+            login, event.jobId, event.email, event.success, event.sentCount, event.totalCount, event.message);
+
+        progressBus.publish(login, event);
+    }
+
+    /**
+     * An event from the progress bus, with its SSE id: kept in its job's replay buffer and
+     * queued for this instance's matching clients. Only queues the event (see SseDispatcher):
+     * never waits for a browser.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    void deliver(long id, String login, MailProgressEvent event) {
+        UserEvents user = user(login);
+        synchronized (user) {
+            BufferedEvent buffered = user.add(id, event, replaySize);
+
+            if (event.jobId != null) {
+                send(new Channel(login, event.jobId), buffered);
+            }
+            send(new Channel(login, null), buffered);
+        }
+    }
+
+    /** Drop the replay buffers of jobs that have had no events for replay-retention. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @Scheduled(fixedDelayString = "PT1M")
+    public void evictReplayBuffers() {
+        Instant cutoff = Instant.now().minus(replayRetention);
+        users.values().forEach(user -> {
+            synchronized (user) {
+                user.evictBefore(cutoff);
+            }
+        });
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private UserEvents user(String login) {
+        return users.computeIfAbsent(login, l -> new UserEvents());
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void send(Channel channel, BufferedEvent event) {
+        Set<SseDispatcher.Client> clients = channels.get(channel);
+        if (clients == null) return;
+
+        // Closed clients unregister themselves when they close; this catches one that closed
+        // before it was registered
+        clients.forEach(client -> {
+            if (!client.offer(toSse(event))) {
+                unregister(channel, client);
             }
         });
+    }
+
+    /**
+     * A named SSE event so the frontend can listen to "mail-progress"; the id comes back as
+     * Last-Event-ID when the browser reconnects. One builder per client (builders are
+     * single-use); the JSON is written by the dispatcher thread.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static SseEmitter.SseEventBuilder toSse(BufferedEvent event) {
+        return SseEmitter.event()
+            .id(Long.toString(event.id()))
+            .name("mail-progress")
+            .data(event.event());
+    }
+
+    /** Drop a client, and its channel once nobody listens to it any more. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void unregister(Channel channel, SseDispatcher.Client client) {
+        channels.computeIfPresent(channel, (c, clients) -> {
+            clients.remove(client);
+            return clients.isEmpty() ? null : clients;
+        });
+    }
 
-        // Remove all emitters that failed during this broadcast
-        emitters.removeAll(deadEmitters);
+    /**
+     * One user's replay buffers: a bounded ring of recent events per job (and one for events
+     * without a job). Guarded by the instance's monitor.
+     */
+    private static final class UserEvents {
+
+        private final Map<String, EventBuffer> buffers = new HashMap<>();
+
+        // Events received so far, numbering them in arrival order
+        private long arrivals;
+
+        // Highest id received, evicted events included
+        private long maxId = Long.MIN_VALUE;
+
+        BufferedEvent add(long id, MailProgressEvent event, int capacity) {
+            maxId = Math.max(maxId, id);
+            BufferedEvent buffered = new BufferedEvent(id, ++arrivals, event);
+            String key = event.jobId != null ? event.jobId : "";
+            buffers.computeIfAbsent(key, k -> new EventBuffer()).add(buffered, capacity);
+            return buffered;
+        }
+
+        /**
+         * Events to replay to a new client, in the order they arrived: everything that arrived
+         * after {@code lastEventId} if the browser sent one; otherwise everything buffered for a
+         * job stream and nothing for an unfiltered one.
+         *
+         * A client was sent the user's events in arrival order, so what it missed is what
+         * arrived after its last event, whatever their ids. Every instance receives the bus's
+         * events in the same order, so this also holds for a client that reconnects to another
+         * instance. Only if its last event has left the buffers already is it compared by id.
+         *
+         * An id above any this instance has received for the user was not given out here (it
+         * is from before a restart, or this instance started after the client's last event):
+         * where that event falls is unknown, so everything buffered is replayed.
+         */
+        List<BufferedEvent> replay(String jobId, Long lastEventId) {
+            if (jobId == null && lastEventId == null) {
+                return List.of();
+            }
+
+            Long lastArrival = lastEventId != null ? arrivalOf(lastEventId) : Long.valueOf(0);
+            if (lastArrival == null && lastEventId > maxId) {
+                lastArrival = 0L;
+            }
+            List<BufferedEvent> missed = new ArrayList<>();
+            for (Map.Entry<String, EventBuffer> buffer : buffers.entrySet()) {
+                if (jobId != null && !jobId.equals(buffer.getKey())) continue;
+
+                for (BufferedEvent event : buffer.getValue().events) {
+                    if (lastArrival != null ? event.arrival() > lastArrival : event.id() > lastEventId) {
+                        missed.add(event);
+                    }
+                }
+            }
+            missed.sort(Comparator.comparingLong(BufferedEvent::arrival));
+            return missed;
+        }
+
+        /** When the event with SSE id {@code id} arrived; null if it is no longer buffered. */
+        private Long arrivalOf(long id) {
+            for (EventBuffer buffer : buffers.values()) {
+                for (BufferedEvent event : buffer.events) {
+                    if (event.id() == id) return event.arrival();
+                }
+            }
+            return null;
+        }
+
+        void evictBefore(Instant cutoff) {
+            buffers.values().removeIf(buffer -> buffer.lastWrite.isBefore(cutoff));
+        }
+    }
+
+    /** Ring buffer of one job's latest events, oldest first. */
+    private static final class EventBuffer {
+
+        private final Deque<BufferedEvent> events = new ArrayDeque<>();
+        private Instant lastWrite = Instant.now();
+
+        void add(BufferedEvent event, int capacity) {
+            events.addLast(event);
+            while (events.size() > capacity) {
+                events.removeFirst();
+            }
+            lastWrite = Instant.now();
+        }
     }
 }
@@ -3,11 +3,17 @@
 
 package mailmerge.service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Optional;
 import mailmerge.domain.Project;
 import mailmerge.repository.ProjectRepository;
+import mailmerge.service.blob.BlobRef;
+import mailmerge.service.blob.BlobStore;
+import mailmerge.service.blob.LegacyLobColumns;
 import mailmerge.service.dto.ProjectDTO;
+import mailmerge.service.dto.ProjectSummaryDTO;
 import mailmerge.service.mapper.ProjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +24,11 @@ import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Service Implementation for managing {@link mailmerge.domain.Project}.
+ *
+ * A project's spreadsheet is kept in the {@link BlobStore}: saving stores the DTO's bytes
+ * there, and only {@link #findOne} reads them back (lists carry the size and hash only).
+ * Projects saved before the blob store are read from their old column until it is moved
+ * (see {@link LegacyLobColumns}).
  */
 @Service
 @Transactional
@@ -29,9 +40,20 @@ public class ProjectService {
 
     private final ProjectMapper projectMapper;
 
-    public ProjectService(ProjectRepository projectRepository, ProjectMapper projectMapper) {
+    private final BlobStore blobStore;
+
+    private final LegacyLobColumns legacyLobColumns;
+
+    public ProjectService(
+        ProjectRepository projectRepository,
+        ProjectMapper projectMapper,
+        BlobStore blobStore,
+        LegacyLobColumns legacyLobColumns
+    ) {
         this.projectRepository = projectRepository;
         this.projectMapper = projectMapper;
+        this.blobStore = blobStore;
+        this.legacyLobColumns = legacyLobColumns;
     }
 
     /**
@@ -43,6 +65,7 @@ public class ProjectService {
     public ProjectDTO save(ProjectDTO projectDTO) {
         LOG.debug("Request to save Project : {}", projectDTO);
         Project project = projectMapper.toEntity(projectDTO);
+        storeSpreadsheet(project, projectDTO.getSpreadsheetLink());
         project = projectRepository.save(project);
         return projectMapper.toDto(project);
     }
@@ -56,6 +79,8 @@ public class ProjectService {
     public ProjectDTO update(ProjectDTO projectDTO) {
         LOG.debug("Request to update Project : {}", projectDTO);
         Project project = projectMapper.toEntity(projectDTO);
+        // A full update: no spreadsheet in the DTO means the project has none
+        storeSpreadsheet(project, projectDTO.getSpreadsheetLink());
         project = projectRepository.save(project);
         return projectMapper.toDto(project);
     }
@@ -73,6 +98,9 @@ public class ProjectService {
             .findById(projectDTO.getId())
             .map(existingProject -> {
                 projectMapper.partialUpdate(existingProject, projectDTO);
+                if (projectDTO.getSpreadsheetLink() != null) {
+                    storeSpreadsheet(existingProject, projectDTO.getSpreadsheetLink());
+                }
 
                 return existingProject;
             })
@@ -98,7 +126,7 @@ public class ProjectService {
     @Transactional(readOnly = true)
     public Optional<ProjectDTO> findOne(Long id) {
         LOG.debug("Request to get Project : {}", id);
-        return projectRepository.findOneWithEagerRelationships(id).map(projectMapper::toDto);
+        return projectRepository.findOneWithEagerRelationships(id).map(this::toDtoWithSpreadsheet);
     }
 
     /**
@@ -110,11 +138,48 @@ public class ProjectService {
         LOG.debug("Request to delete Project : {}", id);
         projectRepository.deleteById(id);
     }
-    public List<ProjectDTO> findByUserLogin(String login) {
-        return projectRepository.findByUser_Login(login)
-            .stream()
-            .map(project -> projectMapper.toDto(project))
-            .toList();
+    /**
+     * Get the summaries of a user's projects, for the sidebar (details come from {@link #findOne}).
+     *
+     * @param login the login of the owner.
+     * @return the list of summaries.
+     */
+    @Transactional(readOnly = true)
+    public List<ProjectSummaryDTO> findSummariesByUserLogin(String login) {
+        return projectRepository.findSummariesByUser_Login(login).stream().map(ProjectSummaryDTO::of).toList();
     }
 
+    /**
+     * Store the spreadsheet's bytes and point the project at them (null: no spreadsheet).
+     * A spreadsheet still in the old column is replaced too, so it is not migrated later.
+     */
+    private void storeSpreadsheet(Project project, byte[] spreadsheet) {
+        if (spreadsheet == null) {
+            project.spreadsheetBlobKey(null).spreadsheetSize(null).spreadsheetSha256(null);
+        } else {
+            try {
+                BlobRef blob = blobStore.put(spreadsheet);
+                project.spreadsheetBlobKey(blob.key()).spreadsheetSize(blob.size()).spreadsheetSha256(blob.sha256());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not store the spreadsheet of project " + project.getId(), e);
+            }
+        }
+        // Only once the new content is stored
+        legacyLobColumns.clear(LegacyLobColumns.PROJECT_SPREADSHEET, project.getId());
+    }
+
+    private ProjectDTO toDtoWithSpreadsheet(Project project) {
+        ProjectDTO dto = projectMapper.toDto(project);
+        if (project.getSpreadsheetBlobKey() != null) {
+            try {
+                dto.setSpreadsheetLink(blobStore.read(project.getSpreadsheetBlobKey()));
+            } catch (IOException e) {
+                // Still open the project; the user can attach the spreadsheet again
+                LOG.error("Spreadsheet blob {} of project {} is unreadable", project.getSpreadsheetBlobKey(), project.getId(), e);
+            }
+        } else {
+            dto.setSpreadsheetLink(legacyLobColumns.read(LegacyLobColumns.PROJECT_SPREADSHEET, project.getId()));
+        }
+        return dto;
+    }
 }
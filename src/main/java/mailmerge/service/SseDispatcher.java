@@ -0,0 +1,222 @@
+package mailmerge.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import mailmerge.config.ApplicationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Writes SSE events to browsers on the progress executor instead of the caller's thread.
+ *
+ * Each client has a bounded queue; offering an event never blocks. A client's queue is
+ * drained by at most one dispatcher thread at a time, so its events keep their order.
+ * When a client falls behind and its queue is full, the oldest queued event is dropped:
+ * progress events are job snapshots, so the newest one is what the browser needs.
+ *
+ * Every heartbeat interval each client gets a comment ping, which finds browsers that went
+ * away without closing the connection. A client whose write has not returned within one
+ * interval (a half-dead connection) is dropped without waiting for that write to fail. The
+ * write itself fails at the server's socket write timeout, which frees its thread; until
+ * then the progress executor starts other threads for the other clients (see
+ * MailMergeConfiguration#mailProgressExecutor).
+ */
+@Service
+public class SseDispatcher {
+
+    // =========================================================================
+    // Logging
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final Logger log = LoggerFactory.getLogger(SseDispatcher.class);
+
+    // =========================================================================
+    // Dependencies + state
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final TaskExecutor executor;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final int queueSize;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Duration stallTimeout;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+    public SseDispatcher(@Qualifier("mailProgressExecutor") TaskExecutor executor, ApplicationProperties applicationProperties) {
+        this.executor = executor;
+        this.queueSize = Math.max(1, applicationProperties.getMailMerge().getProgress().getClientQueueSize());
+        this.stallTimeout = applicationProperties.getMailMerge().getProgress().getHeartbeatInterval();
+    }
+
+    // =========================================================================
+    // Public API
+    // =========================================================================
+
+    /**
+     * Start dispatching to {@code emitter}. {@code onClose} runs once when the client is
+     * closed: the browser disconnected, a write failed, or the client stalled.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    public Client open(SseEmitter emitter, Consumer<Client> onClose) {
+        Client client = new Client(emitter, onClose);
+        clients.add(client);
+
+        emitter.onCompletion(client::close);
+        emitter.onTimeout(client::close);
+        emitter.onError(e -> client.close());
+        return client;
+    }
+
+    /** Ping every client, and drop the ones stuck in a write since the last heartbeat. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @Scheduled(fixedDelayString = "${application.mail-merge.progress.heartbeat-interval:PT15S}")
+    public void heartbeat() {
+        Instant stalledBefore = Instant.now().minus(stallTimeout);
+        clients.forEach(client -> {
+            if (client.isStalled(stalledBefore)) {
+                log.warn("🐢 SSE client stalled in a write for over {} s, dropping it", stallTimeout.toSeconds());
+                client.close();
+            } else {
+                client.offer(SseEmitter.event().comment("ping"));
+            }
+        });
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    int clientCount() {
+        return clients.size();
+    }
+
+    /**
+     * One browser connection: its queue, and whether a dispatcher thread is draining it.
+     * Guarded by the instance's monitor, except for the write itself.
+     */
+    public final class Client {
+
+        private final SseEmitter emitter;
+        private final Consumer<Client> onClose;
+        private final Deque<SseEmitter.SseEventBuilder> queue = new ArrayDeque<>();
+
+        // A drain task is queued or running
+        private boolean draining;
+        private boolean closed;
+        private long dropped;
+
+        // Start of the write in progress, if any (read by the heartbeat)
+        private volatile Instant writingSince;
+
+        private Client(SseEmitter emitter, Consumer<Client> onClose) {
+            this.emitter = emitter;
+            this.onClose = onClose;
+        }
+
+        /** Queue an event for this browser; never blocks. False once the client is closed. */
+        public boolean offer(SseEmitter.SseEventBuilder event) {
+            synchronized (this) {
+                if (closed) return false;
+
+                if (queue.size() >= queueSize) {
+                    queue.removeFirst();
+                    if (dropped++ == 0) {
+                        log.info("🐢 SSE client is falling behind, dropping its oldest queued events");
+                    }
+                }
+                queue.addLast(event);
+
+                if (draining) return true;
+                draining = true;
+            }
+
+            try {
+                executor.execute(this::drain);
+            } catch (TaskRejectedException e) {
+                log.warn("❌ SSE dispatcher rejected a client, closing it", e);
+                synchronized (this) {
+                    draining = false;
+                }
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        /** Stop dispatching: drop the queue, tell the owner, and complete the emitter. */
+        public void close() {
+            boolean completeNow;
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                queue.clear();
+                // A write in progress may be blocked on the socket: leave the emitter to the
+                // draining thread, which completes it once the write returns or times out
+                completeNow = !draining;
+            }
+
+            clients.remove(this);
+            onClose.accept(this);
+            if (completeNow) {
+                complete();
+            }
+        }
+
+        // eslint-disable-next-line @typescript-eslint/member-ordering
+        private boolean isStalled(Instant stalledBefore) {
+            Instant since = writingSince;
+            return since != null && since.isBefore(stalledBefore);
+        }
+
+        /** Write queued events until the queue is empty (runs on the progress executor). */
+        // eslint-disable-next-line @typescript-eslint/member-ordering
+        private void drain() {
+            while (true) {
+                SseEmitter.SseEventBuilder event;
+                synchronized (this) {
+                    event = closed ? null : queue.pollFirst();
+                    if (event == null) {
+                        draining = false;
+                        if (closed) break;
+                        return;
+                    }
+                }
+
+                writingSince = Instant.now();
+                try {
+                    emitter.send(event);
+                } catch (IOException | IllegalStateException e) {
+                    // The client disconnected, the network broke, or the emitter is already done
+                    log.debug("SSE write failed, closing client: {}", e.getMessage());
+                    close();
+                } finally {
+                    writingSince = null;
+                }
+            }
+            complete();
+        }
+
+        // eslint-disable-next-line @typescript-eslint/member-ordering
+        private void complete() {
+            try {
+                emitter.complete();
+            } catch (RuntimeException e) {
+                log.debug("SSE emitter already completed: {}", e.getMessage());
+            }
+        }
+    }
+}
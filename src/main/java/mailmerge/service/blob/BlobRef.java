@@ -0,0 +1,6 @@
+package mailmerge.service.blob;
+
+/**
+ * A stored blob: the key to read it back with, its length in bytes and its SHA-256 (hex).
+ */
+public record BlobRef(String key, long size, String sha256) {}
@@ -0,0 +1,63 @@
+package mailmerge.service.blob;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.core.io.Resource;
+
+/**
+ * Stores the bytes of project spreadsheets and attachments outside their rows, which only
+ * keep a {@link BlobRef}. Blobs are content-addressed: storing the same bytes twice gives the
+ * same key and keeps one copy, so a blob may be shared by several rows and is never deleted
+ * on behalf of one of them (see {@link BlobStoreMaintenance} for unreferenced blobs).
+ *
+ * The implementation is {@link LocalBlobStore}, a directory on the local filesystem.
+ */
+public interface BlobStore {
+    /**
+     * Store {@code content} (read to the end, not closed); never buffers it whole. Returns once
+     * the blob is on durable storage, so the caller may then drop any other copy of it.
+     */
+    BlobRef put(InputStream content) throws IOException;
+
+    default BlobRef put(byte[] content) throws IOException {
+        return put(new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Stream a blob; the caller closes the stream.
+     *
+     * @throws java.nio.file.NoSuchFileException if there is no blob with that key.
+     */
+    InputStream open(String key) throws IOException;
+
+    /**
+     * A blob as a {@link Resource} that knows its length and can be opened more than once,
+     * so Spring MVC can serve it, or byte ranges of it, without reading it into memory.
+     *
+     * @throws java.nio.file.NoSuchFileException if there is no blob with that key.
+     */
+    Resource resource(String key) throws IOException;
+
+    default byte[] read(String key) throws IOException {
+        try (InputStream in = open(key)) {
+            return in.readAllBytes();
+        }
+    }
+
+    boolean exists(String key);
+
+    /** Keys of the blobs last stored before {@code cutoff} (storing existing bytes again counts). */
+    List<String> keysStoredBefore(Instant cutoff) throws IOException;
+
+    /** Remove a blob; does nothing if it does not exist. */
+    void delete(String key) throws IOException;
+
+    /**
+     * Remove a blob only if it was still last stored before {@code cutoff}, so one stored again
+     * since it was listed by {@link #keysStoredBefore} is kept; true if it was removed.
+     */
+    boolean deleteIfStoredBefore(String key, Instant cutoff) throws IOException;
+}
@@ -0,0 +1,219 @@
+package mailmerge.service.blob;
+
+import jakarta.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.service.blob.LegacyLobColumns.LegacyColumn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Background upkeep of the {@link BlobStore}:
+ *  - moves spreadsheets and attachment files still in the old LOB columns (written before
+ *    the blob store existed, see {@link LegacyLobColumns}) into the store, a few batches per
+ *    run until none are left, emptying those columns as it goes
+ *  - deletes blobs no row points at any more (replaced spreadsheets, deleted attachments),
+ *    once they are older than {@code application.blob-store.orphan-grace-period}
+ *
+ * Safe to run on several instances at once: both steps only change rows / files that are
+ * still in the state they were read in.
+ */
+@Service
+public class BlobStoreMaintenance {
+
+    // =========================================================================
+    // Logging + constants
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final Logger log = LoggerFactory.getLogger(BlobStoreMaintenance.class);
+
+    // Rows moved per table and batch (each in its own transaction)
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final int MIGRATION_BATCH_SIZE = 20;
+
+    // Batches per table moved in one run; reads fall back to rows not moved yet meanwhile
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final int MIGRATION_BATCHES_PER_RUN = 10;
+
+    // =========================================================================
+    // Dependencies + state
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final BlobStore blobStore;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final JdbcTemplate jdbcTemplate;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final TransactionTemplate transactionTemplate;
+
+    // Rows changed here bypass Hibernate: their cached entities are evicted
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final EntityManagerFactory entityManagerFactory;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Duration orphanGracePeriod;
+
+    // Nothing writes the old columns any more, so once they are empty they stay empty
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private volatile boolean legacyColumnsEmpty;
+
+    public BlobStoreMaintenance(
+        BlobStore blobStore,
+        JdbcTemplate jdbcTemplate,
+        TransactionTemplate transactionTemplate,
+        EntityManagerFactory entityManagerFactory,
+        ApplicationProperties applicationProperties
+    ) {
+        this.blobStore = blobStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+        this.orphanGracePeriod = applicationProperties.getBlobStore().getOrphanGracePeriod();
+    }
+
+    // =========================================================================
+    // Scheduled jobs
+    // =========================================================================
+
+    /**
+     * Move old LOB content into the blob store, a batch per table and transaction at a time,
+     * a few batches per run. Unmoved rows are still read from their old columns
+     * (see {@link LegacyLobColumns}), so there is no hurry to hold a scheduler thread for it.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @Scheduled(initialDelayString = "PT30S", fixedDelayString = "PT30S")
+    public void migrateLegacyColumns() {
+        if (legacyColumnsEmpty) return;
+
+        try {
+            for (int batch = 0; batch < MIGRATION_BATCHES_PER_RUN; batch++) {
+                if (!migrateBatch()) {
+                    legacyColumnsEmpty = true;
+                    return;
+                }
+            }
+        } catch (DataAccessException | UncheckedIOException e) {
+            // E.g. the schema is still being migrated (async Liquibase): try again next run
+            log.warn("❌ Could not move old LOB content into the blob store: {}", e.getMessage());
+        }
+    }
+
+    /** Delete blobs that no row points at, once past the grace period. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @Scheduled(initialDelayString = "PT5M", fixedDelayString = "PT1H")
+    public void deleteOrphans() {
+        try {
+            Instant cutoff = Instant.now().minus(orphanGracePeriod);
+            List<String> candidates = blobStore.keysStoredBefore(cutoff);
+            if (candidates.isEmpty()) return;
+
+            int deleted = 0;
+            for (String key : candidates) {
+                // A re-upload touches the blob before its row is saved: checking the time again
+                // after counting keeps a blob stored again since the count
+                if (references(key) == 0 && blobStore.deleteIfStoredBefore(key, cutoff)) {
+                    deleted++;
+                }
+            }
+            if (deleted > 0) {
+                log.info("🧹 Deleted {} unreferenced blobs", deleted);
+            }
+        } catch (IOException | DataAccessException e) {
+            log.warn("❌ Could not sweep the blob store: {}", e.getMessage());
+        }
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    /** Move up to one batch per table; true if there may be more left to move. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    boolean migrateBatch() {
+        int moved = 0;
+        boolean more = false;
+        for (LegacyColumn column : LegacyLobColumns.ALL) {
+            List<Long> ids = jdbcTemplate.queryForList(
+                "select id from " + column.table() + " where " + column.lob() + " is not null and " + column.key() + " is null" +
+                " order by id fetch first " + MIGRATION_BATCH_SIZE + " rows only",
+                Long.class
+            );
+            for (Long id : ids) {
+                if (migrate(column, id)) moved++;
+            }
+            more |= ids.size() == MIGRATION_BATCH_SIZE;
+        }
+
+        if (moved > 0) {
+            log.info("🗄️ Moved {} spreadsheets/attachments from the database into the blob store", moved);
+        }
+        return moved > 0 || more;
+    }
+
+    /**
+     * How many rows point at a blob: attachments share one blob per content, so this is its
+     * reference count. Counted on the key columns' indexes rather than kept in a counter,
+     * which cascaded deletes and bulk updates would let drift.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    long references(String key) {
+        Long references = jdbcTemplate.queryForObject(
+            "select (select count(*) from attachment where file_blob_key = ?)" +
+            " + (select count(*) from project where spreadsheet_blob_key = ?)",
+            Long.class,
+            key,
+            key
+        );
+        return references != null ? references : 0;
+    }
+
+    /**
+     * Move one row's LOB into the blob store; false if another instance got there first. The
+     * column is only emptied after {@link BlobStore#put} returned, i.e. the blob is durable.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private boolean migrate(LegacyColumn column, Long id) {
+        Boolean moved = transactionTemplate.execute(status -> {
+            BlobRef blob = jdbcTemplate.query(
+                "select " + column.lob() + " from " + column.table() + " where id = ? and " + column.key() + " is null",
+                (ResultSetExtractor<BlobRef>) rs -> {
+                    if (!rs.next()) return null;
+                    try (InputStream in = rs.getBinaryStream(1)) {
+                        return in != null ? blobStore.put(in) : null;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                },
+                id
+            );
+            if (blob == null) return false;
+
+            int updated = jdbcTemplate.update(
+                "update " + column.table() + " set " + column.key() + " = ?, " + column.size() + " = ?, " + column.sha256() + " = ?, " +
+                column.lob() + " = null where id = ? and " + column.key() + " is null",
+                blob.key(),
+                blob.size(),
+                blob.sha256(),
+                id
+            );
+            return updated == 1;
+        });
+
+        entityManagerFactory.getCache().evict(column.entity(), id);
+        return Boolean.TRUE.equals(moved);
+    }
+}
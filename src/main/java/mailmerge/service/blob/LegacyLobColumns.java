@@ -0,0 +1,68 @@
+package mailmerge.service.blob;
+
+import java.util.List;
+import mailmerge.domain.Attachment;
+import mailmerge.domain.Project;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+
+/**
+ * The LOB columns that held spreadsheets and attachment files before the {@link BlobStore}
+ * ({@code project.spreadsheet_link}, {@code attachment.file}).
+ *
+ * Entities no longer map them, and {@link BlobStoreMaintenance} moves their content into the
+ * store a batch at a time. Until it reaches a row, reads of a row without a blob key fall
+ * back to its old column here, and saving new content into a row empties that column, so the
+ * migration never picks up content that was replaced in the meantime.
+ */
+@Component
+public class LegacyLobColumns {
+
+    /** An old LOB column and the columns that now describe its blob. */
+    public record LegacyColumn(String table, String lob, String key, String size, String sha256, Class<?> entity) {}
+
+    public static final LegacyColumn PROJECT_SPREADSHEET = new LegacyColumn(
+        "project",
+        "spreadsheet_link",
+        "spreadsheet_blob_key",
+        "spreadsheet_size",
+        "spreadsheet_sha256",
+        Project.class
+    );
+
+    public static final LegacyColumn ATTACHMENT_FILE = new LegacyColumn(
+        "attachment",
+        "file",
+        "file_blob_key",
+        "size",
+        "file_sha256",
+        Attachment.class
+    );
+
+    static final List<LegacyColumn> ALL = List.of(PROJECT_SPREADSHEET, ATTACHMENT_FILE);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public LegacyLobColumns(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /** The old column's content of a row that has no blob yet; null if there is none. */
+    public byte[] read(LegacyColumn column, Long id) {
+        if (id == null) return null;
+
+        return jdbcTemplate.query(
+            "select " + column.lob() + " from " + column.table() + " where id = ? and " + column.key() + " is null",
+            (ResultSetExtractor<byte[]>) rs -> rs.next() ? rs.getBytes(1) : null,
+            id
+        );
+    }
+
+    /** Empty a row's old column: its content was replaced (or removed) by a save. */
+    public void clear(LegacyColumn column, Long id) {
+        if (id == null) return;
+
+        jdbcTemplate.update("update " + column.table() + " set " + column.lob() + " = null where id = ? and " + column.lob() + " is not null", id);
+    }
+}
@@ -0,0 +1,208 @@
+package mailmerge.service.blob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import mailmerge.config.ApplicationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+/**
+ * {@link BlobStore} in a local directory ({@code application.blob-store.root}). A blob's key
+ * is its SHA-256, and it lives under {@code ab/cd/abcd...} so no directory gets too large.
+ *
+ * Uploads are written to {@code tmp/} while they are hashed and then renamed into place, so
+ * a blob file is always complete; two identical uploads at once end up as one file. The file
+ * and its directories are fsynced before {@link #put} returns, so callers may drop their own
+ * copy of the bytes (e.g. BlobStoreMaintenance emptying the old LOB columns).
+ *
+ * The root has to be durable and shared by every instance of one database (in containers, a
+ * mounted volume). With {@code application.blob-store.create-root} false, as in prod, a missing
+ * root stops startup instead of being created on the container's own, throwaway filesystem.
+ */
+@Service
+public class LocalBlobStore implements BlobStore {
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final Logger log = LoggerFactory.getLogger(LocalBlobStore.class);
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}");
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Path root;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final Path tmp;
+
+    public LocalBlobStore(ApplicationProperties applicationProperties) {
+        ApplicationProperties.BlobStore settings = applicationProperties.getBlobStore();
+        this.root = Path.of(settings.getRoot()).toAbsolutePath();
+        this.tmp = root.resolve("tmp");
+
+        if (!settings.isCreateRoot() && !Files.isDirectory(root)) {
+            throw new IllegalStateException(
+                "Blob store root " + root + " does not exist: mount the shared blob volume there or set application.blob-store.root"
+            );
+        }
+        try {
+            Files.createDirectories(tmp);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create the blob store directory " + tmp + " (is it writable by this user?)", e);
+        }
+        if (!Files.isWritable(root) || !Files.isWritable(tmp)) {
+            throw new IllegalStateException("Blob store root " + root + " is not writable by this user");
+        }
+        log.info("🗄️ Blob store in {}", root);
+    }
+
+    @Override
+    public BlobRef put(InputStream content) throws IOException {
+        Path upload = Files.createTempFile(tmp, "upload-", ".part");
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (
+                FileChannel channel = FileChannel.open(upload, StandardOpenOption.WRITE);
+                OutputStream out = new DigestOutputStream(Channels.newOutputStream(channel), digest)
+            ) {
+                size = content.transferTo(out);
+                out.flush();
+                channel.force(true);
+            }
+            String key = HexFormat.of().formatHex(digest.digest());
+
+            Path target = path(key);
+            // Already stored: just mark it as in use again, for the orphan sweep
+            if (!touch(target)) {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(upload, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // The same bytes were stored concurrently
+                }
+                // The rename and any new directories, down to the root
+                for (Path dir = target.getParent(); dir != null && dir.startsWith(root); dir = dir.getParent()) {
+                    syncDirectory(dir);
+                }
+            }
+            return new BlobRef(key, size, key);
+        } finally {
+            Files.deleteIfExists(upload);
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(path(key));
+    }
+
+    @Override
+    public Resource resource(String key) throws IOException {
+        Path path = path(key);
+        if (!Files.isRegularFile(path)) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return new FileSystemResource(path);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(path(key));
+    }
+
+    @Override
+    public List<String> keysStoredBefore(Instant cutoff) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files
+                .filter(file -> !file.startsWith(tmp) && KEY.matcher(file.getFileName().toString()).matches())
+                .filter(file -> {
+                    try {
+                        return Files.getLastModifiedTime(file).toInstant().isBefore(cutoff);
+                    } catch (IOException e) {
+                        // Deleted meanwhile
+                        return false;
+                    }
+                })
+                .map(file -> file.getFileName().toString())
+                .toList();
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(path(key));
+    }
+
+    @Override
+    public boolean deleteIfStoredBefore(String key, Instant cutoff) throws IOException {
+        Path path = path(key);
+        try {
+            if (!Files.getLastModifiedTime(path).toInstant().isBefore(cutoff)) return false;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        return Files.deleteIfExists(path);
+    }
+
+    /** Set a blob's last-modified time to now; false if it does not exist (or was just swept). */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static boolean touch(Path file) throws IOException {
+        try {
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /** Flush a directory's entries to disk (where the platform allows opening directories). */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static void syncDirectory(Path dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (UnsupportedOperationException | AccessDeniedException e) {
+            // E.g. Windows: directories cannot be opened, and NTFS journals renames itself
+            log.debug("Cannot fsync directory {}: {}", dir, e.toString());
+        }
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private Path path(String key) {
+        // Keys come from our own rows, but never let one point outside the store
+        if (key == null || !KEY.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid blob key: " + key);
+        }
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
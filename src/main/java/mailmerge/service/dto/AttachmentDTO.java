@@ -13,9 +13,13 @@ public class AttachmentDTO implements Serializable {
 
     private Long id;
 
+    // The file's bytes, kept in the blob store (see AttachmentService)
     @Lob
     private byte[] file;
 
+    // SHA-256 of the stored file (read-only: set from the blob store)
+    private String fileSha256;
+
     // MIME type of the file (e.g. application/pdf, image/png)
     private String fileContentType;
 
@@ -44,6 +48,14 @@ public class AttachmentDTO implements Serializable {
         this.file = file;
     }
 
+    public String getFileSha256() {
+        return fileSha256;
+    }
+
+    public void setFileSha256(String fileSha256) {
+        this.fileSha256 = fileSha256;
+    }
+
     public String getFileContentType() {
         return fileContentType;
     }
@@ -110,7 +122,7 @@ public class AttachmentDTO implements Serializable {
     public String toString() {
         return "AttachmentDTO{" +
             "id=" + getId() +
-            ", file='" + getFile() + "'" +
+            ", fileSha256='" + getFileSha256() + "'" +
             ", fileContentType='" + getFileContentType() + "'" +
             ", name='" + getName() + "'" +
             ", size=" + getSize() +
@@ -0,0 +1,71 @@
+package mailmerge.service.dto;
+
+import java.io.Serializable;
+import mailmerge.repository.MailOutboxRepository.OutboxEmail;
+
+/**
+ * A row of a merge job that could not be sent (after retries), as listed in
+ * {@link MailMergeJobDTO#getFailures()}. The rendered body is not exposed.
+ */
+public class MailMergeFailureDTO implements Serializable {
+
+    // 1-based data row of the spreadsheet (header excluded)
+    private int row;
+
+    private String to;
+
+    private String subject;
+
+    private String error;
+
+    public static MailMergeFailureDTO of(OutboxEmail email) {
+        MailMergeFailureDTO dto = new MailMergeFailureDTO();
+        dto.row = email.row();
+        dto.to = email.to();
+        dto.subject = email.subject();
+        dto.error = email.lastError();
+        return dto;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    // prettier-ignore
+    @Override
+    public String toString() {
+        return "MailMergeFailureDTO{" +
+            "row=" + getRow() +
+            ", to='" + getTo() + "'" +
+            ", error='" + getError() + "'" +
+            "}";
+    }
+}
@@ -0,0 +1,175 @@
+package mailmerge.service.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import mailmerge.service.merge.MailMergeJob;
+
+/**
+ * Snapshot of a background mail merge job, returned by POST /send-advanced (202) and
+ * GET /api/mail-merge/jobs/{id}.
+ */
+public class MailMergeJobDTO implements Serializable {
+
+    private String id;
+
+    private MailMergeJob.Status status;
+
+    // Estimated up front; corrected to the real row count when the job finishes
+    private int totalCount;
+
+    private int processedCount;
+
+    private int sentCount;
+
+    private int failedCount;
+
+    private int skippedCount;
+
+    private Instant createdAt;
+
+    private Instant startedAt;
+
+    private Instant finishedAt;
+
+    private String error;
+
+    // Transient-error retries spent by this job
+    private int retryCount;
+
+    // Rows given up on (from the outbox); POST /jobs/{id}/retry-failed re-sends exactly these
+    private List<MailMergeFailureDTO> failures = new ArrayList<>();
+
+    public static MailMergeJobDTO of(MailMergeJob job) {
+        MailMergeJobDTO dto = new MailMergeJobDTO();
+        dto.id = job.getId();
+        dto.status = job.getStatus();
+        dto.totalCount = job.getTotalCount();
+        dto.processedCount = job.getProcessedCount();
+        dto.sentCount = job.getSentCount();
+        dto.failedCount = job.getFailedCount();
+        dto.skippedCount = job.getSkippedCount();
+        dto.createdAt = job.getCreatedAt();
+        dto.startedAt = job.getStartedAt();
+        dto.finishedAt = job.getFinishedAt();
+        dto.error = job.getError();
+        dto.retryCount = job.getRetryCount();
+        return dto;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public MailMergeJob.Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(MailMergeJob.Status status) {
+        this.status = status;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(int totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    public int getProcessedCount() {
+        return processedCount;
+    }
+
+    public void setProcessedCount(int processedCount) {
+        this.processedCount = processedCount;
+    }
+
+    public int getSentCount() {
+        return sentCount;
+    }
+
+    public void setSentCount(int sentCount) {
+        this.sentCount = sentCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    public void setFailedCount(int failedCount) {
+        this.failedCount = failedCount;
+    }
+
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    public void setSkippedCount(int skippedCount) {
+        this.skippedCount = skippedCount;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    public List<MailMergeFailureDTO> getFailures() {
+        return failures;
+    }
+
+    public void setFailures(List<MailMergeFailureDTO> failures) {
+        this.failures = failures;
+    }
+
+    // prettier-ignore
+    @Override
+    public String toString() {
+        return "MailMergeJobDTO{" +
+            "id='" + getId() + "'" +
+            ", status='" + getStatus() + "'" +
+            ", processedCount=" + getProcessedCount() +
+            ", totalCount=" + getTotalCount() +
+            "}";
+    }
+}
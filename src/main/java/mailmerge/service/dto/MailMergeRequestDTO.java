@@ -0,0 +1,88 @@
+package mailmerge.service.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON part ("request") of a multipart mail merge upload.
+ *
+ * The spreadsheet, attachments and inline images travel as binary parts next to it;
+ * inlineImageCids[i] is the content id of the i-th "inlineImages" part.
+ */
+public class MailMergeRequestDTO {
+
+    private String subjectTemplate;
+    private String bodyTemplate;
+    private String toTemplate;
+    private String ccTemplate;
+    private String bccTemplate;
+    private List<String> inlineImageCids = new ArrayList<>();
+    // Optional: parallel sends for this job (server default and cap apply)
+    private Integer concurrency;
+    // Optional: project the outbox emails are linked to (must belong to the caller)
+    private Long projectId;
+
+    public String getSubjectTemplate() {
+        return subjectTemplate;
+    }
+
+    public void setSubjectTemplate(String subjectTemplate) {
+        this.subjectTemplate = subjectTemplate;
+    }
+
+    public String getBodyTemplate() {
+        return bodyTemplate;
+    }
+
+    public void setBodyTemplate(String bodyTemplate) {
+        this.bodyTemplate = bodyTemplate;
+    }
+
+    public String getToTemplate() {
+        return toTemplate;
+    }
+
+    public void setToTemplate(String toTemplate) {
+        this.toTemplate = toTemplate;
+    }
+
+    public String getCcTemplate() {
+        return ccTemplate;
+    }
+
+    public void setCcTemplate(String ccTemplate) {
+        this.ccTemplate = ccTemplate;
+    }
+
+    public String getBccTemplate() {
+        return bccTemplate;
+    }
+
+    public void setBccTemplate(String bccTemplate) {
+        this.bccTemplate = bccTemplate;
+    }
+
+    public List<String> getInlineImageCids() {
+        return inlineImageCids;
+    }
+
+    public void setInlineImageCids(List<String> inlineImageCids) {
+        this.inlineImageCids = inlineImageCids;
+    }
+
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(Integer concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public void setProjectId(Long projectId) {
+        this.projectId = projectId;
+    }
+}
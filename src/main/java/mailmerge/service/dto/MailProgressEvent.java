@@ -1,17 +1,55 @@
 package mailmerge.service.dto;
 
+import java.util.List;
+
 public class MailProgressEvent {
+    // Merge job the event belongs to; null for sends outside a job (test sends, Graph retries)
+    public String jobId;
     public String email;
     public boolean success;
+    // Rows processed so far (sent + failed + skipped)
     public int sentCount;
     public int totalCount;
     public String message;
 
+    // Job snapshots only (see MailProgressAggregator)
+    public int failedCount;
+    public int skippedCount;
+    public int retryCount;
+    public List<RecentFailure> recentFailures;
+    public String status;
+    // Last snapshot of the job: it has completed or failed
+    public boolean finished;
+
+    // For JSON (progress bus)
+    public MailProgressEvent() {}
+
     public MailProgressEvent(String email, boolean success, int sentCount, int totalCount, String message) {
+        this(null, email, success, sentCount, totalCount, message);
+    }
+
+    public MailProgressEvent(String jobId, String email, boolean success, int sentCount, int totalCount, String message) {
+        this.jobId = jobId;
         this.email = email;
         this.success = success;
         this.sentCount = sentCount;
         this.totalCount = totalCount;
         this.message = message;
     }
+
+    /** A row that failed to send, as listed in a job snapshot. */
+    public static class RecentFailure {
+        public int row;
+        public String email;
+        public String error;
+
+        // For JSON (progress bus)
+        public RecentFailure() {}
+
+        public RecentFailure(int row, String email, String error) {
+            this.row = row;
+            this.email = email;
+            this.error = error;
+        }
+    }
 }
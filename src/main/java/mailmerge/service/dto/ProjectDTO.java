@@ -22,9 +22,16 @@ public class ProjectDTO implements Serializable {
     // ✅ NEW: store the original spreadsheet filename (e.g. "scores.xlsx")
     private String spreadsheetName;
 
+    // The spreadsheet's bytes: sent when saving, returned only for a single project
+    // (lists leave them out; see ProjectService)
     @Lob
     private byte[] spreadsheetLink;
 
+    // Of the stored spreadsheet (read-only: set from the blob store)
+    private Long spreadsheetSize;
+
+    private String spreadsheetSha256;
+
     private String spreadsheetLinkContentType;
 
     private String spreadsheetFileContentType;
@@ -82,6 +89,22 @@ public class ProjectDTO implements Serializable {
         this.spreadsheetLink = spreadsheetLink;
     }
 
+    public Long getSpreadsheetSize() {
+        return spreadsheetSize;
+    }
+
+    public void setSpreadsheetSize(Long spreadsheetSize) {
+        this.spreadsheetSize = spreadsheetSize;
+    }
+
+    public String getSpreadsheetSha256() {
+        return spreadsheetSha256;
+    }
+
+    public void setSpreadsheetSha256(String spreadsheetSha256) {
+        this.spreadsheetSha256 = spreadsheetSha256;
+    }
+
     public String getSpreadsheetFileContentType() {
         return spreadsheetFileContentType;
     }
@@ -190,7 +213,7 @@ public class ProjectDTO implements Serializable {
             "id=" + getId() +
             ", name='" + getName() + "'" +
             ", spreadsheetName='" + getSpreadsheetName() + "'" +
-            ", spreadsheetLink='" + getSpreadsheetLink() + "'" +
+            ", spreadsheetSize=" + getSpreadsheetSize() +
             ", spreadsheetLinkContentType='" + getSpreadsheetLinkContentType() + "'" +
             ", spreadsheetFileContentType='" + getSpreadsheetFileContentType() + "'" +
             ", toField='" + getToField() + "'" +
@@ -0,0 +1,110 @@
+package mailmerge.service.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+import mailmerge.domain.enumeration.EmailStatus;
+import mailmerge.repository.ProjectRepository.ProjectSummary;
+
+/**
+ * A {@link mailmerge.domain.Project} as listed in the sidebar ({@code GET /api/projects/my}):
+ * what the list shows, and the sizes of the spreadsheet and attachments instead of their bytes.
+ */
+public class ProjectSummaryDTO implements Serializable {
+
+    private Long id;
+
+    private String name;
+
+    private EmailStatus status;
+
+    private Instant sentAt;
+
+    private String spreadsheetName;
+
+    private Long spreadsheetSize;
+
+    // Of all the project's attachments together
+    private Long attachmentsSize;
+
+    public static ProjectSummaryDTO of(ProjectSummary summary) {
+        ProjectSummaryDTO dto = new ProjectSummaryDTO();
+        dto.id = summary.id();
+        dto.name = summary.name();
+        dto.status = summary.status();
+        dto.sentAt = summary.sentAt();
+        dto.spreadsheetName = summary.spreadsheetName();
+        dto.spreadsheetSize = summary.spreadsheetSize();
+        dto.attachmentsSize = summary.attachmentsSize();
+        return dto;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public EmailStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(EmailStatus status) {
+        this.status = status;
+    }
+
+    public Instant getSentAt() {
+        return sentAt;
+    }
+
+    public void setSentAt(Instant sentAt) {
+        this.sentAt = sentAt;
+    }
+
+    public String getSpreadsheetName() {
+        return spreadsheetName;
+    }
+
+    public void setSpreadsheetName(String spreadsheetName) {
+        this.spreadsheetName = spreadsheetName;
+    }
+
+    public Long getSpreadsheetSize() {
+        return spreadsheetSize;
+    }
+
+    public void setSpreadsheetSize(Long spreadsheetSize) {
+        this.spreadsheetSize = spreadsheetSize;
+    }
+
+    public Long getAttachmentsSize() {
+        return attachmentsSize;
+    }
+
+    public void setAttachmentsSize(Long attachmentsSize) {
+        this.attachmentsSize = attachmentsSize;
+    }
+
+    // prettier-ignore
+    @Override
+    public String toString() {
+        return "ProjectSummaryDTO{" +
+            "id=" + getId() +
+            ", name='" + getName() + "'" +
+            ", status='" + getStatus() + "'" +
+            ", sentAt='" + getSentAt() + "'" +
+            ", spreadsheetName='" + getSpreadsheetName() + "'" +
+            ", spreadsheetSize=" + getSpreadsheetSize() +
+            ", attachmentsSize=" + getAttachmentsSize() +
+            "}";
+    }
+}
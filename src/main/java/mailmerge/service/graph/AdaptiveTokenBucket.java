@@ -0,0 +1,112 @@
+package mailmerge.service.graph;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket for one sending mailbox whose rate adapts to Graph's feedback (AIMD):
+ * every accepted send adds {@code increasePerMinute} to the rate, every throttling response
+ * (429/503) multiplies it by {@code decreaseFactor} and blocks the bucket until the
+ * Retry-After time has passed. The rate always stays within [minPerMinute, maxPerMinute].
+ *
+ * Permits are handed out by reservation: each caller is given the next free slot and sleeps
+ * until then, so concurrent senders are spaced evenly. Up to {@code burst} unused permits
+ * are kept after an idle period.
+ */
+public final class AdaptiveTokenBucket {
+
+    private static final double NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final double minPerMinute;
+    private final double maxPerMinute;
+    private final double increasePerMinute;
+    private final double decreaseFactor;
+    private final int burst;
+    private final LongSupplier nanoClock;
+
+    private double ratePerMinute;
+    private long nextFree;
+    private long blockedUntil;
+    private long throttleCount;
+
+    public AdaptiveTokenBucket(
+        double initialPerMinute,
+        double minPerMinute,
+        double maxPerMinute,
+        double increasePerMinute,
+        double decreaseFactor,
+        int burst,
+        LongSupplier nanoClock
+    ) {
+        if (minPerMinute <= 0 || maxPerMinute < minPerMinute) {
+            throw new IllegalArgumentException("Rate bounds must satisfy 0 < min <= max");
+        }
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("decreaseFactor must be between 0 and 1");
+        }
+        this.minPerMinute = minPerMinute;
+        this.maxPerMinute = maxPerMinute;
+        this.increasePerMinute = increasePerMinute;
+        this.decreaseFactor = decreaseFactor;
+        this.burst = Math.max(1, burst);
+        this.nanoClock = nanoClock;
+        this.ratePerMinute = clamp(initialPerMinute);
+
+        long now = nanoClock.getAsLong();
+        this.nextFree = now;
+        this.blockedUntil = now;
+    }
+
+    /** Wait for a permit. */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /** Take the next free slot and return how long (ns) the caller has to wait for it. */
+    public synchronized long reserve() {
+        long now = nanoClock.getAsLong();
+        long interval = interval();
+
+        // Unused capacity from an idle period is capped at `burst` permits
+        long earliest = Math.max(nextFree, now - (burst - 1) * interval);
+        long at = Math.max(earliest, blockedUntil);
+
+        nextFree = at + interval;
+        return Math.max(0, at - now);
+    }
+
+    /** Graph accepted a send: probe for more headroom. */
+    public synchronized void onSuccess() {
+        ratePerMinute = clamp(ratePerMinute + increasePerMinute);
+    }
+
+    /** Graph throttled a send: back off and hold every permit until {@code retryAfter} has passed. */
+    public synchronized void onThrottled(Duration retryAfter) {
+        throttleCount++;
+        ratePerMinute = clamp(ratePerMinute * decreaseFactor);
+
+        long until = nanoClock.getAsLong() + retryAfter.toNanos();
+        blockedUntil = Math.max(blockedUntil, until);
+        nextFree = Math.max(nextFree, blockedUntil);
+    }
+
+    public synchronized double getRatePerMinute() {
+        return ratePerMinute;
+    }
+
+    public synchronized long getThrottleCount() {
+        return throttleCount;
+    }
+
+    private long interval() {
+        return (long) (NANOS_PER_MINUTE / ratePerMinute);
+    }
+
+    private double clamp(double rate) {
+        return Math.max(minPerMinute, Math.min(maxPerMinute, rate));
+    }
+}
@@ -0,0 +1,72 @@
+package mailmerge.service.graph;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Parsed Graph JSON {@code /$batch} response: one {@link Item} per sub-request id.
+ *
+ * Graph may return the sub-responses in any order, so callers look them up by the id they
+ * wrote (see {@link SendMailPayloadWriter#writeBatch}).
+ */
+public final class BatchResponse {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Map<String, Item> items;
+
+    private BatchResponse(Map<String, Item> items) {
+        this.items = items;
+    }
+
+    public static BatchResponse parse(byte[] json) throws IOException {
+        JsonNode responses = MAPPER.readTree(json).path("responses");
+
+        Map<String, Item> items = new HashMap<>();
+        for (JsonNode response : responses) {
+            String id = response.path("id").asText();
+
+            Map<String, String> headers = new HashMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = response.path("headers").fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> header = fields.next();
+                headers.put(header.getKey(), header.getValue().asText());
+            }
+
+            JsonNode error = response.path("body").path("error");
+            String message = error.isMissingNode() ? null : error.path("message").asText(error.path("code").asText(null));
+
+            items.put(id, new Item(id, response.path("status").asInt(), Collections.unmodifiableMap(headers), message));
+        }
+        return new BatchResponse(items);
+    }
+
+    /** The sub-response for {@code id}, or null if Graph did not return one. */
+    public Item get(String id) {
+        return items.get(id);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /** One sub-response. {@code error} is Graph's error message, null on success. */
+    public record Item(String id, int status, Map<String, String> headers, String error) {
+        public boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+
+        /** Header lookup ignoring case (Graph uses "Retry-After" but does not promise it). */
+        public String header(String name) {
+            for (Map.Entry<String, String> e : headers.entrySet()) {
+                if (e.getKey().equalsIgnoreCase(name)) return e.getValue();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package mailmerge.service.graph;
+
+import org.springframework.security.oauth2.client.AuthorizedClientServiceOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.OAuth2AuthorizeRequest;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientProviderBuilder;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+
+/**
+ * Users' Graph tokens, looked up by client registration and principal name in the authorized
+ * client service and refreshed when they have expired. Needs neither a request nor a
+ * SecurityContext, so background senders (the outbox worker) can use it.
+ *
+ * Not an {@link OAuth2AuthorizedClientManager} bean itself: the web layer expects exactly one.
+ */
+public class GraphAuthorizedClients {
+
+    private final AuthorizedClientServiceOAuth2AuthorizedClientManager manager;
+
+    public GraphAuthorizedClients(
+        ClientRegistrationRepository clientRegistrationRepository,
+        OAuth2AuthorizedClientService authorizedClientService
+    ) {
+        this.manager = new AuthorizedClientServiceOAuth2AuthorizedClientManager(clientRegistrationRepository, authorizedClientService);
+        this.manager.setAuthorizedClientProvider(OAuth2AuthorizedClientProviderBuilder.builder().refreshToken().build());
+    }
+
+    /** For the Graph WebClient's OAuth2 filter. */
+    public OAuth2AuthorizedClientManager getManager() {
+        return manager;
+    }
+
+    /**
+     * The user's authorized client, refreshed if its access token has expired; null if there
+     * is none stored for them.
+     *
+     * @throws org.springframework.security.oauth2.core.OAuth2AuthorizationException if the
+     *     refresh failed (e.g. invalid_grant once the refresh token is revoked or expired).
+     */
+    public OAuth2AuthorizedClient authorize(String clientRegistrationId, String principalName) {
+        return manager.authorize(OAuth2AuthorizeRequest.withClientRegistrationId(clientRegistrationId).principal(principalName).build());
+    }
+}
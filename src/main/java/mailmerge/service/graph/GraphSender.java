@@ -0,0 +1,28 @@
+package mailmerge.service.graph;
+
+import java.util.Map;
+import java.util.function.Consumer;
+import mailmerge.security.SecurityUtils;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.web.reactive.function.client.ServletOAuth2AuthorizedClientExchangeFilterFunction;
+
+/**
+ * Whose mailbox a Graph call goes to: the owner's login (for the rate limiter and progress
+ * events) and, for calls made outside the owner's request, their authorized client (token).
+ *
+ * With a null {@code authorizedClient} the Graph WebClient resolves the token of the user
+ * signed in to the current request.
+ */
+public record GraphSender(String login, OAuth2AuthorizedClient authorizedClient) {
+    /** The user of the current request. */
+    public static GraphSender currentUser() {
+        return new GraphSender(SecurityUtils.getCurrentUserLogin().orElse("anonymous"), null);
+    }
+
+    /** Request attributes that make the Graph WebClient send with this sender's token. */
+    public Consumer<Map<String, Object>> attributes() {
+        return authorizedClient != null
+            ? ServletOAuth2AuthorizedClientExchangeFilterFunction.oauth2AuthorizedClient(authorizedClient)
+            : attributes -> {};
+    }
+}
@@ -0,0 +1,57 @@
+package mailmerge.service.graph;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+/**
+ * One Graph {@code fileAttachment} object, serialised (base64 content included) once and
+ * then spliced verbatim into every message of a job.
+ */
+public final class PreparedAttachment {
+
+    private final String name;
+    private final boolean inline;
+    private final int size;
+    private final SerializedString fragment;
+    private final RawValue json;
+
+    PreparedAttachment(String name, boolean inline, int size, String json) {
+        this.name = name;
+        this.inline = inline;
+        this.size = size;
+        this.fragment = new SerializedString(json);
+        this.json = new RawValue(fragment);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isInline() {
+        return inline;
+    }
+
+    /** Raw (decoded) size in bytes. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Length of the JSON fragment in characters (all ASCII but names). */
+    public int getEncodedLength() {
+        return fragment.charLength();
+    }
+
+    /** The complete JSON object; Jackson writes a RawValue as-is without re-encoding it. */
+    public RawValue getJson() {
+        return json;
+    }
+
+    /**
+     * The same JSON for {@link com.fasterxml.jackson.core.JsonGenerator#writeRawValue(SerializableString)}.
+     * Its UTF-8 bytes are computed on first use and cached, so later messages are a plain byte copy.
+     */
+    public SerializableString getFragment() {
+        return fragment;
+    }
+}
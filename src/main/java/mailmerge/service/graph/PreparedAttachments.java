@@ -0,0 +1,164 @@
+package mailmerge.service.graph;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import mailmerge.service.dto.AttachmentDTO;
+import mailmerge.service.dto.InlineImageDTO;
+
+/**
+ * Per-job cache of Graph attachment JSON.
+ *
+ * Every message of a merge job carries the same files, so they are base64-encoded into
+ * their {@code fileAttachment} JSON exactly once when the job starts. Sending a row then
+ * only copies the finished fragments into the request body. Immutable, so it can be shared
+ * between sender threads.
+ */
+public final class PreparedAttachments {
+
+    private static final PreparedAttachments NONE = new PreparedAttachments(Collections.emptyList());
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<PreparedAttachment> items;
+
+    private PreparedAttachments(List<PreparedAttachment> items) {
+        this.items = items;
+    }
+
+    public static PreparedAttachments none() {
+        return NONE;
+    }
+
+    /**
+     * Encode normal attachments and inline (CID) images.
+     * Entries without content, and inline images without a cid, are skipped.
+     */
+    public static PreparedAttachments of(List<AttachmentDTO> attachments, List<InlineImageDTO> inlineImages) {
+        List<PreparedAttachment> items = new ArrayList<>();
+
+        if (attachments != null) {
+            for (AttachmentDTO a : attachments) {
+                if (a == null || a.getFile() == null) continue;
+                items.add(encode(a.getName(), a.getFileContentType(), a.getFile(), null));
+            }
+        }
+
+        if (inlineImages != null) {
+            for (InlineImageDTO img : inlineImages) {
+                if (img == null || img.getFile() == null) continue;
+
+                String cid = img.getCid();
+                if (cid == null || cid.isBlank()) continue;
+
+                // Attachment name shown in Graph payload (not necessarily visible in email clients)
+                String name = img.getName();
+                name = (name != null && !name.isBlank()) ? name : (cid + ".png");
+
+                // Content type fallback
+                String ct = img.getFileContentType();
+                ct = (ct != null && !ct.isBlank()) ? ct : "image/png";
+
+                items.add(encode(name, ct, img.getFile(), cid.trim()));
+            }
+        }
+
+        return items.isEmpty() ? NONE : new PreparedAttachments(Collections.unmodifiableList(items));
+    }
+
+    public List<PreparedAttachment> getItems() {
+        return items;
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /** Total length of all JSON fragments, for sizing request buffers. */
+    public long encodedLength() {
+        long length = 0;
+        for (PreparedAttachment item : items) {
+            length += item.getEncodedLength();
+        }
+        return length;
+    }
+
+    public int inlineCount() {
+        int count = 0;
+        for (PreparedAttachment item : items) {
+            if (item.isInline()) count++;
+        }
+        return count;
+    }
+
+    /**
+     * The Graph {@code attachments} array, as stored with an outbox job so a worker can send
+     * its emails after a restart without the original upload.
+     */
+    public byte[] toJson() {
+        StringBuilder json = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, encodedLength() + items.size() + 2));
+        json.append('[');
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append(items.get(i).getFragment().getValue());
+        }
+        json.append(']');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Read back what {@link #toJson()} wrote; null or empty means no attachments. */
+    public static PreparedAttachments fromJson(byte[] json) {
+        if (json == null || json.length == 0) return NONE;
+
+        List<PreparedAttachment> items = new ArrayList<>();
+        try {
+            for (JsonNode item : MAPPER.readTree(json)) {
+                String base64 = item.path("contentBytes").asText("");
+                int padding = base64.endsWith("==") ? 2 : base64.endsWith("=") ? 1 : 0;
+                int size = base64.length() / 4 * 3 - padding;
+
+                items.add(new PreparedAttachment(item.path("name").asText(null), item.path("isInline").asBoolean(), size, item.toString()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return items.isEmpty() ? NONE : new PreparedAttachments(Collections.unmodifiableList(items));
+    }
+
+    /** contentId != null marks an inline image (must match the body's {@code <img src="cid:...">}). */
+    private static PreparedAttachment encode(String name, String contentType, byte[] content, String contentId) {
+        // base64 is 4/3 of the content; the rest is a few short fields
+        StringWriter out = new StringWriter(content.length / 3 * 4 + 256);
+
+        try (JsonGenerator gen = JSON.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeStringField("@odata.type", "#microsoft.graph.fileAttachment");
+            gen.writeStringField("name", name);
+            gen.writeStringField("contentType", contentType);
+            gen.writeFieldName("contentBytes");
+            gen.writeBinary(content); // standard base64, no line breaks
+            gen.writeBooleanField("isInline", contentId != null);
+            if (contentId != null) {
+                gen.writeStringField("contentId", contentId);
+            }
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new PreparedAttachment(name, contentId != null, content.length, out.toString());
+    }
+}
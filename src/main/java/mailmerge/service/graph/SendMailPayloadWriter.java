@@ -0,0 +1,194 @@
+package mailmerge.service.graph;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import mailmerge.service.merge.MergedMessage;
+
+/**
+ * Writes Graph {@code /me/sendMail} request bodies with a streaming JsonGenerator.
+ *
+ * Replaces the per-message HashMap / Map.of trees: recipients are split and written straight
+ * from the comma-separated strings, and attachments are spliced in as their pre-encoded
+ * fragments (see {@link PreparedAttachments}), so a send allocates little beyond the output
+ * buffer itself.
+ *
+ * Shape written:
+ * <pre>
+ * { "message": { "subject", "body": {contentType, content}, "toRecipients", "ccRecipients",
+ *                "bccRecipients", "attachments", "singleValueExtendedProperties" },
+ *   "saveToSentItems": true }
+ * </pre>
+ * Empty recipient lists and attachment arrays are omitted, as before. Merge sends carry an
+ * idempotency key as a custom extended property ({@link #IDEMPOTENCY_KEY_PROPERTY}), which
+ * stays on the copy in Sent Items, so a send that may not have gone out can be looked up.
+ *
+ * {@link #writeBatch} wraps up to {@link #MAX_BATCH_SIZE} of those bodies in one JSON
+ * {@code /$batch} request.
+ */
+public final class SendMailPayloadWriter {
+
+    /** Graph's limit on requests inside one JSON batch. */
+    public static final int MAX_BATCH_SIZE = 20;
+
+    /** MAPI id of the idempotency key property (a named string property in our own property set). */
+    public static final String IDEMPOTENCY_KEY_PROPERTY = "String {6f1c2a3e-9b4d-4e1a-8c5f-2d7e9a0b4c61} Name MailMergeIdempotencyKey";
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private SendMailPayloadWriter() {}
+
+    /** Write a complete sendMail request body (UTF-8) to {@code out}. */
+    public static void writeSendMail(
+        OutputStream out,
+        String to,
+        String cc,
+        String bcc,
+        String subject,
+        String body,
+        PreparedAttachments attachments
+    ) throws IOException {
+        writeSendMail(out, to, cc, bcc, subject, body, attachments, null);
+    }
+
+    /** Same, tagging the message with {@code idempotencyKey} (if not null). */
+    public static void writeSendMail(
+        OutputStream out,
+        String to,
+        String cc,
+        String bcc,
+        String subject,
+        String body,
+        PreparedAttachments attachments,
+        String idempotencyKey
+    ) throws IOException {
+        try (JsonGenerator gen = JSON.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeFieldName("message");
+            writeMessage(gen, to, cc, bcc, subject, body, attachments, idempotencyKey);
+            gen.writeBooleanField("saveToSentItems", true);
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Write a JSON batch body with one {@code POST /me/sendMail} per message. Each request's
+     * id is the message's index in {@code messages}, so sub-responses map back to their row.
+     */
+    public static void writeBatch(OutputStream out, List<MergedMessage> messages, PreparedAttachments attachments)
+        throws IOException {
+        if (messages.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("A Graph batch holds at most " + MAX_BATCH_SIZE + " requests");
+        }
+
+        try (JsonGenerator gen = JSON.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("requests");
+            for (int i = 0; i < messages.size(); i++) {
+                MergedMessage m = messages.get(i);
+
+                gen.writeStartObject();
+                gen.writeStringField("id", Integer.toString(i));
+                gen.writeStringField("method", "POST");
+                gen.writeStringField("url", "/me/sendMail");
+                gen.writeObjectFieldStart("headers");
+                gen.writeStringField("Content-Type", "application/json");
+                gen.writeEndObject();
+
+                gen.writeObjectFieldStart("body");
+                gen.writeFieldName("message");
+                writeMessage(gen, m.getTo(), m.getCc(), m.getBcc(), m.getSubject(), m.getBody(), attachments, m.getIdempotencyKey());
+                gen.writeBooleanField("saveToSentItems", true);
+                gen.writeEndObject();
+
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+    }
+
+    /** Write the Graph message object on its own (e.g. nested inside another request). */
+    public static void writeMessage(
+        JsonGenerator gen,
+        String to,
+        String cc,
+        String bcc,
+        String subject,
+        String body,
+        PreparedAttachments attachments,
+        String idempotencyKey
+    ) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("subject", subject != null ? subject : "(no subject)");
+
+        gen.writeObjectFieldStart("body");
+        gen.writeStringField("contentType", "HTML");
+        gen.writeStringField("content", body != null ? body : "");
+        gen.writeEndObject();
+
+        writeRecipients(gen, "toRecipients", to);
+        writeRecipients(gen, "ccRecipients", cc);
+        writeRecipients(gen, "bccRecipients", bcc);
+
+        if (attachments != null && !attachments.isEmpty()) {
+            gen.writeArrayFieldStart("attachments");
+            for (PreparedAttachment attachment : attachments.getItems()) {
+                gen.writeRawValue(attachment.getFragment());
+            }
+            gen.writeEndArray();
+        }
+
+        if (idempotencyKey != null) {
+            gen.writeArrayFieldStart("singleValueExtendedProperties");
+            gen.writeStartObject();
+            gen.writeStringField("id", IDEMPOTENCY_KEY_PROPERTY);
+            gen.writeStringField("value", idempotencyKey);
+            gen.writeEndObject();
+            gen.writeEndArray();
+        }
+
+        gen.writeEndObject();
+    }
+
+    /**
+     * Comma-separated addresses -> [{"emailAddress":{"address":...}}, ...].
+     * Blank entries are skipped; nothing is written when no address is left.
+     */
+    static void writeRecipients(JsonGenerator gen, String field, String addresses) throws IOException {
+        if (addresses == null || addresses.isBlank()) return;
+
+        boolean started = false;
+        int start = 0;
+        int length = addresses.length();
+
+        while (start <= length) {
+            int comma = addresses.indexOf(',', start);
+            int end = comma < 0 ? length : comma;
+
+            // Trim without allocating
+            int s = start;
+            int e = end;
+            while (s < e && Character.isWhitespace(addresses.charAt(s))) s++;
+            while (e > s && Character.isWhitespace(addresses.charAt(e - 1))) e--;
+
+            if (s < e) {
+                if (!started) {
+                    gen.writeArrayFieldStart(field);
+                    started = true;
+                }
+                gen.writeStartObject();
+                gen.writeObjectFieldStart("emailAddress");
+                gen.writeStringField("address", addresses.substring(s, e));
+                gen.writeEndObject();
+                gen.writeEndObject();
+            }
+
+            start = end + 1;
+        }
+
+        if (started) gen.writeEndArray();
+    }
+}
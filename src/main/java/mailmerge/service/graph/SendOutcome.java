@@ -0,0 +1,35 @@
+package mailmerge.service.graph;
+
+/**
+ * Result of one Graph send attempt.
+ *
+ * {@code retryable} tells the caller whether sending the same message again may succeed
+ * (network errors, 5xx, exhausted throttling) or is pointless (bad recipient, 4xx).
+ *
+ * {@code unconfirmed} marks a failure after which Graph may still have accepted the message
+ * (e.g. a timeout or a 5xx once the request was out): before sending it again the caller has
+ * to check whether it went through.
+ */
+public record SendOutcome(boolean success, boolean retryable, boolean unconfirmed, String error) {
+    private static final SendOutcome SENT = new SendOutcome(true, false, false, null);
+
+    public static SendOutcome sent() {
+        return SENT;
+    }
+
+    public static SendOutcome failed(String error, boolean retryable) {
+        return new SendOutcome(false, retryable, false, error);
+    }
+
+    /** A retryable failure that may or may not have reached the mailbox. */
+    public static SendOutcome unconfirmed(String error) {
+        return new SendOutcome(false, true, true, error);
+    }
+
+    /** What a send that threw {@code error} amounts to (see {@link SendRetryPolicy}). */
+    public static SendOutcome of(Throwable error) {
+        return SendRetryPolicy.mayHaveBeenSent(error)
+            ? unconfirmed(error.getMessage())
+            : failed(error.getMessage(), SendRetryPolicy.isRetryable(error));
+    }
+}
@@ -0,0 +1,118 @@
+package mailmerge.service.graph;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.function.DoubleSupplier;
+import javax.net.ssl.SSLHandshakeException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+/**
+ * Which Graph send failures are worth retrying, and how long to wait before the next try.
+ *
+ * Backoff is exponential with "full jitter": retry n waits a random time between 0 and
+ * min(maxBackoff, initialBackoff * 2^(n-1)), so rows that failed together (e.g. during a
+ * short Graph outage) do not all come back at the same moment.
+ *
+ * A retryable failure is not always a failed delivery: once the request has gone out, a
+ * timeout, a dropped connection or a 500/502/504 can come after Graph took the message.
+ * Only throttling (429/503) and failures to connect at all are known not to have sent
+ * anything (see {@link #mayHaveBeenSent}).
+ */
+public final class SendRetryPolicy {
+
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final DoubleSupplier random;
+
+    public SendRetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+        this(maxAttempts, initialBackoff, maxBackoff, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    SendRetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff, DoubleSupplier random) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.random = random;
+    }
+
+    /** Attempts per message, including the first one. */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /** Wait before retry number {@code retry} (1 = the first retry). */
+    public Duration backoff(int retry) {
+        long ceiling = initialBackoff.toMillis() << Math.min(Math.max(retry - 1, 0), 20);
+        ceiling = Math.min(ceiling, maxBackoff.toMillis());
+        return Duration.ofMillis((long) (random.getAsDouble() * ceiling));
+    }
+
+    /** HTTP statuses worth another try: timeouts, throttling and server-side errors. */
+    public static boolean isRetryableStatus(int status) {
+        return status == 408 || status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Network failures (connection reset, DNS, TLS, timeouts) and retryable statuses are
+     * transient; everything else (4xx, serialisation errors, interrupts) is fatal.
+     */
+    public static boolean isRetryable(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof WebClientResponseException e) {
+                return isRetryableStatus(e.getStatusCode().value());
+            }
+            if (t instanceof WebClientRequestException || t instanceof TimeoutException) {
+                return true;
+            }
+            if (t instanceof IOException && !(t instanceof JsonProcessingException)) {
+                return true;
+            }
+            if (t instanceof InterruptedException) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** HTTP statuses after which Graph may still have accepted the message (server-side errors and gateway timeouts). */
+    public static boolean mayHaveBeenSentStatus(int status) {
+        return isRetryableStatus(status) && status != 429 && status != 503;
+    }
+
+    /**
+     * Whether a send that failed with {@code error} may nevertheless have gone through, so
+     * that sending it again without checking first could deliver it twice. Only retryable
+     * failures count: a 4xx or a serialisation error never sent anything.
+     */
+    public static boolean mayHaveBeenSent(Throwable error) {
+        if (!isRetryable(error)) return false;
+
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof WebClientResponseException e) {
+                return mayHaveBeenSentStatus(e.getStatusCode().value());
+            }
+            if (isConnectFailure(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The request never reached Graph (no connection, unknown host, TLS handshake refused). */
+    private static boolean isConnectFailure(Throwable t) {
+        return (
+            t instanceof ConnectException ||
+            t instanceof NoRouteToHostException ||
+            t instanceof UnknownHostException ||
+            t instanceof SSLHandshakeException
+        );
+    }
+}
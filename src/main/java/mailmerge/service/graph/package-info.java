@@ -0,0 +1,4 @@
+/**
+ * Microsoft Graph payload building: pre-encoded attachments and sendMail JSON.
+ */
+package mailmerge.service.graph;
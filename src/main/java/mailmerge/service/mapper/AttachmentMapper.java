@@ -10,13 +10,28 @@ import org.mapstruct.*;
 
 /**
  * Mapper for the entity {@link Attachment} and its DTO {@link AttachmentDTO}.
+ *
+ * The file's blob reference is not mapped from the DTO: AttachmentService moves the bytes
+ * between the DTO and the blob store, which also gives the size of a stored file.
  */
 @Mapper(componentModel = "spring")
 public interface AttachmentMapper extends EntityMapper<AttachmentDTO, Attachment> {
     @Mapping(target = "project", source = "project", qualifiedByName = "projectId")
     @Mapping(target = "email", source = "email", qualifiedByName = "emailId")
+    @Mapping(target = "file", ignore = true)
     AttachmentDTO toDto(Attachment s);
 
+    @Mapping(target = "fileBlobKey", ignore = true)
+    @Mapping(target = "fileSha256", ignore = true)
+    Attachment toEntity(AttachmentDTO dto);
+
+    @Named("partialUpdate")
+    @BeanMapping(nullValuePropertyMappingStrategy = NullValuePropertyMappingStrategy.IGNORE)
+    @Mapping(target = "fileBlobKey", ignore = true)
+    @Mapping(target = "fileSha256", ignore = true)
+    @Mapping(target = "size", ignore = true)
+    void partialUpdate(@MappingTarget Attachment entity, AttachmentDTO dto);
+
     @Named("projectId")
     @BeanMapping(ignoreByDefault = true)
     @Mapping(target = "id", source = "id")
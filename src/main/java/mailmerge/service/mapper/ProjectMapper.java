@@ -8,12 +8,28 @@ import org.mapstruct.*;
 
 /**
  * Mapper for the entity {@link Project} and its DTO {@link ProjectDTO}.
+ *
+ * The spreadsheet's bytes and blob reference are not mapped: ProjectService moves them
+ * between the DTO and the blob store.
  */
 @Mapper(componentModel = "spring")
 public interface ProjectMapper extends EntityMapper<ProjectDTO, Project> {
     @Mapping(target = "user", source = "user", qualifiedByName = "userLogin")
+    @Mapping(target = "spreadsheetLink", ignore = true)
     ProjectDTO toDto(Project s);
 
+    @Mapping(target = "spreadsheetBlobKey", ignore = true)
+    @Mapping(target = "spreadsheetSize", ignore = true)
+    @Mapping(target = "spreadsheetSha256", ignore = true)
+    Project toEntity(ProjectDTO dto);
+
+    @Named("partialUpdate")
+    @BeanMapping(nullValuePropertyMappingStrategy = NullValuePropertyMappingStrategy.IGNORE)
+    @Mapping(target = "spreadsheetBlobKey", ignore = true)
+    @Mapping(target = "spreadsheetSize", ignore = true)
+    @Mapping(target = "spreadsheetSha256", ignore = true)
+    void partialUpdate(@MappingTarget Project entity, ProjectDTO dto);
+
     @Named("userLogin")
     @BeanMapping(ignoreByDefault = true)
     @Mapping(target = "id", source = "id")
@@ -0,0 +1,55 @@
+package mailmerge.service.merge;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs tasks on a shared executor with at most {@code limit} of them in flight at once.
+ *
+ * {@link #submit} blocks the producer while the window is full, so a merge job reading rows
+ * never gets more than {@code limit} messages ahead of its sends; {@link #close()} waits for
+ * the tasks still running. Tasks complete (and report) in whatever order they finish.
+ */
+public final class BoundedExecutor implements AutoCloseable {
+
+    private final Executor executor;
+    private final Semaphore permits;
+    private final int limit;
+
+    public BoundedExecutor(Executor executor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        this.executor = executor;
+        this.limit = limit;
+        this.permits = new Semaphore(limit);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /** Wait for a free slot, then hand the task to the executor. */
+    public void submit(Runnable task) throws InterruptedException {
+        permits.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** Block until every submitted task has finished (not interruptible: in-flight sends still report). */
+    @Override
+    public void close() {
+        permits.acquireUninterruptibly(limit);
+        permits.release(limit);
+    }
+}
@@ -0,0 +1,311 @@
+package mailmerge.service.merge;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming CSV / TSV reader (RFC 4180 quoting).
+ *
+ * Records are scanned in place inside one reusable char buffer: the parser only records
+ * field start/end offsets, unescapes "" pairs in place, and then creates exactly one String
+ * per cell it actually needs (columns past the last header are never materialised, empty
+ * cells share ""). A record that straddles the end of the buffer is shifted to the front
+ * and re-scanned after the next read, so memory is bounded by the longest record.
+ *
+ * Handles:
+ *  - quoted fields containing delimiters, quotes ("") and line breaks
+ *  - \n, \r\n and \r line endings; blank lines are skipped
+ *  - UTF-8 (with or without BOM) and UTF-16 with BOM (Excel "Unicode Text" exports)
+ *  - delimiter detection from the header line (, ; or tab) when none is forced
+ */
+public final class DelimitedRowSource implements MergeRowSource {
+
+    private static final int INITIAL_BUFFER = 64 * 1024;
+    private static final char QUOTE = '"';
+
+    private final Reader reader;
+    private final char delimiter;
+    private final int estimatedRowCount;
+
+    private char[] buf = new char[INITIAL_BUFFER];
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    // Field offsets of the record found by scanRecord()
+    private int[] fieldStart = new int[32];
+    private int[] fieldEnd = new int[32];
+    private boolean[] fieldEscaped = new boolean[32];
+    private int fieldCount;
+
+    private final List<String> headers;
+
+    private DelimitedRowSource(Reader reader, char delimiter, int estimatedRowCount) throws IOException {
+        this.reader = reader;
+
+        fill();
+        if (limit > 0 && buf[0] == '\uFEFF') pos = 1;
+
+        this.delimiter = delimiter != 0 ? delimiter : detectDelimiter();
+
+        List<String> names = new ArrayList<>();
+        if (scanRecord()) {
+            for (int i = 0; i < fieldCount; i++) {
+                names.add(field(i).trim());
+            }
+        }
+
+        this.headers = Collections.unmodifiableList(names);
+        this.estimatedRowCount = Math.max(estimatedRowCount, 0);
+    }
+
+    // =========================================================================
+    // Opening
+    // =========================================================================
+
+    /**
+     * @param in                raw bytes of the file (consumed and closed with the source)
+     * @param delimiter         ',' / ';' / '\t', or 0 to detect from the header line
+     * @param estimatedRowCount data rows expected, for progress reporting
+     */
+    public static DelimitedRowSource open(InputStream in, char delimiter, int estimatedRowCount) throws IOException {
+        BufferedInputStream bin = new BufferedInputStream(in);
+        return new DelimitedRowSource(new InputStreamReader(bin, detectCharset(bin)), delimiter, estimatedRowCount);
+    }
+
+    /** UTF-16 when the stream starts with a UTF-16 BOM, UTF-8 otherwise (a UTF-8 BOM is skipped later). */
+    private static Charset detectCharset(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+
+        if ((b0 == 0xFF && b1 == 0xFE) || (b0 == 0xFE && b1 == 0xFF)) {
+            return StandardCharsets.UTF_16;
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /** Most frequent of , ; and tab outside quotes on the first line; ',' if none. */
+    private char detectDelimiter() {
+        int commas = 0;
+        int semicolons = 0;
+        int tabs = 0;
+        boolean quoted = false;
+
+        for (int i = pos; i < limit; i++) {
+            char c = buf[i];
+            if (c == QUOTE) quoted = !quoted;
+            else if (!quoted && (c == '\n' || c == '\r')) break;
+            else if (!quoted && c == ',') commas++;
+            else if (!quoted && c == ';') semicolons++;
+            else if (!quoted && c == '\t') tabs++;
+        }
+
+        if (tabs > commas && tabs >= semicolons) return '\t';
+        if (semicolons > commas) return ';';
+        return ',';
+    }
+
+    // =========================================================================
+    // MergeRowSource
+    // =========================================================================
+
+    @Override
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public int getEstimatedRowCount() {
+        return estimatedRowCount;
+    }
+
+    @Override
+    public String[] nextRow() throws IOException {
+        while (scanRecord()) {
+            // Blank line
+            if (fieldCount == 1 && fieldStart[0] == fieldEnd[0] && !fieldEscaped[0]) continue;
+
+            String[] values = new String[headers.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i < fieldCount ? field(i) : "";
+            }
+            return values;
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // =========================================================================
+    // Scanning
+    // =========================================================================
+
+    /**
+     * Locate the next record starting at {@code pos} and record its field offsets.
+     * Returns false when the input is exhausted.
+     */
+    private boolean scanRecord() throws IOException {
+        outer:
+        while (true) {
+            if (pos >= limit) {
+                if (eof) return false;
+                refill();
+                continue;
+            }
+
+            fieldCount = 0;
+            int i = pos;
+
+            while (true) {
+                int start;
+                int end;
+                boolean escaped = false;
+
+                if (buf[i] == QUOTE) {
+                    // Quoted field: runs to the next lone quote
+                    start = ++i;
+                    while (true) {
+                        if (i >= limit) {
+                            if (!eof) {
+                                refill();
+                                continue outer;
+                            }
+                            end = i; // unterminated quote at EOF: take the rest
+                            break;
+                        }
+                        if (buf[i] == QUOTE) {
+                            if (i + 1 >= limit && !eof) {
+                                refill();
+                                continue outer;
+                            }
+                            if (i + 1 < limit && buf[i + 1] == QUOTE) {
+                                escaped = true;
+                                i += 2;
+                                continue;
+                            }
+                            end = i++;
+                            break;
+                        }
+                        i++;
+                    }
+
+                    // Stray characters between the closing quote and the delimiter are dropped
+                    while (i < limit && buf[i] != delimiter && buf[i] != '\n' && buf[i] != '\r') i++;
+                } else {
+                    start = i;
+                    while (i < limit && buf[i] != delimiter && buf[i] != '\n' && buf[i] != '\r') i++;
+                    end = i;
+                }
+
+                if (i >= limit && !eof) {
+                    refill();
+                    continue outer;
+                }
+
+                addField(start, end, escaped);
+
+                if (i >= limit) {
+                    pos = i;
+                    return true;
+                }
+
+                char c = buf[i];
+                if (c == delimiter) {
+                    i++;
+                    if (i >= limit) {
+                        if (!eof) {
+                            refill();
+                            continue outer;
+                        }
+                        addField(i, i, false); // trailing delimiter at EOF: one last empty field
+                        pos = i;
+                        return true;
+                    }
+                    continue;
+                }
+
+                // Line break (\n, \r or \r\n)
+                if (c == '\r' && i + 1 >= limit && !eof) {
+                    refill();
+                    continue outer;
+                }
+                i++;
+                if (c == '\r' && i < limit && buf[i] == '\n') i++;
+
+                pos = i;
+                return true;
+            }
+        }
+    }
+
+    /** Shift the unread part of the buffer to the front (growing it if full) and read more. */
+    private void refill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        } else if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        fill();
+    }
+
+    private void fill() throws IOException {
+        while (limit < buf.length) {
+            int n = reader.read(buf, limit, buf.length - limit);
+            if (n == -1) {
+                eof = true;
+                return;
+            }
+            limit += n;
+            if (n > 0) return;
+        }
+    }
+
+    private void addField(int start, int end, boolean escaped) {
+        if (fieldCount == fieldStart.length) {
+            int size = fieldCount * 2;
+            fieldStart = Arrays.copyOf(fieldStart, size);
+            fieldEnd = Arrays.copyOf(fieldEnd, size);
+            fieldEscaped = Arrays.copyOf(fieldEscaped, size);
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldEscaped[fieldCount] = escaped;
+        fieldCount++;
+    }
+
+    /** Materialise field i of the current record (unescaping "" in place first). */
+    private String field(int i) {
+        int start = fieldStart[i];
+        int end = fieldEnd[i];
+        if (start == end) return "";
+
+        if (fieldEscaped[i]) {
+            int w = start;
+            for (int r = start; r < end; r++) {
+                buf[w++] = buf[r];
+                if (buf[r] == QUOTE && r + 1 < end && buf[r + 1] == QUOTE) r++;
+            }
+            end = w;
+            fieldEnd[i] = end;
+            fieldEscaped[i] = false;
+        }
+
+        return new String(buf, start, end - start);
+    }
+}
@@ -0,0 +1,214 @@
+package mailmerge.service.merge;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live state of one background merge job.
+ *
+ * Written by the job's worker thread and read by status requests, so counters are atomic
+ * and the rest is volatile; nothing here needs to be updated together atomically.
+ *
+ * The job's own thread only renders the sheet into the outbox (email table); the outbox
+ * worker sends the rows and records each result here. Once every row is in the outbox the
+ * job is "enqueued", and it completes when the worker has processed all of them.
+ */
+public final class MailMergeJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+    }
+
+    private final String id;
+    private final String owner;
+    private final Instant createdAt = Instant.now();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile int totalCount;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private volatile boolean enqueued;
+
+    private final AtomicInteger processedCount = new AtomicInteger();
+    private final AtomicInteger sentCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    private final AtomicInteger retryCount = new AtomicInteger();
+    private final AtomicInteger retryBudget = new AtomicInteger(Integer.MAX_VALUE);
+
+    public MailMergeJob(String owner) {
+        this(UUID.randomUUID().toString(), owner);
+    }
+
+    /** A job that keeps the id of an earlier, interrupted run (see MailMergeJobService#resume). */
+    public MailMergeJob(String id, String owner) {
+        this.id = id;
+        this.owner = owner;
+    }
+
+    // =========================================================================
+    // Lifecycle (called by MailMergeJobService)
+    // =========================================================================
+
+    public void markRunning() {
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+    }
+
+    public synchronized void markCompleted() {
+        finishedAt = Instant.now();
+        status = Status.COMPLETED;
+    }
+
+    public synchronized void markFailed(String error) {
+        this.error = error;
+        finishedAt = Instant.now();
+        status = Status.FAILED;
+    }
+
+    /** Every row is in the outbox; {@code totalCount} is the real row count (skipped rows included). */
+    public void markEnqueued(int totalCount) {
+        this.totalCount = totalCount;
+        this.enqueued = true;
+    }
+
+    /**
+     * Complete the job if it is enqueued and all of its rows are processed. Called by the
+     * job thread and by the outbox worker, whichever finishes last; true only for the call
+     * that actually completed it.
+     */
+    public synchronized boolean completeIfDone() {
+        if (!enqueued || isFinished() || processedCount.get() < totalCount) {
+            return false;
+        }
+        markCompleted();
+        return true;
+    }
+
+    // =========================================================================
+    // Progress (called by the merge loop and the outbox worker)
+    // =========================================================================
+
+    public void setTotalCount(int totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    /** Row sent (or failed to send); returns the new processed count. */
+    public int recordSent(boolean success) {
+        (success ? sentCount : failedCount).incrementAndGet();
+        return processedCount.incrementAndGet();
+    }
+
+    /** Retries this job may still spend across all rows. */
+    public void setRetryBudget(int retryBudget) {
+        this.retryBudget.set(retryBudget);
+    }
+
+    /** Take one retry from the job's budget; false once it is used up. */
+    public boolean tryConsumeRetry() {
+        if (retryBudget.getAndUpdate(left -> left > 0 ? left - 1 : 0) > 0) {
+            retryCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /** Rows an earlier run of a resumed job already finished (from the outbox). */
+    public void restore(int sent, int failed, int skipped) {
+        sentCount.addAndGet(sent);
+        failedCount.addAndGet(failed);
+        skippedCount.addAndGet(skipped);
+        processedCount.addAndGet(sent + failed + skipped);
+    }
+
+    /**
+     * Catch up with the job's outbox rows that are done, as counted in the database: rows
+     * sent by other instances are only counted there. Counters never go down (rows this
+     * instance has just counted may not be written yet); true if any went up.
+     */
+    public boolean syncOutbox(int sent, int failed) {
+        int sentBefore = sentCount.getAndAccumulate(sent, Math::max);
+        int failedBefore = failedCount.getAndAccumulate(failed, Math::max);
+        if (sentBefore >= sent && failedBefore >= failed) {
+            return false;
+        }
+        processedCount.accumulateAndGet(sentCount.get() + failedCount.get() + skippedCount.get(), Math::max);
+        return true;
+    }
+
+    /** Row skipped (no recipient); returns the new processed count. */
+    public int recordSkipped() {
+        skippedCount.incrementAndGet();
+        return processedCount.incrementAndGet();
+    }
+
+    // =========================================================================
+    // Getters
+    // =========================================================================
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isEnqueued() {
+        return enqueued;
+    }
+
+    public boolean isFinished() {
+        Status s = status;
+        return s == Status.COMPLETED || s == Status.FAILED;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public int getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public int getSentCount() {
+        return sentCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public int getRetryCount() {
+        return retryCount.get();
+    }
+}
@@ -0,0 +1,207 @@
+package mailmerge.service.merge;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled comparison used by both conditional syntaxes:
+ *
+ *  - block:  [[if {{Score}} >= 50]] ... [[else]] ... [[endif]]
+ *  - inline: {{Score|>=|50|Pass|Fail}}
+ *
+ * Semantics follow the dashboard preview (mail-dashboard.component.ts) so that what the user
+ * previews is what gets sent:
+ *  - if both sides contain a number, they are compared numerically
+ *  - otherwise plain string comparison (contains/startsWith/endsWith ignore case)
+ *  - a condition without an operator tests the operand for "truthiness"
+ *  - unknown operators evaluate to false
+ */
+final class MergeCondition {
+
+    private static final Pattern COMPARISON = Pattern.compile("^(.+?)\\s*(==|!=|>=|<=|>|<)\\s*(.+)$", Pattern.DOTALL);
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+    private static final Pattern TOKEN = Pattern.compile("^\\{\\{\\s*([^}]+?)\\s*\\}\\}$");
+
+    private final Operand left;
+    private final String op;
+    private final Operand right;
+
+    private MergeCondition(Operand left, String op, Operand right) {
+        this.left = left;
+        this.op = op;
+        this.right = right;
+    }
+
+    // =========================================================================
+    // Compilation
+    // =========================================================================
+
+    /**
+     * Compile the expression of an [[if ...]] block.
+     * Column references must be written as {{Column}}; bare words resolve to "".
+     */
+    static MergeCondition block(String expression, Map<String, Integer> columnIndex) {
+        String e = decodeHtmlEntities(expression).trim();
+        if (e.isEmpty()) return new MergeCondition(Operand.literal(""), "truthy", null);
+
+        Matcher m = COMPARISON.matcher(e);
+        if (!m.matches()) {
+            return new MergeCondition(blockOperand(e, columnIndex), "truthy", null);
+        }
+
+        return new MergeCondition(blockOperand(m.group(1), columnIndex), m.group(2), blockOperand(m.group(3), columnIndex));
+    }
+
+    /**
+     * Compile the field/op/value part of an inline {{Field|op|value|then|else}} conditional.
+     * The field is a bare column name; the value may be quoted, a {{token}} or a bare literal.
+     */
+    static MergeCondition inline(String field, String op, String value, Map<String, Integer> columnIndex) {
+        Integer column = columnIndex.get(decodeHtmlEntities(field).trim());
+        Operand left = column != null ? Operand.column(column) : Operand.literal("");
+        return new MergeCondition(left, decodeHtmlEntities(op).trim(), inlineOperand(decodeHtmlEntities(value), columnIndex));
+    }
+
+    private static Operand blockOperand(String raw, Map<String, Integer> columnIndex) {
+        String r = raw.trim();
+
+        Operand quoted = quotedOrToken(r, columnIndex);
+        if (quoted != null) return quoted;
+
+        if (r.equalsIgnoreCase("true") || r.equalsIgnoreCase("false")) return Operand.literal(r.toLowerCase(Locale.ROOT));
+        if (NUMBER.matcher(r).matches()) return Operand.literal(r);
+
+        // Bare words are not treated as column names inside [[if]] blocks
+        return Operand.literal("");
+    }
+
+    private static Operand inlineOperand(String raw, Map<String, Integer> columnIndex) {
+        String r = raw.trim();
+
+        Operand quoted = quotedOrToken(r, columnIndex);
+        if (quoted != null) return quoted;
+
+        if (r.equalsIgnoreCase("true") || r.equalsIgnoreCase("false")) return Operand.literal(r.toLowerCase(Locale.ROOT));
+        return Operand.literal(r);
+    }
+
+    private static Operand quotedOrToken(String r, Map<String, Integer> columnIndex) {
+        if (r.length() >= 2 && (r.startsWith("\"") && r.endsWith("\"") || r.startsWith("'") && r.endsWith("'"))) {
+            return Operand.literal(r.substring(1, r.length() - 1));
+        }
+
+        Matcher token = TOKEN.matcher(r);
+        if (token.matches()) {
+            Integer column = columnIndex.get(token.group(1).trim());
+            return column != null ? Operand.column(column) : Operand.literal("");
+        }
+
+        return null;
+    }
+
+    // =========================================================================
+    // Evaluation
+    // =========================================================================
+
+    boolean test(String[] row) {
+        String l = left.resolve(row);
+        String r = right != null ? right.resolve(row) : "";
+
+        switch (op) {
+            case "contains":
+                return l.toLowerCase(Locale.ROOT).contains(r.toLowerCase(Locale.ROOT));
+            case "startsWith":
+                return l.toLowerCase(Locale.ROOT).startsWith(r.toLowerCase(Locale.ROOT));
+            case "endsWith":
+                return l.toLowerCase(Locale.ROOT).endsWith(r.toLowerCase(Locale.ROOT));
+            case "empty":
+                return l.isEmpty();
+            case "notEmpty":
+                return !l.isEmpty();
+            case "truthy":
+                return isTruthy(l);
+            case "falsy":
+                return !isTruthy(l);
+            default:
+                return compare(l, r);
+        }
+    }
+
+    private boolean compare(String l, String r) {
+        Double ln = tryNumber(l);
+        Double rn = tryNumber(r);
+        int cmp = (ln != null && rn != null) ? Double.compare(ln, rn) : l.compareTo(r);
+
+        switch (op) {
+            case "==":
+                return cmp == 0;
+            case "!=":
+                return cmp != 0;
+            case ">":
+                return cmp > 0;
+            case ">=":
+                return cmp >= 0;
+            case "<":
+                return cmp < 0;
+            case "<=":
+                return cmp <= 0;
+            default:
+                return false;
+        }
+    }
+
+    private static Double tryNumber(String s) {
+        if (s.isEmpty()) return null;
+
+        Matcher m = NUMBER.matcher(s);
+        if (!m.find()) return null;
+
+        try {
+            return Double.valueOf(m.group());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isTruthy(String s) {
+        String v = s.toLowerCase(Locale.ROOT);
+        return !v.isEmpty() && !v.equals("false") && !v.equals("0");
+    }
+
+    /** The rich-text editor can hand us "&gt;=" instead of ">=" inside [[if]] blocks and inline conditionals. */
+    private static String decodeHtmlEntities(String s) {
+        if (s == null) return "";
+        return s.replace("&gt;", ">").replace("&lt;", "<").replace("&amp;", "&").replace("&quot;", "\"").replace("&#39;", "'");
+    }
+
+    // =========================================================================
+    // Operands
+    // =========================================================================
+
+    private static final class Operand {
+
+        private final String literal;
+        private final int column;
+
+        private Operand(String literal, int column) {
+            this.literal = literal;
+            this.column = column;
+        }
+
+        static Operand literal(String value) {
+            return new Operand(value, -1);
+        }
+
+        static Operand column(int column) {
+            return new Operand(null, column);
+        }
+
+        String resolve(String[] row) {
+            if (literal != null) return literal;
+            if (row == null || column >= row.length || row[column] == null) return "";
+            return row[column].trim();
+        }
+    }
+}
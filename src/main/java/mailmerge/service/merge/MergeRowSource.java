@@ -0,0 +1,31 @@
+package mailmerge.service.merge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Forward-only reader over the first sheet of a merge spreadsheet.
+ *
+ * The header row is read when the source is opened; data rows are then handed out one at a
+ * time so the whole sheet never has to sit in memory. Cell values are formatted the way
+ * POI's DataFormatter shows them in Excel (e.g. "91" rather than "91.0").
+ *
+ * Use {@link MergeRowSources#open} to get the right implementation for an upload.
+ */
+public interface MergeRowSource extends Closeable {
+    /** Trimmed header names in column order (blank for empty header cells). */
+    List<String> getHeaders();
+
+    /**
+     * Number of data rows (excluding the header) as far as the file can tell up front.
+     * Used for MailProgressEvent.totalCount; may be off when the sheet has gaps.
+     */
+    int getEstimatedRowCount();
+
+    /**
+     * Next data row, with one value per header column ("" for empty cells),
+     * or null once the sheet is exhausted.
+     */
+    String[] nextRow() throws IOException;
+}
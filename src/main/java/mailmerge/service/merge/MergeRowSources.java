@@ -0,0 +1,170 @@
+package mailmerge.service.merge;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import org.apache.poi.poifs.filesystem.FileMagic;
+
+/**
+ * Picks the {@link MergeRowSource} implementation for an uploaded spreadsheet.
+ *
+ * The format is decided from the file header rather than the declared content type, which
+ * browsers get wrong often enough (Windows labels .csv as application/vnd.ms-excel):
+ * .xlsx is streamed, legacy .xls goes through POI's WorkbookFactory, and anything that is
+ * not a zip/OLE2 container is read as delimited text. The content type only picks the
+ * default delimiter for text files (tab for text/tab-separated-values, otherwise sniffed).
+ *
+ * The caller owns the returned source and must close it.
+ */
+public final class MergeRowSources {
+
+    private MergeRowSources() {}
+
+    /** Open a spreadsheet that is already in memory (legacy base64 JSON uploads). */
+    public static MergeRowSource open(byte[] data, String contentType) throws IOException {
+        FileMagic magic = FileMagic.valueOf(data);
+
+        if (magic == FileMagic.OOXML) {
+            return XlsxRowSource.open(new ByteArrayInputStream(data));
+        }
+        if (magic == FileMagic.OLE2) {
+            return WorkbookRowSource.open(new ByteArrayInputStream(data));
+        }
+
+        int estimate = countDataLines(new ByteArrayInputStream(data));
+        return DelimitedRowSource.open(new ByteArrayInputStream(data), delimiterFor(contentType), estimate);
+    }
+
+    /** Open a spreadsheet file in place; the file is left alone on close. */
+    public static MergeRowSource open(Path file, String contentType) throws IOException {
+        FileMagic magic = FileMagic.valueOf(file.toFile());
+
+        if (magic == FileMagic.OOXML) {
+            return XlsxRowSource.open(file.toFile());
+        }
+        if (magic == FileMagic.OLE2) {
+            return WorkbookRowSource.open(file.toFile());
+        }
+
+        int estimate;
+        try (InputStream in = Files.newInputStream(file)) {
+            estimate = countDataLines(in);
+        }
+        return DelimitedRowSource.open(Files.newInputStream(file), delimiterFor(contentType), estimate);
+    }
+
+    /**
+     * Spool an upload stream (e.g. a multipart part) to a temp file and open that.
+     * The temp file is removed when the source is closed.
+     */
+    public static MergeRowSource open(InputStream in, String contentType) throws IOException {
+        return openSpooled(spool(in), contentType);
+    }
+
+    /** Copy an upload stream to a new temp file; the caller deletes it (or hands it to {@link #openSpooled}). */
+    public static Path spool(InputStream in) throws IOException {
+        Path tmp = Files.createTempFile("mailmerge-", ".upload");
+        try {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            return tmp;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * Open a temp file from {@link #spool}, which then belongs to the source: it is removed
+     * when the source is closed, or right away if it cannot be opened.
+     */
+    public static MergeRowSource openSpooled(Path tmp, String contentType) throws IOException {
+        try {
+            return new TempFileRowSource(open(tmp, contentType), tmp);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static char delimiterFor(String contentType) {
+        boolean tsv = contentType != null && contentType.toLowerCase().startsWith("text/tab-separated-values");
+        return tsv ? '\t' : 0;
+    }
+
+    /**
+     * Line breaks minus the header line. Quoted fields with embedded newlines make it an
+     * over-estimate. UTF-16 (detected by its BOM) is walked one code unit at a time.
+     */
+    static int countDataLines(InputStream in) throws IOException {
+        // readNBytes fills whole chunks, so a UTF-16 code unit never straddles two of them
+        byte[] chunk = new byte[64 * 1024];
+        int n = in.readNBytes(chunk, 0, chunk.length);
+
+        int step = 1;
+        int low = 0;
+        int i = 0;
+        if (n >= 2 && (chunk[0] & 0xFF) == 0xFF && (chunk[1] & 0xFF) == 0xFE) {
+            step = 2; // UTF-16LE: the ASCII byte comes first
+            i = 2;
+        } else if (n >= 2 && (chunk[0] & 0xFF) == 0xFE && (chunk[1] & 0xFF) == 0xFF) {
+            step = 2;
+            low = 1; // UTF-16BE
+            i = 2;
+        }
+
+        int lines = 0;
+        int last = '\n'; // empty input: no lines
+        while (n > 0) {
+            for (; i + step - 1 < n; i += step) {
+                int c = step == 1 ? chunk[i] : (chunk[i + 1 - low] == 0 ? chunk[i + low] : -1);
+                if (c == '\r' || (c == '\n' && last != '\r')) lines++;
+                last = c;
+            }
+            n = in.readNBytes(chunk, 0, chunk.length);
+            i = 0;
+        }
+        if (last != '\n' && last != '\r') lines++;
+
+        return Math.max(lines - 1, 0);
+    }
+
+    /** Deletes the spooled upload once the wrapped source is closed. */
+    private static final class TempFileRowSource implements MergeRowSource {
+
+        private final MergeRowSource delegate;
+        private final Path file;
+
+        TempFileRowSource(MergeRowSource delegate, Path file) {
+            this.delegate = delegate;
+            this.file = file;
+        }
+
+        @Override
+        public List<String> getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public int getEstimatedRowCount() {
+            return delegate.getEstimatedRowCount();
+        }
+
+        @Override
+        public String[] nextRow() throws IOException {
+            return delegate.nextRow();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                delegate.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
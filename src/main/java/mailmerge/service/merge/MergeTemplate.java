@@ -0,0 +1,373 @@
+package mailmerge.service.merge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A merge template parsed once per job.
+ *
+ * The source text is turned into a small tree of segments, so rendering a row is a single
+ * pass with no regex work:
+ *
+ *  "Hi {{ Name }}, you scored {{Score}}"  ->  ["Hi ", [col 0], ", you scored ", [col 2]]
+ *
+ * Conditionals are compiled into the same tree and evaluated per row:
+ *  - blocks:  [[if {{Score}} >= 50]] ... [[else]] ... [[endif]]   (may be nested)
+ *  - inline:  {{Score|>=|50|Pass|Fail}}                             (Thunderbird style)
+ * See {@link MergeCondition} for the supported operators.
+ *
+ * Placeholders that don't match a spreadsheet header are kept as literal text, and stray
+ * [[else]]/[[endif]] tags are dropped, matching the dashboard preview.
+ */
+public final class MergeTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+    private static final String TAG_OPEN = "[[";
+    private static final String TAG_CLOSE = "]]";
+    private static final String IF = "[[if";
+    private static final String ELSE = "[[else]]";
+    private static final String ENDIF = "[[endif]]";
+
+    private static final MergeTemplate EMPTY = new MergeTemplate(List.of());
+
+    private final List<Segment> segments;
+
+    private MergeTemplate(List<Segment> segments) {
+        this.segments = segments;
+    }
+
+    // =========================================================================
+    // Compilation
+    // =========================================================================
+
+    /**
+     * Build the header -> column index lookup used by {@link #compile(String, Map)}.
+     * Blank headers are ignored; if a header appears twice the right-most column wins.
+     */
+    public static Map<String, Integer> columnIndex(List<String> headers) {
+        if (headers == null || headers.isEmpty()) return Collections.emptyMap();
+
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < headers.size(); i++) {
+            String header = headers.get(i);
+            if (header == null || header.isBlank()) continue;
+            index.put(header.trim(), i);
+        }
+        return index;
+    }
+
+    /**
+     * Parse a template against the given column index.
+     *
+     * @param template    raw template text (null is treated as empty)
+     * @param columnIndex header -> column lookup, see {@link #columnIndex(List)}
+     */
+    public static MergeTemplate compile(String template, Map<String, Integer> columnIndex) {
+        if (template == null || template.isEmpty()) return EMPTY;
+
+        List<Segment> segments = new Parser(template, columnIndex).parseSequence(false);
+        return segments.isEmpty() ? EMPTY : new MergeTemplate(List.copyOf(segments));
+    }
+
+    /**
+     * Recursive-descent parser over the raw template.
+     * {@link #parseSequence(boolean)} stops at [[else]]/[[endif]] when inside a block.
+     */
+    private static final class Parser {
+
+        private final String src;
+        private final Map<String, Integer> columnIndex;
+        private int pos;
+
+        Parser(String src, Map<String, Integer> columnIndex) {
+            this.src = src;
+            this.columnIndex = columnIndex;
+        }
+
+        List<Segment> parseSequence(boolean inBlock) {
+            List<Segment> segments = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+
+            while (pos < src.length()) {
+                int next = nextMarker(pos);
+                if (next == -1) {
+                    literal.append(src, pos, src.length());
+                    pos = src.length();
+                    break;
+                }
+
+                literal.append(src, pos, next);
+                pos = next;
+
+                if (src.startsWith(OPEN, pos)) {
+                    parsePlaceholder(literal, segments);
+                    continue;
+                }
+
+                // "[[" tags
+                if (src.startsWith(ELSE, pos) || src.startsWith(ENDIF, pos)) {
+                    if (inBlock) break;
+                    // Stray tag outside any block: drop it
+                    pos += src.startsWith(ELSE, pos) ? ELSE.length() : ENDIF.length();
+                    continue;
+                }
+
+                if (src.startsWith(IF, pos)) {
+                    int close = src.indexOf(TAG_CLOSE, pos);
+                    if (close == -1) {
+                        // Unterminated [[if: rest of the template is plain text
+                        literal.append(src, pos, src.length());
+                        pos = src.length();
+                        break;
+                    }
+
+                    MergeCondition condition = MergeCondition.block(src.substring(pos + IF.length(), close), columnIndex);
+                    pos = close + TAG_CLOSE.length();
+
+                    flushLiteral(literal, segments);
+                    segments.add(parseBlock(condition));
+                    continue;
+                }
+
+                // Unknown [[...]]: literal text
+                literal.append(TAG_OPEN);
+                pos += TAG_OPEN.length();
+            }
+
+            flushLiteral(literal, segments);
+            return segments;
+        }
+
+        private Segment parseBlock(MergeCondition condition) {
+            List<Segment> thenPart = parseSequence(true);
+            List<Segment> elsePart = List.of();
+
+            if (src.startsWith(ELSE, pos)) {
+                pos += ELSE.length();
+                elsePart = parseSequence(true);
+
+                // A second [[else]] keeps the else branch going (same as the preview)
+                while (src.startsWith(ELSE, pos)) {
+                    pos += ELSE.length();
+                    List<Segment> more = new ArrayList<>(elsePart);
+                    more.addAll(parseSequence(true));
+                    elsePart = more;
+                }
+            }
+
+            if (src.startsWith(ENDIF, pos)) {
+                pos += ENDIF.length();
+            }
+
+            return new ConditionalSegment(condition, List.copyOf(thenPart), List.copyOf(elsePart));
+        }
+
+        private void parsePlaceholder(StringBuilder literal, List<Segment> segments) {
+            int close = matchingClose(pos);
+            if (close == -1) {
+                // No balanced "}}": keep "{{" as text and continue scanning after it,
+                // so "{{ {{Name}}" still resolves the inner token
+                literal.append(OPEN);
+                pos += OPEN.length();
+                return;
+            }
+
+            String inner = src.substring(pos + OPEN.length(), close);
+            List<String> parts = splitPipes(inner);
+
+            if (parts.size() >= 2) {
+                flushLiteral(literal, segments);
+                segments.add(inlineConditional(parts));
+                pos = close + CLOSE.length();
+                return;
+            }
+
+            Integer column = inner.contains(OPEN) ? null : columnIndex.get(inner.trim());
+            if (column == null) {
+                literal.append(OPEN);
+                pos += OPEN.length();
+                return;
+            }
+
+            flushLiteral(literal, segments);
+            segments.add(new ColumnSegment(column));
+            pos = close + CLOSE.length();
+        }
+
+        private Segment inlineConditional(List<String> parts) {
+            String value = parts.size() > 2 ? parts.get(2) : "";
+            MergeCondition condition = MergeCondition.inline(parts.get(0), parts.get(1), value, columnIndex);
+
+            // then/else are templates themselves, so they may use {{tokens}} or nest further
+            MergeTemplate thenPart = parts.size() > 3 ? compile(parts.get(3), columnIndex) : EMPTY;
+            MergeTemplate elsePart = parts.size() > 4 ? compile(parts.get(4), columnIndex) : EMPTY;
+
+            return new ConditionalSegment(condition, thenPart.segments, elsePart.segments);
+        }
+
+        private int nextMarker(int from) {
+            int brace = src.indexOf(OPEN, from);
+            int tag = src.indexOf(TAG_OPEN, from);
+            if (brace == -1) return tag;
+            if (tag == -1) return brace;
+            return Math.min(brace, tag);
+        }
+
+        /** Index of the "}}" closing the "{{" at {@code open}, honouring nesting; -1 if unbalanced. */
+        private int matchingClose(int open) {
+            int depth = 0;
+            int i = open;
+            while (i < src.length() - 1) {
+                if (src.startsWith(OPEN, i)) {
+                    depth++;
+                    i += OPEN.length();
+                } else if (src.startsWith(CLOSE, i)) {
+                    depth--;
+                    if (depth == 0) return i;
+                    i += CLOSE.length();
+                } else {
+                    i++;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Split the inside of an inline conditional on top-level "|" characters.
+     * Pipes inside quoted parts or nested {{...}} are kept; a backslash escapes the next character.
+     * Each part is trimmed; quotes are kept so the operand rules can see them.
+     */
+    static List<String> splitPipes(String s) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        char quote = 0;
+        int depth = 0;
+
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+
+            if (ch == '\\' && i + 1 < s.length()) {
+                cur.append(s.charAt(++i));
+                continue;
+            }
+
+            // Quotes only open at the start of a part, so apostrophes in text ("You're in") are plain
+            if (quote == 0 && depth == 0 && (ch == '"' || ch == '\'') && cur.toString().isBlank()) {
+                quote = ch;
+            } else if (quote != 0 && ch == quote) {
+                quote = 0;
+            } else if (quote == 0 && s.startsWith(OPEN, i)) {
+                depth++;
+                cur.append(OPEN);
+                i++;
+                continue;
+            } else if (quote == 0 && depth > 0 && s.startsWith(CLOSE, i)) {
+                depth--;
+                cur.append(CLOSE);
+                i++;
+                continue;
+            } else if (quote == 0 && depth == 0 && ch == '|') {
+                out.add(cur.toString().trim());
+                cur.setLength(0);
+                continue;
+            }
+
+            cur.append(ch);
+        }
+
+        out.add(cur.toString().trim());
+        return out;
+    }
+
+    private static void flushLiteral(StringBuilder literal, List<Segment> segments) {
+        if (literal.length() == 0) return;
+        segments.add(new LiteralSegment(literal.toString()));
+        literal.setLength(0);
+    }
+
+    // =========================================================================
+    // Rendering
+    // =========================================================================
+
+    /**
+     * Render one row into the supplied buffer and return the result.
+     * The buffer is cleared first so callers can reuse a single builder for every row.
+     *
+     * @param row    cell values indexed by column (missing columns render as "")
+     * @param buffer scratch builder owned by the caller
+     */
+    public String render(String[] row, StringBuilder buffer) {
+        buffer.setLength(0);
+        appendTo(buffer, row);
+        return buffer.toString();
+    }
+
+    void appendTo(StringBuilder out, String[] row) {
+        for (Segment segment : segments) {
+            segment.appendTo(out, row);
+        }
+    }
+
+    // =========================================================================
+    // Segments
+    // =========================================================================
+
+    interface Segment {
+        void appendTo(StringBuilder out, String[] row);
+    }
+
+    static final class LiteralSegment implements Segment {
+
+        private final String text;
+
+        LiteralSegment(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void appendTo(StringBuilder out, String[] row) {
+            out.append(text);
+        }
+    }
+
+    static final class ConditionalSegment implements Segment {
+
+        private final MergeCondition condition;
+        private final List<Segment> thenPart;
+        private final List<Segment> elsePart;
+
+        ConditionalSegment(MergeCondition condition, List<Segment> thenPart, List<Segment> elsePart) {
+            this.condition = condition;
+            this.thenPart = thenPart;
+            this.elsePart = elsePart;
+        }
+
+        @Override
+        public void appendTo(StringBuilder out, String[] row) {
+            for (Segment segment : condition.test(row) ? thenPart : elsePart) {
+                segment.appendTo(out, row);
+            }
+        }
+    }
+
+    static final class ColumnSegment implements Segment {
+
+        private final int column;
+
+        ColumnSegment(int column) {
+            this.column = column;
+        }
+
+        @Override
+        public void appendTo(StringBuilder out, String[] row) {
+            if (row != null && column < row.length && row[column] != null) {
+                out.append(row[column]);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package mailmerge.service.merge;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The five templates of a merge job (subject, body, to, cc, bcc), compiled once against the
+ * spreadsheet headers.
+ *
+ * Holds a single scratch {@link StringBuilder} that is reused for every row, so an instance
+ * belongs to one job and must not be shared between threads.
+ */
+public class MergeTemplateSet {
+
+    private final MergeTemplate subject;
+    private final MergeTemplate body;
+    private final MergeTemplate to;
+    private final MergeTemplate cc;
+    private final MergeTemplate bcc;
+
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    private MergeTemplateSet(MergeTemplate subject, MergeTemplate body, MergeTemplate to, MergeTemplate cc, MergeTemplate bcc) {
+        this.subject = subject;
+        this.body = body;
+        this.to = to;
+        this.cc = cc;
+        this.bcc = bcc;
+    }
+
+    /**
+     * Compile all templates of a job against the header row.
+     *
+     * @param headers trimmed header names in column order
+     */
+    public static MergeTemplateSet compile(
+        String subjectTemplate,
+        String bodyTemplate,
+        String toTemplate,
+        String ccTemplate,
+        String bccTemplate,
+        List<String> headers
+    ) {
+        Map<String, Integer> columnIndex = MergeTemplate.columnIndex(headers);
+
+        return new MergeTemplateSet(
+            MergeTemplate.compile(subjectTemplate, columnIndex),
+            MergeTemplate.compile(bodyTemplate, columnIndex),
+            MergeTemplate.compile(toTemplate, columnIndex),
+            MergeTemplate.compile(ccTemplate, columnIndex),
+            MergeTemplate.compile(bccTemplate, columnIndex)
+        );
+    }
+
+    /**
+     * Render every template for one row.
+     *
+     * @param row cell values indexed by column
+     */
+    public MergedMessage render(String[] row) {
+        return new MergedMessage(
+            to.render(row, buffer),
+            cc.render(row, buffer),
+            bcc.render(row, buffer),
+            subject.render(row, buffer),
+            body.render(row, buffer)
+        );
+    }
+}
@@ -0,0 +1,57 @@
+package mailmerge.service.merge;
+
+/**
+ * One spreadsheet row after the subject/body/to/cc/bcc templates have been applied.
+ */
+public class MergedMessage {
+
+    private final String to;
+    private final String cc;
+    private final String bcc;
+    private final String subject;
+    private final String body;
+    private final String idempotencyKey;
+
+    public MergedMessage(String to, String cc, String bcc, String subject, String body) {
+        this(to, cc, bcc, subject, body, null);
+    }
+
+    /** {@code idempotencyKey} tags the Graph message so a re-send can be detected (may be null). */
+    public MergedMessage(String to, String cc, String bcc, String subject, String body, String idempotencyKey) {
+        this.to = to;
+        this.cc = cc;
+        this.bcc = bcc;
+        this.subject = subject;
+        this.body = body;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getCc() {
+        return cc;
+    }
+
+    public String getBcc() {
+        return bcc;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /** True when the "To" template resolved to nothing for this row. */
+    public boolean hasNoRecipient() {
+        return to == null || to.trim().isEmpty();
+    }
+}
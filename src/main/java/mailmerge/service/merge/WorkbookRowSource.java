@@ -0,0 +1,87 @@
+package mailmerge.service.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+/**
+ * Row source over a fully loaded POI workbook.
+ *
+ * Only used for legacy binary .xls files, which have no cheap streaming path;
+ * .xlsx uploads go through {@link XlsxRowSource}.
+ */
+public final class WorkbookRowSource implements MergeRowSource {
+
+    private final Workbook workbook;
+    private final Iterator<Row> rows;
+    private final DataFormatter formatter = new DataFormatter();
+    private final List<String> headers;
+    private final int estimatedRowCount;
+
+    private WorkbookRowSource(Workbook workbook) {
+        this.workbook = workbook;
+        formatter.setUseCachedValuesForFormulaCells(true);
+
+        Sheet sheet = workbook.getSheetAt(0);
+        this.rows = sheet.iterator();
+
+        List<String> names = new ArrayList<>();
+        if (rows.hasNext()) {
+            Row headerRow = rows.next();
+            for (int i = 0; i < Math.max(headerRow.getLastCellNum(), 0); i++) {
+                Cell cell = headerRow.getCell(i);
+                names.add(cell != null ? formatter.formatCellValue(cell).trim() : "");
+            }
+        }
+
+        this.headers = Collections.unmodifiableList(names);
+        this.estimatedRowCount = Math.max(sheet.getPhysicalNumberOfRows() - 1, 0);
+    }
+
+    public static WorkbookRowSource open(InputStream in) throws IOException {
+        return new WorkbookRowSource(WorkbookFactory.create(in));
+    }
+
+    /** Open read-only from a file, which lets POI page the OLE2 container instead of buffering it. */
+    public static WorkbookRowSource open(File file) throws IOException {
+        return new WorkbookRowSource(WorkbookFactory.create(file, null, true));
+    }
+
+    @Override
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public int getEstimatedRowCount() {
+        return estimatedRowCount;
+    }
+
+    @Override
+    public String[] nextRow() {
+        if (!rows.hasNext()) return null;
+
+        Row row = rows.next();
+        String[] values = new String[headers.size()];
+        for (int i = 0; i < values.length; i++) {
+            Cell cell = row.getCell(i);
+            values[i] = cell != null ? formatter.formatCellValue(cell) : "";
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        workbook.close();
+    }
+}
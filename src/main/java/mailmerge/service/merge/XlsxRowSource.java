@@ -0,0 +1,347 @@
+package mailmerge.service.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * Streaming reader for .xlsx files.
+ *
+ * Pulls the first worksheet's XML with StAX instead of building the POI object model, so
+ * heap use is flat in the number of rows: only the shared-strings table, the styles and the
+ * current row are held. The workbook is opened from a file (zip entries are inflated on
+ * demand); uploads that arrive as a stream are spooled to a temp file first.
+ */
+public final class XlsxRowSource implements MergeRowSource {
+
+    private static final Logger log = LoggerFactory.getLogger(XlsxRowSource.class);
+
+    private final OPCPackage pkg;
+    private final InputStream sheetData;
+    private final XMLStreamReader xml;
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final StylesTable styles;
+    private final Path tempFile;
+
+    private final DataFormatter formatter = new DataFormatter();
+
+    // Per-style number format, resolved lazily (style index -> format index / format string)
+    private short[] formatIndexByStyle = new short[0];
+    private String[] formatStringByStyle = new String[0];
+
+    private final List<String> headers;
+    private final int estimatedRowCount;
+
+    // Reused between cells to collect <v>/<t> text
+    private final StringBuilder text = new StringBuilder();
+
+    private XlsxRowSource(OPCPackage pkg, Path tempFile) throws IOException, OpenXML4JException, SAXException, XMLStreamException {
+        this.pkg = pkg;
+        this.tempFile = tempFile;
+
+        XSSFReader reader = new XSSFReader(pkg);
+        this.sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+        this.styles = reader.getStylesTable();
+
+        Iterator<InputStream> sheets = reader.getSheetsData();
+        if (!sheets.hasNext()) {
+            throw new IllegalArgumentException("Spreadsheet has no sheets");
+        }
+
+        this.sheetData = sheets.next();
+        this.xml = XMLHelper.newXMLInputFactory().createXMLStreamReader(sheetData);
+
+        // <dimension ref="A1:F2001"/> comes before <sheetData>, so it is seen on the way to row 1
+        int lastRow = -1;
+        int headerRow = -1;
+        List<String> headerValues = Collections.emptyList();
+
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event != XMLStreamConstants.START_ELEMENT) continue;
+
+            String name = xml.getLocalName();
+            if ("dimension".equals(name)) {
+                lastRow = lastRowOf(xml.getAttributeValue(null, "ref"));
+            } else if ("row".equals(name)) {
+                headerRow = parseIntOr(xml.getAttributeValue(null, "r"), 1);
+                headerValues = new ArrayList<>();
+                readRow(headerValues, null);
+                break;
+            }
+        }
+
+        List<String> trimmed = new ArrayList<>(headerValues.size());
+        for (String h : headerValues) trimmed.add(h == null ? "" : h.trim());
+
+        this.headers = Collections.unmodifiableList(trimmed);
+        this.estimatedRowCount = (lastRow > 0 && headerRow > 0) ? Math.max(lastRow - headerRow, 0) : 0;
+    }
+
+    // =========================================================================
+    // Opening
+    // =========================================================================
+
+    /** Open an .xlsx file in place; the file is left alone on close. */
+    public static XlsxRowSource open(File file) throws IOException {
+        return open(file.toPath(), null);
+    }
+
+    /** Spool an .xlsx stream to a temp file and open that; the temp file is removed on close. */
+    public static XlsxRowSource open(InputStream in) throws IOException {
+        Path tmp = Files.createTempFile("mailmerge-", ".xlsx");
+        try {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            return open(tmp, tmp);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static XlsxRowSource open(Path path, Path tempFile) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(path.toFile(), PackageAccess.READ);
+        } catch (org.apache.poi.openxml4j.exceptions.InvalidFormatException e) {
+            throw new IOException("Not a valid .xlsx file", e);
+        }
+
+        try {
+            return new XlsxRowSource(pkg, tempFile);
+        } catch (OpenXML4JException | SAXException | XMLStreamException e) {
+            pkg.revert();
+            throw new IOException("Could not read spreadsheet: " + e.getMessage(), e);
+        } catch (IOException | RuntimeException e) {
+            pkg.revert();
+            throw e;
+        }
+    }
+
+    // =========================================================================
+    // MergeRowSource
+    // =========================================================================
+
+    @Override
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public int getEstimatedRowCount() {
+        return estimatedRowCount;
+    }
+
+    @Override
+    public String[] nextRow() throws IOException {
+        try {
+            while (xml.hasNext()) {
+                int event = xml.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT && "row".equals(xml.getLocalName())) {
+                    String[] values = new String[headers.size()];
+                    Arrays.fill(values, "");
+                    readRow(null, values);
+                    return values;
+                }
+
+                if (event == XMLStreamConstants.END_ELEMENT && "sheetData".equals(xml.getLocalName())) {
+                    return null;
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not read spreadsheet row: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            log.debug("Ignoring error closing sheet reader", e);
+        }
+        sheetData.close();
+        pkg.revert();
+
+        if (tempFile != null) {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    // =========================================================================
+    // Row / cell parsing
+    // =========================================================================
+
+    /**
+     * Read the cells of the current &lt;row&gt; element.
+     * Either appends to {@code growable} (header row, width unknown) or fills {@code fixed}
+     * (data rows, one slot per header; cells past the last header are ignored).
+     */
+    private void readRow(List<String> growable, String[] fixed) throws XMLStreamException {
+        int nextColumn = 0;
+
+        while (xml.hasNext()) {
+            int event = xml.next();
+
+            if (event == XMLStreamConstants.END_ELEMENT && "row".equals(xml.getLocalName())) {
+                return;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT || !"c".equals(xml.getLocalName())) {
+                continue;
+            }
+
+            String ref = xml.getAttributeValue(null, "r");
+            String type = xml.getAttributeValue(null, "t");
+            String style = xml.getAttributeValue(null, "s");
+
+            int column = ref != null ? columnOf(ref) : nextColumn;
+            nextColumn = column + 1;
+
+            String value = readCell(type, style);
+
+            if (growable != null) {
+                while (growable.size() < column) growable.add("");
+                growable.add(value);
+            } else if (column < fixed.length) {
+                fixed[column] = value;
+            }
+        }
+    }
+
+    /** Read one &lt;c&gt; element (positioned on its start tag) and format its value. */
+    private String readCell(String type, String style) throws XMLStreamException {
+        text.setLength(0);
+        boolean inValue = false;
+        boolean inPhonetic = false;
+
+        while (xml.hasNext()) {
+            int event = xml.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = xml.getLocalName();
+                if ("v".equals(name) || ("t".equals(name) && !inPhonetic)) inValue = true;
+                else if ("rPh".equals(name)) inPhonetic = true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = xml.getLocalName();
+                if ("c".equals(name)) break;
+                if ("v".equals(name) || "t".equals(name)) inValue = false;
+                else if ("rPh".equals(name)) inPhonetic = false;
+            } else if (inValue && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                text.append(xml.getText());
+            }
+        }
+
+        String raw = text.toString();
+        if (type == null) type = "n";
+
+        switch (type) {
+            case "s":
+                int idx = parseIntOr(raw.trim(), -1);
+                return idx >= 0 && idx < sharedStrings.getCount() ? sharedStrings.getItemAt(idx).getString() : "";
+            case "inlineStr":
+            case "str":
+            case "e":
+            case "d":
+                return raw;
+            case "b":
+                return "1".equals(raw.trim()) ? "TRUE" : "FALSE";
+            default:
+                return formatNumber(raw.trim(), style);
+        }
+    }
+
+    private String formatNumber(String raw, String style) {
+        if (raw.isEmpty()) return "";
+
+        double value;
+        try {
+            value = Double.parseDouble(raw);
+        } catch (NumberFormatException e) {
+            return raw;
+        }
+
+        int styleIndex = style != null ? parseIntOr(style, 0) : 0;
+        if (styles == null || styleIndex >= styles.getNumCellStyles()) {
+            return formatter.formatRawCellContents(value, 0, "General");
+        }
+
+        if (styleIndex >= formatStringByStyle.length) {
+            int size = Math.max(styleIndex + 1, formatStringByStyle.length * 2);
+            formatIndexByStyle = Arrays.copyOf(formatIndexByStyle, size);
+            formatStringByStyle = Arrays.copyOf(formatStringByStyle, size);
+        }
+
+        String formatString = formatStringByStyle[styleIndex];
+        if (formatString == null) {
+            XSSFCellStyle cellStyle = styles.getStyleAt(styleIndex);
+            short formatIndex = cellStyle.getDataFormat();
+            formatString = cellStyle.getDataFormatString();
+            if (formatString == null) formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+            if (formatString == null) formatString = "General";
+
+            formatIndexByStyle[styleIndex] = formatIndex;
+            formatStringByStyle[styleIndex] = formatString;
+        }
+
+        return formatter.formatRawCellContents(value, formatIndexByStyle[styleIndex], formatString);
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    /** "AB12" -> 27 (zero-based column). */
+    static int columnOf(String ref) {
+        int column = 0;
+        for (int i = 0; i < ref.length(); i++) {
+            char ch = ref.charAt(i);
+            if (ch < 'A' || ch > 'Z') break;
+            column = column * 26 + (ch - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    /** "A1:F2001" -> 2001, "A1" -> 1. */
+    static int lastRowOf(String ref) {
+        if (ref == null || ref.isEmpty()) return -1;
+
+        String last = ref.substring(ref.indexOf(':') + 1);
+        int i = 0;
+        while (i < last.length() && Character.isLetter(last.charAt(i))) i++;
+        return parseIntOr(last.substring(i), -1);
+    }
+
+    private static int parseIntOr(String s, int fallback) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Mail merge internals: compiled templates and spreadsheet row handling.
+ */
+package mailmerge.service.merge;
@@ -0,0 +1,34 @@
+package mailmerge.service.progress;
+
+import mailmerge.service.dto.MailProgressEvent;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * {@link ProgressBus} within one instance: events go straight to the local listener, on the
+ * publishing thread (one at a time, so ids reach the listener in order).
+ *
+ * Ids start from the start time (in microseconds), so after a restart they carry on above
+ * the ones browsers were given before it instead of starting again at 1.
+ */
+@Service
+@ConditionalOnProperty(prefix = "application.mail-merge.progress", name = "bus", havingValue = "memory", matchIfMissing = true)
+public class InMemoryProgressBus implements ProgressBus {
+
+    private long lastEventId = System.currentTimeMillis() * 1000;
+
+    private volatile Listener listener;
+
+    @Override
+    public synchronized void publish(String login, MailProgressEvent event) {
+        Listener current = listener;
+        if (current != null) {
+            current.onEvent(++lastEventId, login, event);
+        }
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        this.listener = listener;
+    }
+}
@@ -0,0 +1,248 @@
+package mailmerge.service.progress;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+import mailmerge.service.dto.MailProgressEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * {@link ProgressBus} across instances sharing one PostgreSQL database, with LISTEN/NOTIFY.
+ *
+ * Publishing is a {@code pg_notify} on the {@value #CHANNEL} channel; the payload is the
+ * event's id (from {@code mail_progress_event_seq}, so ids mean the same on every instance)
+ * and the JSON of the user's login and event. Every instance, the publishing one included,
+ * keeps one connection LISTENing on a daemon thread and hands each notification to its
+ * listener, which sends it to whatever SSE clients for that user it holds.
+ *
+ * Ids are taken when an event is published, but PostgreSQL delivers notifications in commit
+ * order, so with concurrent publishers (e.g. the aggregators of two instances) id N+1 can
+ * arrive before id N. Every listener sees the same order, though, and MailProgressService
+ * replays by that order rather than by id.
+ *
+ * Notifications are not stored: events published while an instance is reconnecting are
+ * lost for its clients, and the job's next snapshot brings them up to date.
+ *
+ * The LISTEN connection is taken from the application's Hikari pool and held for as long as
+ * the instance runs, so each instance has one connection fewer for everything else; size
+ * {@code spring.datasource.hikari.maximum-pool-size} with that in mind.
+ */
+@Service
+@ConditionalOnProperty(prefix = "application.mail-merge.progress", name = "bus", havingValue = "postgres")
+public class PostgresProgressBus implements ProgressBus {
+
+    // =========================================================================
+    // Logging + constants
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final Logger log = LoggerFactory.getLogger(PostgresProgressBus.class);
+
+    static final String CHANNEL = "mail_progress";
+
+    // NOTIFY payloads must be shorter than 8000 bytes
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final int MAX_PAYLOAD_BYTES = 7900;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final String NOTIFY_SQL = "select pg_notify(?, nextval('mail_progress_event_seq')::text || ':' || ?)";
+
+    // How long one wait for notifications blocks the listener thread
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final int POLL_MILLIS = 500;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(5);
+
+    /** What travels in a notification, after the id. */
+    record Envelope(String login, MailProgressEvent event) {}
+
+    // =========================================================================
+    // Dependencies + state
+    // =========================================================================
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final DataSource dataSource;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final JdbcTemplate jdbcTemplate;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final TransactionTemplate transactionTemplate;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private final ObjectMapper objectMapper;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private volatile Listener listener;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private volatile boolean running = true;
+
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private Thread listenerThread;
+
+    public PostgresProgressBus(
+        DataSource dataSource,
+        JdbcTemplate jdbcTemplate,
+        TransactionTemplate transactionTemplate,
+        ObjectMapper objectMapper
+    ) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    // =========================================================================
+    // ProgressBus
+    // =========================================================================
+
+    @Override
+    public void publish(String login, MailProgressEvent event) {
+        try {
+            String payload = payload(login, event);
+            // The notification goes out when the transaction commits (the pool does not auto-commit)
+            transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.query(NOTIFY_SQL, (ResultSetExtractor<Void>) rs -> null, CHANNEL, payload)
+            );
+        } catch (RuntimeException | JsonProcessingException e) {
+            log.warn("❌ Could not publish progress of job {} to the progress bus: {}", event.jobId, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void subscribe(Listener listener) {
+        this.listener = listener;
+        if (listenerThread == null) {
+            listenerThread = new Thread(this::listen, "mail-progress-listener");
+            listenerThread.setDaemon(true);
+            listenerThread.start();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+        }
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    /** The event's JSON, without its recent failures if it would not fit in a notification. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private String payload(String login, MailProgressEvent event) throws JsonProcessingException {
+        String json = objectMapper.writeValueAsString(new Envelope(login, event));
+        if (json.getBytes(StandardCharsets.UTF_8).length <= MAX_PAYLOAD_BYTES) {
+            return json;
+        }
+
+        ObjectNode envelope = objectMapper.valueToTree(new Envelope(login, event));
+        ((ObjectNode) envelope.get("event")).remove("recentFailures");
+        return objectMapper.writeValueAsString(envelope);
+    }
+
+    /** Hand one notification ("id:json") to the listener. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    void deliver(String payload) {
+        Listener current = listener;
+        if (current == null) return;
+
+        try {
+            int separator = payload.indexOf(':');
+            long id = Long.parseLong(payload.substring(0, separator));
+            Envelope envelope = objectMapper.readValue(payload.substring(separator + 1), Envelope.class);
+            current.onEvent(id, envelope.login(), envelope.event());
+        } catch (RuntimeException | JsonProcessingException e) {
+            log.warn("❌ Ignoring unreadable progress notification: {}", e.getMessage());
+        }
+    }
+
+    /** LISTEN on a dedicated connection until stopped, reconnecting after errors. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private void listen() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                log.info("👂 Listening for progress events on {}", CHANNEL);
+
+                PgNotifications notifications = new PgNotifications(connection);
+                while (running) {
+                    notifications.poll(POLL_MILLIS).forEach(this::deliver);
+                }
+            } catch (SQLException | ReflectiveOperationException e) {
+                if (!running) break;
+                log.warn("❌ Progress bus connection failed, reconnecting in {} s: {}", RECONNECT_DELAY.toSeconds(), e.getMessage());
+                try {
+                    Thread.sleep(RECONNECT_DELAY.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Notifications received on a PgJDBC connection. The driver is only on the classpath of
+     * the prod build, so its API ({@code PGConnection#getNotifications(int)}) is reached
+     * reflectively.
+     */
+    private static final class PgNotifications {
+
+        private final Object pgConnection;
+        private final Method getNotifications;
+        private final Method getParameter;
+
+        PgNotifications(Connection connection) throws SQLException, ReflectiveOperationException {
+            ClassLoader loader = connection.getClass().getClassLoader();
+            Class<?> pgConnectionClass = Class.forName("org.postgresql.PGConnection", true, loader);
+            this.pgConnection = connection.unwrap(pgConnectionClass);
+            this.getNotifications = pgConnectionClass.getMethod("getNotifications", int.class);
+            this.getParameter = Class.forName("org.postgresql.PGNotification", true, loader).getMethod("getParameter");
+        }
+
+        /** Payloads received within {@code timeoutMillis} (empty if none). */
+        List<String> poll(int timeoutMillis) throws SQLException, ReflectiveOperationException {
+            Object[] notifications;
+            try {
+                notifications = (Object[]) getNotifications.invoke(pgConnection, timeoutMillis);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException sqlException) throw sqlException;
+                throw e;
+            }
+
+            List<String> payloads = new ArrayList<>();
+            if (notifications != null) {
+                for (Object notification : notifications) {
+                    payloads.add((String) getParameter.invoke(notification));
+                }
+            }
+            return payloads;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package mailmerge.service.progress;
+
+import mailmerge.service.dto.MailProgressEvent;
+
+/**
+ * Carries progress events from the instance that produced them to every instance holding
+ * SSE clients, so a browser sees its job's progress whichever instance its stream landed on.
+ *
+ * Selected with {@code application.mail-merge.progress.bus}:
+ *  - {@code memory} (default): {@link InMemoryProgressBus}, a single instance
+ *  - {@code postgres}: {@link PostgresProgressBus}, PostgreSQL LISTEN/NOTIFY between instances
+ */
+public interface ProgressBus {
+    /**
+     * Receives every published event, with the SSE id the bus gave it. Ids are unique, and
+     * every instance gets the events in the same order, but that order need not be the ids'.
+     */
+    @FunctionalInterface
+    interface Listener {
+        void onEvent(long id, String login, MailProgressEvent event);
+    }
+
+    /**
+     * Publish {@code login}'s event to the listeners of all instances (this one included).
+     * Never waits for a browser; may drop the event if the bus is unavailable.
+     */
+    void publish(String login, MailProgressEvent event);
+
+    /** Register this instance's listener (MailProgressService); called once at startup. */
+    void subscribe(Listener listener);
+}
@@ -2,8 +2,10 @@ package mailmerge.web.rest;
 
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -16,8 +18,21 @@ import mailmerge.web.rest.errors.BadRequestAlertException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import tech.jhipster.web.util.HeaderUtil;
 import tech.jhipster.web.util.ResponseUtil;
 
@@ -49,6 +64,15 @@ public class AttachmentResource {
         this.attachmentQueryService = attachmentQueryService;
     }
 
+    /**
+     * A bare {@code size} is the keyset page size, not the criteria's size filter (which is
+     * {@code size.equals}, {@code size.greaterThan}, ...): without this it failed to bind as a filter.
+     */
+    @InitBinder("attachmentCriteria")
+    void initCriteriaBinder(WebDataBinder binder) {
+        binder.setDisallowedFields("size");
+    }
+
     /**
      * {@code POST  /attachments} : Create a new attachment.
      */
@@ -117,10 +141,28 @@ public class AttachmentResource {
 
     /**
      * {@code GET  /attachments} : get all the attachments.
+     *
+     * With {@code after}, only a keyset page of them: the next {@code size} attachments by id
+     * after that id (start with {@code after=0}); the {@code Link} header points to the next page.
+     * Keyset pages leave out the files: get each one from {@code GET /attachments/{id}/content}.
      */
     @GetMapping("")
-    public ResponseEntity<List<AttachmentDTO>> getAllAttachments(AttachmentCriteria criteria) {
+    public ResponseEntity<List<AttachmentDTO>> getAllAttachments(
+        AttachmentCriteria criteria,
+        @org.springdoc.core.annotations.ParameterObject Pageable pageable,
+        @RequestParam(name = "after", required = false) Long after
+    ) {
         LOG.debug("REST request to get Attachments by criteria: {}", criteria);
+        if (after != null) {
+            List<AttachmentDTO> page = attachmentQueryService.findByCriteriaAfter(criteria, after, pageable.getPageSize());
+            HttpHeaders headers = KeysetPaginationUtil.generateKeysetHttpHeaders(
+                ServletUriComponentsBuilder.fromCurrentRequest(),
+                page,
+                pageable.getPageSize(),
+                AttachmentDTO::getId
+            );
+            return ResponseEntity.ok().headers(headers).body(page);
+        }
         List<AttachmentDTO> entityList = attachmentQueryService.findByCriteria(criteria);
         return ResponseEntity.ok().body(entityList);
     }
@@ -162,6 +204,9 @@ public class AttachmentResource {
 
     /**
      * {@code POST  /attachments/project/{projectId}} : Save one or more attachments for a given project.
+     *
+     * An attachment without {@code file} bytes but with the {@code fileSha256} of a file the
+     * user has already uploaded is saved with that file.
      */
     @PostMapping("/project/{projectId}")
     public ResponseEntity<List<AttachmentDTO>> uploadAttachmentsForProject(
@@ -174,28 +219,138 @@ public class AttachmentResource {
             throw new BadRequestAlertException("No attachments provided", ENTITY_NAME, "emptyattachments");
         }
 
-        List<AttachmentDTO> savedAttachments = attachments.stream()
-            .peek(a -> {
-                mailmerge.service.dto.ProjectDTO project = new mailmerge.service.dto.ProjectDTO();
-                project.setId(projectId);
-                a.setProject(project);
-            })
-            .map(attachmentService::save)
-            .toList();
+        if (attachments.stream().anyMatch(a -> a.getId() != null)) {
+            throw new BadRequestAlertException("A new attachment cannot already have an ID", ENTITY_NAME, "idexists");
+        }
+        requireUploaded(attachments.stream().filter(a -> a.getFile() == null && a.getFileSha256() != null).toList());
+
+        attachments.forEach(a -> {
+            mailmerge.service.dto.ProjectDTO project = new mailmerge.service.dto.ProjectDTO();
+            project.setId(projectId);
+            a.setProject(project);
+        });
+
+        // One transaction, inserted in JDBC batches
+        List<AttachmentDTO> savedAttachments = attachmentService.saveAll(attachments);
 
         return ResponseEntity.ok(savedAttachments);
     }
 
     /**
-     * {@code GET  /attachments/project/{projectId}} : Get all attachments for a given project.
+     * {@code POST  /attachments/project/{projectId}} (multipart) : Save attachments for a given
+     * project, called from saveForProject() in attachment.service.ts:
+     *  - "files": zero or more raw files, streamed into the blob store (hashed on the way)
+     *  - "existing": JSON list of attachments (name, fileContentType, fileSha256) whose file
+     *    the user has already uploaded, sent without their bytes
+     *
+     * Returns the saved attachments: the files' first, then the existing ones, in order.
+     */
+    @PostMapping(value = "/project/{projectId}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<List<AttachmentDTO>> uploadAttachmentFilesForProject(
+        @PathVariable Long projectId,
+        @RequestPart(value = "files", required = false) List<MultipartFile> files,
+        @RequestPart(value = "existing", required = false) List<AttachmentDTO> existing
+    ) {
+        List<MultipartFile> uploads = files != null ? files : List.of();
+        List<AttachmentDTO> byHash = existing != null ? existing : List.of();
+        LOG.debug("REST request to upload {} files and {} known attachments for project {}", uploads.size(), byHash.size(), projectId);
+
+        if (uploads.isEmpty() && byHash.isEmpty()) {
+            throw new BadRequestAlertException("No attachments provided", ENTITY_NAME, "emptyattachments");
+        }
+        if (byHash.stream().anyMatch(a -> a.getFileSha256() == null)) {
+            throw new BadRequestAlertException("An existing attachment needs its fileSha256", ENTITY_NAME, "nosha256");
+        }
+        requireUploaded(byHash);
+
+        List<AttachmentService.Upload> contents = uploads
+            .stream()
+            .map(file -> new AttachmentService.Upload(file.getOriginalFilename(), file.getContentType(), file))
+            .toList();
+        return ResponseEntity.ok(attachmentService.saveUploads(projectId, contents, byHash));
+    }
+
+    /**
+     * {@code HEAD  /attachments/sha256/{sha256}} : whether the current user has already uploaded
+     * a file with this SHA-256 (200) or not (404), so a client can attach it by hash alone.
+     */
+    @RequestMapping(value = "/sha256/{sha256}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> checkUploaded(@PathVariable String sha256) {
+        LOG.debug("REST request to check for an uploaded attachment file : {}", sha256);
+        return attachmentService.isUploaded(sha256) ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * {@code GET  /attachments/project/{projectId}} : Get all attachments for a given project,
+     * without their files: each one's bytes come from {@code GET /attachments/{id}/content}.
      */
     @GetMapping("/project/{projectId}")
     public ResponseEntity<List<AttachmentDTO>> getAttachmentsByProject(@PathVariable Long projectId) {
         LOG.debug("REST request to get attachments for project {}", projectId);
-        List<AttachmentDTO> list = attachmentRepository.findByProject_Id(projectId)
-            .stream()
-            .map(attachmentService::convertToDto)
-            .toList();
-        return ResponseEntity.ok(list);
+        return ResponseEntity.ok(attachmentService.findByProject(projectId));
+    }
+
+    /**
+     * {@code GET  /attachments/:id/content} : the raw file of the "id" attachment, streamed from
+     * the blob store with its content type.
+     *
+     * The ETag is the file's SHA-256: a client sending it back in If-None-Match gets a
+     * {@code 304 (Not Modified)}. A Range request gets {@code 206 (Partial Content)} with those
+     * bytes, unless its If-Range names another version of the file, which is then sent whole.
+     *
+     * @param id the id of the attachment.
+     * @param ifRange the If-Range header, if any.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the file in body, or with status {@code 404 (Not Found)}.
+     */
+    @GetMapping("/{id}/content")
+    public ResponseEntity<Resource> getAttachmentContent(
+        @PathVariable("id") Long id,
+        @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange
+    ) throws IOException {
+        LOG.debug("REST request to get the file of Attachment : {}", id);
+        AttachmentService.Content content = attachmentService
+            .findContent(id)
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+            .contentType(mediaType(content.contentType()))
+            .header(
+                HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(content.name(), StandardCharsets.UTF_8).build().toString()
+            )
+            // The browser may keep it, but revalidates it with the ETag
+            .cacheControl(CacheControl.noCache().cachePrivate());
+        String etag = content.sha256() != null ? "\"" + content.sha256() + "\"" : null;
+        if (etag != null) {
+            response.eTag(etag);
+        }
+
+        // Spring MVC serves ranges (206) of a Resource body, and answers If-None-Match itself,
+        // but does not look at If-Range; it never serves ranges of an InputStreamResource
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return response
+                .contentLength(content.resource().contentLength())
+                .body(new InputStreamResource(content.resource().getInputStream()));
+        }
+        return response.body(content.resource());
+    }
+
+    // The stored content type, if it is one
+    private static MediaType mediaType(String contentType) {
+        if (contentType != null) {
+            try {
+                return MediaType.parseMediaType(contentType);
+            } catch (InvalidMediaTypeException e) {
+                LOG.debug("Serving attachment with invalid content type {} as binary", contentType);
+            }
+        }
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+
+    // Attachments sent by hash must point at a file the user has already uploaded
+    private void requireUploaded(List<AttachmentDTO> byHash) {
+        if (byHash.stream().anyMatch(a -> !attachmentService.isUploaded(a.getFileSha256()))) {
+            throw new BadRequestAlertException("No uploaded file with this SHA-256", ENTITY_NAME, "unknownsha256");
+        }
     }
 }
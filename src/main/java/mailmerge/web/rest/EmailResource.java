@@ -143,16 +143,32 @@ public class EmailResource {
     /**
      * {@code GET  /emails} : get all the emails.
      *
+     * With {@code after}, a keyset page instead of an offset one: the next {@code size}
+     * emails by id after that id (start with {@code after=0}), without counting them; the
+     * {@code Link} header points to the next page.
+     *
      * @param pageable the pagination information.
+     * @param after the id of the last email of the previous keyset page.
      * @param criteria the criteria which the requested entities should match.
      * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the list of emails in body.
      */
     @GetMapping("")
     public ResponseEntity<List<EmailDTO>> getAllEmails(
         EmailCriteria criteria,
-        @org.springdoc.core.annotations.ParameterObject Pageable pageable
+        @org.springdoc.core.annotations.ParameterObject Pageable pageable,
+        @RequestParam(name = "after", required = false) Long after
     ) {
         LOG.debug("REST request to get Emails by criteria: {}", criteria);
+        if (after != null) {
+            List<EmailDTO> page = emailQueryService.findByCriteriaAfter(criteria, after, pageable.getPageSize());
+            HttpHeaders headers = KeysetPaginationUtil.generateKeysetHttpHeaders(
+                ServletUriComponentsBuilder.fromCurrentRequest(),
+                page,
+                pageable.getPageSize(),
+                EmailDTO::getId
+            );
+            return ResponseEntity.ok().headers(headers).body(page);
+        }
 
         Page<EmailDTO> page = emailQueryService.findByCriteria(criteria, pageable);
         HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(ServletUriComponentsBuilder.fromCurrentRequest(), page);
@@ -0,0 +1,42 @@
+package mailmerge.web.rest;
+
+import java.util.List;
+import java.util.function.Function;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Headers for keyset pages ({@code ?after=<id>&size=}), the counterpart of JHipster's
+ * {@link tech.jhipster.web.util.PaginationUtil} for offset pages.
+ *
+ * A keyset page has no total and no last page: its {@code Link} header only points to the
+ * next page, which starts after the last id of this one. Clients that need the total ask
+ * the {@code /count} endpoint.
+ */
+public final class KeysetPaginationUtil {
+
+    private KeysetPaginationUtil() {}
+
+    /**
+     * Headers of a keyset page: a {@code Link} to the next page when this one is full (the
+     * next one may still turn out empty).
+     *
+     * @param uriBuilder the request's URI, with its criteria.
+     * @param page the entities of this page, by id.
+     * @param size the requested page size.
+     * @param id the id of an entity.
+     * @return the headers.
+     */
+    public static <T> HttpHeaders generateKeysetHttpHeaders(UriComponentsBuilder uriBuilder, List<T> page, int size, Function<T, Long> id) {
+        HttpHeaders headers = new HttpHeaders();
+        if (!page.isEmpty() && page.size() >= size) {
+            String next = uriBuilder
+                .replaceQueryParam("after", id.apply(page.get(page.size() - 1)))
+                .replaceQueryParam("size", size)
+                .replaceQueryParam("page")
+                .toUriString();
+            headers.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return headers;
+    }
+}
@@ -1,11 +1,26 @@
 package mailmerge.web.rest;
 
 import mailmerge.service.MailMergeService;
+import mailmerge.service.dto.AttachmentDTO;
+import mailmerge.service.dto.InlineImageDTO;
+import mailmerge.service.dto.MailMergeJobDTO;
+import mailmerge.service.dto.MailMergeRequestDTO;
+import mailmerge.service.merge.MailMergeJob;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import tech.jhipster.web.util.ResponseUtil;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -37,18 +52,19 @@ public class MailMergeResource {
     // =========================================================================
 
     /**
-     * NEW endpoint: handles JSON payload with:
+     * JSON endpoint (kept for existing API clients): handles payload with:
      *  - subject/body templates
      *  - to/cc/bcc templates
      *  - spreadsheet base64 + content type
      *  - attachments
      *  - inline images (CID attachments)
      *
-     * Called from sendMailMergeWithMeta() in project.service.ts
+     * Everything is base64 inside one JSON document, so large uploads cost several times
+     * their size in heap; the dashboard uses the multipart variant below instead.
      */
     // eslint-disable-next-line @typescript-eslint/member-ordering
-    @PostMapping("/send-advanced")
-    public ResponseEntity<Void> sendMailMergeAdvanced(@RequestBody Map<String, Object> payload) {
+    @PostMapping(value = "/send-advanced", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<MailMergeJobDTO> sendMailMergeAdvanced(@RequestBody Map<String, Object> payload) {
         log.debug("REST request to send mail merge with full metadata");
 
         // Read templates (stored as strings in the JSON payload)
@@ -70,9 +86,15 @@ public class MailMergeResource {
         @SuppressWarnings("unchecked")
         List<Map<String, String>> inlineImages = (List<Map<String, String>>) payload.get("inlineImages");
 
+        // Optional: parallel sends for this job (server default/cap apply)
+        Integer concurrency = payload.get("concurrency") instanceof Number n ? n.intValue() : null;
+
+        // Optional: project the sent emails are recorded against
+        Long projectId = payload.get("projectId") instanceof Number n ? n.longValue() : null;
+
         try {
-            // Delegate all business logic to the service layer
-            mailMergeService.sendMailMergeAdvanced(
+            // Delegate all business logic to the service layer (queued as a background job)
+            MailMergeJob job = mailMergeService.submitMailMergeAdvanced(
                 subjectTemplate,
                 bodyTemplate,
                 toTemplate,
@@ -81,12 +103,16 @@ public class MailMergeResource {
                 spreadsheetBase64,
                 spreadsheetFileContentType,
                 attachments,
-                inlineImages
+                inlineImages,
+                concurrency,
+                projectId
             );
 
-            // Success → no body needed (frontend listens to SSE for progress)
-            return ResponseEntity.ok().build();
+            // Accepted → job id + status URL (frontend also listens to SSE for progress)
+            return accepted(job);
 
+        } catch (TaskRejectedException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many mail merge jobs queued, try again later", e);
         } catch (Exception e) {
             // Log the full stack trace server-side
             log.error("❌ Failed to process advanced mail merge", e);
@@ -96,6 +122,104 @@ public class MailMergeResource {
         }
     }
 
+    /**
+     * Multipart version of /send-advanced, called from sendMailMergeWithMeta() in project.service.ts:
+     *  - "request": JSON part with the templates + inline image cids (MailMergeRequestDTO)
+     *  - "spreadsheet": the raw .xlsx/.xls/.csv file
+     *  - "attachments": zero or more raw files
+     *  - "inlineImages": zero or more raw images, in the order of request.inlineImageCids
+     *
+     * Nothing is base64 encoded, and the spreadsheet part is streamed from the servlet
+     * container's temp storage into the row parser instead of being read into memory.
+     *
+     * Returns 202 with the queued job; poll GET /jobs/{id} (or listen to SSE) for progress.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @PostMapping(value = "/send-advanced", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<MailMergeJobDTO> sendMailMergeAdvancedMultipart(
+        @RequestPart("request") MailMergeRequestDTO request,
+        @RequestPart("spreadsheet") MultipartFile spreadsheet,
+        @RequestPart(value = "attachments", required = false) List<MultipartFile> attachments,
+        @RequestPart(value = "inlineImages", required = false) List<MultipartFile> inlineImages
+    ) {
+        log.debug("REST request to send mail merge (multipart, spreadsheet {} bytes)", spreadsheet.getSize());
+
+        try (InputStream in = spreadsheet.getInputStream()) {
+            MailMergeJob job = mailMergeService.submitMailMergeAdvanced(
+                request,
+                in,
+                spreadsheet.getContentType(),
+                toAttachments(attachments),
+                toInlineImages(inlineImages, request.getInlineImageCids())
+            );
+
+            return accepted(job);
+
+        } catch (TaskRejectedException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many mail merge jobs queued, try again later", e);
+        } catch (Exception e) {
+            log.error("❌ Failed to process advanced mail merge", e);
+            throw new RuntimeException("Mail merge failed: " + e.getMessage(), e);
+        }
+    }
+
+    // =========================================================================
+    // Job status
+    // =========================================================================
+
+    /**
+     * Status of a merge job started by the current user (404 for unknown or foreign ids).
+     * Jobs from before a restart are still found, with counts taken from the outbox.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<MailMergeJobDTO> getJob(@PathVariable("id") String id) {
+        log.debug("REST request to get mail merge job : {}", id);
+        return ResponseUtil.wrapOrNotFound(mailMergeService.findJob(id));
+    }
+
+    /**
+     * Re-send only the rows the job gave up on (its "failures" list) as a new job.
+     * 202 with the new job; 404 for unknown jobs; 409 while the job runs or when nothing failed.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @PostMapping("/jobs/{id}/retry-failed")
+    public ResponseEntity<MailMergeJobDTO> retryFailed(@PathVariable("id") String id) {
+        log.debug("REST request to retry failed rows of mail merge job : {}", id);
+
+        MailMergeJobDTO source = mailMergeService.findJob(id)
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+        try {
+            return accepted(mailMergeService.retryFailed(source));
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage(), e);
+        } catch (TaskRejectedException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many mail merge jobs queued, try again later", e);
+        }
+    }
+
+    /**
+     * Continue a job that was interrupted before all of its rows were queued, from the row
+     * after its checkpoint, under the same job id.
+     * 202 with the job; 404 for unknown jobs; 409 while it runs or when nothing is left to queue.
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @PostMapping("/jobs/{id}/resume")
+    public ResponseEntity<MailMergeJobDTO> resume(@PathVariable("id") String id) throws IOException {
+        log.debug("REST request to resume mail merge job : {}", id);
+
+        mailMergeService.findJob(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+        try {
+            return accepted(mailMergeService.resume(id));
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage(), e);
+        } catch (TaskRejectedException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many mail merge jobs queued, try again later", e);
+        }
+    }
+
     // =========================================================================
     // Test mail merge send
     // =========================================================================
@@ -104,10 +228,10 @@ public class MailMergeResource {
      * TEST endpoint: sends ONE merged email (first data row) to the current user's email.
      * Backend ignores to/cc/bcc templates to avoid accidentally emailing real recipients.
      *
-     * Called from sendMailMergeTestWithMeta() in project.service.ts
+     * JSON (base64) variant; the dashboard uses the multipart variant below.
      */
     // eslint-disable-next-line @typescript-eslint/member-ordering
-    @PostMapping("/send-test")
+    @PostMapping(value = "/send-test", consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Void> sendMailMergeTest(@RequestBody Map<String, Object> payload) {
         log.debug("REST request to send TEST mail merge");
 
@@ -148,4 +272,93 @@ public class MailMergeResource {
             throw new RuntimeException("Test mail merge failed: " + e.getMessage(), e);
         }
     }
+
+    /**
+     * Multipart version of /send-test (same parts as the multipart /send-advanced).
+     *
+     * Called from sendMailMergeTestWithMeta() in project.service.ts
+     */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    @PostMapping(value = "/send-test", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Void> sendMailMergeTestMultipart(
+        @RequestPart("request") MailMergeRequestDTO request,
+        @RequestPart("spreadsheet") MultipartFile spreadsheet,
+        @RequestPart(value = "attachments", required = false) List<MultipartFile> attachments,
+        @RequestPart(value = "inlineImages", required = false) List<MultipartFile> inlineImages
+    ) {
+        log.debug("REST request to send TEST mail merge (multipart)");
+
+        try (InputStream in = spreadsheet.getInputStream()) {
+            mailMergeService.sendMailMergeAdvancedTest(
+                request,
+                in,
+                spreadsheet.getContentType(),
+                toAttachments(attachments),
+                toInlineImages(inlineImages, request.getInlineImageCids())
+            );
+
+            return ResponseEntity.ok().build();
+
+        } catch (Exception e) {
+            log.error("❌ Failed to process TEST mail merge", e);
+            throw new RuntimeException("Test mail merge failed: " + e.getMessage(), e);
+        }
+    }
+
+    // =========================================================================
+    // Helpers
+    // =========================================================================
+
+    /** 202 Accepted, Location = job status URL, body = initial job snapshot. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static ResponseEntity<MailMergeJobDTO> accepted(MailMergeJob job) {
+        return ResponseEntity.accepted()
+            .location(URI.create("/api/mail-merge/jobs/" + job.getId()))
+            .body(MailMergeJobDTO.of(job));
+    }
+
+    /** Attachment parts -> AttachmentDTOs (empty parts are skipped). */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static List<AttachmentDTO> toAttachments(List<MultipartFile> files) throws IOException {
+        List<AttachmentDTO> out = new ArrayList<>();
+        if (files == null) return out;
+
+        for (MultipartFile file : files) {
+            if (file == null || file.isEmpty()) continue;
+
+            AttachmentDTO dto = new AttachmentDTO();
+            dto.setName(file.getOriginalFilename());
+            dto.setFileContentType(file.getContentType());
+            dto.setFile(file.getBytes());
+            out.add(dto);
+        }
+
+        return out;
+    }
+
+    /** Inline image parts -> InlineImageDTOs, paired with their cid by position. */
+    // eslint-disable-next-line @typescript-eslint/member-ordering
+    private static List<InlineImageDTO> toInlineImages(List<MultipartFile> files, List<String> cids) throws IOException {
+        List<InlineImageDTO> out = new ArrayList<>();
+        if (files == null || cids == null) return out;
+
+        for (int i = 0; i < files.size() && i < cids.size(); i++) {
+            MultipartFile file = files.get(i);
+            String cid = cids.get(i);
+
+            // Skip invalid entries
+            if (file == null || file.isEmpty()) continue;
+            if (cid == null || cid.isBlank()) continue;
+
+            InlineImageDTO dto = new InlineImageDTO();
+            dto.setCid(cid.trim());
+            String name = file.getOriginalFilename();
+            dto.setName((name == null || name.isBlank()) ? (cid + ".png") : name);
+            dto.setFileContentType(file.getContentType() != null ? file.getContentType() : "image/png");
+            dto.setFile(file.getBytes());
+            out.add(dto);
+        }
+
+        return out;
+    }
 }
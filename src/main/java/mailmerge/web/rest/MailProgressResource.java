@@ -1,7 +1,10 @@
 package mailmerge.web.rest;
 
+import mailmerge.security.SecurityUtils;
 import mailmerge.service.MailProgressService;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
@@ -14,8 +17,16 @@ public class MailProgressResource {
         this.progressService = progressService;
     }
 
+    /**
+     * {@code GET /api/mail-progress/stream} : the current user's progress events, for one
+     * merge job ({@code ?jobId=}) or all of the user's sends. A reconnecting browser's
+     * {@code Last-Event-ID} gets it the events it missed first.
+     */
     @GetMapping("/api/mail-progress/stream")
-    public SseEmitter streamProgress() {
-        return progressService.registerClient();
+    public SseEmitter streamProgress(
+        @RequestParam(name = "jobId", required = false) String jobId,
+        @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId
+    ) {
+        return progressService.registerClient(SecurityUtils.getCurrentUserLogin().orElseThrow(), jobId, lastEventId);
     }
 }
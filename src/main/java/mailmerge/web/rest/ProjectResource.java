@@ -16,6 +16,7 @@ import mailmerge.service.ProjectQueryService;
 import mailmerge.service.ProjectService;
 import mailmerge.service.criteria.ProjectCriteria;
 import mailmerge.service.dto.ProjectDTO;
+import mailmerge.service.dto.ProjectSummaryDTO;
 import mailmerge.web.rest.errors.BadRequestAlertException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -206,16 +207,32 @@ public class ProjectResource {
     /**
      * {@code GET  /projects} : get all the projects.
      *
+     * With {@code after}, a keyset page instead of an offset one: the next {@code size}
+     * projects by id after that id (start with {@code after=0}), without counting them; the
+     * {@code Link} header points to the next page.
+     *
      * @param pageable the pagination information.
+     * @param after the id of the last project of the previous keyset page.
      * @param criteria the criteria which the requested entities should match.
      * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the list of projects in body.
      */
     @GetMapping("")
     public ResponseEntity<List<ProjectDTO>> getAllProjects(
         ProjectCriteria criteria,
-        @org.springdoc.core.annotations.ParameterObject Pageable pageable
+        @org.springdoc.core.annotations.ParameterObject Pageable pageable,
+        @RequestParam(name = "after", required = false) Long after
     ) {
         LOG.debug("REST request to get Projects by criteria: {}", criteria);
+        if (after != null) {
+            List<ProjectDTO> page = projectQueryService.findByCriteriaAfter(criteria, after, pageable.getPageSize());
+            HttpHeaders headers = KeysetPaginationUtil.generateKeysetHttpHeaders(
+                ServletUriComponentsBuilder.fromCurrentRequest(),
+                page,
+                pageable.getPageSize(),
+                ProjectDTO::getId
+            );
+            return ResponseEntity.ok().headers(headers).body(page);
+        }
 
         Page<ProjectDTO> page = projectQueryService.findByCriteria(criteria, pageable);
         HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(ServletUriComponentsBuilder.fromCurrentRequest(), page);
@@ -271,8 +288,14 @@ public class ProjectResource {
             .build();
     }
 
+    /**
+     * {@code GET  /projects/my} : the current user's projects, as summaries (no spreadsheet,
+     * template or recipients: open a project with {@code GET /projects/:id}).
+     *
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the list of summaries in body.
+     */
     @GetMapping("/my")
-    public ResponseEntity<List<ProjectDTO>> getMyProjects() {
+    public ResponseEntity<List<ProjectSummaryDTO>> getMyProjects() {
         LOG.debug("REST request to get projects for current user");
 
         // Get the username of the currently logged-in user
@@ -282,7 +305,7 @@ public class ProjectResource {
         }
 
         // Use the ProjectService to fetch projects for that user
-        List<ProjectDTO> projects = projectService.findByUserLogin(username);
+        List<ProjectSummaryDTO> projects = projectService.findSummariesByUserLogin(username);
 
         return ResponseEntity.ok(projects);
     }
@@ -1,6 +1,8 @@
 export enum EmailStatus {
   PENDING = 'PENDING',
 
+  SENDING = 'SENDING',
+
   SENT = 'SENT',
 
   FAILED = 'FAILED',
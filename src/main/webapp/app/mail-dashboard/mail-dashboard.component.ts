@@ -15,6 +15,7 @@ import { AttachmentService } from 'app/project/attachment.service';
 import { forkJoin, of, switchMap, tap, catchError, finalize, Subject, takeUntil, filter, exhaustMap, debounceTime } from 'rxjs';
 import { AiRewriteService } from '../services/ai-rewrite.service';
 import { SignatureService } from 'app/core/auth/signature.service';
+import { convertMarkdownToHtml } from './merge-markdown';
 import {
   faTrash,
   faPaperclip,
@@ -1513,7 +1514,7 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
         }
 
         // Load attachments from backend
-        // AttachmentService.findByProject hits backend to return {id,name,size,fileContentType,file(base64)}
+        // AttachmentService.findByProject lists them, then downloads each file: {id,name,size,fileContentType,file(base64)}
         this.attachmentsLoading = true;
 
         this.attachmentService
@@ -1780,7 +1781,7 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
     this.saveProjectAndReturnObservable().subscribe({
       next: () => {
         // Build payload that your ProjectService will send to backend MailMergeService
-        // (payload includes spreadsheet and templates with conditionals handled)
+        // (payload includes spreadsheet and templates; conditionals are evaluated server-side)
         const payload = this.buildAdvancedPayloadRespectingConditionals();
 
         // Calls ProjectService.sendMailMergeTestWithMeta(payload)
@@ -1847,6 +1848,7 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
     this.sendingTotal = 0;
     this.sendingInProgress = true;
     this.progressLogs = [];
+    this.loggedFailures.clear();
     this.sendingFinished = false;
 
     // Persist before sending
@@ -1855,50 +1857,66 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
         const payload = this.buildAdvancedPayloadRespectingConditionals();
 
         // Calls ProjectService.sendMailMergeWithMeta(payload)
-        // -> backend should start sending and emit SSE progress events
-        this.projectService.sendMailMergeWithMeta(payload).subscribe({
-          next: () => {
-            this.mergeSending.set(false);
-            this.sendSuccess = true;
-
-            // After send, mark project SENT in backend so it moves folder
-            if (this.projectId) {
-              const updatedProject: Project = {
-                ...(this.project ?? {}),
-                id: this.projectId,
-                // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
-                name: this.projectName ?? '',
-                // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
-                header: this.mergeSubjectTemplate ?? '',
-                // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
-                content: this.mergeBodyTemplate ?? '',
-                // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
-                toField: this.toField ?? '',
-                // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
-                ccField: this.ccField ?? '',
-                // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
-                bccField: this.bccField ?? '',
-                spreadsheetLink: this.spreadsheetBase64 ?? null,
-                spreadsheetFileContentType: this.spreadsheetFileContentType ?? null,
-                spreadsheetName: this.connectedSpreadsheetName,
-                status: 'SENT',
-                sentAt: new Date().toISOString(),
-              };
-
-              // Update on backend so sidebar foldering stays consistent
-              this.projectService.update(updatedProject).subscribe(() => this.loadProjects());
-            }
-
-            // Clear success after a moment
-            setTimeout(() => (this.sendSuccess = false), 3000);
-          },
-          error: err => {
-            console.error('❌ Send failed', err);
-            this.mergeSending.set(false);
-            this.mergeErr.set(true);
-            this.showToast('error', 'Send failed. Please try again.');
-          },
-        });
+        // -> backend queues a job (202) and emits SSE progress events while it runs;
+        //    the job endpoint tells us when it has finished
+        this.projectService
+          .sendMailMergeWithMeta(payload)
+          .pipe(
+            // Follow just this job's progress (not other tabs' or earlier jobs' sends)
+            tap(job => this.listenToMailProgress(job.id)),
+            switchMap(job => this.projectService.waitForMailMergeJob(job.id)),
+          )
+          .subscribe({
+            next: job => {
+              if (job.status === 'FAILED') {
+                console.error('❌ Mail merge job failed', job.error);
+                this.mergeSending.set(false);
+                this.mergeErr.set(true);
+                this.showToast('error', 'Send failed. Please try again.');
+                return;
+              }
+  
+              this.mergeSending.set(false);
+              this.sendSuccess = true;
+  
+              // After send, mark project SENT in backend so it moves folder
+              if (this.projectId) {
+                const updatedProject: Project = {
+                  ...(this.project ?? {}),
+                  id: this.projectId,
+                  // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
+                  name: this.projectName ?? '',
+                  // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
+                  header: this.mergeSubjectTemplate ?? '',
+                  // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
+                  content: this.mergeBodyTemplate ?? '',
+                  // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
+                  toField: this.toField ?? '',
+                  // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
+                  ccField: this.ccField ?? '',
+                  // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
+                  bccField: this.bccField ?? '',
+                  spreadsheetLink: this.spreadsheetBase64 ?? null,
+                  spreadsheetFileContentType: this.spreadsheetFileContentType ?? null,
+                  spreadsheetName: this.connectedSpreadsheetName,
+                  status: 'SENT',
+                  sentAt: new Date().toISOString(),
+                };
+  
+                // Update on backend so sidebar foldering stays consistent
+                this.projectService.update(updatedProject).subscribe(() => this.loadProjects());
+              }
+  
+              // Clear success after a moment
+              setTimeout(() => (this.sendSuccess = false), 3000);
+            },
+            error: err => {
+              console.error('❌ Send failed', err);
+              this.mergeSending.set(false);
+              this.mergeErr.set(true);
+              this.showToast('error', 'Send failed. Please try again.');
+            },
+          });
       },
       error: err => {
         console.error('❌ Save-before-send failed', err);
@@ -2146,7 +2164,7 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
   // ===========================================================================
   // add this field at class level (near other private fields)
   // eslint-disable-next-line @typescript-eslint/member-ordering
-  listenToMailProgress(): void {
+  listenToMailProgress(jobId?: string): void {
     // Close any existing stream (prevents duplicate listeners when navigating)
     if (this.mailProgressSource) {
       try {
@@ -2157,8 +2175,9 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
       this.mailProgressSource = null;
     }
 
-    // Backend emits "mail-progress" events from /api/mail-progress/stream
-    const es = new EventSource('/api/mail-progress/stream');
+    // Backend emits the current user's "mail-progress" events from /api/mail-progress/stream,
+    // optionally only those of one merge job
+    const es = new EventSource(jobId ? `/api/mail-progress/stream?jobId=${encodeURIComponent(jobId)}` : '/api/mail-progress/stream');
     this.mailProgressSource = es;
 
     es.addEventListener('mail-progress', (event: MessageEvent) => {
@@ -2167,10 +2186,19 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
       if (typeof data.totalCount === 'number' && data.totalCount >= 0) this.sendingTotal = data.totalCount;
       if (typeof data.sentCount === 'number' && data.sentCount >= 0) this.sendingProgress = data.sentCount;
 
-      this.sendingInProgress = this.sendingTotal > 0 && this.sendingProgress < this.sendingTotal;
+      // A job's final snapshot ends the send even if rows are left (the job failed)
+      this.sendingInProgress = !data.finished && this.sendingTotal > 0 && this.sendingProgress < this.sendingTotal;
 
       if (data.email && data.message) this.progressLogs.push(`${data.email} — ${data.message}`);
 
+      // Job snapshots list their latest failed rows; log each row once
+      for (const failure of data.recentFailures ?? []) {
+        const key = `${data.jobId}:${failure.row}`;
+        if (this.loggedFailures.has(key)) continue;
+        this.loggedFailures.add(key);
+        this.progressLogs.push(`${failure.email} — FAILED: ${failure.error}`);
+      }
+
       if (this.sendingTotal > 0 && this.sendingProgress >= this.sendingTotal) {
         this.sendingInProgress = false;
         this.sendingFinished = true;
@@ -2937,20 +2965,8 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
   }
 
   private convertMarkdownToHtml(md: string): string {
-    // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
-    const src = md ?? '';
-
-    // Convert HTTPS-only markdown links into safe anchors
-    const withLinks = src.replace(/\[([^\]]+)\]\((https:\/\/[^\s)]+)\)/g, '<a href="$2" target="_blank" rel="noopener noreferrer">$1</a>');
-
-    // Apply bold/italic/underline conversions, then newlines -> <br>
-    return withLinks
-      .replace(/\*\*(.*?)\*\*/g, '<strong>$1</strong>')
-      .replace(/__(.*?)__/g, '<strong>$1</strong>')
-      .replace(/\*(.*?)\*/g, '<i>$1</i>')
-      .replace(/_(.*?)_/g, '<i>$1</i>')
-      .replace(/~(.*?)~/g, '<u>$1</u>')
-      .replace(/\n/g, '<br>');
+    // Leaves {{tokens}}, conditionals and [[if]] tags as written (see merge-markdown.ts)
+    return convertMarkdownToHtml(md);
   }
 
   // ===========================================================================
@@ -3692,7 +3708,8 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
         continue;
       }
 
-      if ((ch === '"' || ch === "'") && !q) {
+      // Quotes only open at the start of a part, so apostrophes in text ("You're in") are plain
+      if ((ch === '"' || ch === "'") && !q && !cur.trim()) {
         q = ch as any;
         cur += ch;
         continue;
@@ -3866,36 +3883,6 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
   // ===========================================================================
   // Conditionals-aware send payload builder
   // ===========================================================================
-  private applyInlineCidsToHtml(html: string, inlineImages: InlineImage[]): string {
-    // Build a lookup map from “image identity” to cid
-    const map = new Map<string, string>();
-    inlineImages.forEach(img => {
-      const key = `${img.fileContentType}|${img.base64}`;
-      map.set(key, img.cid);
-    });
-
-    // Parse html and replace any matching data: images with cid: versions
-    const doc = new DOMParser().parseFromString(html || '', 'text/html');
-    const imgs = Array.from(doc.querySelectorAll('img'));
-
-    imgs.forEach(img => {
-      const src = img.getAttribute('src') ?? '';
-      if (!src.startsWith('data:image/')) return;
-
-      const match = src.match(/^data:(image\/[a-zA-Z0-9.+-]+);base64,(.+)$/);
-      if (!match) return;
-
-      const fileContentType = match[1];
-      const base64 = match[2];
-      const cid = map.get(`${fileContentType}|${base64}`);
-      if (!cid) return;
-
-      img.setAttribute('src', `cid:${cid}`);
-    });
-
-    return doc.body.innerHTML;
-  }
-
   private buildAdvancedPayloadRespectingConditionals(): {
     subjectTemplate: string;
     bodyTemplate: string;
@@ -3906,80 +3893,33 @@ export class MailDashboardComponent implements OnInit, OnDestroy {
     spreadsheet: string | null;
     spreadsheetFileContentType: string | null;
     attachments: { name: string; fileContentType: string; file: string }[];
+    projectId: number | null;
   } {
-    // Detect whether any templates contain conditionals
-    const hasConds =
-      this.templateHasConditionals(this.mergeSubjectTemplate) ||
-      this.templateHasConditionals(this.mergeBodyTemplate) ||
-      this.templateHasConditionals(this.toField) ||
-      this.templateHasConditionals(this.ccField) ||
-      this.templateHasConditionals(this.bccField);
-
-    // No conditionals -> keep existing “server does token replacement itself” behaviour
-    if (!hasConds) {
-      const { htmlWithCid, inlineImages } = this.buildEmailHtmlForSending(this.mergeBodyTemplate);
-      return {
-        subjectTemplate: this.mergeSubjectTemplate,
-        bodyTemplate: htmlWithCid,
-        inlineImages,
-        toTemplate: this.toField,
-        ccTemplate: this.ccField,
-        bccTemplate: this.bccField,
-        spreadsheet: this.spreadsheetBase64,
-        spreadsheetFileContentType: this.spreadsheetFileContentType,
-        attachments: this.attachments.map(a => ({ name: a.name, fileContentType: a.fileContentType, file: a.base64 })),
-      };
-    }
-
-    // Conditionals present:
-    // We precompute per-row final values into extra spreadsheet columns.
-    // Backend then just replaces {{__to}}, {{__subject}}, {{__body}}, etc.
-    const { inlineImages } = this.buildEmailHtmlForSending(this.mergeBodyTemplate);
-
-    const baseHeaders = this.spreadsheetHeaders.slice();
-    const extraHeaders = ['__to', '__cc', '__bcc', '__subject', '__body'];
-    const headers = [...baseHeaders, ...extraHeaders];
-
-    const aoa: (string | number | boolean | null)[][] = [headers];
-
-    for (const row of this.spreadsheetRows) {
-      const baseVals = baseHeaders.map(h => String((row as any)[h] ?? ''));
-
-      const finalTo = this.renderTemplateForRow(this.toField, row);
-      const finalCc = this.renderTemplateForRow(this.ccField, row);
-      const finalBcc = this.renderTemplateForRow(this.bccField, row);
-      const finalSubject = this.renderTemplateForRow(this.mergeSubjectTemplate, row);
-
-      const finalBodyMd = this.renderTemplateForRow(this.mergeBodyTemplate, row);
-      const finalBodyHtml = this.convertMarkdownToHtml(finalBodyMd);
-      const finalBodyHtmlWithCid = this.applyInlineCidsToHtml(finalBodyHtml, inlineImages);
-
-      aoa.push([...baseVals, finalTo, finalCc, finalBcc, finalSubject, finalBodyHtmlWithCid]);
-    }
-
-    // Build a new workbook with the extra columns and encode as base64
-    const wb = XLSX.utils.book_new();
-    const ws = XLSX.utils.aoa_to_sheet(aoa);
-    XLSX.utils.book_append_sheet(wb, ws, 'Sheet1');
-
-    const base64Xlsx = XLSX.write(wb, { bookType: 'xlsx', type: 'base64' });
-
+    // Templates go to the backend as written: MailMergeService compiles {{tokens}},
+    // [[if]] blocks and {{COL|op|value|then|else}} once per job and evaluates them per row,
+    // so the original spreadsheet is uploaded unchanged.
+    const { htmlWithCid, inlineImages } = this.buildEmailHtmlForSending(this.mergeBodyTemplate);
     return {
-      subjectTemplate: '{{__subject}}',
-      bodyTemplate: '{{__body}}',
+      subjectTemplate: this.mergeSubjectTemplate,
+      bodyTemplate: htmlWithCid,
       inlineImages,
-      toTemplate: '{{__to}}',
-      ccTemplate: '{{__cc}}',
-      bccTemplate: '{{__bcc}}',
-      spreadsheet: base64Xlsx,
-      spreadsheetFileContentType: 'application/vnd.openxmlformats-officedocument.spreadsheetml.sheet',
+      toTemplate: this.toField,
+      ccTemplate: this.ccField,
+      bccTemplate: this.bccField,
+      spreadsheet: this.spreadsheetBase64,
+      spreadsheetFileContentType: this.spreadsheetFileContentType,
       attachments: this.attachments.map(a => ({ name: a.name, fileContentType: a.fileContentType, file: a.base64 })),
+      projectId: this.projectId,
     };
   }
 
   // eslint-disable-next-line @typescript-eslint/member-ordering
   private mailProgressSource: EventSource | null = null;
 
+  // Failed rows already in progressLogs ("jobId:row"), since snapshots repeat recent failures
+  // eslint-disable-next-line @typescript-eslint/member-ordering
+  private loggedFailures = new Set<string>();
+
   // Store handler refs so removeEventListener works
   // eslint-disable-next-line @typescript-eslint/explicit-function-return-type
   private readonly onDocKeydown = (e: KeyboardEvent) => {
@@ -0,0 +1,31 @@
+import { convertMarkdownToHtml } from './merge-markdown';
+
+describe('convertMarkdownToHtml', () => {
+  it('formats bold, italic, underline, links and newlines', () => {
+    expect(convertMarkdownToHtml('**a** _b_ ~c~\n[site](https://example.com)')).toEqual(
+      '<strong>a</strong> <i>b</i> <u>c</u><br><a href="https://example.com" target="_blank" rel="noopener noreferrer">site</a>',
+    );
+  });
+
+  it('keeps tokens with underscored column names', () => {
+    expect(convertMarkdownToHtml('{{first_name}} {{last_name}}')).toEqual('{{first_name}} {{last_name}}');
+    expect(convertMarkdownToHtml('Hi **{{first_name}}**')).toEqual('Hi <strong>{{first_name}}</strong>');
+  });
+
+  it('keeps underscored column names inside a conditional and formats its then/else text', () => {
+    expect(convertMarkdownToHtml('{{is_member|eq|yes|Dear **{{first_name}}**|Hi {{last_name}}}}')).toEqual(
+      '{{is_member|eq|yes|Dear <strong>{{first_name}}</strong>|Hi {{last_name}}}}',
+    );
+    expect(convertMarkdownToHtml("{{total_due|>|'0'|_pay now_|}}")).toEqual("{{total_due|>|'0'|<i>pay now</i>|}}");
+  });
+
+  it('keeps [[if]] tags as written', () => {
+    expect(convertMarkdownToHtml('[[if {{is_member}} == yes]]_Thanks_[[else]]*Join*[[endif]]')).toEqual(
+      '[[if {{is_member}} == yes]]<i>Thanks</i>[[else]]<i>Join</i>[[endif]]',
+    );
+  });
+
+  it('formats unbalanced braces as plain text', () => {
+    expect(convertMarkdownToHtml('{{ _open_')).toEqual('{{ <i>open</i>');
+  });
+});
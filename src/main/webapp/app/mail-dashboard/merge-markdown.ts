@@ -0,0 +1,135 @@
+// Markdown-ish formatting of the dashboard editors (**bold**, __bold__, *italic*, _italic_,
+// ~underline~, https links, newlines) as HTML.
+//
+// Templates are converted before the backend fills them in, so merge syntax is kept as
+// written: {{Column}} tokens, the column/operator/value of {{Col|op|value|then|else}} and
+// [[if ...]] tags keep their underscores and asterisks. The then/else text of an inline
+// conditional is formatted like the text around it. Splitting follows MergeTemplate on the
+// server (nested {{...}}, quotes only at the start of a part, backslash escapes).
+
+const OPEN = '{{';
+const CLOSE = '}}';
+const IF = '[[if';
+const TAG_CLOSE = ']]';
+
+// Stands in for a kept span while the formatting rules run (no character they look at)
+// eslint-disable-next-line no-control-regex
+const KEPT = /\u0000(\d+)\u0000/g;
+
+export function convertMarkdownToHtml(md: string): string {
+  // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
+  const src = md ?? '';
+
+  const kept: string[] = [];
+  const keep = (text: string): string => `\u0000${kept.push(text) - 1}\u0000`;
+
+  return formatMarkdown(protectMergeSyntax(src, keep)).replace(KEPT, (_, index: string) => kept[Number(index)]);
+}
+
+function formatMarkdown(src: string): string {
+  // Convert HTTPS-only markdown links into safe anchors
+  const withLinks = src.replace(/\[([^\]]+)\]\((https:\/\/[^\s)]+)\)/g, '<a href="$2" target="_blank" rel="noopener noreferrer">$1</a>');
+
+  // Apply bold/italic/underline conversions, then newlines -> <br>
+  return withLinks
+    .replace(/\*\*(.*?)\*\*/g, '<strong>$1</strong>')
+    .replace(/__(.*?)__/g, '<strong>$1</strong>')
+    .replace(/\*(.*?)\*/g, '<i>$1</i>')
+    .replace(/_(.*?)_/g, '<i>$1</i>')
+    .replace(/~(.*?)~/g, '<u>$1</u>')
+    .replace(/\n/g, '<br>');
+}
+
+/** Replace merge syntax with placeholders from keep, formatting only then/else text. */
+function protectMergeSyntax(src: string, keep: (text: string) => string): string {
+  let out = '';
+  let pos = 0;
+
+  while (pos < src.length) {
+    const brace = src.indexOf(OPEN, pos);
+    const tag = src.indexOf(IF, pos);
+    const next = brace === -1 ? tag : tag === -1 ? brace : Math.min(brace, tag);
+    if (next === -1) break;
+
+    out += src.slice(pos, next);
+
+    const close = next === brace ? matchingClose(src, next) : src.indexOf(TAG_CLOSE, next);
+    if (close === -1) {
+      // Unbalanced: plain text, as on the server
+      out += src.slice(next, next + 2);
+      pos = next + 2;
+      continue;
+    }
+
+    if (next === brace) {
+      out += keep(placeholder(src.slice(next + OPEN.length, close)));
+      pos = close + CLOSE.length;
+    } else {
+      out += keep(src.slice(next, close + TAG_CLOSE.length));
+      pos = close + TAG_CLOSE.length;
+    }
+  }
+
+  return out + src.slice(pos);
+}
+
+/** A {{...}} span: a token as is; an inline conditional with its then/else text formatted. */
+function placeholder(inner: string): string {
+  const parts = splitPipes(inner);
+  if (parts.length < 4) return `${OPEN}${inner}${CLOSE}`;
+
+  const condition = parts.slice(0, 3);
+  const branches = parts.slice(3).map(convertMarkdownToHtml);
+  return `${OPEN}${[...condition, ...branches].join('|')}${CLOSE}`;
+}
+
+/** Index of the "}}" closing the "{{" at open, honouring nesting; -1 if unbalanced. */
+function matchingClose(src: string, open: number): number {
+  let depth = 0;
+  let i = open;
+  while (i < src.length - 1) {
+    if (src.startsWith(OPEN, i)) {
+      depth++;
+      i += OPEN.length;
+    } else if (src.startsWith(CLOSE, i)) {
+      depth--;
+      if (depth === 0) return i;
+      i += CLOSE.length;
+    } else {
+      i++;
+    }
+  }
+  return -1;
+}
+
+/** Top-level "|"-separated parts, untrimmed and with escapes kept, so they join back unchanged. */
+function splitPipes(s: string): string[] {
+  const parts: string[] = [];
+  let start = 0;
+  let quote = '';
+  let depth = 0;
+
+  for (let i = 0; i < s.length; i++) {
+    const ch = s[i];
+
+    if (ch === '\\') {
+      i++;
+    } else if (!quote && depth === 0 && (ch === '"' || ch === "'") && s.slice(start, i).trim() === '') {
+      quote = ch;
+    } else if (quote && ch === quote) {
+      quote = '';
+    } else if (!quote && s.startsWith(OPEN, i)) {
+      depth++;
+      i++;
+    } else if (!quote && depth > 0 && s.startsWith(CLOSE, i)) {
+      depth--;
+      i++;
+    } else if (!quote && depth === 0 && ch === '|') {
+      parts.push(s.slice(start, i));
+      start = i + 1;
+    }
+  }
+
+  parts.push(s.slice(start));
+  return parts;
+}
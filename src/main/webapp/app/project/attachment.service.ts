@@ -1,6 +1,6 @@
 import { Injectable } from '@angular/core';
 import { HttpClient } from '@angular/common/http';
-import { Observable } from 'rxjs';
+import { Observable, catchError, forkJoin, from, map, of, switchMap } from 'rxjs';
 
 export interface Attachment {
   id?: number;
@@ -9,6 +9,8 @@ export interface Attachment {
   fileContentType: string;
   file: string; // base64
   projectId?: number;
+  // SHA-256 of the file (hex), set by the backend
+  fileSha256?: string | null;
 }
 
 @Injectable({ providedIn: 'root' })
@@ -17,15 +19,76 @@ export class AttachmentService {
 
   constructor(private http: HttpClient) {}
 
-  /** Load all attachments for a given project */
+  /**
+   * Load all attachments for a given project: the list has no files, so each one is then
+   * downloaded raw from its content endpoint (cached by the browser, revalidated by ETag)
+   * and turned into base64 for the dashboard. An attachment whose file cannot be downloaded
+   * is left out (with a warning) rather than failing the whole list
+   */
   findByProject(projectId: number): Observable<Attachment[]> {
-    return this.http.get<Attachment[]>(`${this.resourceUrl}/project/${projectId}`);
+    return this.http.get<Attachment[]>(`${this.resourceUrl}/project/${projectId}`).pipe(
+      switchMap(attachments =>
+        attachments.length === 0
+          ? of([])
+          : forkJoin(
+              attachments.map(a =>
+                this.content(a.id!).pipe(
+                  switchMap(blob => from(this.blobToBase64(blob))),
+                  map((file): Attachment | null => ({ ...a, file })),
+                  catchError(err => {
+                    console.warn(`⚠️ Could not download attachment "${a.name}" (${a.id}), leaving it out`, err);
+                    return of(null);
+                  }),
+                ),
+              ),
+            ).pipe(map(loaded => loaded.filter((a): a is Attachment => a !== null))),
+      ),
+    );
   }
 
-  /** Save new attachments for a project (overwrite existing) */
-  saveForProject(projectId: number, attachments: Attachment[]): Observable<void> {
-    // eslint-disable-next-line @typescript-eslint/no-invalid-void-type
-    return this.http.post<void>(`${this.resourceUrl}/project/${projectId}`, attachments);
+  /** The raw file of an attachment (GET /api/attachments/{id}/content) */
+  content(id: number): Observable<Blob> {
+    return this.http.get(`${this.resourceUrl}/${id}/content`, { responseType: 'blob' });
+  }
+
+  /**
+   * Save new attachments for a project, as multipart (backend: AttachmentResource.uploadAttachmentFilesForProject).
+   * Files the user has already uploaded (same SHA-256, e.g. the same brochure in another project)
+   * are sent by hash only; the others as raw file parts, hashed by the backend as they stream in.
+   * Returns the saved attachments (with ids).
+   */
+  saveForProject(projectId: number, attachments: Attachment[]): Observable<Attachment[]> {
+    if (attachments.length === 0) return of([]);
+
+    return from(Promise.all(attachments.map(a => this.sha256Hex(a.file)))).pipe(
+      switchMap(hashes => forkJoin(hashes.map(hash => (hash ? this.isUploaded(hash) : of(false)))).pipe(map(known => ({ hashes, known })))),
+      switchMap(({ hashes, known }) => {
+        const formData = new FormData();
+        const existing: { name: string; fileContentType: string; fileSha256: string }[] = [];
+
+        attachments.forEach((a, i) => {
+          const hash = hashes[i];
+          if (known[i] && hash) {
+            existing.push({ name: a.name, fileContentType: a.fileContentType, fileSha256: hash });
+          } else {
+            formData.append('files', this.base64ToBlob(a.file, a.fileContentType), a.name);
+          }
+        });
+        if (existing.length > 0) {
+          formData.append('existing', new Blob([JSON.stringify(existing)], { type: 'application/json' }));
+        }
+
+        return this.http.post<Attachment[]>(`${this.resourceUrl}/project/${projectId}`, formData);
+      }),
+    );
+  }
+
+  /** Whether the current user has already uploaded a file with this SHA-256 (HEAD: 200 or 404) */
+  isUploaded(sha256: string): Observable<boolean> {
+    return this.http.head(`${this.resourceUrl}/sha256/${sha256}`).pipe(
+      map(() => true),
+      catchError(() => of(false)),
+    );
   }
 
   /** Delete all attachments linked to a project */
@@ -39,4 +102,39 @@ export class AttachmentService {
     // eslint-disable-next-line @typescript-eslint/no-invalid-void-type
     return this.http.delete<void>(`${this.resourceUrl}/${id}`);
   }
+
+  // Hex SHA-256 of base64 content; null where the browser has no Web Crypto (plain http)
+  private async sha256Hex(base64: string): Promise<string | null> {
+    // eslint-disable-next-line @typescript-eslint/no-unnecessary-condition
+    if (!globalThis.crypto?.subtle) return null;
+    const digest = await globalThis.crypto.subtle.digest('SHA-256', this.base64ToBytes(base64));
+    return Array.from(new Uint8Array(digest), b => b.toString(16).padStart(2, '0')).join('');
+  }
+
+  // Base64 without the "data:...;base64," prefix, as the backend used to send it
+  private blobToBase64(blob: Blob): Promise<string> {
+    return new Promise((resolve, reject) => {
+      const reader = new FileReader();
+      reader.onload = () => {
+        const dataUrl = reader.result as string;
+        resolve(dataUrl.substring(dataUrl.indexOf(',') + 1));
+      };
+      reader.onerror = () => reject(reader.error);
+      reader.readAsDataURL(blob);
+    });
+  }
+
+  private base64ToBlob(base64: string, contentType: string): Blob {
+    return new Blob([this.base64ToBytes(base64)], { type: contentType || 'application/octet-stream' });
+  }
+
+  private base64ToBytes(base64: string): Uint8Array {
+    const raw = base64.includes(',') ? base64.substring(base64.indexOf(',') + 1) : base64;
+    const binary = atob(raw);
+    const bytes = new Uint8Array(binary.length);
+    for (let i = 0; i < binary.length; i++) {
+      bytes[i] = binary.charCodeAt(i);
+    }
+    return bytes;
+  }
 }
@@ -2,10 +2,42 @@
 
 import { Injectable } from '@angular/core';
 import { HttpClient } from '@angular/common/http';
-import { Observable } from 'rxjs';
+import { Observable, filter, switchMap, take, timer } from 'rxjs';
 
 export type InlineImage = { cid: string; fileContentType: string; base64: string; name: string };
 
+export type MailMergePayload = {
+  subjectTemplate: string;
+  bodyTemplate: string;
+  inlineImages: InlineImage[];
+  toTemplate: string;
+  ccTemplate: string;
+  bccTemplate: string;
+  spreadsheet: string | null;
+  spreadsheetFileContentType: string | null;
+  attachments: { name: string; fileContentType: string; file: string }[];
+  // Project the sent emails are recorded against (optional)
+  projectId?: number | null;
+};
+
+// Background merge job, as returned by POST /api/mail-merge/send-advanced (202) and GET /api/mail-merge/jobs/{id}
+export type MailMergeJob = {
+  id: string;
+  status: 'QUEUED' | 'RUNNING' | 'COMPLETED' | 'FAILED';
+  totalCount: number;
+  processedCount: number;
+  sentCount: number;
+  failedCount: number;
+  skippedCount: number;
+  retryCount: number;
+  // Rows given up on after retries (can be re-sent with retryFailedMailMerge)
+  failures: { row: number; to: string; subject: string; error?: string | null }[];
+  createdAt: string;
+  startedAt?: string | null;
+  finishedAt?: string | null;
+  error?: string | null;
+};
+
 export interface Project {
   id?: number;
   name: string;
@@ -26,6 +58,12 @@ export interface Project {
   user?: any;
 }
 
+// A project as listed by GET /api/projects/my (open one with find() for the rest)
+export type ProjectSummary = Pick<Project, 'id' | 'name' | 'status' | 'sentAt' | 'spreadsheetName'> & {
+  spreadsheetSize?: number | null;
+  attachmentsSize?: number | null;
+};
+
 @Injectable({ providedIn: 'root' })
 export class ProjectService {
   private resourceUrl = '/api/projects';
@@ -48,9 +86,9 @@ export class ProjectService {
     return this.http.get<Project>(`${this.resourceUrl}/${id}`);
   }
 
-  // Get all projects for current user
-  findMy(): Observable<Project[]> {
-    return this.http.get<Project[]>(`${this.resourceUrl}/my`);
+  // Get summaries of all projects for current user (sidebar)
+  findMy(): Observable<ProjectSummary[]> {
+    return this.http.get<ProjectSummary[]>(`${this.resourceUrl}/my`);
   }
 
   // Delete a project
@@ -76,32 +114,82 @@ export class ProjectService {
   }
 
   // Enhanced version: sends full metadata (To, CC, BCC, attachments, spreadsheet)
-  sendMailMergeWithMeta(payload: {
-    subjectTemplate: string;
-    bodyTemplate: string;
-    inlineImages: InlineImage[];
-    toTemplate: string;
-    ccTemplate: string;
-    bccTemplate: string;
-    spreadsheet: string | null;
-    spreadsheetFileContentType: string | null;
-    attachments: { name: string; fileContentType: string; file: string }[];
-  }): Observable<any> {
-    return this.http.post('/api/mail-merge/send-advanced', payload);
+  // Posted as multipart (templates as a JSON part, files as binary parts) so the backend
+  // never has to hold the whole upload as base64 strings
+  // The backend answers 202 with the queued job; sending continues in the background
+  sendMailMergeWithMeta(payload: MailMergePayload): Observable<MailMergeJob> {
+    return this.http.post<MailMergeJob>('/api/mail-merge/send-advanced', this.toMailMergeFormData(payload));
+  }
+
+  // Current status of a background merge job
+  getMailMergeJob(id: string): Observable<MailMergeJob> {
+    return this.http.get<MailMergeJob>(`/api/mail-merge/jobs/${id}`);
+  }
+
+  // Re-sends only the failed rows of a finished job, as a new job
+  retryFailedMailMerge(id: string): Observable<MailMergeJob> {
+    return this.http.post<MailMergeJob>(`/api/mail-merge/jobs/${id}/retry-failed`, null);
+  }
+
+  // Continues a job that was interrupted before all rows were queued, from its checkpoint
+  resumeMailMerge(id: string): Observable<MailMergeJob> {
+    return this.http.post<MailMergeJob>(`/api/mail-merge/jobs/${id}/resume`, null);
+  }
+
+  // Polls the job until it is COMPLETED or FAILED and emits that final snapshot once
+  waitForMailMergeJob(id: string, intervalMs = 2000): Observable<MailMergeJob> {
+    return timer(0, intervalMs).pipe(
+      switchMap(() => this.getMailMergeJob(id)),
+      filter(job => job.status === 'COMPLETED' || job.status === 'FAILED'),
+      take(1),
+    );
   }
 
   // ✅ NEW: Test version (sends ONE merged email to the current user's email)
-  sendMailMergeTestWithMeta(payload: {
-    subjectTemplate: string;
-    bodyTemplate: string;
-    inlineImages: InlineImage[];
-    toTemplate: string;
-    ccTemplate: string;
-    bccTemplate: string;
-    spreadsheet: string | null;
-    spreadsheetFileContentType: string | null;
-    attachments: { name: string; fileContentType: string; file: string }[];
-  }): Observable<any> {
-    return this.http.post('/api/mail-merge/send-test', payload);
+  sendMailMergeTestWithMeta(payload: MailMergePayload): Observable<any> {
+    return this.http.post('/api/mail-merge/send-test', this.toMailMergeFormData(payload));
+  }
+
+  // Multipart body for MailMergeResource: "request" (JSON), "spreadsheet", "attachments", "inlineImages"
+  private toMailMergeFormData(payload: MailMergePayload): FormData {
+    const formData = new FormData();
+
+    const request = {
+      subjectTemplate: payload.subjectTemplate,
+      bodyTemplate: payload.bodyTemplate,
+      toTemplate: payload.toTemplate,
+      ccTemplate: payload.ccTemplate,
+      bccTemplate: payload.bccTemplate,
+      // Same order as the inlineImages parts below
+      inlineImageCids: payload.inlineImages.map(img => img.cid),
+      projectId: payload.projectId ?? null,
+    };
+    formData.append('request', new Blob([JSON.stringify(request)], { type: 'application/json' }));
+
+    if (payload.spreadsheet) {
+      const type = payload.spreadsheetFileContentType ?? 'application/octet-stream';
+      formData.append('spreadsheet', this.base64ToBlob(payload.spreadsheet, type), 'spreadsheet');
+    }
+
+    for (const a of payload.attachments) {
+      formData.append('attachments', this.base64ToBlob(a.file, a.fileContentType), a.name);
+    }
+
+    for (const img of payload.inlineImages) {
+      formData.append('inlineImages', this.base64ToBlob(img.base64, img.fileContentType), img.name || `${img.cid}.png`);
+    }
+
+    return formData;
+  }
+
+  // Accepts raw base64 or a data: URL
+  private base64ToBlob(base64: string, contentType: string): Blob {
+    const raw = base64.includes(',') ? base64.substring(base64.indexOf(',') + 1) : base64;
+    const binary = atob(raw);
+    const bytes = new Uint8Array(binary.length);
+    for (let i = 0; i < binary.length; i++) {
+      bytes[i] = binary.charCodeAt(i);
+    }
+    return new Blob([bytes], { type: contentType || 'application/octet-stream' });
   }
 }
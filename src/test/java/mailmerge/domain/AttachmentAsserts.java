@@ -47,7 +47,7 @@ public class AttachmentAsserts {
     public static void assertAttachmentUpdatableFieldsEquals(Attachment expected, Attachment actual) {
         assertThat(expected)
             .as("Verify Attachment relevant properties")
-            .satisfies(e -> assertThat(e.getFile()).as("check file").isEqualTo(actual.getFile()))
+            .satisfies(e -> assertThat(e.getFileSha256()).as("check fileSha256").isEqualTo(actual.getFileSha256()))
             .satisfies(e -> assertThat(e.getFileContentType()).as("check file contenty type").isEqualTo(actual.getFileContentType()))
             .satisfies(e -> assertThat(e.getFileContentType()).as("check fileContentType").isEqualTo(actual.getFileContentType()))
             .satisfies(e -> assertThat(e.getName()).as("check name").isEqualTo(actual.getName()))
@@ -48,7 +48,8 @@ public class ProjectAsserts {
         assertThat(expected)
             .as("Verify Project relevant properties")
             .satisfies(e -> assertThat(e.getName()).as("check name").isEqualTo(actual.getName()))
-            .satisfies(e -> assertThat(e.getSpreadsheetLink()).as("check spreadsheetLink").isEqualTo(actual.getSpreadsheetLink()))
+            .satisfies(e -> assertThat(e.getSpreadsheetSha256()).as("check spreadsheetSha256").isEqualTo(actual.getSpreadsheetSha256()))
+            .satisfies(e -> assertThat(e.getSpreadsheetSize()).as("check spreadsheetSize").isEqualTo(actual.getSpreadsheetSize()))
             .satisfies(e ->
                 assertThat(e.getSpreadsheetLinkContentType())
                     .as("check spreadsheetLink contenty type")
@@ -0,0 +1,100 @@
+package mailmerge.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import mailmerge.IntegrationTest;
+import mailmerge.domain.enumeration.EmailStatus;
+import mailmerge.service.EmailService;
+import mailmerge.service.dto.EmailDTO;
+import mailmerge.service.mapper.EmailMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Inserts per second for 10k Email rows through JPA:
+ *  - "one by one": {@link EmailService#save} per row, each its own transaction and insert
+ *    (how AttachmentResource used to store an upload)
+ *  - "saveAll": Spring Data's saveAll in one transaction (batched, but every entity stays
+ *    managed until commit)
+ *  - "persistAll": {@link EmailService#saveAll} (JDBC batches of hibernate.jdbc.batch_size,
+ *    pooled ids, entities detached per batch)
+ *
+ * Not part of the build (the name matches neither the unit nor the integration test
+ * pattern); run it on its own against the H2 test database:
+ *   ./mvnw -P-webapp verify -Dit.test=EmailRepositoryBenchmark -Dtest=NONE \
+ *     -Dsurefire.failIfNoSpecifiedTests=false -Dfailsafe.failIfNoSpecifiedTests=false
+ * or with -Pprod added for PostgreSQL (Testcontainers).
+ */
+@IntegrationTest
+class EmailRepositoryBenchmark {
+
+    private static final int ROWS = 10_000;
+
+    @Autowired
+    private EmailService emailService;
+
+    @Autowired
+    private EmailRepository emailRepository;
+
+    @Autowired
+    private EmailMapper emailMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        transactionTemplate.executeWithoutResult(status -> emailRepository.deleteAllInBatch());
+    }
+
+    @Test
+    void insertTenThousandEmails() {
+        // Warm up the mappings, the sequence and the JIT on a small run of each path
+        run(200);
+        cleanUp();
+
+        System.out.println("Email inserts (" + ROWS + " rows):");
+        long oneByOne = measure("one by one", () -> emails(ROWS).forEach(emailService::save));
+        long saveAll = measure("saveAll", () ->
+            transactionTemplate.executeWithoutResult(status -> emailRepository.saveAll(emailMapper.toEntity(emails(ROWS))))
+        );
+        long persistAll = measure("persistAll", () -> emailService.saveAll(emails(ROWS)));
+
+        assertThat(emailRepository.count()).isEqualTo(3L * ROWS);
+        System.out.printf("persistAll vs one by one: %.1fx%n", (double) oneByOne / persistAll);
+        System.out.printf("persistAll vs saveAll: %.1fx%n", (double) saveAll / persistAll);
+    }
+
+    private void run(int rows) {
+        emails(rows).forEach(emailService::save);
+        transactionTemplate.executeWithoutResult(status -> emailRepository.saveAll(emailMapper.toEntity(emails(rows))));
+        emailService.saveAll(emails(rows));
+    }
+
+    /** Run {@code inserts}, print inserts/second, return the elapsed nanoseconds. */
+    private static long measure(String name, Runnable inserts) {
+        long start = System.nanoTime();
+        inserts.run();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("  %-11s %8.0f inserts/s (%d ms)%n", name, ROWS / (elapsed / 1e9), elapsed / 1_000_000);
+        return elapsed;
+    }
+
+    private static List<EmailDTO> emails(int count) {
+        List<EmailDTO> emails = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            EmailDTO email = new EmailDTO();
+            email.setEmailAddress("user" + i + "@example.com");
+            email.setHeader("Your results");
+            email.setContent("<p>Hi, you scored " + i + " this term.</p>");
+            email.setStatus(EmailStatus.PENDING);
+            emails.add(email);
+        }
+        return emails;
+    }
+}
@@ -0,0 +1,209 @@
+package mailmerge.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import mailmerge.IntegrationTest;
+import mailmerge.domain.enumeration.EmailStatus;
+import mailmerge.repository.MailOutboxRepository.JobSource;
+import mailmerge.repository.MailOutboxRepository.OutboxEmail;
+import mailmerge.repository.MailOutboxRepository.OutboxJob;
+import mailmerge.repository.MailOutboxRepository.SendResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Integration tests for {@link MailOutboxRepository}.
+ */
+@IntegrationTest
+class MailOutboxRepositoryIT {
+
+    @Autowired
+    private MailOutboxRepository outboxRepository;
+
+    @Autowired
+    private EmailRepository emailRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private String jobId;
+
+    @BeforeEach
+    void createJob() {
+        jobId = UUID.randomUUID().toString();
+        outboxRepository.insertJob(new OutboxJob(jobId, "alice", "alice-sub", "oidc", null, 4, 0, false, 0, new byte[] { '[', ']' }, Instant.now()));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("delete from email where job_id is not null");
+            jdbcTemplate.update("delete from mail_merge_job");
+        });
+    }
+
+    @Test
+    void shouldInsertRowsWithPooledIdsThatJpaCanRead() {
+        long[] ids = outboxRepository.insertEmails(jobId, null, emails(120));
+
+        assertThat(ids).hasSize(120).doesNotHaveDuplicates();
+        assertThat(emailRepository.findById(ids[0])).hasValueSatisfying(email -> {
+            assertThat(email.getEmailAddress()).isEqualTo("user1@example.com");
+            assertThat(email.getStatus()).isEqualTo(EmailStatus.PENDING);
+        });
+
+        // JPA inserts after the outbox must not collide with the ids it drew
+        long[] more = outboxRepository.insertEmails(jobId, null, List.of(OutboxEmail.pending(121, "late@example.com", "", null, "Hi", "")));
+        assertThat(more[0]).isNotIn(ids[0], ids[119]);
+        assertThat(outboxRepository.countByStatus(jobId)).containsEntry(EmailStatus.PENDING, 121);
+    }
+
+    @Test
+    void shouldLeaseClaimedRowsUntilTheLeaseRunsOut() {
+        outboxRepository.insertEmails(jobId, null, emails(3));
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        List<OutboxEmail> claimed = outboxRepository.claim(jobId, 2, now, now.plusSeconds(600));
+        assertThat(claimed).hasSize(2).allSatisfy(e -> assertThat(e.attempts()).isEqualTo(1));
+        assertThat(claimed).extracting(OutboxEmail::row).containsExactly(1, 2);
+
+        // Leased rows are not handed out again...
+        assertThat(outboxRepository.claim(jobId, 10, now, now.plusSeconds(600))).extracting(OutboxEmail::row).containsExactly(3);
+        assertThat(outboxRepository.claim(jobId, 10, now, now.plusSeconds(600))).isEmpty();
+
+        // ...until their lease has expired (the claiming instance died), and then they may have been sent
+        assertThat(claimed).noneMatch(OutboxEmail::inDoubt);
+        assertThat(outboxRepository.countByStatus(jobId)).containsEntry(EmailStatus.SENDING, 3);
+        List<OutboxEmail> reclaimed = outboxRepository.claim(jobId, 10, now.plusSeconds(601), now.plusSeconds(1200));
+        assertThat(reclaimed).hasSize(3).allSatisfy(e -> {
+            assertThat(e.attempts()).isEqualTo(2);
+            assertThat(e.inDoubt()).isTrue();
+            assertThat(e.idempotencyKey()).isEqualTo(jobId + ":" + e.row());
+        });
+    }
+
+    @Test
+    void shouldKeepRenewedLeases() {
+        outboxRepository.insertEmails(jobId, null, emails(2));
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        List<OutboxEmail> claimed = outboxRepository.claim(jobId, 10, now, now.plusSeconds(600));
+        outboxRepository.complete(List.of(SendResult.sent(claimed.get(0), now)));
+
+        // Only the row still waiting is renewed, and it is not due when the first lease would have run out
+        assertThat(outboxRepository.renewLease(claimed.get(1).claimToken(), now.plusSeconds(1200))).isEqualTo(1);
+        assertThat(outboxRepository.findJobsWithDueRows(now.plusSeconds(601), 10)).isEmpty();
+        assertThat(outboxRepository.claim(jobId, 10, now.plusSeconds(601), now.plusSeconds(1200))).isEmpty();
+        assertThat(outboxRepository.claim(jobId, 10, now.plusSeconds(1201), now.plusSeconds(1800))).extracting(OutboxEmail::row).containsExactly(2);
+    }
+
+    @Test
+    void shouldDropResultsOfAClaimWhoseLeaseWasTakenOver() {
+        outboxRepository.insertEmails(jobId, null, emails(1));
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        OutboxEmail first = outboxRepository.claim(jobId, 10, now, now.plusSeconds(600)).get(0);
+        OutboxEmail second = outboxRepository.claim(jobId, 10, now.plusSeconds(601), now.plusSeconds(1200)).get(0);
+        assertThat(second.claimToken()).isNotEqualTo(first.claimToken());
+
+        // The second claim sent it; the first one's late failure must not undo that
+        assertThat(outboxRepository.complete(List.of(SendResult.sent(second, now.plusSeconds(602))))).isEqualTo(1);
+        assertThat(outboxRepository.complete(List.of(SendResult.retryAt(first, "timeout", now.plusSeconds(630))))).isZero();
+        assertThat(outboxRepository.complete(List.of(SendResult.sent(second, now.plusSeconds(603))))).isZero();
+
+        assertThat(outboxRepository.countByStatus(jobId)).containsEntry(EmailStatus.SENT, 1).containsEntry(EmailStatus.PENDING, 0);
+    }
+
+    @Test
+    void shouldMoveTheCheckpointWithEachChunkAndDropTheSourceOnceQueued() throws Exception {
+        byte[] sheet = "email\nada@example.com\n".getBytes(StandardCharsets.UTF_8);
+        outboxRepository.insertSource(jobId, new JobSource("Hi", "<p>Hi</p>", "{{email}}", null, null, "text/csv"), new ByteArrayInputStream(sheet), sheet.length);
+
+        outboxRepository.enqueue(jobId, null, emails(2), 3);
+        assertThat(outboxRepository.findJob(jobId)).hasValueSatisfying(job -> assertThat(job.checkpointRow()).isEqualTo(3));
+        assertThat(outboxRepository.findSource(jobId)).hasValueSatisfying(source -> assertThat(source.toTemplate()).isEqualTo("{{email}}"));
+
+        Path copy = Files.createTempFile("mailmerge-", ".test");
+        try {
+            assertThat(outboxRepository.copySpreadsheet(jobId, copy)).isTrue();
+            assertThat(Files.readAllBytes(copy)).isEqualTo(sheet);
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+
+        // A second run queueing the same rows again is refused
+        assertThatThrownBy(() -> outboxRepository.enqueue(jobId, null, emails(1), 5)).isInstanceOf(DataIntegrityViolationException.class);
+        assertThat(outboxRepository.findJob(jobId)).hasValueSatisfying(job -> assertThat(job.checkpointRow()).isEqualTo(3));
+
+        outboxRepository.markEnqueued(jobId, 2, 4);
+        assertThat(outboxRepository.findJob(jobId)).hasValueSatisfying(job -> assertThat(job.checkpointRow()).isEqualTo(4));
+        assertThat(outboxRepository.findSource(jobId)).isEmpty();
+        assertThat(outboxRepository.copySpreadsheet(jobId, Path.of("unused"))).isFalse();
+    }
+
+    @Test
+    void shouldWriteResultsAndRequeueFailedRows() {
+        long[] ids = outboxRepository.insertEmails(jobId, null, emails(3));
+        Instant now = Instant.now();
+        List<OutboxEmail> claimed = outboxRepository.claim(jobId, 10, now, now.plusSeconds(600));
+
+        int written = outboxRepository.complete(
+            List.of(
+                SendResult.sent(claimed.get(0), now),
+                SendResult.failed(claimed.get(1), "invalid recipient"),
+                SendResult.retryAt(claimed.get(2), "503", now.plusSeconds(30))
+            )
+        );
+        assertThat(written).isEqualTo(3);
+
+        assertThat(outboxRepository.countByStatus(jobId))
+            .containsEntry(EmailStatus.SENT, 1)
+            .containsEntry(EmailStatus.FAILED, 1)
+            .containsEntry(EmailStatus.PENDING, 1);
+        assertThat(outboxRepository.findFailed(jobId)).extracting(OutboxEmail::lastError).containsExactly("invalid recipient");
+        assertThat(emailRepository.findById(ids[0])).hasValueSatisfying(e -> assertThat(e.getSentAt()).isNotNull());
+
+        // Not due until its backoff has passed
+        assertThat(outboxRepository.claim(jobId, 10, now, now.plusSeconds(600))).isEmpty();
+
+        String retryJobId = UUID.randomUUID().toString();
+        outboxRepository.insertJob(new OutboxJob(retryJobId, "alice", "alice-sub", "oidc", null, 4, 0, false, 0, null, now));
+        assertThat(outboxRepository.requeueFailed(jobId, retryJobId)).isEqualTo(1);
+        assertThat(outboxRepository.requeueFailed(jobId, retryJobId)).isZero();
+
+        outboxRepository.markEnqueued(retryJobId, 1, 0);
+        assertThat(outboxRepository.findJob(retryJobId)).hasValueSatisfying(job -> {
+            assertThat(job.enqueued()).isTrue();
+            assertThat(job.totalCount()).isEqualTo(1);
+            assertThat(job.attachments()).isNull();
+        });
+        assertThat(outboxRepository.findJobsWithDueRows(now, 10)).containsExactly(retryJobId);
+        assertThat(outboxRepository.claim(retryJobId, 10, now, now.plusSeconds(600))).extracting(OutboxEmail::jobId).containsExactly(retryJobId);
+    }
+
+    private static List<OutboxEmail> emails(int count) {
+        List<OutboxEmail> emails = new ArrayList<>();
+        for (int row = 1; row <= count; row++) {
+            emails.add(OutboxEmail.pending(row, "user" + row + "@example.com", "", null, "Hello " + row, "<p>Hi</p>"));
+        }
+        return emails;
+    }
+}
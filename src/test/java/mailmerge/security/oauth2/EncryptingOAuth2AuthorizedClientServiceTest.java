@@ -0,0 +1,69 @@
+package mailmerge.security.oauth2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+
+/**
+ * Test class for the {@link EncryptingOAuth2AuthorizedClientService}.
+ */
+class EncryptingOAuth2AuthorizedClientServiceTest {
+
+    private final ClientRegistration registration = ClientRegistration.withRegistrationId("oidc")
+        .clientId("mail-merge")
+        .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+        .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+        .authorizationUri("https://login.example.com/authorize")
+        .tokenUri("https://login.example.com/token")
+        .build();
+
+    private final InMemoryOAuth2AuthorizedClientService stored = new InMemoryOAuth2AuthorizedClientService(
+        new InMemoryClientRegistrationRepository(registration)
+    );
+
+    private final EncryptingOAuth2AuthorizedClientService service = new EncryptingOAuth2AuthorizedClientService(
+        stored,
+        Encryptors.delux("test-password", "5c0744940b5c369b")
+    );
+
+    @Test
+    void shouldStoreTokensEncryptedAndLoadThemDecrypted() {
+        service.saveAuthorizedClient(client("access-token", "refresh-token"), new TestingAuthenticationToken("alice-sub", null));
+
+        OAuth2AuthorizedClient raw = stored.loadAuthorizedClient("oidc", "alice-sub");
+        assertThat(raw.getAccessToken().getTokenValue()).isNotEqualTo("access-token");
+        assertThat(raw.getRefreshToken().getTokenValue()).isNotEqualTo("refresh-token");
+
+        OAuth2AuthorizedClient loaded = service.loadAuthorizedClient("oidc", "alice-sub");
+        assertThat(loaded.getAccessToken().getTokenValue()).isEqualTo("access-token");
+        assertThat(loaded.getRefreshToken().getTokenValue()).isEqualTo("refresh-token");
+        assertThat(loaded.getAccessToken().getExpiresAt()).isEqualTo(raw.getAccessToken().getExpiresAt());
+    }
+
+    @Test
+    void shouldIgnoreTokensStoredInPlainText() {
+        stored.saveAuthorizedClient(client("access-token", null), new TestingAuthenticationToken("alice-sub", null));
+
+        assertThat((OAuth2AuthorizedClient) service.loadAuthorizedClient("oidc", "alice-sub")).isNull();
+    }
+
+    private OAuth2AuthorizedClient client(String accessToken, String refreshToken) {
+        Instant now = Instant.now();
+        return new OAuth2AuthorizedClient(
+            registration,
+            "alice-sub",
+            new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, accessToken, now, now.plusSeconds(3600)),
+            refreshToken != null ? new OAuth2RefreshToken(refreshToken, now) : null
+        );
+    }
+}
@@ -0,0 +1,55 @@
+package mailmerge.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import mailmerge.config.ApplicationProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+class GraphRateLimiterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final GraphRateLimiter limiter = new GraphRateLimiter(new ApplicationProperties(), registry);
+
+    @Test
+    void shouldReadRetryAfterSecondsAndDates() {
+        HttpHeaders headers = new HttpHeaders();
+        assertThat(limiter.retryAfter(headers)).isEqualTo(Duration.ofSeconds(10));
+
+        headers.set(HttpHeaders.RETRY_AFTER, "42");
+        assertThat(limiter.retryAfter(headers)).isEqualTo(Duration.ofSeconds(42));
+
+        headers.set(HttpHeaders.RETRY_AFTER, ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(2).format(DateTimeFormatter.RFC_1123_DATE_TIME));
+        assertThat(limiter.retryAfter(headers)).isBetween(Duration.ofSeconds(100), Duration.ofSeconds(120));
+
+        headers.set(HttpHeaders.RETRY_AFTER, "soon");
+        assertThat(limiter.retryAfter(headers)).isEqualTo(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void shouldTreat429And503AsThrottling() {
+        assertThat(GraphRateLimiter.isThrottling(HttpStatus.TOO_MANY_REQUESTS)).isTrue();
+        assertThat(GraphRateLimiter.isThrottling(HttpStatus.SERVICE_UNAVAILABLE)).isTrue();
+        assertThat(GraphRateLimiter.isThrottling(HttpStatus.BAD_REQUEST)).isFalse();
+    }
+
+    @Test
+    void shouldExposeRateAndThrottleCountPerMailbox() throws Exception {
+        limiter.acquire("alice");
+        limiter.onThrottled("alice", Duration.ZERO);
+
+        assertThat(limiter.getRatePerMinute("alice")).isEqualTo(15);
+        assertThat(limiter.getRatePerMinute("bob")).isEqualTo(30);
+
+        assertThat(registry.get("mailmerge.graph.send.rate").tag("mailbox", "alice").gauge().value()).isEqualTo(15);
+        assertThat(registry.get("mailmerge.graph.throttled").tag("mailbox", "alice").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("mailmerge.graph.send.permits").tag("mailbox", "alice").counter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,137 @@
+package mailmerge.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.security.AuthoritiesConstants;
+import mailmerge.service.merge.MailMergeJob;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+class MailMergeJobServiceTest {
+
+    private MailMergeJobService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new MailMergeJobService(new SyncTaskExecutor(), new ApplicationProperties());
+        login("alice", AuthoritiesConstants.USER);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void shouldRunJobWithCallerSecurityContextAndCloseResources() {
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicReference<String> userInJob = new AtomicReference<>();
+
+        MailMergeJob job = service.submit(
+            () -> closed.set(true),
+            j -> {
+                userInJob.set(SecurityContextHolder.getContext().getAuthentication().getName());
+                j.setTotalCount(2);
+                j.recordSent(true);
+                j.recordSent(false);
+            }
+        );
+
+        assertThat(job.getStatus()).isEqualTo(MailMergeJob.Status.COMPLETED);
+        assertThat(job.getSentCount()).isEqualTo(1);
+        assertThat(job.getFailedCount()).isEqualTo(1);
+        assertThat(job.getProcessedCount()).isEqualTo(2);
+        assertThat(userInJob.get()).isEqualTo("alice");
+        assertThat(closed).isTrue();
+    }
+
+    @Test
+    void shouldMarkJobFailedWhenWorkThrows() {
+        MailMergeJob job = service.submit(() -> {}, j -> {
+            throw new IllegalStateException("boom");
+        });
+
+        assertThat(job.getStatus()).isEqualTo(MailMergeJob.Status.FAILED);
+        assertThat(job.getError()).isEqualTo("boom");
+        assertThat(job.isFinished()).isTrue();
+    }
+
+    @Test
+    void shouldOnlyExposeJobsToTheirOwnerOrAdmin() {
+        MailMergeJob job = service.submit(() -> {}, j -> {});
+
+        assertThat(service.findForCurrentUser(job.getId())).containsSame(job);
+
+        login("bob", AuthoritiesConstants.USER);
+        assertThat(service.findForCurrentUser(job.getId())).isEmpty();
+
+        login("admin", AuthoritiesConstants.ADMIN);
+        assertThat(service.findForCurrentUser(job.getId())).containsSame(job);
+
+        assertThat(service.findForCurrentUser("unknown")).isEmpty();
+    }
+
+    @Test
+    void shouldKeepEnqueuedJobRunningUntilTheOutboxRowsAreProcessed() {
+        MailMergeJob job = service.submit(() -> {}, j -> j.markEnqueued(1));
+
+        assertThat(job.getStatus()).isEqualTo(MailMergeJob.Status.RUNNING);
+        assertThat(service.find(job.getId())).containsSame(job);
+
+        job.recordSent(true);
+        service.completeIfDone(job);
+        assertThat(job.getStatus()).isEqualTo(MailMergeJob.Status.COMPLETED);
+    }
+
+    @Test
+    void shouldResumeUnderTheSameIdOnlyOnceTheEarlierRunHasFinished() {
+        MailMergeJob running = service.submit(() -> {}, j -> j.markEnqueued(1));
+
+        AtomicBoolean closed = new AtomicBoolean();
+        assertThatThrownBy(() -> service.resume(running.getId(), "alice", () -> closed.set(true), j -> {}))
+            .isInstanceOf(IllegalStateException.class);
+        assertThat(closed).isTrue();
+
+        MailMergeJob resumed = service.resume("interrupted", "bob", () -> {}, j -> {
+            j.restore(2, 1, 1);
+            j.markEnqueued(4);
+        });
+
+        assertThat(resumed.getId()).isEqualTo("interrupted");
+        assertThat(resumed.getOwner()).isEqualTo("bob");
+        assertThat(resumed.getSentCount()).isEqualTo(2);
+        assertThat(resumed.getSkippedCount()).isEqualTo(1);
+        assertThat(resumed.getStatus()).isEqualTo(MailMergeJob.Status.COMPLETED);
+        assertThat(service.find("interrupted")).containsSame(resumed);
+    }
+
+    @Test
+    void shouldCloseResourcesAndForgetJobWhenQueueIsFull() {
+        MailMergeJobService full = new MailMergeJobService(
+            task -> {
+                throw new TaskRejectedException("queue full");
+            },
+            new ApplicationProperties()
+        );
+        AtomicBoolean closed = new AtomicBoolean();
+
+        assertThatThrownBy(() -> full.submit(() -> closed.set(true), j -> {})).isInstanceOf(TaskRejectedException.class);
+        assertThat(closed).isTrue();
+    }
+
+    private static void login(String user, String authority) {
+        SecurityContextHolder.getContext()
+            .setAuthentication(new UsernamePasswordAuthenticationToken(user, "", List.of(new SimpleGrantedAuthority(authority))));
+    }
+}
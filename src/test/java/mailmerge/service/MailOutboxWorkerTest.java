@@ -0,0 +1,431 @@
+package mailmerge.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.domain.enumeration.EmailStatus;
+import mailmerge.repository.MailOutboxRepository;
+import mailmerge.repository.MailOutboxRepository.OutboxEmail;
+import mailmerge.repository.MailOutboxRepository.OutboxJob;
+import mailmerge.repository.MailOutboxRepository.SendResult;
+import mailmerge.service.graph.GraphAuthorizedClients;
+import mailmerge.service.graph.GraphSender;
+import mailmerge.service.graph.PreparedAttachments;
+import mailmerge.service.graph.SendOutcome;
+import mailmerge.service.merge.MailMergeJob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+
+class MailOutboxWorkerTest {
+
+    private static final GraphSender SENDER = new GraphSender("alice", null);
+
+    private final MailOutboxRepository repository = mock(MailOutboxRepository.class);
+
+    private final GraphMailService graph = mock(GraphMailService.class);
+
+    private final GraphAuthorizedClients authorizedClients = mock(GraphAuthorizedClients.class);
+
+    private final OAuth2AuthorizedClient aliceClient = mock(OAuth2AuthorizedClient.class);
+
+    private final MailProgressAggregator progressAggregator = mock(MailProgressAggregator.class);
+
+    private final GraphRateLimiter rateLimiter = mock(GraphRateLimiter.class);
+
+    private final List<SendResult> written = new CopyOnWriteArrayList<>();
+
+    private MailMergeJobService jobService;
+
+    private MailOutboxWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        ApplicationProperties properties = new ApplicationProperties();
+        jobService = new MailMergeJobService(new SyncTaskExecutor(), properties);
+        worker = new MailOutboxWorker(
+            repository,
+            graph,
+            progressAggregator,
+            authorizedClients,
+            jobService,
+            rateLimiter,
+            new SyncTaskExecutor(),
+            new SyncTaskExecutor(),
+            properties
+        );
+
+        when(rateLimiter.getRatePerMinute(any())).thenReturn(30d);
+        when(authorizedClients.authorize("oidc", "alice-sub")).thenReturn(aliceClient);
+        when(repository.findJob("job-1")).thenReturn(Optional.of(outboxJob("job-1")));
+        doAnswer(inv -> {
+            List<SendResult> results = inv.getArgument(0);
+            written.addAll(results);
+            return results.size();
+        }).when(repository).complete(any());
+    }
+
+    @Test
+    void shouldSendAsTheJobOwnerAndWriteResultsBack() {
+        AtomicReference<GraphSender> sentAs = new AtomicReference<>();
+        when(graph.send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenAnswer(inv -> {
+            sentAs.set(inv.getArgument(0));
+            return SendOutcome.sent();
+        });
+
+        worker.sendJob("job-1", List.of(email(1, 1), email(2, 1)));
+
+        assertThat(sentAs.get().login()).isEqualTo("alice");
+        assertThat(sentAs.get().authorizedClient()).isSameAs(aliceClient);
+        assertThat(written).extracting(SendResult::status).containsExactly(EmailStatus.SENT, EmailStatus.SENT);
+        assertThat(written).allSatisfy(r -> assertThat(r.sentAt()).isNotNull());
+    }
+
+    @Test
+    void shouldRescheduleTransientFailuresUntilAttemptsRunOut() {
+        Instant before = Instant.now();
+
+        SendResult retry = worker.result(null, email(1, 1), SendOutcome.failed("503", true));
+        assertThat(retry.status()).isEqualTo(EmailStatus.PENDING);
+        assertThat(retry.error()).isEqualTo("503");
+        assertThat(retry.nextAttemptAt()).isAfterOrEqualTo(before);
+
+        assertThat(worker.result(null, email(1, 4), SendOutcome.failed("503", true)).status()).isEqualTo(EmailStatus.FAILED);
+        assertThat(worker.result(null, email(1, 1), SendOutcome.failed("400 bad recipient", false)).status()).isEqualTo(EmailStatus.FAILED);
+    }
+
+    @Test
+    void shouldCountResultsOnTheLiveJobAndCompleteIt() {
+        MailMergeJob job = jobService.submit(() -> {}, j -> j.markEnqueued(2));
+        when(repository.findJob(job.getId())).thenReturn(Optional.of(outboxJob(job.getId())));
+        when(graph.send(any(), eq("ok@example.com"), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenReturn(SendOutcome.sent());
+        when(graph.send(any(), eq("bad@example.com"), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenReturn(
+            SendOutcome.failed("invalid recipient", false)
+        );
+
+        worker.sendJob(job.getId(), List.of(email(1, 1, "ok@example.com"), email(2, 1, "bad@example.com")));
+
+        assertThat(job.getSentCount()).isEqualTo(1);
+        assertThat(job.getFailedCount()).isEqualTo(1);
+        assertThat(job.getStatus()).isEqualTo(MailMergeJob.Status.COMPLETED);
+    }
+
+    @Test
+    void shouldCountRowsSentByAnotherInstanceOnTheLiveJob() {
+        MailMergeJob job = jobService.submit(() -> {}, j -> j.markEnqueued(2));
+        when(repository.findJob(job.getId())).thenReturn(Optional.of(outboxJob(job.getId())));
+        when(repository.countByStatus(job.getId())).thenAnswer(inv -> countWritten());
+        when(repository.findLastFailed(eq(job.getId()), anyInt())).thenReturn(
+            List.of(new OutboxEmail(2L, job.getId(), 2, "bad@example.com", "", "", "Hi", "<p>Hi</p>", 1, "invalid recipient", false, null))
+        );
+        when(graph.send(any(), eq("ok@example.com"), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenReturn(SendOutcome.sent());
+        when(graph.send(any(), eq("bad@example.com"), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenReturn(
+            SendOutcome.failed("invalid recipient", false)
+        );
+
+        // The job runs on this instance; another instance's worker (no live job there) sends its rows
+        ApplicationProperties properties = new ApplicationProperties();
+        MailOutboxWorker otherInstance = new MailOutboxWorker(
+            repository,
+            graph,
+            mock(MailProgressAggregator.class),
+            authorizedClients,
+            new MailMergeJobService(new SyncTaskExecutor(), properties),
+            rateLimiter,
+            new SyncTaskExecutor(),
+            new SyncTaskExecutor(),
+            properties
+        );
+        otherInstance.sendJob(job.getId(), List.of(email(1, 1, "ok@example.com"), email(2, 1, "bad@example.com")));
+        assertThat(job.getProcessedCount()).isZero();
+
+        worker.syncLiveJobs();
+
+        assertThat(job.getSentCount()).isEqualTo(1);
+        assertThat(job.getFailedCount()).isEqualTo(1);
+        assertThat(job.getStatus()).isEqualTo(MailMergeJob.Status.COMPLETED);
+        verify(progressAggregator).update(job);
+        verify(progressAggregator).failuresFromOutbox(eq(job), argThat(failures -> failures.size() == 1 && failures.get(0).row == 2));
+    }
+
+    @Test
+    void shouldTagEachSendWithItsRowsIdempotencyKey() {
+        when(graph.send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenReturn(SendOutcome.sent());
+
+        worker.sendJob("job-1", List.of(email(7, 1)));
+
+        verify(graph).send(any(), eq("ada@example.com"), any(), any(), any(), any(), any(PreparedAttachments.class), eq("job-1:7"));
+    }
+
+    @Test
+    void shouldNotResendInDoubtRowsFoundInSentItems() {
+        when(graph.isInSentItems(any(), eq("job-1:1"))).thenReturn(true);
+        when(graph.isInSentItems(any(), eq("job-1:2"))).thenReturn(false);
+        when(graph.send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenReturn(SendOutcome.sent());
+
+        worker.sendJob("job-1", List.of(inDoubt(1, 2), inDoubt(2, 2)));
+
+        assertThat(written).extracting(SendResult::status).containsExactly(EmailStatus.SENT, EmailStatus.SENT);
+        verify(graph, never()).send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), eq("job-1:1"));
+        verify(graph).send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), eq("job-1:2"));
+    }
+
+    @Test
+    void shouldNotSendATimedOutRowTwice() {
+        // The first send times out after Graph took the message; the retry finds it in Sent Items
+        WebClientRequestException timeout = new WebClientRequestException(
+            new TimeoutException("read timed out"),
+            HttpMethod.POST,
+            URI.create("https://graph.microsoft.com/v1.0/me/sendMail"),
+            new HttpHeaders()
+        );
+        when(graph.send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenReturn(SendOutcome.of(timeout));
+        when(graph.isInSentItems(any(), eq("job-1:1"))).thenReturn(true);
+        when(repository.findJobsWithDueRows(any(), anyInt())).thenReturn(List.of("job-1"));
+        when(repository.claim(eq("job-1"), anyInt(), any(), any())).thenReturn(List.of(email(1, 1)), List.of(inDoubt(1, 2)), List.of());
+
+        worker.drain();
+
+        assertThat(written).extracting(SendResult::status).containsExactly(EmailStatus.SENDING, EmailStatus.SENT);
+        verify(graph, times(1)).send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), eq("job-1:1"));
+    }
+
+    @Test
+    void shouldRetryThrottledRowsWithoutDoubt() {
+        assertThat(worker.result(null, email(1, 1), SendOutcome.failed("429", true)).status()).isEqualTo(EmailStatus.PENDING);
+        assertThat(worker.result(null, email(1, 1), SendOutcome.unconfirmed("504")).status()).isEqualTo(EmailStatus.SENDING);
+    }
+
+    @Test
+    void shouldKeepRowsInDoubtWhileSentItemsCannotBeChecked() {
+        when(graph.isInSentItems(any(), any())).thenThrow(new IllegalStateException("503"));
+
+        SendResult recheck = worker.settleInDoubt(SENDER, null, inDoubt(1, 1));
+        assertThat(recheck.status()).isEqualTo(EmailStatus.SENDING);
+        assertThat(recheck.nextAttemptAt()).isNotNull();
+
+        // Out of attempts: give up rather than risk sending twice
+        assertThat(worker.settleInDoubt(SENDER, null, inDoubt(1, 4)).status()).isEqualTo(EmailStatus.FAILED);
+        assertThat(worker.settleInDoubt(SENDER, null, email(1, 1))).isNull();
+        verify(graph, never()).send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any());
+    }
+
+    @Test
+    void shouldFailRowsWhoseOwnerHasToSignInAgain() {
+        when(authorizedClients.authorize("oidc", "alice-sub")).thenReturn(null);
+        worker.sendJob("job-1", List.of(email(1, 1)));
+
+        when(authorizedClients.authorize("oidc", "alice-sub")).thenThrow(
+            new OAuth2AuthorizationException(new OAuth2Error(OAuth2ErrorCodes.INVALID_GRANT))
+        );
+        worker.sendJob("job-1", List.of(email(2, 1)));
+
+        assertThat(written).extracting(SendResult::status).containsExactly(EmailStatus.FAILED, EmailStatus.FAILED);
+        verify(graph, never()).send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any());
+    }
+
+    @Test
+    void shouldRetryRowsWhenTheTokenCannotBeRefreshedForNow() {
+        when(authorizedClients.authorize("oidc", "alice-sub")).thenThrow(
+            new OAuth2AuthorizationException(new OAuth2Error(OAuth2ErrorCodes.SERVER_ERROR))
+        );
+
+        worker.sendJob("job-1", List.of(email(1, 1), inDoubt(2, 1)));
+
+        assertThat(written).extracting(SendResult::status).containsExactly(EmailStatus.PENDING, EmailStatus.SENDING);
+        verify(graph, never()).isInSentItems(any(), any());
+    }
+
+    @Test
+    void shouldFailRowsOfUnknownJobs() {
+        when(repository.findJob("gone")).thenReturn(Optional.empty());
+
+        worker.sendJob("gone", List.of(email(1, 1)));
+
+        assertThat(written).extracting(SendResult::status).containsExactly(EmailStatus.FAILED);
+        verify(graph, never()).send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any());
+    }
+
+    @Test
+    void shouldDrainUntilNothingIsDue() {
+        when(repository.findJobsWithDueRows(any(), anyInt())).thenReturn(List.of("job-1"));
+        when(repository.claim(eq("job-1"), anyInt(), any(), any())).thenReturn(List.of(email(1, 1)), List.of());
+        when(graph.send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenReturn(SendOutcome.sent());
+
+        worker.drain();
+
+        assertThat(written).hasSize(1);
+    }
+
+    @Test
+    void shouldDrainEachJobInRoundsOfItsOwn() {
+        List<Runnable> handedOut = new ArrayList<>();
+        MailOutboxWorker parallel = new MailOutboxWorker(
+            repository,
+            graph,
+            mock(MailProgressAggregator.class),
+            authorizedClients,
+            jobService,
+            rateLimiter,
+            new SyncTaskExecutor(),
+            task -> {
+                handedOut.add(task);
+                task.run();
+            },
+            new ApplicationProperties()
+        );
+        when(repository.findJob("job-2")).thenReturn(Optional.of(outboxJob("job-2")));
+        OutboxEmail other = new OutboxEmail(3L, "job-2", 1, "bob@example.com", "", "", "Hi", "<p>Hi</p>", 1, null, false, "claim-2");
+        when(repository.findJobsWithDueRows(any(), anyInt())).thenReturn(List.of("job-1", "job-2"));
+        when(repository.claim(eq("job-1"), anyInt(), any(), any())).thenReturn(List.of(email(1, 1), email(2, 1)), List.of());
+        when(repository.claim(eq("job-2"), anyInt(), any(), any())).thenReturn(List.of(other), List.of());
+        when(graph.send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenReturn(SendOutcome.sent());
+
+        parallel.drain();
+
+        // Each job: a round that sent its rows, then one that found nothing left
+        assertThat(handedOut).hasSize(4);
+        assertThat(written).hasSize(3);
+    }
+
+    @Test
+    void shouldKeepSendingOtherJobsWhileOneMailboxIsThrottled() throws Exception {
+        MailOutboxWorker parallel = new MailOutboxWorker(
+            repository,
+            graph,
+            mock(MailProgressAggregator.class),
+            authorizedClients,
+            jobService,
+            rateLimiter,
+            new SyncTaskExecutor(),
+            task -> new Thread(task).start(),
+            new ApplicationProperties()
+        );
+        when(repository.findJob("job-2")).thenReturn(
+            Optional.of(new OutboxJob("job-2", "bob", "bob-sub", "oidc", null, 2, 0, true, 0, null, Instant.now()))
+        );
+        when(authorizedClients.authorize("oidc", "bob-sub")).thenReturn(aliceClient);
+        OutboxEmail bobs = new OutboxEmail(3L, "job-2", 1, "carol@example.com", "", "", "Hi", "<p>Hi</p>", 1, null, false, "claim-2");
+        when(repository.findJobsWithDueRows(any(), anyInt())).thenReturn(List.of("job-1", "job-2"));
+        when(repository.claim(eq("job-1"), anyInt(), any(), any())).thenReturn(List.of(email(1, 1)), List.of());
+        when(repository.claim(eq("job-2"), anyInt(), any(), any())).thenReturn(List.of(bobs), List.of());
+
+        // Alice's mailbox is held up by the rate limiter until the test lets it go
+        CountDownLatch throttled = new CountDownLatch(1);
+        when(graph.send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenAnswer(inv -> {
+            GraphSender sender = inv.getArgument(0);
+            if ("alice".equals(sender.login())) {
+                throttled.await();
+            }
+            return SendOutcome.sent();
+        });
+
+        parallel.drain();
+
+        try {
+            verify(repository, timeout(5000)).complete(argThat(results -> results.size() == 1 && results.get(0).id() == 3L));
+            assertThat(written).extracting(SendResult::id).containsExactly(3L);
+        } finally {
+            throttled.countDown();
+        }
+        verify(repository, timeout(5000)).complete(argThat(results -> results.size() == 1 && results.get(0).id() == 1L));
+    }
+
+    @Test
+    void shouldClaimFewerRowsWhileTheMailboxIsSlow() {
+        // Default lease 10 minutes, claim-size 50: half a lease at the mailbox's rate, 1 to 50
+        when(rateLimiter.getRatePerMinute("alice")).thenReturn(2d);
+        assertThat(worker.claimSizeFor("alice")).isEqualTo(10);
+
+        when(rateLimiter.getRatePerMinute("alice")).thenReturn(60d);
+        assertThat(worker.claimSizeFor("alice")).isEqualTo(50);
+
+        when(rateLimiter.getRatePerMinute("alice")).thenReturn(0.01d);
+        assertThat(worker.claimSizeFor("alice")).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRenewTheLeaseWhileClaimedRowsWait() {
+        ApplicationProperties properties = new ApplicationProperties();
+        properties.getMailMerge().getOutbox().setLease(Duration.ofMillis(200));
+        MailOutboxWorker slow = new MailOutboxWorker(
+            repository,
+            graph,
+            progressAggregator,
+            authorizedClients,
+            jobService,
+            rateLimiter,
+            new SyncTaskExecutor(),
+            new SyncTaskExecutor(),
+            properties
+        );
+        when(repository.findJobsWithDueRows(any(), anyInt())).thenReturn(List.of("job-1"));
+        when(repository.claim(eq("job-1"), anyInt(), any(), any())).thenReturn(List.of(email(1, 1)), List.of());
+
+        // The send waits past half its lease; meanwhile the next poll comes round
+        when(graph.send(any(), any(), any(), any(), any(), any(), any(PreparedAttachments.class), any())).thenAnswer(inv -> {
+            Thread.sleep(150);
+            slow.drain();
+            return SendOutcome.sent();
+        });
+
+        slow.drain();
+
+        verify(repository).renewLease(eq("claim-1"), any());
+        assertThat(written).extracting(SendResult::status).containsExactly(EmailStatus.SENT);
+    }
+
+    /** Statuses of the rows written so far, as MailOutboxRepository#countByStatus counts them. */
+    private Map<EmailStatus, Integer> countWritten() {
+        Map<EmailStatus, Integer> counts = new EnumMap<>(EmailStatus.class);
+        for (EmailStatus status : EmailStatus.values()) counts.put(status, 0);
+        written.forEach(result -> counts.merge(result.status(), 1, Integer::sum));
+        return counts;
+    }
+
+    private static OutboxJob outboxJob(String id) {
+        return new OutboxJob(id, "alice", "alice-sub", "oidc", null, 2, 0, true, 0, null, Instant.now());
+    }
+
+    private static OutboxEmail email(long id, int attempts) {
+        return email(id, attempts, "ada@example.com");
+    }
+
+    private static OutboxEmail email(long id, int attempts, String to) {
+        return new OutboxEmail(id, "job-1", (int) id, to, "", "", "Hi", "<p>Hi</p>", attempts, null, false, "claim-1");
+    }
+
+    private static OutboxEmail inDoubt(long id, int attempts) {
+        return new OutboxEmail(id, "job-1", (int) id, "ada@example.com", "", "", "Hi", "<p>Hi</p>", attempts, null, true, "claim-1");
+    }
+}
@@ -0,0 +1,116 @@
+package mailmerge.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.service.dto.MailProgressEvent;
+import mailmerge.service.dto.MailProgressEvent.RecentFailure;
+import mailmerge.service.merge.MailMergeJob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class MailProgressAggregatorTest {
+
+    private MailProgressService progressService;
+
+    private MailProgressAggregator aggregator;
+
+    private MailMergeJob job;
+
+    @BeforeEach
+    void setUp() {
+        ApplicationProperties properties = new ApplicationProperties();
+        properties.getMailMerge().getProgress().setRecentFailures(2);
+
+        progressService = mock(MailProgressService.class);
+        aggregator = new MailProgressAggregator(progressService, properties);
+
+        job = new MailMergeJob("alice");
+        job.markRunning();
+        job.setTotalCount(10);
+    }
+
+    @Test
+    void shouldSendOneSnapshotForManyRows() {
+        aggregator.track(job);
+        for (int i = 0; i < 5; i++) {
+            job.recordSent(true);
+            aggregator.update(job);
+        }
+        job.recordSkipped();
+        aggregator.update(job);
+
+        aggregator.flush();
+
+        MailProgressEvent snapshot = sent(1).get(0);
+        assertThat(snapshot.jobId).isEqualTo(job.getId());
+        assertThat(snapshot.sentCount).isEqualTo(6);
+        assertThat(snapshot.totalCount).isEqualTo(10);
+        assertThat(snapshot.skippedCount).isEqualTo(1);
+        assertThat(snapshot.finished).isFalse();
+
+        // Nothing changed since: no snapshot
+        aggregator.flush();
+        verify(progressService, times(1)).sendProgress(eq("alice"), any());
+    }
+
+    @Test
+    void shouldKeepOnlyTheLatestFailures() {
+        for (int row = 1; row <= 3; row++) {
+            job.recordSent(false);
+            aggregator.rowFailed(job, row, "user" + row + "@example.com", "invalid recipient");
+        }
+
+        aggregator.flush();
+
+        MailProgressEvent snapshot = sent(1).get(0);
+        assertThat(snapshot.failedCount).isEqualTo(3);
+        assertThat(snapshot.recentFailures).extracting(failure -> failure.row).containsExactly(2, 3);
+        assertThat(snapshot.recentFailures).extracting(failure -> failure.error).containsOnly("invalid recipient");
+    }
+
+    @Test
+    void shouldSendAFinalSnapshotOnceTheJobFinishes() {
+        aggregator.track(job);
+        aggregator.flush();
+
+        job.markFailed("Spreadsheet is empty");
+        aggregator.flush();
+        aggregator.flush();
+
+        List<MailProgressEvent> snapshots = sent(2);
+        assertThat(snapshots.get(1).finished).isTrue();
+        assertThat(snapshots.get(1).success).isFalse();
+        assertThat(snapshots.get(1).status).isEqualTo("FAILED");
+        assertThat(snapshots.get(1).message).contains("Spreadsheet is empty");
+
+        // No longer tracked: late updates of the finished job are dropped
+        aggregator.update(job);
+        aggregator.flush();
+        verify(progressService, times(2)).sendProgress(eq("alice"), any());
+    }
+
+    @Test
+    void shouldIgnoreJobsThatAreNotInMemory() {
+        aggregator.update(null);
+        aggregator.rowFailed(null, 1, "user1@example.com", "invalid recipient");
+
+        aggregator.flush();
+
+        verify(progressService, never()).sendProgress(any(), any());
+    }
+
+    private List<MailProgressEvent> sent(int count) {
+        ArgumentCaptor<MailProgressEvent> captor = ArgumentCaptor.forClass(MailProgressEvent.class);
+        verify(progressService, times(count)).sendProgress(eq("alice"), captor.capture());
+        return captor.getAllValues();
+    }
+}
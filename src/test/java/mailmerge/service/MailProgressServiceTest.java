@@ -0,0 +1,90 @@
+package mailmerge.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.service.dto.MailProgressEvent;
+import mailmerge.service.progress.InMemoryProgressBus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+class MailProgressServiceTest {
+
+    private static final Pattern SSE_ID = Pattern.compile("id:(\\d+)");
+
+    private final SseDispatcher dispatcher = mock(SseDispatcher.class);
+
+    private MailProgressService progressService;
+
+    @BeforeEach
+    void setUp() {
+        progressService = new MailProgressService(dispatcher, new InMemoryProgressBus(), new ApplicationProperties());
+    }
+
+    @Test
+    void shouldReplayEventsThatArrivedAfterTheLastOneEvenWithLowerIds() {
+        // Two publishers took ids 7 and 8, but 8 committed (and arrived) first
+        progressService.deliver(8, "alice", event("job-1", "second"));
+        progressService.deliver(7, "alice", event("job-1", "first"));
+        progressService.deliver(9, "alice", event("job-2", "other job"));
+
+        // A client that saw 8 missed 7, and 9 if it watches every job
+        assertThat(replayed("job-1", 8L)).containsExactly(7L);
+        assertThat(replayed(null, 8L)).containsExactly(7L, 9L);
+        assertThat(replayed("job-1", 7L)).isEmpty();
+        assertThat(replayed("job-1", null)).containsExactly(8L, 7L);
+    }
+
+    @Test
+    void shouldFallBackToIdsOnceTheLastEventIsNoLongerBuffered() {
+        progressService.deliver(5, "alice", event("job-1", "a"));
+        progressService.deliver(6, "alice", event("job-1", "b"));
+
+        assertThat(replayed("job-1", 3L)).containsExactly(5L, 6L);
+        assertThat(replayed(null, 5L)).containsExactly(6L);
+        assertThat(replayed(null, null)).isEmpty();
+    }
+
+    @Test
+    void shouldReplayEverythingBufferedForAnIdThisInstanceNeverGaveOut() {
+        progressService.deliver(5, "alice", event("job-1", "a"));
+        progressService.deliver(6, "alice", event("job-2", "b"));
+
+        // The browser's last event was numbered before a restart, higher than anything since
+        assertThat(replayed("job-1", 900L)).containsExactly(5L);
+        assertThat(replayed(null, 900L)).containsExactly(5L, 6L);
+    }
+
+    /** SSE ids of the events replayed to a new client of alice. */
+    private List<Long> replayed(String jobId, Long lastEventId) {
+        SseDispatcher.Client client = mock(SseDispatcher.Client.class);
+        when(dispatcher.open(any(), any())).thenReturn(client);
+        when(client.offer(any())).thenReturn(true);
+
+        progressService.registerClient("alice", jobId, lastEventId);
+
+        ArgumentCaptor<SseEmitter.SseEventBuilder> offered = ArgumentCaptor.forClass(SseEmitter.SseEventBuilder.class);
+        verify(client, atLeast(0)).offer(offered.capture());
+        return offered.getAllValues().stream().map(MailProgressServiceTest::id).toList();
+    }
+
+    private static long id(SseEmitter.SseEventBuilder event) {
+        Matcher matcher = SSE_ID.matcher(event.build().iterator().next().getData().toString());
+        assertThat(matcher.find()).isTrue();
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static MailProgressEvent event(String jobId, String message) {
+        return new MailProgressEvent(jobId, null, true, 1, 2, message);
+    }
+}
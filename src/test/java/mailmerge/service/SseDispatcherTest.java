@@ -0,0 +1,192 @@
+package mailmerge.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.config.MailMergeConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+class SseDispatcherTest {
+
+    private ThreadPoolTaskExecutor executor;
+
+    private SseDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        ApplicationProperties properties = new ApplicationProperties();
+        properties.getMailMerge().getProgress().setClientQueueSize(3);
+        properties.getMailMerge().getProgress().setHeartbeatInterval(Duration.ofMillis(50));
+
+        // The production pool: 2 dispatch threads, more while writes are stuck
+        executor = new MailMergeConfiguration().mailProgressExecutor(properties);
+        executor.initialize();
+        dispatcher = new SseDispatcher(executor, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void shouldNotBlockOnASlowClientAndKeepItsNewestEvents() throws Exception {
+        RecordingEmitter slow = new RecordingEmitter();
+        slow.blockWrites();
+        SseDispatcher.Client client = dispatcher.open(slow, c -> {});
+
+        // The first event is picked up and its write hangs; the rest only queue
+        long start = System.nanoTime();
+        for (int i = 1; i <= 20; i++) {
+            assertThat(client.offer(SseEmitter.event().data("event " + i))).isTrue();
+            if (i == 1) slow.awaitWriteStarted();
+        }
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+
+        slow.releaseWrites();
+        slow.awaitWrites(4);
+        assertThat(slow.written()).containsExactly("event 1", "event 18", "event 19", "event 20");
+    }
+
+    @Test
+    void shouldPingIdleClientsAndCloseTheOnesThatFail() throws Exception {
+        RecordingEmitter live = new RecordingEmitter();
+        RecordingEmitter gone = new RecordingEmitter();
+        gone.failWrites();
+        AtomicInteger closed = new AtomicInteger();
+        dispatcher.open(live, c -> {});
+        SseDispatcher.Client goneClient = dispatcher.open(gone, c -> closed.incrementAndGet());
+
+        dispatcher.heartbeat();
+
+        live.awaitWrites(1);
+        assertThat(live.written()).containsExactly(":ping");
+        waitUntil(() -> closed.get() == 1);
+        assertThat(goneClient.offer(SseEmitter.event().data("late"))).isFalse();
+        assertThat(dispatcher.clientCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldDropAClientStuckInAWrite() throws Exception {
+        RecordingEmitter stuck = new RecordingEmitter();
+        stuck.blockWrites();
+        AtomicInteger closed = new AtomicInteger();
+        SseDispatcher.Client client = dispatcher.open(stuck, c -> closed.incrementAndGet());
+
+        client.offer(SseEmitter.event().data("event 1"));
+        stuck.awaitWriteStarted();
+        Thread.sleep(100);
+
+        // Dropped by the heartbeat while its write is still hanging
+        dispatcher.heartbeat();
+        assertThat(closed).hasValue(1);
+        assertThat(dispatcher.clientCount()).isZero();
+        assertThat(client.offer(SseEmitter.event().data("event 2"))).isFalse();
+
+        stuck.releaseWrites();
+        stuck.awaitCompleted();
+    }
+
+    @Test
+    void shouldKeepWritingToOtherClientsWhileWritesAreStuck() throws Exception {
+        // More stuck clients than dispatch threads
+        List<RecordingEmitter> stuck = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            RecordingEmitter emitter = new RecordingEmitter();
+            emitter.blockWrites();
+            dispatcher.open(emitter, c -> {}).offer(SseEmitter.event().data("stuck " + i));
+            emitter.awaitWriteStarted();
+            stuck.add(emitter);
+        }
+
+        RecordingEmitter live = new RecordingEmitter();
+        SseDispatcher.Client client = dispatcher.open(live, c -> {});
+        client.offer(SseEmitter.event().data("event 1"));
+        client.offer(SseEmitter.event().data("event 2"));
+
+        live.awaitWrites(2);
+        assertThat(live.written()).containsExactly("event 1", "event 2");
+        stuck.forEach(RecordingEmitter::releaseWrites);
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition within 5s").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /** An emitter that records what is written to it, and can hang or fail its writes. */
+    private static final class RecordingEmitter extends SseEmitter {
+
+        private final List<String> written = new CopyOnWriteArrayList<>();
+        private final CountDownLatch writeStarted = new CountDownLatch(1);
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile CountDownLatch release;
+        private volatile boolean fail;
+
+        void blockWrites() {
+            release = new CountDownLatch(1);
+        }
+
+        void releaseWrites() {
+            release.countDown();
+        }
+
+        void failWrites() {
+            fail = true;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            writeStarted.countDown();
+            if (fail) throw new IOException("Broken pipe");
+
+            CountDownLatch latch = release;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            written.add(builder.build().stream().map(data -> data.getData().toString()).collect(Collectors.joining()).trim());
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+
+        List<String> written() {
+            return written.stream().map(text -> text.startsWith("data:") ? text.substring(5) : text).toList();
+        }
+
+        void awaitWriteStarted() throws InterruptedException {
+            assertThat(writeStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        }
+
+        void awaitWrites(int count) throws InterruptedException {
+            waitUntil(() -> written.size() >= count);
+        }
+
+        void awaitCompleted() throws InterruptedException {
+            assertThat(completed.await(5, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package mailmerge.service.blob;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import mailmerge.IntegrationTest;
+import mailmerge.config.ApplicationProperties;
+import mailmerge.service.AttachmentService;
+import mailmerge.service.ProjectService;
+import mailmerge.service.dto.ProjectDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Integration tests for {@link BlobStoreMaintenance}.
+ */
+@IntegrationTest
+class BlobStoreMaintenanceIT {
+
+    private static final long PROJECT_ID = 990_001L;
+
+    private static final long ATTACHMENT_ID = 990_002L;
+
+    private static final byte[] SPREADSHEET = "name,email\nAlice,alice@example.com\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] FILE = "%PDF-1.4 legacy attachment".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private BlobStoreMaintenance maintenance;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    @Autowired
+    private ProjectService projectService;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("delete from attachment where id = ?", ATTACHMENT_ID);
+            jdbcTemplate.update("delete from project where id = ?", PROJECT_ID);
+        });
+    }
+
+    @Test
+    void shouldMoveLegacyLobsIntoTheBlobStore() throws Exception {
+        insertLegacyRows();
+
+        // Other tests' rows may be moved in the same batches: run until nothing is left
+        while (maintenance.migrateBatch()) {}
+
+        Map<String, Object> project = jdbcTemplate.queryForMap(
+            "select spreadsheet_link, spreadsheet_blob_key, spreadsheet_size, spreadsheet_sha256 from project where id = ?",
+            PROJECT_ID
+        );
+        assertThat(project.get("spreadsheet_link")).isNull();
+        assertThat(((Number) project.get("spreadsheet_size")).longValue()).isEqualTo(SPREADSHEET.length);
+        assertThat(project.get("spreadsheet_sha256")).isEqualTo(project.get("spreadsheet_blob_key"));
+        assertThat(blobStore.read((String) project.get("spreadsheet_blob_key"))).isEqualTo(SPREADSHEET);
+
+        Map<String, Object> attachment = jdbcTemplate.queryForMap(
+            "select file, file_blob_key, size from attachment where id = ?",
+            ATTACHMENT_ID
+        );
+        assertThat(attachment.get("file")).isNull();
+        // The size now comes from the stored bytes
+        assertThat(((Number) attachment.get("size")).longValue()).isEqualTo(FILE.length);
+        assertThat(blobStore.read((String) attachment.get("file_blob_key"))).isEqualTo(FILE);
+    }
+
+    @Test
+    void shouldReadLegacyLobsUntilTheyAreMovedAndDropThemOnSave() throws Exception {
+        insertLegacyRows();
+
+        // Not moved yet: still served from the old columns
+        ProjectDTO project = projectService.findOne(PROJECT_ID).orElseThrow();
+        assertThat(project.getSpreadsheetLink()).isEqualTo(SPREADSHEET);
+        assertThat(attachmentService.findContent(ATTACHMENT_ID).orElseThrow().resource().getContentAsByteArray()).isEqualTo(FILE);
+
+        // A new spreadsheet replaces the old one for good
+        byte[] replaced = "name,email\nBob,bob@example.com\n".getBytes(StandardCharsets.UTF_8);
+        project.setSpreadsheetLink(replaced);
+        projectService.update(project);
+
+        assertThat(jdbcTemplate.queryForObject("select spreadsheet_link from project where id = ?", byte[].class, PROJECT_ID)).isNull();
+        while (maintenance.migrateBatch()) {}
+        assertThat(projectService.findOne(PROJECT_ID).orElseThrow().getSpreadsheetLink()).isEqualTo(replaced);
+    }
+
+    @Test
+    void shouldDeleteOnlyOldUnreferencedBlobs() throws Exception {
+        BlobRef referenced = blobStore.put("still used".getBytes(StandardCharsets.UTF_8));
+        BlobRef orphan = blobStore.put("replaced long ago".getBytes(StandardCharsets.UTF_8));
+        BlobRef recentOrphan = blobStore.put("save in flight".getBytes(StandardCharsets.UTF_8));
+        transactionTemplate.executeWithoutResult(status ->
+            jdbcTemplate.update(
+                "insert into project (id, name, spreadsheet_blob_key, spreadsheet_size, spreadsheet_sha256) values (?, ?, ?, ?, ?)",
+                PROJECT_ID,
+                "Current",
+                referenced.key(),
+                referenced.size(),
+                referenced.sha256()
+            )
+        );
+        Instant longAgo = Instant.now().minus(applicationProperties.getBlobStore().getOrphanGracePeriod()).minus(Duration.ofHours(1));
+        backdate(referenced, longAgo);
+        backdate(orphan, longAgo);
+
+        maintenance.deleteOrphans();
+
+        assertThat(blobStore.exists(referenced.key())).isTrue();
+        assertThat(blobStore.exists(orphan.key())).isFalse();
+        assertThat(blobStore.exists(recentOrphan.key())).isTrue();
+    }
+
+    private void insertLegacyRows() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("insert into project (id, name, spreadsheet_link) values (?, ?, ?)", PROJECT_ID, "Legacy", SPREADSHEET);
+            jdbcTemplate.update(
+                "insert into attachment (id, file, file_content_type, name, size, project_id) values (?, ?, ?, ?, ?, ?)",
+                ATTACHMENT_ID,
+                FILE,
+                "application/pdf",
+                "legacy.pdf",
+                999L,
+                PROJECT_ID
+            );
+        });
+    }
+
+    private void backdate(BlobRef blob, Instant when) throws Exception {
+        Path file = Path.of(applicationProperties.getBlobStore().getRoot())
+            .toAbsolutePath()
+            .resolve(blob.key().substring(0, 2))
+            .resolve(blob.key().substring(2, 4))
+            .resolve(blob.key());
+        Files.setLastModifiedTime(file, FileTime.from(when));
+    }
+}
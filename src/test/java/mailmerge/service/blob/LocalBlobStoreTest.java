@@ -0,0 +1,139 @@
+package mailmerge.service.blob;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+import mailmerge.config.ApplicationProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+
+class LocalBlobStoreTest {
+
+    private static final byte[] CONTENT = "name,email\nAlice,alice@example.com\n".getBytes(StandardCharsets.UTF_8);
+
+    // SHA-256 of CONTENT
+    private static final String CONTENT_SHA256 = "eecef2a1036ce3f6986667430bd5f8e09a60ea38a20f68c9f09091d64557ae57";
+
+    @TempDir
+    Path root;
+
+    private LocalBlobStore store;
+
+    @BeforeEach
+    void setUp() {
+        ApplicationProperties properties = new ApplicationProperties();
+        properties.getBlobStore().setRoot(root.toString());
+        store = new LocalBlobStore(properties);
+    }
+
+    @Test
+    void shouldStoreContentUnderItsHash() throws Exception {
+        BlobRef blob = store.put(new ByteArrayInputStream(CONTENT));
+
+        assertThat(blob.size()).isEqualTo(CONTENT.length);
+        assertThat(blob.sha256()).isEqualTo(CONTENT_SHA256).isEqualTo(blob.key());
+        assertThat(store.read(blob.key())).isEqualTo(CONTENT);
+        assertThat(root.resolve(blob.key().substring(0, 2)).resolve(blob.key().substring(2, 4)).resolve(blob.key())).exists();
+    }
+
+    @Test
+    void shouldKeepOneCopyOfTheSameContent() throws Exception {
+        BlobRef first = store.put(CONTENT);
+        BlobRef second = store.put(CONTENT);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(blobFileCount()).isEqualTo(1);
+        // No upload left behind
+        try (Stream<Path> uploads = Files.list(root.resolve("tmp"))) {
+            assertThat(uploads).isEmpty();
+        }
+    }
+
+    @Test
+    void shouldTreatStoringAgainAsRecentForTheSweep() throws Exception {
+        BlobRef blob = store.put(CONTENT);
+        Path file = root.resolve(blob.key().substring(0, 2)).resolve(blob.key().substring(2, 4)).resolve(blob.key());
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+        assertThat(store.keysStoredBefore(Instant.now().minus(Duration.ofDays(1)))).containsExactly(blob.key());
+
+        store.put(CONTENT);
+        assertThat(store.keysStoredBefore(Instant.now().minus(Duration.ofDays(1)))).isEmpty();
+    }
+
+    @Test
+    void shouldDeleteBlobs() throws Exception {
+        BlobRef blob = store.put(CONTENT);
+
+        store.delete(blob.key());
+        store.delete(blob.key());
+
+        assertThat(store.exists(blob.key())).isFalse();
+        assertThatThrownBy(() -> store.open(blob.key())).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void shouldOnlyDeleteBlobsNotStoredAgainSinceTheCutoff() throws Exception {
+        BlobRef blob = store.put(CONTENT);
+        Path file = root.resolve(blob.key().substring(0, 2)).resolve(blob.key().substring(2, 4)).resolve(blob.key());
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+        Instant cutoff = Instant.now().minus(Duration.ofDays(1));
+
+        // Uploaded again between listing and deleting
+        store.put(CONTENT);
+        assertThat(store.deleteIfStoredBefore(blob.key(), cutoff)).isFalse();
+        assertThat(store.exists(blob.key())).isTrue();
+
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+        assertThat(store.deleteIfStoredBefore(blob.key(), cutoff)).isTrue();
+        assertThat(store.deleteIfStoredBefore(blob.key(), cutoff)).isFalse();
+        assertThat(store.exists(blob.key())).isFalse();
+    }
+
+    @Test
+    void shouldServeBlobsAsResources() throws Exception {
+        BlobRef blob = store.put(CONTENT);
+
+        Resource resource = store.resource(blob.key());
+
+        assertThat(resource.contentLength()).isEqualTo(CONTENT.length);
+        assertThat(resource.getContentAsByteArray()).isEqualTo(CONTENT);
+        assertThatThrownBy(() -> store.resource("0".repeat(64))).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void shouldRejectKeysThatAreNotHashes() {
+        assertThatThrownBy(() -> store.open("../../etc/passwd")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> store.open(CONTENT_SHA256.toUpperCase())).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldRefuseToStartWithoutItsRootUnlessAllowedToCreateIt() {
+        ApplicationProperties properties = new ApplicationProperties();
+        properties.getBlobStore().setRoot(root.resolve("not-mounted").toString());
+        properties.getBlobStore().setCreateRoot(false);
+
+        assertThatThrownBy(() -> new LocalBlobStore(properties)).isInstanceOf(IllegalStateException.class).hasMessageContaining("not-mounted");
+
+        properties.getBlobStore().setCreateRoot(true);
+        new LocalBlobStore(properties);
+        assertThat(root.resolve("not-mounted")).isDirectory();
+    }
+
+    private long blobFileCount() throws Exception {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).filter(file -> !file.startsWith(root.resolve("tmp"))).count();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package mailmerge.service.graph;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveTokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong(1_000 * SECOND);
+
+    private AdaptiveTokenBucket bucket(double initialPerMinute, int burst) {
+        return new AdaptiveTokenBucket(initialPerMinute, 2, 120, 1, 0.5, burst, clock::get);
+    }
+
+    @Test
+    void shouldSpacePermitsByTheRate() {
+        AdaptiveTokenBucket bucket = bucket(60, 1); // one per second
+
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isEqualTo(SECOND);
+        assertThat(bucket.reserve()).isEqualTo(2 * SECOND);
+
+        clock.addAndGet(3 * SECOND);
+        assertThat(bucket.reserve()).isZero();
+    }
+
+    @Test
+    void shouldAllowABurstAfterIdlingButNoMore() {
+        AdaptiveTokenBucket bucket = bucket(60, 3);
+        clock.addAndGet(60 * SECOND);
+
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isEqualTo(SECOND);
+    }
+
+    @Test
+    void shouldBackOffAndHoldPermitsUntilRetryAfterOnThrottle() {
+        AdaptiveTokenBucket bucket = bucket(60, 1);
+        bucket.reserve();
+
+        bucket.onThrottled(Duration.ofSeconds(30));
+
+        assertThat(bucket.getRatePerMinute()).isEqualTo(30);
+        assertThat(bucket.getThrottleCount()).isEqualTo(1);
+        assertThat(bucket.reserve()).isEqualTo(30 * SECOND);
+        // the halved rate spaces the next permit 2s later
+        assertThat(bucket.reserve()).isEqualTo(32 * SECOND);
+    }
+
+    @Test
+    void shouldSpeedBackUpOnSuccessWithinBounds() {
+        AdaptiveTokenBucket bucket = bucket(119, 1);
+
+        bucket.onSuccess();
+        bucket.onSuccess();
+        assertThat(bucket.getRatePerMinute()).isEqualTo(120);
+
+        for (int i = 0; i < 10; i++) {
+            bucket.onThrottled(Duration.ZERO);
+        }
+        assertThat(bucket.getRatePerMinute()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldRejectInvalidSettings() {
+        assertThatThrownBy(() -> new AdaptiveTokenBucket(30, 0, 60, 1, 0.5, 1, clock::get)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new AdaptiveTokenBucket(30, 2, 60, 1, 1.5, 1, clock::get)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,38 @@
+package mailmerge.service.graph;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class BatchResponseTest {
+
+    @Test
+    void shouldMapSubResponsesBackToTheirIds() throws Exception {
+        String json =
+            """
+            {"responses": [
+              {"id": "1", "status": 429, "headers": {"retry-after": "7"},
+               "body": {"error": {"code": "ApplicationThrottled", "message": "Too many requests"}}},
+              {"id": "0", "status": 202, "headers": {}},
+              {"id": "2", "status": 400, "body": {"error": {"code": "ErrorInvalidRecipients"}}}
+            ]}
+            """;
+
+        BatchResponse response = BatchResponse.parse(json.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(response.size()).isEqualTo(3);
+
+        assertThat(response.get("0").isSuccess()).isTrue();
+        assertThat(response.get("0").error()).isNull();
+
+        BatchResponse.Item throttled = response.get("1");
+        assertThat(throttled.isSuccess()).isFalse();
+        assertThat(throttled.status()).isEqualTo(429);
+        assertThat(throttled.header("Retry-After")).isEqualTo("7");
+        assertThat(throttled.error()).isEqualTo("Too many requests");
+
+        assertThat(response.get("2").error()).isEqualTo("ErrorInvalidRecipients");
+        assertThat(response.get("3")).isNull();
+    }
+}
@@ -0,0 +1,90 @@
+package mailmerge.service.graph;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import mailmerge.service.dto.AttachmentDTO;
+import mailmerge.service.dto.InlineImageDTO;
+import org.junit.jupiter.api.Test;
+
+class PreparedAttachmentsTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void shouldEncodeGraphFileAttachmentsOnce() throws Exception {
+        byte[] pdf = "%PDF-1.7 \"quoted\" é".getBytes(StandardCharsets.UTF_8);
+
+        AttachmentDTO attachment = new AttachmentDTO();
+        attachment.setName("report \"final\".pdf");
+        attachment.setFileContentType("application/pdf");
+        attachment.setFile(pdf);
+
+        InlineImageDTO logo = new InlineImageDTO();
+        logo.setCid(" logo ");
+        logo.setFile(new byte[] { 1, 2, 3 });
+
+        InlineImageDTO noCid = new InlineImageDTO();
+        noCid.setFile(new byte[] { 4 });
+
+        PreparedAttachments prepared = PreparedAttachments.of(List.of(attachment), List.of(logo, noCid));
+        assertThat(prepared.size()).isEqualTo(2);
+        assertThat(prepared.inlineCount()).isEqualTo(1);
+
+        // Spliced into a normal Jackson payload the fragments come out as real JSON objects
+        String json = mapper.writeValueAsString(
+            Map.of("attachments", prepared.getItems().stream().map(PreparedAttachment::getJson).toList())
+        );
+        JsonNode items = mapper.readTree(json).get("attachments");
+
+        assertThat(items.get(0).get("@odata.type").asText()).isEqualTo("#microsoft.graph.fileAttachment");
+        assertThat(items.get(0).get("name").asText()).isEqualTo("report \"final\".pdf");
+        assertThat(items.get(0).get("contentType").asText()).isEqualTo("application/pdf");
+        assertThat(items.get(0).get("contentBytes").asText()).isEqualTo(Base64.getEncoder().encodeToString(pdf));
+        assertThat(items.get(0).get("isInline").asBoolean()).isFalse();
+        assertThat(items.get(0).has("contentId")).isFalse();
+
+        assertThat(items.get(1).get("name").asText()).isEqualTo(" logo .png");
+        assertThat(items.get(1).get("contentType").asText()).isEqualTo("image/png");
+        assertThat(items.get(1).get("isInline").asBoolean()).isTrue();
+        assertThat(items.get(1).get("contentId").asText()).isEqualTo("logo");
+    }
+
+    @Test
+    void shouldRoundTripThroughTheOutboxJson() throws Exception {
+        AttachmentDTO attachment = new AttachmentDTO();
+        attachment.setName("naïve.txt");
+        attachment.setFileContentType("text/plain");
+        attachment.setFile("hello".getBytes(StandardCharsets.UTF_8));
+
+        InlineImageDTO logo = new InlineImageDTO();
+        logo.setCid("logo");
+        logo.setFile(new byte[] { 1, 2, 3, 4 });
+
+        PreparedAttachments prepared = PreparedAttachments.of(List.of(attachment), List.of(logo));
+        PreparedAttachments restored = PreparedAttachments.fromJson(prepared.toJson());
+
+        assertThat(restored.size()).isEqualTo(2);
+        assertThat(restored.inlineCount()).isEqualTo(1);
+        assertThat(restored.getItems()).extracting(PreparedAttachment::getName).containsExactly("naïve.txt", "logo.png");
+        assertThat(restored.getItems()).extracting(PreparedAttachment::getSize).containsExactly(5, 4);
+        for (int i = 0; i < 2; i++) {
+            assertThat(mapper.readTree(restored.getItems().get(i).getFragment().getValue()))
+                .isEqualTo(mapper.readTree(prepared.getItems().get(i).getFragment().getValue()));
+        }
+
+        assertThat(PreparedAttachments.fromJson(null)).isSameAs(PreparedAttachments.none());
+        assertThat(PreparedAttachments.fromJson(PreparedAttachments.none().toJson())).isSameAs(PreparedAttachments.none());
+    }
+
+    @Test
+    void shouldShareTheEmptyInstance() {
+        assertThat(PreparedAttachments.of(null, List.of())).isSameAs(PreparedAttachments.none());
+        assertThat(PreparedAttachments.none().isEmpty()).isTrue();
+    }
+}
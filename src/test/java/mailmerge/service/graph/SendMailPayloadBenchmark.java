@@ -0,0 +1,88 @@
+package mailmerge.service.graph;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import mailmerge.service.dto.AttachmentDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of producing one sendMail request body: the old Map tree serialised by ObjectMapper
+ * (what WebClient's Jackson encoder did) versus SendMailPayloadWriter. Both write into the
+ * same reused buffer, so the difference is the payload building itself.
+ *
+ * Allocation per message is the interesting number; run with the GC profiler:
+ *   ./mvnw -P-webapp test-compile
+ *   java -cp "target/test-classes:target/classes:$(./mvnw -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)" \
+ *     org.openjdk.jmh.Main SendMailPayloadBenchmark -prof gc
+ * and compare gc.alloc.rate.norm (bytes/op).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendMailPayloadBenchmark {
+
+    @Param({ "0", "512" })
+    int attachmentKb;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+    private PreparedAttachments attachments;
+    private String body;
+
+    @Setup
+    public void setUp() {
+        byte[] content = new byte[attachmentKb * 1024];
+        new Random(42).nextBytes(content);
+
+        AttachmentDTO pdf = new AttachmentDTO();
+        pdf.setName("report.pdf");
+        pdf.setFileContentType("application/pdf");
+        pdf.setFile(content);
+
+        attachments = attachmentKb == 0 ? PreparedAttachments.none() : PreparedAttachments.of(List.of(pdf), List.of());
+        body = "<p>Hi Ada,</p><p>You scored <b>91</b> this term.</p><p>Regards</p>".repeat(20);
+    }
+
+    @Benchmark
+    public int mapTree() throws IOException {
+        out.reset();
+        mapper.writeValue(
+            out,
+            SendMailPayloadWriterTest.mapPayload("ada@example.com", "tutor@example.com, office@example.com", "", "Your results", body, attachments)
+        );
+        return out.size();
+    }
+
+    @Benchmark
+    public int streamingWriter() throws IOException {
+        out.reset();
+        SendMailPayloadWriter.writeSendMail(
+            out,
+            "ada@example.com",
+            "tutor@example.com, office@example.com",
+            "",
+            "Your results",
+            body,
+            attachments
+        );
+        return out.size();
+    }
+}
@@ -0,0 +1,142 @@
+package mailmerge.service.graph;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import mailmerge.service.dto.AttachmentDTO;
+import mailmerge.service.dto.InlineImageDTO;
+import mailmerge.service.merge.MergedMessage;
+import org.junit.jupiter.api.Test;
+
+class SendMailPayloadWriterTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void shouldWriteTheSamePayloadAsTheMapBasedBuilder() throws Exception {
+        AttachmentDTO pdf = new AttachmentDTO();
+        pdf.setName("report.pdf");
+        pdf.setFileContentType("application/pdf");
+        pdf.setFile(new byte[] { 37, 80, 68, 70 });
+
+        InlineImageDTO logo = new InlineImageDTO();
+        logo.setCid("logo");
+        logo.setName("logo.png");
+        logo.setFileContentType("image/png");
+        logo.setFile(new byte[] { 1, 2, 3 });
+
+        PreparedAttachments attachments = PreparedAttachments.of(List.of(pdf), List.of(logo));
+        String to = " ada@example.com,bob@example.com ,, ";
+        String body = "<p>Hi \"Ada\" — <img src=\"cid:logo\"></p>\n";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SendMailPayloadWriter.writeSendMail(out, to, "", null, "Résumé", body, attachments);
+
+        JsonNode written = mapper.readTree(out.toByteArray());
+        JsonNode expected = mapper.readTree(mapper.writeValueAsBytes(mapPayload(to, "", null, "Résumé", body, attachments)));
+
+        assertThat(written).isEqualTo(expected);
+        assertThat(written.at("/message/toRecipients")).hasSize(2);
+        assertThat(written.at("/message/ccRecipients").isMissingNode()).isTrue();
+        assertThat(written.at("/message/attachments/1/contentId").asText()).isEqualTo("logo");
+    }
+
+    @Test
+    void shouldFallBackForMissingSubjectAndBody() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SendMailPayloadWriter.writeSendMail(out, "a@b.c", null, null, null, null, PreparedAttachments.none());
+
+        JsonNode written = mapper.readTree(out.toByteArray());
+        assertThat(written.at("/message/subject").asText()).isEqualTo("(no subject)");
+        assertThat(written.at("/message/body/content").asText()).isEmpty();
+        assertThat(written.at("/message/attachments").isMissingNode()).isTrue();
+        assertThat(written.at("/saveToSentItems").asBoolean()).isTrue();
+    }
+
+    @Test
+    void shouldWriteOneSendMailRequestPerMessageInABatch() throws Exception {
+        List<MergedMessage> messages = List.of(
+            new MergedMessage("ada@example.com", "", "", "Hi Ada", "<p>1</p>"),
+            new MergedMessage("bob@example.com", "boss@example.com", "", "Hi Bob", "<p>2</p>")
+        );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SendMailPayloadWriter.writeBatch(out, messages, PreparedAttachments.none());
+
+        JsonNode requests = mapper.readTree(out.toByteArray()).path("requests");
+        assertThat(requests).hasSize(2);
+        assertThat(requests.at("/0/id").asText()).isEqualTo("0");
+        assertThat(requests.at("/1/id").asText()).isEqualTo("1");
+        assertThat(requests.at("/1/method").asText()).isEqualTo("POST");
+        assertThat(requests.at("/1/url").asText()).isEqualTo("/me/sendMail");
+        assertThat(requests.at("/1/headers/Content-Type").asText()).isEqualTo("application/json");
+        assertThat(requests.at("/1/body/message/subject").asText()).isEqualTo("Hi Bob");
+        assertThat(requests.at("/1/body/message/ccRecipients/0/emailAddress/address").asText()).isEqualTo("boss@example.com");
+        assertThat(requests.at("/1/body/saveToSentItems").asBoolean()).isTrue();
+    }
+
+    @Test
+    void shouldTagMessagesWithTheirIdempotencyKey() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SendMailPayloadWriter.writeSendMail(out, "a@b.c", null, null, "s", "b", PreparedAttachments.none(), "job-1:7");
+
+        JsonNode property = mapper.readTree(out.toByteArray()).at("/message/singleValueExtendedProperties/0");
+        assertThat(property.path("id").asText()).isEqualTo(SendMailPayloadWriter.IDEMPOTENCY_KEY_PROPERTY);
+        assertThat(property.path("value").asText()).isEqualTo("job-1:7");
+
+        out.reset();
+        SendMailPayloadWriter.writeBatch(out, List.of(new MergedMessage("a@b.c", "", "", "s", "b", "job-1:8")), PreparedAttachments.none());
+        assertThat(mapper.readTree(out.toByteArray()).at("/requests/0/body/message/singleValueExtendedProperties/0/value").asText())
+            .isEqualTo("job-1:8");
+    }
+
+    @Test
+    void shouldRefuseBatchesLargerThanGraphAllows() {
+        List<MergedMessage> messages = new ArrayList<>();
+        for (int i = 0; i <= SendMailPayloadWriter.MAX_BATCH_SIZE; i++) {
+            messages.add(new MergedMessage("a@b.c", "", "", "s", "b"));
+        }
+
+        assertThatThrownBy(() -> SendMailPayloadWriter.writeBatch(new ByteArrayOutputStream(), messages, PreparedAttachments.none()))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /** The Map tree GraphMailService built before the streaming writer. */
+    static Map<String, Object> mapPayload(String to, String cc, String bcc, String subject, String body, PreparedAttachments attachments) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("subject", subject != null ? subject : "(no subject)");
+        message.put("body", Map.of("contentType", "HTML", "content", body != null ? body : ""));
+
+        List<Map<String, Object>> toRecipients = recipients(to);
+        List<Map<String, Object>> ccRecipients = recipients(cc);
+        List<Map<String, Object>> bccRecipients = recipients(bcc);
+        List<Object> graphAttachments = new ArrayList<>();
+        for (PreparedAttachment a : attachments.getItems()) graphAttachments.add(a.getJson());
+
+        if (!toRecipients.isEmpty()) message.put("toRecipients", toRecipients);
+        if (!ccRecipients.isEmpty()) message.put("ccRecipients", ccRecipients);
+        if (!bccRecipients.isEmpty()) message.put("bccRecipients", bccRecipients);
+        if (!graphAttachments.isEmpty()) message.put("attachments", graphAttachments);
+
+        return Map.of("message", message, "saveToSentItems", true);
+    }
+
+    static List<Map<String, Object>> recipients(String addresses) {
+        if (addresses == null || addresses.isBlank()) return List.of();
+
+        List<Map<String, Object>> recipients = new ArrayList<>();
+        for (String addr : addresses.split(",\\s*")) {
+            if (!addr.isBlank()) {
+                recipients.add(Map.of("emailAddress", Map.of("address", addr.trim())));
+            }
+        }
+        return recipients;
+    }
+}
@@ -0,0 +1,86 @@
+package mailmerge.service.graph;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+class SendRetryPolicyTest {
+
+    @Test
+    void shouldGrowTheBackoffCeilingExponentiallyUpToTheMax() {
+        SendRetryPolicy worstCase = new SendRetryPolicy(5, Duration.ofSeconds(1), Duration.ofSeconds(10), () -> 0.999999);
+
+        assertThat(worstCase.backoff(1)).isBetween(Duration.ofMillis(990), Duration.ofSeconds(1));
+        assertThat(worstCase.backoff(2)).isBetween(Duration.ofMillis(1990), Duration.ofSeconds(2));
+        assertThat(worstCase.backoff(3)).isBetween(Duration.ofMillis(3990), Duration.ofSeconds(4));
+        assertThat(worstCase.backoff(10)).isBetween(Duration.ofMillis(9990), Duration.ofSeconds(10));
+        assertThat(worstCase.backoff(100)).isBetween(Duration.ofMillis(9990), Duration.ofSeconds(10));
+    }
+
+    @Test
+    void shouldJitterTheBackoff() {
+        SendRetryPolicy half = new SendRetryPolicy(5, Duration.ofSeconds(1), Duration.ofSeconds(10), () -> 0.5);
+        SendRetryPolicy none = new SendRetryPolicy(5, Duration.ofSeconds(1), Duration.ofSeconds(10), () -> 0.0);
+
+        assertThat(half.backoff(3)).isEqualTo(Duration.ofSeconds(2));
+        assertThat(none.backoff(3)).isZero();
+    }
+
+    @Test
+    void shouldClassifyTransientErrorsAsRetryable() {
+        assertThat(SendRetryPolicy.isRetryable(response(503))).isTrue();
+        assertThat(SendRetryPolicy.isRetryable(response(429))).isTrue();
+        assertThat(SendRetryPolicy.isRetryable(response(504))).isTrue();
+        assertThat(SendRetryPolicy.isRetryable(new RuntimeException(new IOException("connection reset")))).isTrue();
+        assertThat(
+            SendRetryPolicy.isRetryable(
+                new WebClientRequestException(new ConnectException("refused"), HttpMethod.POST, URI.create("https://graph"), new HttpHeaders())
+            )
+        ).isTrue();
+    }
+
+    @Test
+    void shouldClassifyClientErrorsAsFatal() {
+        assertThat(SendRetryPolicy.isRetryable(response(400))).isFalse();
+        assertThat(SendRetryPolicy.isRetryable(response(403))).isFalse();
+        assertThat(SendRetryPolicy.isRetryable(new IllegalArgumentException("bad"))).isFalse();
+        assertThat(SendRetryPolicy.isRetryable(new RuntimeException(new InterruptedException()))).isFalse();
+    }
+
+    @Test
+    void shouldTreatFailuresAfterTheRequestWentOutAsPossiblySent() {
+        assertThat(SendRetryPolicy.mayHaveBeenSent(response(500))).isTrue();
+        assertThat(SendRetryPolicy.mayHaveBeenSent(response(502))).isTrue();
+        assertThat(SendRetryPolicy.mayHaveBeenSent(response(504))).isTrue();
+        assertThat(SendRetryPolicy.mayHaveBeenSent(request(new TimeoutException("read timed out")))).isTrue();
+        assertThat(SendRetryPolicy.mayHaveBeenSent(request(new IOException("connection reset")))).isTrue();
+        assertThat(SendOutcome.of(response(504)).unconfirmed()).isTrue();
+    }
+
+    @Test
+    void shouldTreatThrottlingAndConnectFailuresAsNotSent() {
+        assertThat(SendRetryPolicy.mayHaveBeenSent(response(429))).isFalse();
+        assertThat(SendRetryPolicy.mayHaveBeenSent(response(503))).isFalse();
+        assertThat(SendRetryPolicy.mayHaveBeenSent(request(new ConnectException("refused")))).isFalse();
+        assertThat(SendRetryPolicy.mayHaveBeenSent(response(400))).isFalse();
+        assertThat(SendOutcome.of(response(429))).extracting(SendOutcome::retryable, SendOutcome::unconfirmed).containsExactly(true, false);
+    }
+
+    private static WebClientRequestException request(Throwable cause) {
+        return new WebClientRequestException(cause, HttpMethod.POST, URI.create("https://graph"), new HttpHeaders());
+    }
+
+    private static WebClientResponseException response(int status) {
+        return WebClientResponseException.create(status, "status " + status, new HttpHeaders(), new byte[0], StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,86 @@
+package mailmerge.service.merge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+class BoundedExecutorTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(8);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        pool.shutdownNow();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void shouldNeverRunMoreThanTheLimitAtOnceAndWaitForAllOnClose() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+
+        try (BoundedExecutor executor = new BoundedExecutor(pool, 3)) {
+            for (int i = 0; i < 30; i++) {
+                executor.submit(() -> {
+                    int now = inFlight.incrementAndGet();
+                    maxInFlight.accumulateAndGet(now, Math::max);
+                    sleep(5);
+                    inFlight.decrementAndGet();
+                    done.incrementAndGet();
+                });
+            }
+        }
+
+        assertThat(done.get()).isEqualTo(30);
+        assertThat(maxInFlight.get()).isBetween(1, 3);
+    }
+
+    @Test
+    void shouldReleaseTheSlotWhenATaskThrows() throws Exception {
+        AtomicInteger done = new AtomicInteger();
+
+        try (BoundedExecutor executor = new BoundedExecutor(pool, 1)) {
+            executor.submit(() -> {
+                throw new IllegalStateException("boom");
+            });
+            executor.submit(done::incrementAndGet);
+        }
+
+        assertThat(done.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldReleaseTheSlotWhenTheExecutorRejects() throws Exception {
+        BoundedExecutor executor = new BoundedExecutor(
+            task -> {
+                throw new TaskRejectedException("full");
+            },
+            1
+        );
+
+        assertThatThrownBy(() -> executor.submit(() -> {})).isInstanceOf(TaskRejectedException.class);
+        assertThatThrownBy(() -> executor.submit(() -> {})).isInstanceOf(TaskRejectedException.class);
+        executor.close();
+    }
+
+    @Test
+    void shouldRejectANonPositiveLimit() {
+        assertThatThrownBy(() -> new BoundedExecutor(pool, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package mailmerge.service.merge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class MailMergeJobTest {
+
+    @Test
+    void shouldStopGrantingRetriesOnceTheBudgetIsSpent() {
+        MailMergeJob job = new MailMergeJob("alice");
+        job.setRetryBudget(2);
+
+        assertThat(job.tryConsumeRetry()).isTrue();
+        assertThat(job.tryConsumeRetry()).isTrue();
+        assertThat(job.tryConsumeRetry()).isFalse();
+        assertThat(job.getRetryCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldCompleteOnlyOnceEnqueuedAndEveryRowIsProcessed() {
+        MailMergeJob job = new MailMergeJob("alice");
+        job.markRunning();
+        job.setTotalCount(3);
+
+        // The worker can finish the first rows before the sheet is fully read
+        job.recordSent(true);
+        job.recordSkipped();
+        assertThat(job.completeIfDone()).isFalse();
+
+        job.markEnqueued(3);
+        assertThat(job.completeIfDone()).isFalse();
+        assertThat(job.getStatus()).isEqualTo(MailMergeJob.Status.RUNNING);
+
+        job.recordSent(false);
+        assertThat(job.completeIfDone()).isTrue();
+        assertThat(job.completeIfDone()).isFalse();
+        assertThat(job.getStatus()).isEqualTo(MailMergeJob.Status.COMPLETED);
+        assertThat(job.getFailedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldOnlyMoveCountersForwardWhenSyncingWithTheOutbox() {
+        MailMergeJob job = new MailMergeJob("alice");
+        job.recordSkipped();
+        job.recordSent(true);
+        job.recordSent(true);
+
+        // This instance counted a row the database does not have yet
+        assertThat(job.syncOutbox(1, 0)).isFalse();
+        assertThat(job.getSentCount()).isEqualTo(2);
+
+        // Another instance sent a row and failed one
+        assertThat(job.syncOutbox(3, 1)).isTrue();
+        assertThat(job.getSentCount()).isEqualTo(3);
+        assertThat(job.getFailedCount()).isEqualTo(1);
+        assertThat(job.getProcessedCount()).isEqualTo(5);
+    }
+}
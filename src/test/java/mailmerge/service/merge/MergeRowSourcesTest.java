@@ -0,0 +1,234 @@
+package mailmerge.service.merge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.stream.Stream;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+class MergeRowSourcesTest {
+
+    private static final String XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    @Test
+    void shouldStreamXlsxWithDataFormatterFormatting() throws IOException {
+        byte[] xlsx = write(new XSSFWorkbook());
+
+        try (MergeRowSource rows = MergeRowSources.open(xlsx, XLSX)) {
+            assertThat(rows).isInstanceOf(XlsxRowSource.class);
+            // Estimated from <dimension ref="A1:H5">, so the missing row 3 is still counted
+            assertRows(rows, 4);
+        }
+    }
+
+    @Test
+    void shouldReadLegacyXlsWithTheSameFormatting() throws IOException {
+        byte[] xls = write(new HSSFWorkbook());
+
+        try (MergeRowSource rows = MergeRowSources.open(xls, "application/vnd.ms-excel")) {
+            assertThat(rows).isInstanceOf(WorkbookRowSource.class);
+            assertRows(rows, 3);
+        }
+    }
+
+    @Test
+    void shouldStreamLargeSheetsRowByRow() throws IOException {
+        int rowCount = 20_000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SXSSFWorkbook wb = new SXSSFWorkbook(100)) {
+            Sheet sheet = wb.createSheet();
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Email");
+            header.createCell(1).setCellValue("Index");
+            for (int i = 1; i <= rowCount; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("user" + i + "@example.com");
+                row.createCell(1).setCellValue(i);
+            }
+            wb.write(out);
+            wb.dispose();
+        }
+
+        try (MergeRowSource rows = MergeRowSources.open(out.toByteArray(), XLSX)) {
+            assertThat(rows.getEstimatedRowCount()).isEqualTo(rowCount);
+
+            int seen = 0;
+            String[] values;
+            String[] last = null;
+            while ((values = rows.nextRow()) != null) {
+                seen++;
+                last = values;
+            }
+
+            assertThat(seen).isEqualTo(rowCount);
+            assertThat(last).containsExactly("user" + rowCount + "@example.com", String.valueOf(rowCount));
+        }
+    }
+
+    @Test
+    void shouldReadCsvWithQuotedFieldsAndEmbeddedNewlines() throws IOException {
+        String csv =
+            "\uFEFF Name ,Email,Note\r\n" +
+            "Ada,ada@example.com,\"Line one\r\nline two, with comma\"\r\n" +
+            "\r\n" +
+            "\"O\"\"Brien\",,\"She said \"\"hi\"\"\",extra,columns\r\n" +
+            "Bob";
+
+        // Windows reports .csv uploads as application/vnd.ms-excel
+        try (MergeRowSource rows = MergeRowSources.open(csv.getBytes(StandardCharsets.UTF_8), "application/vnd.ms-excel")) {
+            assertThat(rows).isInstanceOf(DelimitedRowSource.class);
+            assertThat(rows.getHeaders()).containsExactly("Name", "Email", "Note");
+            // Line-based estimate: the quoted newline and the blank line are counted too
+            assertThat(rows.getEstimatedRowCount()).isEqualTo(5);
+
+            assertThat(rows.nextRow()).containsExactly("Ada", "ada@example.com", "Line one\r\nline two, with comma");
+            assertThat(rows.nextRow()).containsExactly("O\"Brien", "", "She said \"hi\"");
+            assertThat(rows.nextRow()).containsExactly("Bob", "", "");
+            assertThat(rows.nextRow()).isNull();
+        }
+    }
+
+    @Test
+    void shouldDetectSemicolonAndTabDelimiters() throws IOException {
+        try (MergeRowSource rows = MergeRowSources.open(utf8("Name;Score\nAda;9,5\n"), "text/csv")) {
+            assertThat(rows.getHeaders()).containsExactly("Name", "Score");
+            assertThat(rows.nextRow()).containsExactly("Ada", "9,5");
+            assertThat(rows.nextRow()).isNull();
+        }
+
+        // Excel "Unicode Text" export: UTF-16LE with BOM, tab separated
+        byte[] tsv = "\uFEFFName\tCity\r\nZoë\tKraków, PL\r\n".getBytes(Charset.forName("UTF-16LE"));
+        try (MergeRowSource rows = MergeRowSources.open(tsv, "text/plain")) {
+            assertThat(rows.getHeaders()).containsExactly("Name", "City");
+            assertThat(rows.getEstimatedRowCount()).isEqualTo(1);
+            assertThat(rows.nextRow()).containsExactly("Zoë", "Kraków, PL");
+            assertThat(rows.nextRow()).isNull();
+        }
+
+        // Declared TSV forces tab even when the header happens to contain commas
+        try (MergeRowSource rows = MergeRowSources.open(utf8("Last, First\tEmail\nLovelace, Ada\ta@b.c"), "text/tab-separated-values")) {
+            assertThat(rows.getHeaders()).containsExactly("Last, First", "Email");
+            assertThat(rows.nextRow()).containsExactly("Lovelace, Ada", "a@b.c");
+        }
+    }
+
+    @Test
+    void shouldStreamCsvRecordsAcrossBufferRefills() throws IOException {
+        int rowCount = 50_000;
+        String longNote = "x".repeat(200_000);
+        StringBuilder csv = new StringBuilder("Email,Index,Note\n");
+        for (int i = 1; i <= rowCount; i++) {
+            csv.append("user").append(i).append("@example.com,").append(i).append(',');
+            // One record larger than the initial buffer, quoted so it is re-scanned on refill
+            csv.append(i == 1_000 ? "\"" + longNote + "\"\"\"" : "n").append('\n');
+        }
+
+        try (MergeRowSource rows = MergeRowSources.open(utf8(csv.toString()), "text/csv")) {
+            assertThat(rows.getEstimatedRowCount()).isEqualTo(rowCount);
+
+            int seen = 0;
+            String[] values;
+            String[] last = null;
+            while ((values = rows.nextRow()) != null) {
+                seen++;
+                last = values;
+                if (seen == 1_000) assertThat(values[2]).hasSize(longNote.length() + 1).endsWith("x\"");
+            }
+
+            assertThat(seen).isEqualTo(rowCount);
+            assertThat(last).containsExactly("user" + rowCount + "@example.com", String.valueOf(rowCount), "n");
+        }
+    }
+
+    @Test
+    void shouldSpoolUploadStreamsAndDeleteTheTempFileOnClose() throws IOException {
+        byte[] xlsx = write(new XSSFWorkbook());
+        Path tmpDir = Path.of(System.getProperty("java.io.tmpdir"));
+        long before = countUploads(tmpDir);
+
+        try (MergeRowSource rows = MergeRowSources.open(new ByteArrayInputStream(xlsx), XLSX)) {
+            assertThat(countUploads(tmpDir)).isEqualTo(before + 1);
+            assertRows(rows, 4);
+        }
+        assertThat(countUploads(tmpDir)).isEqualTo(before);
+
+        try (MergeRowSource rows = MergeRowSources.open(new ByteArrayInputStream(utf8("Name\nAda\nBob\n")), "text/csv")) {
+            assertThat(rows.getEstimatedRowCount()).isEqualTo(2);
+            assertThat(rows.nextRow()).containsExactly("Ada");
+        }
+        assertThat(countUploads(tmpDir)).isEqualTo(before);
+    }
+
+    private static void assertRows(MergeRowSource rows, int estimatedRowCount) throws IOException {
+        assertThat(rows.getHeaders()).containsExactly("Name", "Email", "", "Score", "Joined");
+        assertThat(rows.getEstimatedRowCount()).isEqualTo(estimatedRowCount);
+
+        assertThat(rows.nextRow()).containsExactly("Ada", "ada@example.com", "", "91", "2024-03-01");
+        assertThat(rows.nextRow()).containsExactly("Bob", "", "", "7.5", "");
+        // Row 3 is missing entirely, so the next physical row is row 4
+        assertThat(rows.nextRow()).containsExactly("TRUE", "x@y.z", "", "", "");
+        assertThat(rows.nextRow()).isNull();
+    }
+
+    private static long countUploads(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().matches("mailmerge-.*\\.upload")).count();
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] write(Workbook wb) throws IOException {
+        try (wb) {
+            CellStyle dateStyle = wb.createCellStyle();
+            dateStyle.setDataFormat(wb.createDataFormat().getFormat("yyyy-mm-dd"));
+
+            Sheet sheet = wb.createSheet("People");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue(" Name ");
+            header.createCell(1).setCellValue("Email");
+            header.createCell(3).setCellValue("Score");
+            header.createCell(4).setCellValue("Joined");
+
+            Row ada = sheet.createRow(1);
+            ada.createCell(0).setCellValue("Ada");
+            ada.createCell(1).setCellValue("ada@example.com");
+            ada.createCell(3).setCellValue(91);
+            ada.createCell(4).setCellValue(LocalDate.of(2024, 3, 1));
+            ada.getCell(4).setCellStyle(dateStyle);
+            ada.createCell(7).setCellValue("ignored: past the last header");
+
+            Row bob = sheet.createRow(2);
+            bob.createCell(0).setCellValue("Bob");
+            bob.createCell(3).setCellFormula("15/2");
+            bob.getCell(3).setCellValue(7.5);
+
+            Row last = sheet.createRow(4);
+            last.createCell(0).setCellValue(true);
+            last.createCell(1).setCellValue("x@y.z");
+
+            // A second sheet must not be read
+            wb.createSheet("Other").createRow(0).createCell(0).setCellValue("nope");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            wb.write(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package mailmerge.service.merge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class MergeTemplateTest {
+
+    private static final List<String> HEADERS = List.of("Name", "Email", "Score");
+    private static final Map<String, Integer> COLUMNS = MergeTemplate.columnIndex(HEADERS);
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    @Test
+    void shouldReplaceTokensWithRowValues() {
+        MergeTemplate template = MergeTemplate.compile("Hi {{Name}}, you scored {{ Score }}!", COLUMNS);
+
+        assertThat(template.render(new String[] { "Ada", "ada@example.com", "91" }, buffer)).isEqualTo("Hi Ada, you scored 91!");
+        assertThat(template.render(new String[] { "Bob", "bob@example.com", "78" }, buffer)).isEqualTo("Hi Bob, you scored 78!");
+    }
+
+    @Test
+    void shouldKeepUnknownTokensAsText() {
+        MergeTemplate template = MergeTemplate.compile("{{Missing}} {{ {{Name}} {{Name", COLUMNS);
+
+        assertThat(template.render(new String[] { "Ada", "", "" }, buffer)).isEqualTo("{{Missing}} {{ Ada {{Name");
+    }
+
+    @Test
+    void shouldNotReinterpretTokensInsideValues() {
+        MergeTemplate template = MergeTemplate.compile("{{Name}}/{{Email}}", COLUMNS);
+
+        assertThat(template.render(new String[] { "{{Email}}", "x@y.z", "" }, buffer)).isEqualTo("{{Email}}/x@y.z");
+    }
+
+    @Test
+    void shouldRenderMissingCellsAsEmpty() {
+        MergeTemplate template = MergeTemplate.compile("[{{Score}}]", COLUMNS);
+
+        assertThat(template.render(new String[] { "Ada" }, buffer)).isEqualTo("[]");
+        assertThat(MergeTemplate.compile(null, COLUMNS).render(new String[0], buffer)).isEmpty();
+    }
+
+    @Test
+    void shouldUseRightMostColumnForDuplicateHeadersAndIgnoreBlankOnes() {
+        Map<String, Integer> columns = MergeTemplate.columnIndex(List.of("Name", " ", "Name"));
+
+        assertThat(columns).containsOnlyKeys("Name").containsEntry("Name", 2);
+    }
+
+    @Test
+    void shouldRenderAllTemplatesOfAJob() {
+        MergeTemplateSet templates = MergeTemplateSet.compile("Result for {{Name}}", "<p>{{Score}}</p>", "{{Email}}", "", null, HEADERS);
+
+        MergedMessage merged = templates.render(new String[] { "Ada", "ada@example.com", "91" });
+
+        assertThat(merged.getTo()).isEqualTo("ada@example.com");
+        assertThat(merged.getCc()).isEmpty();
+        assertThat(merged.getBcc()).isEmpty();
+        assertThat(merged.getSubject()).isEqualTo("Result for Ada");
+        assertThat(merged.getBody()).isEqualTo("<p>91</p>");
+        assertThat(merged.hasNoRecipient()).isFalse();
+    }
+
+    @Test
+    void shouldEvaluateIfBlocksPerRow() {
+        MergeTemplate template = MergeTemplate.compile("[[if {{Score}} >= 50]]Pass[[else]]Fail[[endif]]!", COLUMNS);
+
+        assertThat(template.render(new String[] { "Ada", "", "91.0" }, buffer)).isEqualTo("Pass!");
+        assertThat(template.render(new String[] { "Bob", "", "12" }, buffer)).isEqualTo("Fail!");
+    }
+
+    @Test
+    void shouldEvaluateNestedIfBlocks() {
+        MergeTemplate template = MergeTemplate.compile(
+            "[[if {{Name}} == \"Ada\"]]A[[else]][[if {{Score}} &gt; 50]]B[[else]]C[[endif]][[endif]]",
+            COLUMNS
+        );
+
+        assertThat(template.render(new String[] { "Ada", "", "0" }, buffer)).isEqualTo("A");
+        assertThat(template.render(new String[] { "Bob", "", "60" }, buffer)).isEqualTo("B");
+        assertThat(template.render(new String[] { "Bob", "", "40" }, buffer)).isEqualTo("C");
+    }
+
+    @Test
+    void shouldTreatBareWordsInIfBlocksAsEmptyAndTestTruthiness() {
+        MergeTemplate template = MergeTemplate.compile("[[if Name]]x[[endif]][[if {{Name}}]]y[[endif]][[if {{Score}}]]z[[endif]]", COLUMNS);
+
+        assertThat(template.render(new String[] { "Ada", "", "0" }, buffer)).isEqualTo("y");
+    }
+
+    @Test
+    void shouldDropStrayTagsAndKeepUnknownOnes() {
+        MergeTemplate template = MergeTemplate.compile("a[[endif]]b[[else]]c[[note]]", COLUMNS);
+
+        assertThat(template.render(new String[0], buffer)).isEqualTo("abc[[note]]");
+    }
+
+    @Test
+    void shouldEvaluateInlineConditionals() {
+        MergeTemplate template = MergeTemplate.compile(
+            "{{Score|>=|50|Well done {{Name}}|Sorry}} / {{Email|endsWith|\"@EXAMPLE.com\"|internal|external}} / {{Name|empty||none|some}}",
+            COLUMNS
+        );
+
+        assertThat(template.render(new String[] { "Ada", "ada@example.com", "91" }, buffer)).isEqualTo(
+            "Well done Ada / internal / some"
+        );
+        assertThat(template.render(new String[] { "", "bob@other.org", "3" }, buffer)).isEqualTo("Sorry / external / none");
+    }
+
+    @Test
+    void shouldDecodeHtmlEntitiesInInlineConditionals() {
+        MergeTemplate template = MergeTemplate.compile("{{Score|&gt;=|50|Pass|Fail}} / {{Name|==|Tom &amp; Jerry|duo|solo}}", COLUMNS);
+
+        assertThat(template.render(new String[] { "Tom & Jerry", "", "50" }, buffer)).isEqualTo("Pass / duo");
+        assertThat(template.render(new String[] { "Tom", "", "49" }, buffer)).isEqualTo("Fail / solo");
+    }
+
+    @Test
+    void shouldEvaluateNestedInlineConditionalsAndKeepApostrophes() {
+        MergeTemplate template = MergeTemplate.compile("{{Score|>|50|{{Score|>|90|Top|Good}}|You're below}}", COLUMNS);
+
+        assertThat(template.render(new String[] { "", "", "95" }, buffer)).isEqualTo("Top");
+        assertThat(template.render(new String[] { "", "", "70" }, buffer)).isEqualTo("Good");
+        assertThat(template.render(new String[] { "", "", "10" }, buffer)).isEqualTo("You're below");
+    }
+
+    @Test
+    void shouldCompareColumnsAgainstEachOtherAndQuotedPipes() {
+        MergeTemplate template = MergeTemplate.compile("{{Name|==|{{Email}}|same|\"a|b\"}}", COLUMNS);
+
+        assertThat(template.render(new String[] { "x", "x", "" }, buffer)).isEqualTo("same");
+        assertThat(template.render(new String[] { "x", "y", "" }, buffer)).isEqualTo("\"a|b\"");
+    }
+}
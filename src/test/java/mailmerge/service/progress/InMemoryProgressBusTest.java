@@ -0,0 +1,33 @@
+package mailmerge.service.progress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import mailmerge.service.dto.MailProgressEvent;
+import org.junit.jupiter.api.Test;
+
+class InMemoryProgressBusTest {
+
+    @Test
+    void shouldNumberEventsAboveThoseOfTheRunBeforeARestart() throws Exception {
+        List<Long> ids = new ArrayList<>();
+
+        InMemoryProgressBus before = new InMemoryProgressBus();
+        before.subscribe((id, login, event) -> ids.add(id));
+        for (int i = 0; i < 100; i++) {
+            before.publish("alice", event());
+        }
+
+        Thread.sleep(2);
+        InMemoryProgressBus after = new InMemoryProgressBus();
+        after.subscribe((id, login, event) -> ids.add(id));
+        after.publish("alice", event());
+
+        assertThat(ids).hasSize(101).isSorted().doesNotHaveDuplicates();
+    }
+
+    private static MailProgressEvent event() {
+        return new MailProgressEvent("job-1", null, true, 1, 2, "sent");
+    }
+}
@@ -0,0 +1,114 @@
+package mailmerge.service.progress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import mailmerge.IntegrationTest;
+import mailmerge.service.dto.MailProgressEvent;
+import mailmerge.service.dto.MailProgressEvent.RecentFailure;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Integration tests for {@link PostgresProgressBus}, against the PostgreSQL Testcontainer
+ * (prod build: {@code ./mvnw -Pprod verify}). A second bus on the same database stands in
+ * for another instance.
+ */
+@IntegrationTest
+@EnabledIfSystemProperty(named = "spring.profiles.active", matches = ".*testprod.*")
+@TestPropertySource(properties = "application.mail-merge.progress.bus=postgres")
+class PostgresProgressBusIT {
+
+    record Received(long id, String login, MailProgressEvent event) {}
+
+    @Autowired
+    private ProgressBus progressBus;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private PostgresProgressBus otherInstance;
+
+    private final BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void startOtherInstance() throws InterruptedException {
+        otherInstance = new PostgresProgressBus(dataSource, jdbcTemplate, transactionTemplate, objectMapper);
+        otherInstance.subscribe((id, login, event) -> received.add(new Received(id, login, event)));
+
+        // Its LISTEN runs on its own thread: publish until it hears something
+        for (int attempt = 0; attempt < 100 && received.isEmpty(); attempt++) {
+            progressBus.publish("warm-up", new MailProgressEvent("warm-up", "", true, 0, 0, "warm-up"));
+            Thread.sleep(100);
+        }
+        assertThat(received).as("other instance listening").isNotEmpty();
+        received.clear();
+    }
+
+    @AfterEach
+    void stopOtherInstance() {
+        otherInstance.stop();
+    }
+
+    @Test
+    void shouldDeliverEventsPublishedOnAnotherInstanceInOrder() throws InterruptedException {
+        assertThat(progressBus).isInstanceOf(PostgresProgressBus.class);
+
+        progressBus.publish("alice", new MailProgressEvent("job-1", "", true, 1, 2, "1 sent"));
+        progressBus.publish("alice", new MailProgressEvent("job-1", "", true, 2, 2, "2 sent"));
+
+        Received first = next();
+        Received second = next();
+        assertThat(first.login()).isEqualTo("alice");
+        assertThat(first.event().jobId).isEqualTo("job-1");
+        assertThat(List.of(first.event().message, second.event().message)).containsExactly("1 sent", "2 sent");
+        assertThat(second.id()).isGreaterThan(first.id());
+    }
+
+    @Test
+    void shouldLeaveOutRecentFailuresThatDoNotFitInANotification() throws InterruptedException {
+        MailProgressEvent snapshot = new MailProgressEvent("job-2", null, true, 10, 10, "Finished");
+        snapshot.failedCount = 10;
+        snapshot.recentFailures = new ArrayList<>();
+        for (int row = 1; row <= 10; row++) {
+            snapshot.recentFailures.add(new RecentFailure(row, "user" + row + "@example.com", "x".repeat(1000)));
+        }
+
+        progressBus.publish("alice", snapshot);
+
+        Received event = next();
+        assertThat(event.event().failedCount).isEqualTo(10);
+        assertThat(event.event().recentFailures).isNull();
+    }
+
+    /** The next notification, skipping late warm-up ones. */
+    private Received next() throws InterruptedException {
+        Received event;
+        do {
+            event = received.poll(10, TimeUnit.SECONDS);
+            assertThat(event).as("notification within 10s").isNotNull();
+        } while ("warm-up".equals(event.login()));
+        return event;
+    }
+}
@@ -0,0 +1,97 @@
+package mailmerge.service.progress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.sql.DataSource;
+import mailmerge.service.dto.MailProgressEvent;
+import mailmerge.service.dto.MailProgressEvent.RecentFailure;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The NOTIFY payload round trip of {@link PostgresProgressBus}, without a database (see
+ * PostgresProgressBusIT for LISTEN/NOTIFY itself).
+ */
+class PostgresProgressBusTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private PostgresProgressBus bus;
+
+    private final List<MailProgressEvent> received = new ArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        })
+            .when(transactionTemplate)
+            .executeWithoutResult(any());
+
+        bus = new PostgresProgressBus(mock(DataSource.class), jdbcTemplate, transactionTemplate, new ObjectMapper());
+        // Stopped first, so subscribing only registers the listener: its LISTEN thread exits at once
+        bus.stop();
+        bus.subscribe((id, login, event) -> received.add(event));
+    }
+
+    @Test
+    void shouldCarryTheLoginAndEventThroughANotification() {
+        MailProgressEvent snapshot = new MailProgressEvent("job-1", null, true, 3, 4, "3 sent");
+        snapshot.recentFailures = List.of(new RecentFailure(2, "bob@example.com", "invalid recipient"));
+
+        bus.publish("alice", snapshot);
+        bus.deliver("42:" + published());
+
+        assertThat(received).singleElement().satisfies(event -> {
+            assertThat(event.jobId).isEqualTo("job-1");
+            assertThat(event.sentCount).isEqualTo(3);
+            assertThat(event.recentFailures).extracting(failure -> failure.email).containsExactly("bob@example.com");
+        });
+    }
+
+    @Test
+    void shouldDropRecentFailuresFromPayloadsTooLargeToNotify() {
+        MailProgressEvent snapshot = new MailProgressEvent("job-2", null, true, 10, 10, "Finished");
+        snapshot.recentFailures = new ArrayList<>();
+        for (int row = 1; row <= 10; row++) {
+            snapshot.recentFailures.add(new RecentFailure(row, "user" + row + "@example.com", "x".repeat(1000)));
+        }
+
+        bus.publish("alice", snapshot);
+
+        assertThat(published()).hasSizeLessThan(8000).doesNotContain("recentFailures").contains("Finished");
+    }
+
+    @Test
+    void shouldIgnoreUnreadableNotifications() {
+        bus.deliver("not a notification");
+        bus.deliver("7:{not json");
+
+        assertThat(received).isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private String published() {
+        ArgumentCaptor<Object> payload = ArgumentCaptor.forClass(Object.class);
+        verify(jdbcTemplate).query(any(String.class), any(ResultSetExtractor.class), eq(PostgresProgressBus.CHANNEL), payload.capture());
+        return (String) payload.getValue();
+    }
+}
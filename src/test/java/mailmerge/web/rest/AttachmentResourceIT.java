@@ -3,21 +3,32 @@ package mailmerge.web.rest;
 import static mailmerge.domain.AttachmentAsserts.*;
 import static mailmerge.web.rest.TestUtil.createUpdateProxyForBean;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 import mailmerge.IntegrationTest;
 import mailmerge.domain.Attachment;
 import mailmerge.domain.Email;
 import mailmerge.domain.Project;
+import mailmerge.domain.User;
 import mailmerge.repository.AttachmentRepository;
+import mailmerge.service.blob.BlobRef;
+import mailmerge.service.blob.BlobStore;
 import mailmerge.service.dto.AttachmentDTO;
 import mailmerge.service.mapper.AttachmentMapper;
 import org.junit.jupiter.api.AfterEach;
@@ -25,7 +36,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.transaction.annotation.Transactional;
@@ -39,10 +52,12 @@ import org.springframework.transaction.annotation.Transactional;
 class AttachmentResourceIT {
 
     private static final byte[] DEFAULT_FILE = TestUtil.createByteArray(1, "0");
-    private static final byte[] UPDATED_FILE = TestUtil.createByteArray(1, "1");
+    private static final byte[] UPDATED_FILE = TestUtil.createByteArray(2, "1");
     private static final String DEFAULT_FILE_CONTENT_TYPE = "image/jpg";
     private static final String UPDATED_FILE_CONTENT_TYPE = "image/png";
 
+    private static final String OWNER_LOGIN = "attachment-owner";
+
     private static final String DEFAULT_NAME = "AAAAAAAAAA";
     private static final String UPDATED_NAME = "BBBBBBBBBB";
 
@@ -65,6 +80,9 @@ class AttachmentResourceIT {
     @Autowired
     private AttachmentMapper attachmentMapper;
 
+    @Autowired
+    private BlobStore blobStore;
+
     @Autowired
     private EntityManager em;
 
@@ -83,7 +101,6 @@ class AttachmentResourceIT {
      */
     public static Attachment createEntity() {
         return new Attachment()
-            .file(DEFAULT_FILE)
             .fileContentType(DEFAULT_FILE_CONTENT_TYPE)
             .fileContentType(DEFAULT_FILE_CONTENT_TYPE)
             .name(DEFAULT_NAME)
@@ -98,7 +115,6 @@ class AttachmentResourceIT {
      */
     public static Attachment createUpdatedEntity() {
         return new Attachment()
-            .file(UPDATED_FILE)
             .fileContentType(UPDATED_FILE_CONTENT_TYPE)
             .fileContentType(UPDATED_FILE_CONTENT_TYPE)
             .name(UPDATED_NAME)
@@ -106,8 +122,21 @@ class AttachmentResourceIT {
     }
 
     @BeforeEach
-    public void initTest() {
-        attachment = createEntity();
+    public void initTest() throws IOException {
+        attachment = withFile(createEntity(), DEFAULT_FILE);
+    }
+
+    /** Store {@code file} in the blob store and point the attachment at it. */
+    private Attachment withFile(Attachment attachment, byte[] file) throws IOException {
+        BlobRef blob = blobStore.put(file);
+        return attachment.fileBlobKey(blob.key()).fileSha256(blob.sha256()).size(blob.size());
+    }
+
+    /** The attachment's DTO carrying {@code file}, as the client sends it. */
+    private AttachmentDTO toDtoWithFile(Attachment attachment, byte[] file) {
+        AttachmentDTO dto = attachmentMapper.toDto(attachment);
+        dto.setFile(file);
+        return dto;
     }
 
     @AfterEach
@@ -123,7 +152,7 @@ class AttachmentResourceIT {
     void createAttachment() throws Exception {
         long databaseSizeBeforeCreate = getRepositoryCount();
         // Create the Attachment
-        AttachmentDTO attachmentDTO = attachmentMapper.toDto(attachment);
+        AttachmentDTO attachmentDTO = toDtoWithFile(attachment, DEFAULT_FILE);
         var returnedAttachmentDTO = om.readValue(
             restAttachmentMockMvc
                 .perform(
@@ -139,8 +168,15 @@ class AttachmentResourceIT {
         // Validate the Attachment in the database
         assertIncrementedRepositoryCount(databaseSizeBeforeCreate);
         var returnedAttachment = attachmentMapper.toEntity(returnedAttachmentDTO);
+        // The file's hash and size come from the blob store, not from the client
+        returnedAttachment.fileSha256(returnedAttachmentDTO.getFileSha256()).size(returnedAttachmentDTO.getSize());
         assertAttachmentUpdatableFieldsEquals(returnedAttachment, getPersistedAttachment(returnedAttachment));
 
+        // The row only points at the file; its bytes are in the blob store
+        Attachment persisted = getPersistedAttachment(returnedAttachment);
+        assertThat(persisted.getFileSha256()).isEqualTo(attachment.getFileSha256());
+        assertThat(blobStore.read(persisted.getFileBlobKey())).isEqualTo(DEFAULT_FILE);
+
         insertedAttachment = returnedAttachment;
     }
 
@@ -198,6 +234,33 @@ class AttachmentResourceIT {
             .andExpect(jsonPath("$.[*].size").value(hasItem(DEFAULT_SIZE.intValue())));
     }
 
+    @Test
+    @Transactional
+    void getAllAttachmentsByKeysetPages() throws Exception {
+        // Initialize the database: three attachments, after whatever the table already holds
+        Attachment first = attachmentRepository.saveAndFlush(attachment);
+        Attachment second = attachmentRepository.saveAndFlush(withFile(createEntity(), DEFAULT_FILE));
+        Attachment third = attachmentRepository.saveAndFlush(withFile(createEntity(), DEFAULT_FILE));
+        long before = first.getId() - 1;
+
+        // The first page is full: it links to the next one, which starts after its last id
+        restAttachmentMockMvc
+            .perform(get(ENTITY_API_URL + "?after={after}&size=2&id.lessThanOrEqual={last}", before, third.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(first.getId().intValue(), second.getId().intValue())))
+            // Keyset pages leave the files out: they are at /attachments/{id}/content
+            .andExpect(jsonPath("$.[0].file").doesNotExist())
+            .andExpect(jsonPath("$.[0].fileSha256").value(first.getFileSha256()))
+            .andExpect(header().string(HttpHeaders.LINK, containsString("after=" + second.getId() + "&size=2")))
+            .andExpect(header().doesNotExist("X-Total-Count"));
+
+        restAttachmentMockMvc
+            .perform(get(ENTITY_API_URL + "?after={after}&size=2&id.lessThanOrEqual={last}", second.getId(), third.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(third.getId().intValue())))
+            .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
     @Test
     @Transactional
     void getAttachment() throws Exception {
@@ -524,13 +587,12 @@ class AttachmentResourceIT {
         Attachment updatedAttachment = attachmentRepository.findById(attachment.getId()).orElseThrow();
         // Disconnect from session so that the updates on updatedAttachment are not directly saved in db
         em.detach(updatedAttachment);
-        updatedAttachment
-            .file(UPDATED_FILE)
+        withFile(updatedAttachment, UPDATED_FILE)
             .fileContentType(UPDATED_FILE_CONTENT_TYPE)
             .fileContentType(UPDATED_FILE_CONTENT_TYPE)
             .name(UPDATED_NAME)
             .size(UPDATED_SIZE);
-        AttachmentDTO attachmentDTO = attachmentMapper.toDto(updatedAttachment);
+        AttachmentDTO attachmentDTO = toDtoWithFile(updatedAttachment, UPDATED_FILE);
 
         restAttachmentMockMvc
             .perform(
@@ -652,8 +714,7 @@ class AttachmentResourceIT {
         Attachment partialUpdatedAttachment = new Attachment();
         partialUpdatedAttachment.setId(attachment.getId());
 
-        partialUpdatedAttachment
-            .file(UPDATED_FILE)
+        withFile(partialUpdatedAttachment, UPDATED_FILE)
             .fileContentType(UPDATED_FILE_CONTENT_TYPE)
             .fileContentType(UPDATED_FILE_CONTENT_TYPE)
             .name(UPDATED_NAME)
@@ -664,7 +725,7 @@ class AttachmentResourceIT {
                 patch(ENTITY_API_URL_ID, partialUpdatedAttachment.getId())
                     .with(csrf())
                     .contentType("application/merge-patch+json")
-                    .content(om.writeValueAsBytes(partialUpdatedAttachment))
+                    .content(om.writeValueAsBytes(toDtoWithFile(partialUpdatedAttachment, UPDATED_FILE)))
             )
             .andExpect(status().isOk());
 
@@ -757,6 +818,201 @@ class AttachmentResourceIT {
         assertDecrementedRepositoryCount(databaseSizeBeforeDelete);
     }
 
+    @Test
+    @Transactional
+    void uploadAttachmentsForProject() throws Exception {
+        Project project = ProjectResourceIT.createEntity();
+        em.persist(project);
+        em.flush();
+
+        long databaseSizeBeforeCreate = getRepositoryCount();
+        List<AttachmentDTO> attachmentDTOs = List.of(
+            toDtoWithFile(createEntity(), DEFAULT_FILE),
+            toDtoWithFile(createUpdatedEntity(), UPDATED_FILE)
+        );
+
+        restAttachmentMockMvc
+            .perform(
+                post(ENTITY_API_URL + "/project/{projectId}", project.getId())
+                    .with(csrf())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(om.writeValueAsBytes(attachmentDTOs))
+            )
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").isNotEmpty())
+            .andExpect(jsonPath("$.[*].name").value(contains(DEFAULT_NAME, UPDATED_NAME)))
+            .andExpect(jsonPath("$.[*].project.id").value(everyItem(is(project.getId().intValue()))));
+
+        assertThat(getRepositoryCount()).isEqualTo(databaseSizeBeforeCreate + 2);
+        assertThat(attachmentRepository.findByProject_Id(project.getId())).hasSize(2);
+    }
+
+    @Test
+    @Transactional
+    void uploadAttachmentsForProjectWithExistingId() throws Exception {
+        attachment.setId(1L);
+        long databaseSizeBeforeCreate = getRepositoryCount();
+
+        restAttachmentMockMvc
+            .perform(
+                post(ENTITY_API_URL + "/project/{projectId}", 1L)
+                    .with(csrf())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(om.writeValueAsBytes(List.of(attachmentMapper.toDto(attachment))))
+            )
+            .andExpect(status().isBadRequest());
+
+        assertSameRepositoryCount(databaseSizeBeforeCreate);
+    }
+
+    @Test
+    @Transactional
+    @WithMockUser(username = OWNER_LOGIN)
+    void uploadAttachmentFilesForProjectStoresSameContentOnce() throws Exception {
+        Project project = createOwnedProject();
+        long databaseSizeBeforeCreate = getRepositoryCount();
+
+        // The same brochure twice, plus another file
+        restAttachmentMockMvc
+            .perform(
+                multipart(ENTITY_API_URL + "/project/{projectId}", project.getId())
+                    .file(new MockMultipartFile("files", "brochure.pdf", "application/pdf", DEFAULT_FILE))
+                    .file(new MockMultipartFile("files", "brochure-copy.pdf", "application/pdf", DEFAULT_FILE))
+                    .file(new MockMultipartFile("files", "other.pdf", "application/pdf", UPDATED_FILE))
+                    .with(csrf())
+            )
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].name").value(contains("brochure.pdf", "brochure-copy.pdf", "other.pdf")))
+            .andExpect(jsonPath("$.[*].size").value(contains(DEFAULT_FILE.length, DEFAULT_FILE.length, UPDATED_FILE.length)));
+
+        assertThat(getRepositoryCount()).isEqualTo(databaseSizeBeforeCreate + 3);
+        List<Attachment> saved = attachmentRepository.findByProject_Id(project.getId());
+        BlobRef brochure = blobStore.put(DEFAULT_FILE);
+        assertThat(saved).filteredOn(a -> a.getName().startsWith("brochure")).extracting(Attachment::getFileBlobKey).containsOnly(brochure.key());
+        assertThat(blobStore.read(brochure.key())).isEqualTo(DEFAULT_FILE);
+    }
+
+    @Test
+    @Transactional
+    @WithMockUser(username = OWNER_LOGIN)
+    void uploadAttachmentsForProjectByHash() throws Exception {
+        Project project = createOwnedProject();
+        Attachment uploaded = withFile(createEntity(), DEFAULT_FILE).project(project);
+        em.persist(uploaded);
+        em.flush();
+
+        restAttachmentMockMvc.perform(head(ENTITY_API_URL + "/sha256/{sha256}", uploaded.getFileSha256())).andExpect(status().isOk());
+        restAttachmentMockMvc.perform(head(ENTITY_API_URL + "/sha256/{sha256}", "0".repeat(64))).andExpect(status().isNotFound());
+
+        // Attached again by hash alone: points at the same file
+        AttachmentDTO again = new AttachmentDTO();
+        again.setName(UPDATED_NAME);
+        again.setFileContentType(DEFAULT_FILE_CONTENT_TYPE);
+        again.setFileSha256(uploaded.getFileSha256());
+        restAttachmentMockMvc
+            .perform(
+                post(ENTITY_API_URL + "/project/{projectId}", project.getId())
+                    .with(csrf())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(om.writeValueAsBytes(List.of(again)))
+            )
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[0].fileSha256").value(uploaded.getFileSha256()))
+            .andExpect(jsonPath("$.[0].size").value(DEFAULT_FILE.length));
+
+        // Unknown content cannot be claimed by its hash
+        again.setFileSha256("0".repeat(64));
+        restAttachmentMockMvc
+            .perform(
+                post(ENTITY_API_URL + "/project/{projectId}", project.getId())
+                    .with(csrf())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(om.writeValueAsBytes(List.of(again)))
+            )
+            .andExpect(status().isBadRequest());
+
+        assertThat(attachmentRepository.findByProject_Id(project.getId()))
+            .extracting(Attachment::getFileBlobKey)
+            .containsOnly(uploaded.getFileBlobKey());
+    }
+
+    @Test
+    @Transactional
+    void getAttachmentsByProjectWithoutFiles() throws Exception {
+        Project project = ProjectResourceIT.createEntity();
+        em.persist(project);
+        insertedAttachment = attachmentRepository.saveAndFlush(attachment.project(project));
+
+        restAttachmentMockMvc
+            .perform(get(ENTITY_API_URL + "/project/{projectId}", project.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(attachment.getId().intValue())))
+            .andExpect(jsonPath("$.[0].fileSha256").value(attachment.getFileSha256()))
+            .andExpect(jsonPath("$.[0].size").value(DEFAULT_FILE.length))
+            .andExpect(jsonPath("$.[0].file").doesNotExist());
+    }
+
+    @Test
+    @Transactional
+    void getAttachmentContent() throws Exception {
+        byte[] content = "%PDF-1.4 brochure".getBytes(StandardCharsets.UTF_8);
+        insertedAttachment = attachmentRepository.saveAndFlush(withFile(createEntity(), content).name("brochure.pdf"));
+        String etag = "\"" + insertedAttachment.getFileSha256() + "\"";
+
+        restAttachmentMockMvc
+            .perform(get(ENTITY_API_URL_ID + "/content", insertedAttachment.getId()))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(DEFAULT_FILE_CONTENT_TYPE))
+            .andExpect(content().bytes(content))
+            .andExpect(header().string(HttpHeaders.ETAG, etag))
+            .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+            .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, containsString("brochure.pdf")));
+
+        // Unchanged since the client's copy
+        restAttachmentMockMvc
+            .perform(get(ENTITY_API_URL_ID + "/content", insertedAttachment.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(status().isNotModified());
+
+        // A range of the current version
+        restAttachmentMockMvc
+            .perform(
+                get(ENTITY_API_URL_ID + "/content", insertedAttachment.getId())
+                    .header(HttpHeaders.RANGE, "bytes=0-7")
+                    .header(HttpHeaders.IF_RANGE, etag)
+            )
+            .andExpect(status().isPartialContent())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-7/" + content.length))
+            .andExpect(content().bytes(Arrays.copyOfRange(content, 0, 8)));
+
+        // A range of another version: the whole file instead
+        restAttachmentMockMvc
+            .perform(
+                get(ENTITY_API_URL_ID + "/content", insertedAttachment.getId())
+                    .header(HttpHeaders.RANGE, "bytes=0-7")
+                    .header(HttpHeaders.IF_RANGE, "\"" + "0".repeat(64) + "\"")
+            )
+            .andExpect(status().isOk())
+            .andExpect(content().bytes(content));
+    }
+
+    @Test
+    @Transactional
+    void getNonExistingAttachmentContent() throws Exception {
+        restAttachmentMockMvc.perform(get(ENTITY_API_URL_ID + "/content", Long.MAX_VALUE)).andExpect(status().isNotFound());
+    }
+
+    /** A project of the user {@link #OWNER_LOGIN}, whose uploads can be reused by hash. */
+    private Project createOwnedProject() {
+        User owner = UserResourceIT.createEntity();
+        owner.setLogin(OWNER_LOGIN);
+        em.persist(owner);
+        Project project = ProjectResourceIT.createEntity();
+        project.setUser(owner);
+        em.persist(project);
+        em.flush();
+        return project;
+    }
+
     protected long getRepositoryCount() {
         return attachmentRepository.count();
     }
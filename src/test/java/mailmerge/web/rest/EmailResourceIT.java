@@ -3,6 +3,8 @@ package mailmerge.web.rest;
 import static mailmerge.domain.EmailAsserts.*;
 import static mailmerge.web.rest.TestUtil.createUpdateProxyForBean;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -26,6 +28,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
@@ -217,6 +220,30 @@ class EmailResourceIT {
             .andExpect(jsonPath("$.[*].sentAt").value(hasItem(DEFAULT_SENT_AT.toString())));
     }
 
+    @Test
+    @Transactional
+    void getAllEmailsByKeysetPages() throws Exception {
+        // Initialize the database: three emails, after whatever the table already holds
+        Email first = emailRepository.saveAndFlush(createEntity());
+        Email second = emailRepository.saveAndFlush(createEntity());
+        Email third = emailRepository.saveAndFlush(createEntity());
+        long before = first.getId() - 1;
+
+        // The first page is full: it links to the next one, which starts after its last id
+        restEmailMockMvc
+            .perform(get(ENTITY_API_URL + "?after={after}&size=2&id.lessThanOrEqual={last}", before, third.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(first.getId().intValue(), second.getId().intValue())))
+            .andExpect(header().string(HttpHeaders.LINK, containsString("after=" + second.getId() + "&size=2")))
+            .andExpect(header().doesNotExist("X-Total-Count"));
+
+        restEmailMockMvc
+            .perform(get(ENTITY_API_URL + "?after={after}&size=2&id.lessThanOrEqual={last}", second.getId(), third.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(third.getId().intValue())))
+            .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
     @Test
     @Transactional
     void getEmail() throws Exception {
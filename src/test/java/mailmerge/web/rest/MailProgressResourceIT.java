@@ -0,0 +1,89 @@
+package mailmerge.web.rest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import mailmerge.IntegrationTest;
+import mailmerge.service.MailProgressService;
+import mailmerge.service.dto.MailProgressEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+/**
+ * Integration tests for the {@link MailProgressResource} REST controller.
+ */
+@AutoConfigureMockMvc
+@IntegrationTest
+class MailProgressResourceIT {
+
+    @Autowired
+    private MockMvc restMailProgressMockMvc;
+
+    @Autowired
+    private MailProgressService progressService;
+
+    @Test
+    @WithMockUser("alice")
+    void shouldStreamOnlyTheSubscribedJobOfTheCurrentUser() throws Exception {
+        MvcResult job = restMailProgressMockMvc.perform(get("/api/mail-progress/stream?jobId=job-a")).andExpect(request().asyncStarted()).andReturn();
+        MvcResult all = restMailProgressMockMvc.perform(get("/api/mail-progress/stream")).andExpect(request().asyncStarted()).andReturn();
+
+        progressService.sendProgress("alice", new MailProgressEvent("job-a", "a@example.com", true, 1, 2, "sent a"));
+        progressService.sendProgress("alice", new MailProgressEvent("job-b", "b@example.com", true, 1, 2, "sent b"));
+        progressService.sendProgress("alice", new MailProgressEvent("test@example.com", true, 1, 1, "test send"));
+        progressService.sendProgress("bob", new MailProgressEvent("job-a", "bob@example.com", true, 1, 1, "sent by bob"));
+
+        assertThat(awaitContent(job, "sent a")).doesNotContain("sent b", "test send", "sent by bob");
+        assertThat(awaitContent(all, "sent a", "sent b", "test send")).doesNotContain("sent by bob");
+    }
+
+    @Test
+    @WithMockUser("carol")
+    void shouldReplayMissedEventsOnReconnect() throws Exception {
+        progressService.sendProgress("carol", new MailProgressEvent("job-r", "", true, 1, 3, "first snapshot"));
+        progressService.sendProgress("carol", new MailProgressEvent("job-r", "", true, 2, 3, "second snapshot"));
+
+        // A new job stream starts from what the job's buffer holds
+        MvcResult job = restMailProgressMockMvc.perform(get("/api/mail-progress/stream?jobId=job-r")).andExpect(request().asyncStarted()).andReturn();
+        String replayed = awaitContent(job, "first snapshot", "second snapshot");
+
+        // A reconnect gets only what came after its Last-Event-ID, then live events
+        Matcher firstId = Pattern.compile("id:(\\d+)").matcher(replayed);
+        assertThat(firstId.find()).isTrue();
+        MvcResult reconnected = restMailProgressMockMvc
+            .perform(get("/api/mail-progress/stream").header("Last-Event-ID", firstId.group(1)))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        progressService.sendProgress("carol", new MailProgressEvent("job-r", "", true, 3, 3, "final snapshot"));
+
+        assertThat(awaitContent(reconnected, "second snapshot", "final snapshot")).doesNotContain("first snapshot");
+    }
+
+    @Test
+    @WithUnauthenticatedMockUser
+    void shouldRequireALogin() throws Exception {
+        restMailProgressMockMvc.perform(get("/api/mail-progress/stream")).andExpect(status().isUnauthorized());
+    }
+
+    /** The stream's content once it contains {@code expected} (events are written by the SSE dispatcher threads). */
+    private static String awaitContent(MvcResult result, String... expected) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        String content = result.getResponse().getContentAsString();
+        while (!Stream.of(expected).allMatch(content::contains) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            content = result.getResponse().getContentAsString();
+        }
+        assertThat(content).contains(expected);
+        return content;
+    }
+}
@@ -3,7 +3,11 @@ package mailmerge.web.rest;
 import static mailmerge.domain.ProjectAsserts.*;
 import static mailmerge.web.rest.TestUtil.createUpdateProxyForBean;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.Mockito.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -11,6 +15,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.persistence.EntityManager;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -24,6 +29,8 @@ import mailmerge.domain.enumeration.EmailStatus;
 import mailmerge.repository.ProjectRepository;
 import mailmerge.repository.UserRepository;
 import mailmerge.service.ProjectService;
+import mailmerge.service.blob.BlobRef;
+import mailmerge.service.blob.BlobStore;
 import mailmerge.service.dto.ProjectDTO;
 import mailmerge.service.mapper.ProjectMapper;
 import org.junit.jupiter.api.AfterEach;
@@ -36,6 +43,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
@@ -103,6 +111,9 @@ class ProjectResourceIT {
     @Autowired
     private ProjectMapper projectMapper;
 
+    @Autowired
+    private BlobStore blobStore;
+
     @Mock
     private ProjectService projectServiceMock;
 
@@ -125,7 +136,6 @@ class ProjectResourceIT {
     public static Project createEntity() {
         return new Project()
             .name(DEFAULT_NAME)
-            .spreadsheetLink(DEFAULT_SPREADSHEET_LINK)
             .spreadsheetLinkContentType(DEFAULT_SPREADSHEET_LINK_CONTENT_TYPE)
             .spreadsheetFileContentType(DEFAULT_SPREADSHEET_FILE_CONTENT_TYPE)
             .toField(DEFAULT_TO_FIELD)
@@ -146,7 +156,6 @@ class ProjectResourceIT {
     public static Project createUpdatedEntity() {
         return new Project()
             .name(UPDATED_NAME)
-            .spreadsheetLink(UPDATED_SPREADSHEET_LINK)
             .spreadsheetLinkContentType(UPDATED_SPREADSHEET_LINK_CONTENT_TYPE)
             .spreadsheetFileContentType(UPDATED_SPREADSHEET_FILE_CONTENT_TYPE)
             .toField(UPDATED_TO_FIELD)
@@ -159,8 +168,21 @@ class ProjectResourceIT {
     }
 
     @BeforeEach
-    public void initTest() {
-        project = createEntity();
+    public void initTest() throws IOException {
+        project = withSpreadsheet(createEntity(), DEFAULT_SPREADSHEET_LINK);
+    }
+
+    /** Store {@code spreadsheet} in the blob store and point the project at it. */
+    private Project withSpreadsheet(Project project, byte[] spreadsheet) throws IOException {
+        BlobRef blob = blobStore.put(spreadsheet);
+        return project.spreadsheetBlobKey(blob.key()).spreadsheetSize(blob.size()).spreadsheetSha256(blob.sha256());
+    }
+
+    /** The project's DTO carrying {@code spreadsheet}, as the client sends it. */
+    private ProjectDTO toDtoWithSpreadsheet(Project project, byte[] spreadsheet) {
+        ProjectDTO dto = projectMapper.toDto(project);
+        dto.setSpreadsheetLink(spreadsheet);
+        return dto;
     }
 
     @AfterEach
@@ -177,7 +199,7 @@ class ProjectResourceIT {
     void createProject() throws Exception {
         long databaseSizeBeforeCreate = getRepositoryCount();
         // Create the Project
-        ProjectDTO projectDTO = projectMapper.toDto(project);
+        ProjectDTO projectDTO = toDtoWithSpreadsheet(project, DEFAULT_SPREADSHEET_LINK);
         var returnedProjectDTO = om.readValue(
             restProjectMockMvc
                 .perform(
@@ -193,8 +215,15 @@ class ProjectResourceIT {
         // Validate the Project in the database
         assertIncrementedRepositoryCount(databaseSizeBeforeCreate);
         var returnedProject = projectMapper.toEntity(returnedProjectDTO);
+        // The spreadsheet's hash and size come from the blob store, not from the client
+        returnedProject.spreadsheetSha256(returnedProjectDTO.getSpreadsheetSha256()).spreadsheetSize(returnedProjectDTO.getSpreadsheetSize());
         assertProjectUpdatableFieldsEquals(returnedProject, getPersistedProject(returnedProject));
 
+        // The row only points at the spreadsheet; its bytes are in the blob store
+        Project persisted = getPersistedProject(returnedProject);
+        assertThat(persisted.getSpreadsheetSha256()).isEqualTo(project.getSpreadsheetSha256());
+        assertThat(blobStore.read(persisted.getSpreadsheetBlobKey())).isEqualTo(DEFAULT_SPREADSHEET_LINK);
+
         insertedProject = returnedProject;
     }
 
@@ -247,7 +276,10 @@ class ProjectResourceIT {
             .andExpect(jsonPath("$.[*].id").value(hasItem(project.getId().intValue())))
             .andExpect(jsonPath("$.[*].name").value(hasItem(DEFAULT_NAME)))
             .andExpect(jsonPath("$.[*].spreadsheetLinkContentType").value(hasItem(DEFAULT_SPREADSHEET_LINK_CONTENT_TYPE)))
-            .andExpect(jsonPath("$.[*].spreadsheetLink").value(hasItem(Base64.getEncoder().encodeToString(DEFAULT_SPREADSHEET_LINK))))
+            // Lists leave the spreadsheet's bytes out
+            .andExpect(jsonPath("$.[*].spreadsheetLink").value(everyItem(nullValue())))
+            .andExpect(jsonPath("$.[*].spreadsheetSha256").value(hasItem(project.getSpreadsheetSha256())))
+            .andExpect(jsonPath("$.[*].spreadsheetSize").value(hasItem(DEFAULT_SPREADSHEET_LINK.length)))
             .andExpect(jsonPath("$.[*].spreadsheetFileContentType").value(hasItem(DEFAULT_SPREADSHEET_FILE_CONTENT_TYPE)))
             .andExpect(jsonPath("$.[*].toField").value(hasItem(DEFAULT_TO_FIELD.toString())))
             .andExpect(jsonPath("$.[*].ccField").value(hasItem(DEFAULT_CC_FIELD.toString())))
@@ -258,6 +290,31 @@ class ProjectResourceIT {
             .andExpect(jsonPath("$.[*].sentAt").value(hasItem(DEFAULT_SENT_AT.toString())));
     }
 
+    @Test
+    @Transactional
+    void getAllProjectsByKeysetPages() throws Exception {
+        // Initialize the database: three projects, after whatever the table already holds
+        Project first = projectRepository.saveAndFlush(project);
+        Project second = projectRepository.saveAndFlush(withSpreadsheet(createEntity(), DEFAULT_SPREADSHEET_LINK));
+        Project third = projectRepository.saveAndFlush(withSpreadsheet(createEntity(), DEFAULT_SPREADSHEET_LINK));
+        long before = first.getId() - 1;
+
+        // The first page is full: it links to the next one, which starts after its last id
+        restProjectMockMvc
+            .perform(get(ENTITY_API_URL + "?after={after}&size=2&id.lessThanOrEqual={last}", before, third.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(first.getId().intValue(), second.getId().intValue())))
+            .andExpect(jsonPath("$.[*].spreadsheetLink").value(everyItem(nullValue())))
+            .andExpect(header().string(HttpHeaders.LINK, containsString("after=" + second.getId() + "&size=2")))
+            .andExpect(header().doesNotExist("X-Total-Count"));
+
+        restProjectMockMvc
+            .perform(get(ENTITY_API_URL + "?after={after}&size=2&id.lessThanOrEqual={last}", second.getId(), third.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(third.getId().intValue())))
+            .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
     @SuppressWarnings({ "unchecked" })
     void getAllProjectsWithEagerRelationshipsIsEnabled() throws Exception {
         when(projectServiceMock.findAllWithEagerRelationships(any())).thenReturn(new PageImpl(new ArrayList<>()));
@@ -311,6 +368,38 @@ class ProjectResourceIT {
             .andExpect(jsonPath("$.sentAt").value(DEFAULT_SENT_AT.toString()));
     }
 
+    @Test
+    @Transactional
+    @WithMockUser(username = "user")
+    void getMyProjectsAsSummaries() throws Exception {
+        User currentUser = userRepository.findOneByLogin("user").orElseGet(() -> {
+            User newUser = new User();
+            newUser.setId(String.valueOf(1L));
+            newUser.setLogin("user");
+            newUser.setActivated(true);
+            return userRepository.saveAndFlush(newUser);
+        });
+        project.setUser(currentUser);
+        insertedProject = projectRepository.saveAndFlush(project);
+        em.persist(AttachmentResourceIT.createEntity().size(300L).project(project));
+        em.persist(AttachmentResourceIT.createEntity().size(45L).project(project));
+        em.flush();
+
+        // Only what the sidebar shows, and sizes instead of bytes
+        restProjectMockMvc
+            .perform(get(ENTITY_API_URL + "/my"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(1))
+            .andExpect(jsonPath("$[0].id").value(project.getId().intValue()))
+            .andExpect(jsonPath("$[0].name").value(DEFAULT_NAME))
+            .andExpect(jsonPath("$[0].status").value(DEFAULT_STATUS.toString()))
+            .andExpect(jsonPath("$[0].sentAt").value(DEFAULT_SENT_AT.toString()))
+            .andExpect(jsonPath("$[0].spreadsheetSize").value(DEFAULT_SPREADSHEET_LINK.length))
+            .andExpect(jsonPath("$[0].attachmentsSize").value(345))
+            .andExpect(jsonPath("$[0].spreadsheetLink").doesNotExist())
+            .andExpect(jsonPath("$[0].content").doesNotExist());
+    }
+
     @Test
     @Transactional
     void getProjectsByIdFiltering() throws Exception {
@@ -536,7 +625,10 @@ class ProjectResourceIT {
             .andExpect(jsonPath("$.[*].id").value(hasItem(project.getId().intValue())))
             .andExpect(jsonPath("$.[*].name").value(hasItem(DEFAULT_NAME)))
             .andExpect(jsonPath("$.[*].spreadsheetLinkContentType").value(hasItem(DEFAULT_SPREADSHEET_LINK_CONTENT_TYPE)))
-            .andExpect(jsonPath("$.[*].spreadsheetLink").value(hasItem(Base64.getEncoder().encodeToString(DEFAULT_SPREADSHEET_LINK))))
+            // Lists leave the spreadsheet's bytes out
+            .andExpect(jsonPath("$.[*].spreadsheetLink").value(everyItem(nullValue())))
+            .andExpect(jsonPath("$.[*].spreadsheetSha256").value(hasItem(project.getSpreadsheetSha256())))
+            .andExpect(jsonPath("$.[*].spreadsheetSize").value(hasItem(DEFAULT_SPREADSHEET_LINK.length)))
             .andExpect(jsonPath("$.[*].spreadsheetFileContentType").value(hasItem(DEFAULT_SPREADSHEET_FILE_CONTENT_TYPE)))
             .andExpect(jsonPath("$.[*].toField").value(hasItem(DEFAULT_TO_FIELD.toString())))
             .andExpect(jsonPath("$.[*].ccField").value(hasItem(DEFAULT_CC_FIELD.toString())))
@@ -592,9 +684,8 @@ class ProjectResourceIT {
         Project updatedProject = projectRepository.findById(project.getId()).orElseThrow();
         // Disconnect from session so that the updates on updatedProject are not directly saved in db
         em.detach(updatedProject);
-        updatedProject
+        withSpreadsheet(updatedProject, UPDATED_SPREADSHEET_LINK)
             .name(UPDATED_NAME)
-            .spreadsheetLink(UPDATED_SPREADSHEET_LINK)
             .spreadsheetLinkContentType(UPDATED_SPREADSHEET_LINK_CONTENT_TYPE)
             .spreadsheetFileContentType(UPDATED_SPREADSHEET_FILE_CONTENT_TYPE)
             .toField(UPDATED_TO_FIELD)
@@ -604,7 +695,7 @@ class ProjectResourceIT {
             .content(UPDATED_CONTENT)
             .status(UPDATED_STATUS)
             .sentAt(UPDATED_SENT_AT);
-        ProjectDTO projectDTO = projectMapper.toDto(updatedProject);
+        ProjectDTO projectDTO = toDtoWithSpreadsheet(updatedProject, UPDATED_SPREADSHEET_LINK);
 
         restProjectMockMvc
             .perform(
@@ -729,9 +820,8 @@ class ProjectResourceIT {
         Project partialUpdatedProject = new Project();
         partialUpdatedProject.setId(project.getId());
 
-        partialUpdatedProject
+        withSpreadsheet(partialUpdatedProject, UPDATED_SPREADSHEET_LINK)
             .name(UPDATED_NAME)
-            .spreadsheetLink(UPDATED_SPREADSHEET_LINK)
             .spreadsheetLinkContentType(UPDATED_SPREADSHEET_LINK_CONTENT_TYPE)
             .spreadsheetFileContentType(UPDATED_SPREADSHEET_FILE_CONTENT_TYPE)
             .toField(UPDATED_TO_FIELD)
@@ -747,7 +837,7 @@ class ProjectResourceIT {
                 patch(ENTITY_API_URL_ID, partialUpdatedProject.getId())
                     .with(csrf())
                     .contentType("application/merge-patch+json")
-                    .content(om.writeValueAsBytes(partialUpdatedProject))
+                    .content(om.writeValueAsBytes(toDtoWithSpreadsheet(partialUpdatedProject, UPDATED_SPREADSHEET_LINK)))
             )
             .andExpect(status().isOk());
 